@@ -1,69 +1,142 @@
 #include <jni.h>
-#include <android/log.h>
-#include <cstring>
-#include <cmath>
+#include <cstdint>
+#include <thread>
+
+#include "ParallelSobel.h"
+#include "SobelKernel.h"
+#include "WorkerPool.h"
 
+#ifdef __ANDROID__
+#include <android/log.h>
 #define LOG_TAG "EdgeDetection"
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#else
+#define LOGD(...) ((void) 0)
+#endif
 
-// Simple edge detection using Sobel operator
-extern "C" {
+// JNI entry points for com.edgedetection.core.NativeSobel. The source is
+// always a direct ByteBuffer (the camera's Y plane) read in place through
+// GetDirectBufferAddress; the destination is either a direct ByteBuffer
+// or a byte[] pinned with GetPrimitiveArrayCritical. Bounds are checked
+// on the Java side before the call.
+//
+// Frames are split into row tiles across the WorkerPool started in
+// JNI_OnLoad; only the calling (Java) thread ever talks to JNI.
+
+namespace {
+
+// Layout of the int[] the Java side passes for results
+constexpr int RESULT_EDGE_COUNT = 0;
+constexpr int RESULT_MAX_SQUARED = 1;
+constexpr int RESULT_MIN_SQUARED = 2;
+constexpr int RESULT_LENGTH = 3;
+
+void writeResult(JNIEnv *env, jintArray out, const SobelResult &result) {
+    jint values[RESULT_LENGTH];
+    values[RESULT_EDGE_COUNT] = result.edgeCount;
+    values[RESULT_MAX_SQUARED] = result.maxSquared;
+    values[RESULT_MIN_SQUARED] = result.minSquared;
+    env->SetIntArrayRegion(out, 0, RESULT_LENGTH, values);
+}
 
-JNIEXPORT void JNICALL
-Java_com_edgedetection_MainActivity_processFrame(
-        JNIEnv *env,
-        jobject thiz,
-        jbyteArray inputFrame,
-        jint width,
-        jint height,
-        jbyteArray outputFrame,
-        jint mode) {
-
-    jbyte *inputData = env->GetByteArrayElements(inputFrame, nullptr);
-    jbyte *outputData = env->GetByteArrayElements(outputFrame, nullptr);
-
-    try {
-        // NV21 format: Y plane followed by interleaved UV
-        int ySize = width * height;
-        
-        if (mode == 1) {
-            // Edge detection mode - process Y plane only
-            unsigned char *yData = (unsigned char *)inputData;
-            unsigned char *output = (unsigned char *)outputData;
-            
-            // Copy Y plane
-            memcpy(output, inputData, ySize + ySize / 2);
-            
-            // Apply simple edge detection on Y plane
-            for (int y = 1; y < height - 1; y++) {
-                for (int x = 1; x < width - 1; x++) {
-                    int idx = y * width + x;
-                    
-                    // Sobel operator
-                    int gx = (-1 * yData[(y-1)*width + (x-1)]) + (1 * yData[(y-1)*width + (x+1)]) +
-                             (-2 * yData[y*width + (x-1)]) + (2 * yData[y*width + (x+1)]) +
-                             (-1 * yData[(y+1)*width + (x-1)]) + (1 * yData[(y+1)*width + (x+1)]);
-                    
-                    int gy = (-1 * yData[(y-1)*width + (x-1)]) + (-2 * yData[(y-1)*width + x]) + (-1 * yData[(y-1)*width + (x+1)]) +
-                             (1 * yData[(y+1)*width + (x-1)]) + (2 * yData[(y+1)*width + x]) + (1 * yData[(y+1)*width + (x+1)]);
-                    
-                    int magnitude = (int)sqrt(gx*gx + gy*gy);
-                    output[idx] = magnitude > 128 ? 255 : 0;
-                }
-            }
-        } else {
-            // Normal mode - pass through
-            memcpy(outputData, inputData, ySize + ySize / 2);
+bool run(JNIEnv *env, const uint8_t *src, jint srcRowStride, uint8_t *dst,
+         jint width, jint height, jint squaredThreshold, jint isa, jint threads,
+         jintArray histogram, SobelResult *result) {
+    int32_t *bins = nullptr;
+    if (histogram != nullptr) {
+        bins = static_cast<int32_t *>(env->GetPrimitiveArrayCritical(histogram, nullptr));
+        if (bins == nullptr) {
+            return false;
         }
-        
-        LOGD("Frame processed: %dx%d mode=%d", width, height, mode);
-        
-    } catch (...) {
-        LOGD("Error processing frame");
     }
+    sobelThresholdParallel(WorkerPool::global(), src, srcRowStride, dst, width, width, height,
+                           squaredThreshold, isa, threads, bins, result);
+    if (bins != nullptr) {
+        env->ReleasePrimitiveArrayCritical(histogram, bins, 0);
+    }
+    return true;
+}
+
+} // namespace
+
+extern "C" {
+
+JNIEXPORT jint JNICALL
+Java_com_edgedetection_core_NativeSobel_nativeBestIsa(JNIEnv *, jclass) {
+    return sobelBestIsa();
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_edgedetection_core_NativeSobel_nativeIsaSupported(JNIEnv *, jclass, jint isa) {
+    return sobelIsaSupported(isa) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_edgedetection_core_NativeSobel_nativeThreadCount(JNIEnv *, jclass) {
+    return WorkerPool::global().participants();
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_edgedetection_core_NativeSobel_nativeApplyToBuffer(
+        JNIEnv *env, jclass,
+        jobject src, jint srcOffset, jint srcRowStride,
+        jobject dst, jint dstOffset,
+        jint width, jint height, jint squaredThreshold, jint isa, jint threads,
+        jintArray histogram, jintArray resultOut) {
+    auto *srcBase = static_cast<const uint8_t *>(env->GetDirectBufferAddress(src));
+    auto *dstBase = static_cast<uint8_t *>(env->GetDirectBufferAddress(dst));
+    if (srcBase == nullptr || dstBase == nullptr) {
+        return JNI_FALSE;
+    }
+    SobelResult result;
+    if (!run(env, srcBase + srcOffset, srcRowStride, dstBase + dstOffset,
+             width, height, squaredThreshold, isa, threads, histogram, &result)) {
+        return JNI_FALSE;
+    }
+    writeResult(env, resultOut, result);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_edgedetection_core_NativeSobel_nativeApplyToArray(
+        JNIEnv *env, jclass,
+        jobject src, jint srcOffset, jint srcRowStride,
+        jbyteArray dst,
+        jint width, jint height, jint squaredThreshold, jint isa, jint threads,
+        jintArray histogram, jintArray resultOut) {
+    auto *srcBase = static_cast<const uint8_t *>(env->GetDirectBufferAddress(src));
+    if (srcBase == nullptr) {
+        return JNI_FALSE;
+    }
+    // Pinned, not copied, on ART and HotSpot; no JNI calls until released
+    // except the (also critical) histogram pin inside run()
+    auto *dstBase = static_cast<uint8_t *>(env->GetPrimitiveArrayCritical(dst, nullptr));
+    if (dstBase == nullptr) {
+        return JNI_FALSE;
+    }
+    SobelResult result;
+    bool ok = run(env, srcBase + srcOffset, srcRowStride, dstBase,
+                  width, height, squaredThreshold, isa, threads, histogram, &result);
+    env->ReleasePrimitiveArrayCritical(dst, dstBase, 0);
+    if (!ok) {
+        return JNI_FALSE;
+    }
+    writeResult(env, resultOut, result);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *, void *) {
+    // The calling thread is a participant too, so one worker per extra core
+    int cores = (int) std::thread::hardware_concurrency();
+    WorkerPool &pool = WorkerPool::global();
+    pool.start(cores > 1 ? cores - 1 : 0);
+    sobelParallelPrepare(pool);
+    LOGD("libedgedetector loaded, best ISA %s, %d threads", sobelIsaName(sobelBestIsa()), pool.participants());
+    return JNI_VERSION_1_6;
+}
 
-    env->ReleaseByteArrayElements(inputFrame, inputData, JNI_ABORT);
-    env->ReleaseByteArrayElements(outputFrame, outputData, 0);
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *, void *) {
+    WorkerPool::global().stop();
 }
 
 }
@@ -0,0 +1,87 @@
+#include "ParallelSobel.h"
+
+#include <algorithm>
+#include <cstring>
+#include <vector>
+
+#include "WorkerPool.h"
+
+namespace {
+
+// Aim for a few tiles per thread so a core that gets preempted does not
+// hold up the frame; rows per tile never drop below this
+constexpr int MIN_TILE_ROWS = 16;
+constexpr int TILES_PER_THREAD = 4;
+
+struct alignas(64) ParticipantSlot {
+    SobelResult result;
+    int32_t histogram[SOBEL_HISTOGRAM_BINS];
+};
+
+struct FrameJob {
+    const uint8_t *src;
+    int srcStride;
+    uint8_t *dst;
+    int dstStride;
+    int width;
+    int height;
+    int squaredThreshold;
+    int isa;
+    int tileRows;
+    bool histogram;
+    ParticipantSlot *slots;
+};
+
+// Grown once to the pool size; only touched by the single in-flight job
+std::vector<ParticipantSlot> slots;
+
+void runTile(void *context, int task, int participant) {
+    auto *job = static_cast<FrameJob *>(context);
+    ParticipantSlot &slot = job->slots[participant];
+    int rowStart = task * job->tileRows;
+    int rowEnd = std::min(job->height, rowStart + job->tileRows);
+    sobelThresholdRows(job->src, job->srcStride, job->dst, job->dstStride,
+                       job->width, job->height, job->squaredThreshold, job->isa,
+                       rowStart, rowEnd, job->histogram ? slot.histogram : nullptr, &slot.result);
+}
+
+} // namespace
+
+void sobelParallelPrepare(WorkerPool &pool) {
+    if ((int) slots.size() < pool.participants()) {
+        slots.resize(pool.participants());
+    }
+}
+
+void sobelThresholdParallel(WorkerPool &pool, const uint8_t *src, int srcStride,
+                            uint8_t *dst, int dstStride, int width, int height,
+                            int squaredThreshold, int isa, int maxThreads,
+                            int32_t *histogram, SobelResult *result) {
+    int threads = std::max(1, std::min(maxThreads, pool.participants()));
+    sobelParallelPrepare(pool);
+    for (int i = 0; i < threads; i++) {
+        sobelResultInit(&slots[i].result);
+        if (histogram != nullptr) {
+            std::memset(slots[i].histogram, 0, sizeof(slots[i].histogram));
+        }
+    }
+
+    int tileRows = std::max(MIN_TILE_ROWS, (height + threads * TILES_PER_THREAD - 1) / (threads * TILES_PER_THREAD));
+    int tiles = std::max(1, (height + tileRows - 1) / tileRows);
+    FrameJob job = {src, srcStride, dst, dstStride, width, height, squaredThreshold, isa,
+                    tileRows, histogram != nullptr, slots.data()};
+    pool.run(tiles, threads, runTile, &job);
+
+    sobelResultInit(result);
+    for (int i = 0; i < threads; i++) {
+        const SobelResult &partial = slots[i].result;
+        result->edgeCount += partial.edgeCount;
+        result->maxSquared = std::max(result->maxSquared, partial.maxSquared);
+        result->minSquared = std::min(result->minSquared, partial.minSquared);
+        if (histogram != nullptr) {
+            for (int bin = 0; bin < SOBEL_HISTOGRAM_BINS; bin++) {
+                histogram[bin] += slots[i].histogram[bin];
+            }
+        }
+    }
+}
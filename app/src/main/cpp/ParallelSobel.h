@@ -0,0 +1,24 @@
+#pragma once
+
+#include <cstdint>
+
+#include "SobelKernel.h"
+
+class WorkerPool;
+
+// Runs sobelThresholdRows over horizontal tiles of the frame on a
+// WorkerPool. Each participant accumulates into its own preallocated,
+// cache-line aligned stats slot (and histogram when requested); the slots
+// are reduced into result once all tiles are done, so the output and
+// stats are identical to a single-threaded pass.
+//
+// maxThreads = 1 runs on the caller only. Not reentrant: the stats slots
+// belong to the pool's single in-flight job.
+void sobelThresholdParallel(WorkerPool &pool, const uint8_t *src, int srcStride,
+                            uint8_t *dst, int dstStride, int width, int height,
+                            int squaredThreshold, int isa, int maxThreads,
+                            int32_t *histogram, SobelResult *result);
+
+// Allocates the per-participant stats slots for pool up front (called at
+// library load, after the pool has started).
+void sobelParallelPrepare(WorkerPool &pool);
@@ -0,0 +1,174 @@
+// Host-side test and benchmark for the native Sobel kernel and its worker
+// pool (not part of the Android library).
+//
+//   sobel_bench --test [workers]    every ISA and thread count against scalar, exit 1 on mismatch
+//   sobel_bench [iters] [workers]   ms/frame per ISA and thread count at 720p, 1080p and 4K
+//
+// workers defaults to one per extra core, like the library at load time.
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <random>
+#include <string>
+#include <thread>
+#include <vector>
+
+#include "ParallelSobel.h"
+#include "SobelKernel.h"
+#include "WorkerPool.h"
+
+namespace {
+
+struct Frame {
+    int width;
+    int height;
+    int stride;
+    std::vector<uint8_t> pixels;
+};
+
+// Gradient, hard-edged blocks and noise, like the JMH BenchmarkFrames
+Frame makeFrame(int width, int height, int padding, uint32_t seed) {
+    Frame frame{width, height, width + padding, {}};
+    frame.pixels.resize((size_t) frame.stride * height);
+    std::mt19937 random(seed);
+    for (int y = 0; y < height; y++) {
+        for (int x = 0; x < frame.stride; x++) {
+            int value = ((x + y) * 255) / (width + height);
+            if (((x / 64) + (y / 64)) % 2 == 0) {
+                value = 255 - value;
+            }
+            value += (int) (random() % 17) - 8;
+            frame.pixels[(size_t) y * frame.stride + x] = (uint8_t) std::clamp(value, 0, 255);
+        }
+    }
+    return frame;
+}
+
+struct Output {
+    std::vector<uint8_t> pixels;
+    std::vector<int32_t> histogram;
+    SobelResult result;
+};
+
+Output runSerial(const Frame &frame, int squaredThreshold, int isa) {
+    Output out{std::vector<uint8_t>((size_t) frame.width * frame.height),
+               std::vector<int32_t>(SOBEL_HISTOGRAM_BINS), {}};
+    sobelResultInit(&out.result);
+    sobelThresholdRows(frame.pixels.data(), frame.stride, out.pixels.data(), frame.width,
+                       frame.width, frame.height, squaredThreshold, isa, 0, frame.height,
+                       out.histogram.data(), &out.result);
+    return out;
+}
+
+Output runParallel(WorkerPool &pool, const Frame &frame, int squaredThreshold, int isa, int threads) {
+    Output out{std::vector<uint8_t>((size_t) frame.width * frame.height),
+               std::vector<int32_t>(SOBEL_HISTOGRAM_BINS), {}};
+    sobelThresholdParallel(pool, frame.pixels.data(), frame.stride, out.pixels.data(), frame.width,
+                           frame.width, frame.height, squaredThreshold, isa, threads,
+                           out.histogram.data(), &out.result);
+    return out;
+}
+
+bool same(const Output &a, const Output &b) {
+    return a.pixels == b.pixels && a.histogram == b.histogram
+        && a.result.edgeCount == b.result.edgeCount
+        && a.result.maxSquared == b.result.maxSquared
+        && a.result.minSquared == b.result.minSquared;
+}
+
+std::vector<int> supportedIsas() {
+    std::vector<int> isas;
+    for (int isa : {SOBEL_ISA_SCALAR, SOBEL_ISA_SSE2, SOBEL_ISA_AVX2, SOBEL_ISA_NEON}) {
+        if (sobelIsaSupported(isa)) {
+            isas.push_back(isa);
+        }
+    }
+    return isas;
+}
+
+int test(WorkerPool &pool) {
+    const int sizes[][2] = {{1280, 720}, {1921, 1081}, {17, 9}, {33, 2}, {3, 3}, {2, 5}, {640, 31}};
+    int failures = 0;
+    int checks = 0;
+    uint32_t seed = 1;
+    for (const auto &size : sizes) {
+        for (int padding : {0, 13}) {
+            Frame frame = makeFrame(size[0], size[1], padding, seed++);
+            for (int threshold : {0, 150, 750, 2000}) {
+                int squared = (threshold + 1) * (threshold + 1);
+                Output reference = runSerial(frame, squared, SOBEL_ISA_SCALAR);
+                for (int isa : supportedIsas()) {
+                    for (int threads = 1; threads <= pool.participants(); threads++) {
+                        checks++;
+                        if (!same(reference, runParallel(pool, frame, squared, isa, threads))) {
+                            failures++;
+                            std::printf("MISMATCH %dx%d pad %d threshold %d %s threads %d\n",
+                                        frame.width, frame.height, padding, threshold,
+                                        sobelIsaName(isa), threads);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    std::printf("%d/%d checks passed\n", checks - failures, checks);
+    return failures == 0 ? 0 : 1;
+}
+
+int bench(WorkerPool &pool, int iterations) {
+    const int sizes[][2] = {{1280, 720}, {1920, 1080}, {3840, 2160}};
+    const int squared = 751 * 751;
+    std::printf("%-10s %-7s %7s %10s %8s\n", "frame", "isa", "threads", "ms/frame", "speedup");
+    for (const auto &size : sizes) {
+        Frame frame = makeFrame(size[0], size[1], 0, 42);
+        std::vector<uint8_t> out((size_t) frame.width * frame.height);
+        for (int isa : supportedIsas()) {
+            double single = 0;
+            for (int threads = 1; threads <= pool.participants(); threads++) {
+                SobelResult result;
+                auto runOnce = [&] {
+                    sobelThresholdParallel(pool, frame.pixels.data(), frame.stride, out.data(), frame.width,
+                                           frame.width, frame.height, squared, isa, threads, nullptr, &result);
+                };
+                for (int i = 0; i < std::max(1, iterations / 10); i++) {
+                    runOnce();
+                }
+                auto start = std::chrono::steady_clock::now();
+                for (int i = 0; i < iterations; i++) {
+                    runOnce();
+                }
+                double ms = std::chrono::duration<double, std::milli>(
+                        std::chrono::steady_clock::now() - start).count() / iterations;
+                if (threads == 1) {
+                    single = ms;
+                }
+                std::printf("%4dx%-5d %-7s %7d %10.3f %7.2fx\n", frame.width, frame.height,
+                            sobelIsaName(isa), threads, ms, single / ms);
+            }
+        }
+    }
+    return 0;
+}
+
+} // namespace
+
+int main(int argc, char **argv) {
+    bool testMode = argc > 1 && std::strcmp(argv[1], "--test") == 0;
+    int cores = (int) std::thread::hardware_concurrency();
+    int workers = argc > 2 ? std::atoi(argv[2]) : std::max(0, cores - 1);
+    WorkerPool &pool = WorkerPool::global();
+    pool.start(workers);
+    sobelParallelPrepare(pool);
+
+    int status;
+    if (testMode) {
+        status = test(pool);
+    } else {
+        status = bench(pool, argc > 1 ? std::atoi(argv[1]) : 200);
+    }
+    pool.stop();
+    return status;
+}
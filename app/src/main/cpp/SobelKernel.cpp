@@ -0,0 +1,400 @@
+#include "SobelKernel.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstring>
+#include <vector>
+
+#if defined(__x86_64__) || defined(__i386__)
+#include <immintrin.h>
+#define SOBEL_X86 1
+#endif
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define SOBEL_NEON 1
+#endif
+
+// Same structure as FastSobelKernel: a vertical pass per output row
+// (smooth = r0 + 2 r1 + r2, diff = r2 - r0, per column) into two int16
+// rows, then a horizontal pass gx = smooth[x+1] - smooth[x-1],
+// gy = diff[x-1] + 2 diff[x] + diff[x+1]. |gx|, |gy| <= 1020, so both
+// fit int16 and only the squared magnitude needs 32 bits.
+
+namespace {
+
+struct RowScratch {
+    std::vector<int16_t> smooth;
+    std::vector<int16_t> diff;
+
+    void ensure(int width) {
+        if ((int) smooth.size() < width) {
+            smooth.resize(width);
+            diff.resize(width);
+        }
+    }
+};
+
+// One per thread, grown once to the frame width
+thread_local RowScratch scratch;
+
+struct RowStats {
+    int32_t edgeCount;
+    int32_t maxSquared;
+    int32_t minSquared;
+};
+
+void verticalScalar(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                    int16_t *s, int16_t *d, int from, int width) {
+    for (int x = from; x < width; x++) {
+        s[x] = (int16_t) (r0[x] + 2 * r1[x] + r2[x]);
+        d[x] = (int16_t) (r2[x] - r0[x]);
+    }
+}
+
+// Pixels [from, to) of the interior; to <= width - 1
+void horizontalScalar(const int16_t *s, const int16_t *d, uint8_t *out, int from, int to,
+                      int32_t squaredThreshold, RowStats *stats) {
+    for (int x = from; x < to; x++) {
+        int32_t gx = s[x + 1] - s[x - 1];
+        int32_t gy = d[x - 1] + 2 * d[x] + d[x + 1];
+        int32_t squared = gx * gx + gy * gy;
+        stats->maxSquared = std::max(stats->maxSquared, squared);
+        stats->minSquared = std::min(stats->minSquared, squared);
+        if (squared >= squaredThreshold) {
+            out[x] = 0;
+            stats->edgeCount++;
+        } else {
+            out[x] = 255;
+        }
+    }
+}
+
+#if SOBEL_X86
+
+__attribute__((target("sse2")))
+int verticalSse2(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                 int16_t *s, int16_t *d, int width) {
+    const __m128i zero = _mm_setzero_si128();
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        __m128i a = _mm_loadu_si128((const __m128i *) (r0 + x));
+        __m128i b = _mm_loadu_si128((const __m128i *) (r1 + x));
+        __m128i c = _mm_loadu_si128((const __m128i *) (r2 + x));
+        __m128i aLo = _mm_unpacklo_epi8(a, zero), aHi = _mm_unpackhi_epi8(a, zero);
+        __m128i bLo = _mm_unpacklo_epi8(b, zero), bHi = _mm_unpackhi_epi8(b, zero);
+        __m128i cLo = _mm_unpacklo_epi8(c, zero), cHi = _mm_unpackhi_epi8(c, zero);
+        _mm_storeu_si128((__m128i *) (s + x),
+                         _mm_add_epi16(_mm_add_epi16(aLo, cLo), _mm_slli_epi16(bLo, 1)));
+        _mm_storeu_si128((__m128i *) (s + x + 8),
+                         _mm_add_epi16(_mm_add_epi16(aHi, cHi), _mm_slli_epi16(bHi, 1)));
+        _mm_storeu_si128((__m128i *) (d + x), _mm_sub_epi16(cLo, aLo));
+        _mm_storeu_si128((__m128i *) (d + x + 8), _mm_sub_epi16(cHi, aHi));
+    }
+    return x;
+}
+
+// SSE2 has no 32-bit min/max; select with a compare mask
+__attribute__((target("sse2")))
+inline __m128i maxEpi32Sse2(__m128i a, __m128i b) {
+    __m128i gt = _mm_cmpgt_epi32(a, b);
+    return _mm_or_si128(_mm_and_si128(gt, a), _mm_andnot_si128(gt, b));
+}
+
+__attribute__((target("sse2")))
+inline __m128i minEpi32Sse2(__m128i a, __m128i b) {
+    __m128i gt = _mm_cmpgt_epi32(a, b);
+    return _mm_or_si128(_mm_and_si128(gt, b), _mm_andnot_si128(gt, a));
+}
+
+__attribute__((target("sse2")))
+int horizontalSse2(const int16_t *s, const int16_t *d, uint8_t *out, int width,
+                   int32_t squaredThreshold, RowStats *stats) {
+    const __m128i threshold = _mm_set1_epi32(squaredThreshold);
+    __m128i maxSquared = _mm_set1_epi32(-1);
+    __m128i minSquared = _mm_set1_epi32(INT32_MAX);
+    __m128i background = _mm_setzero_si128(); // counts down by one per non-edge pixel
+    int x = 1;
+    for (; x + 8 <= width - 1; x += 8) {
+        __m128i sl = _mm_loadu_si128((const __m128i *) (s + x - 1));
+        __m128i sr = _mm_loadu_si128((const __m128i *) (s + x + 1));
+        __m128i dl = _mm_loadu_si128((const __m128i *) (d + x - 1));
+        __m128i dc = _mm_loadu_si128((const __m128i *) (d + x));
+        __m128i dr = _mm_loadu_si128((const __m128i *) (d + x + 1));
+        __m128i gx = _mm_sub_epi16(sr, sl);
+        __m128i gy = _mm_add_epi16(_mm_add_epi16(dl, dr), _mm_slli_epi16(dc, 1));
+
+        // Interleave (gx, gy) pairs so madd yields gx^2 + gy^2 per pixel
+        __m128i lo = _mm_unpacklo_epi16(gx, gy);
+        __m128i hi = _mm_unpackhi_epi16(gx, gy);
+        __m128i sqLo = _mm_madd_epi16(lo, lo);
+        __m128i sqHi = _mm_madd_epi16(hi, hi);
+        maxSquared = maxEpi32Sse2(maxSquared, maxEpi32Sse2(sqLo, sqHi));
+        minSquared = minEpi32Sse2(minSquared, minEpi32Sse2(sqLo, sqHi));
+
+        __m128i belowLo = _mm_cmpgt_epi32(threshold, sqLo);
+        __m128i belowHi = _mm_cmpgt_epi32(threshold, sqHi);
+        background = _mm_add_epi32(background, _mm_add_epi32(belowLo, belowHi));
+
+        // -1 / 0 masks saturate to 0xFF / 0x00: background 255, edge 0
+        __m128i mask16 = _mm_packs_epi32(belowLo, belowHi);
+        _mm_storel_epi64((__m128i *) (out + x), _mm_packs_epi16(mask16, mask16));
+    }
+
+    alignas(16) int32_t lanes[4];
+    _mm_store_si128((__m128i *) lanes, maxSquared);
+    for (int32_t v : lanes) stats->maxSquared = std::max(stats->maxSquared, v);
+    _mm_store_si128((__m128i *) lanes, minSquared);
+    for (int32_t v : lanes) stats->minSquared = std::min(stats->minSquared, v);
+    _mm_store_si128((__m128i *) lanes, background);
+    int32_t backgroundCount = -(lanes[0] + lanes[1] + lanes[2] + lanes[3]);
+    stats->edgeCount += (x - 1) - backgroundCount;
+    return x;
+}
+
+__attribute__((target("avx2")))
+int verticalAvx2(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                 int16_t *s, int16_t *d, int width) {
+    int x = 0;
+    for (; x + 16 <= width; x += 16) {
+        __m256i a = _mm256_cvtepu8_epi16(_mm_loadu_si128((const __m128i *) (r0 + x)));
+        __m256i b = _mm256_cvtepu8_epi16(_mm_loadu_si128((const __m128i *) (r1 + x)));
+        __m256i c = _mm256_cvtepu8_epi16(_mm_loadu_si128((const __m128i *) (r2 + x)));
+        _mm256_storeu_si256((__m256i *) (s + x),
+                            _mm256_add_epi16(_mm256_add_epi16(a, c), _mm256_slli_epi16(b, 1)));
+        _mm256_storeu_si256((__m256i *) (d + x), _mm256_sub_epi16(c, a));
+    }
+    return x;
+}
+
+__attribute__((target("avx2")))
+int horizontalAvx2(const int16_t *s, const int16_t *d, uint8_t *out, int width,
+                   int32_t squaredThreshold, RowStats *stats) {
+    const __m256i threshold = _mm256_set1_epi32(squaredThreshold);
+    __m256i maxSquared = _mm256_set1_epi32(-1);
+    __m256i minSquared = _mm256_set1_epi32(INT32_MAX);
+    __m256i background = _mm256_setzero_si256();
+    int x = 1;
+    for (; x + 16 <= width - 1; x += 16) {
+        __m256i sl = _mm256_loadu_si256((const __m256i *) (s + x - 1));
+        __m256i sr = _mm256_loadu_si256((const __m256i *) (s + x + 1));
+        __m256i dl = _mm256_loadu_si256((const __m256i *) (d + x - 1));
+        __m256i dc = _mm256_loadu_si256((const __m256i *) (d + x));
+        __m256i dr = _mm256_loadu_si256((const __m256i *) (d + x + 1));
+        __m256i gx = _mm256_sub_epi16(sr, sl);
+        __m256i gy = _mm256_add_epi16(_mm256_add_epi16(dl, dr), _mm256_slli_epi16(dc, 1));
+
+        // unpack/madd/packs all work per 128-bit lane, so pixel order is
+        // restored by the packs; only the final byte pack needs a permute
+        __m256i lo = _mm256_unpacklo_epi16(gx, gy);
+        __m256i hi = _mm256_unpackhi_epi16(gx, gy);
+        __m256i sqLo = _mm256_madd_epi16(lo, lo);
+        __m256i sqHi = _mm256_madd_epi16(hi, hi);
+        maxSquared = _mm256_max_epi32(maxSquared, _mm256_max_epi32(sqLo, sqHi));
+        minSquared = _mm256_min_epi32(minSquared, _mm256_min_epi32(sqLo, sqHi));
+
+        __m256i belowLo = _mm256_cmpgt_epi32(threshold, sqLo);
+        __m256i belowHi = _mm256_cmpgt_epi32(threshold, sqHi);
+        background = _mm256_add_epi32(background, _mm256_add_epi32(belowLo, belowHi));
+
+        __m256i mask16 = _mm256_packs_epi32(belowLo, belowHi);
+        __m256i mask8 = _mm256_permute4x64_epi64(_mm256_packs_epi16(mask16, mask16), 0x08);
+        _mm_storeu_si128((__m128i *) (out + x), _mm256_castsi256_si128(mask8));
+    }
+
+    alignas(32) int32_t lanes[8];
+    _mm256_store_si256((__m256i *) lanes, maxSquared);
+    for (int32_t v : lanes) stats->maxSquared = std::max(stats->maxSquared, v);
+    _mm256_store_si256((__m256i *) lanes, minSquared);
+    for (int32_t v : lanes) stats->minSquared = std::min(stats->minSquared, v);
+    _mm256_store_si256((__m256i *) lanes, background);
+    int32_t backgroundCount = 0;
+    for (int32_t v : lanes) backgroundCount -= v;
+    stats->edgeCount += (x - 1) - backgroundCount;
+    return x;
+}
+
+#endif // SOBEL_X86
+
+#if SOBEL_NEON
+
+int verticalNeon(const uint8_t *r0, const uint8_t *r1, const uint8_t *r2,
+                 int16_t *s, int16_t *d, int width) {
+    int x = 0;
+    for (; x + 8 <= width; x += 8) {
+        int16x8_t a = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(r0 + x)));
+        int16x8_t b = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(r1 + x)));
+        int16x8_t c = vreinterpretq_s16_u16(vmovl_u8(vld1_u8(r2 + x)));
+        vst1q_s16(s + x, vaddq_s16(vaddq_s16(a, c), vshlq_n_s16(b, 1)));
+        vst1q_s16(d + x, vsubq_s16(c, a));
+    }
+    return x;
+}
+
+int horizontalNeon(const int16_t *s, const int16_t *d, uint8_t *out, int width,
+                   int32_t squaredThreshold, RowStats *stats) {
+    const int32x4_t threshold = vdupq_n_s32(squaredThreshold);
+    int32x4_t maxSquared = vdupq_n_s32(-1);
+    int32x4_t minSquared = vdupq_n_s32(INT32_MAX);
+    uint32x4_t background = vdupq_n_u32(0);
+    int x = 1;
+    for (; x + 8 <= width - 1; x += 8) {
+        int16x8_t gx = vsubq_s16(vld1q_s16(s + x + 1), vld1q_s16(s + x - 1));
+        int16x8_t gy = vaddq_s16(vaddq_s16(vld1q_s16(d + x - 1), vld1q_s16(d + x + 1)),
+                                 vshlq_n_s16(vld1q_s16(d + x), 1));
+
+        int32x4_t sqLo = vmlal_s16(vmull_s16(vget_low_s16(gx), vget_low_s16(gx)),
+                                   vget_low_s16(gy), vget_low_s16(gy));
+        int32x4_t sqHi = vmlal_s16(vmull_s16(vget_high_s16(gx), vget_high_s16(gx)),
+                                   vget_high_s16(gy), vget_high_s16(gy));
+        maxSquared = vmaxq_s32(maxSquared, vmaxq_s32(sqLo, sqHi));
+        minSquared = vminq_s32(minSquared, vminq_s32(sqLo, sqHi));
+
+        uint32x4_t belowLo = vcltq_s32(sqLo, threshold);
+        uint32x4_t belowHi = vcltq_s32(sqHi, threshold);
+        background = vsubq_u32(background, vaddq_u32(belowLo, belowHi));
+
+        uint16x8_t mask16 = vcombine_u16(vmovn_u32(belowLo), vmovn_u32(belowHi));
+        vst1_u8(out + x, vmovn_u16(mask16));
+    }
+
+    int32_t lanes[4];
+    vst1q_s32(lanes, maxSquared);
+    for (int32_t v : lanes) stats->maxSquared = std::max(stats->maxSquared, v);
+    vst1q_s32(lanes, minSquared);
+    for (int32_t v : lanes) stats->minSquared = std::min(stats->minSquared, v);
+    uint32_t counts[4];
+    vst1q_u32(counts, background);
+    int32_t backgroundCount = (int32_t) (counts[0] + counts[1] + counts[2] + counts[3]);
+    stats->edgeCount += (x - 1) - backgroundCount;
+    return x;
+}
+
+#endif // SOBEL_NEON
+
+void sampleHistogram(const int16_t *s, const int16_t *d, int width, int32_t *histogram) {
+    for (int x = 1; x < width - 1; x++) {
+        int32_t gx = s[x + 1] - s[x - 1];
+        int32_t gy = d[x - 1] + 2 * d[x] + d[x + 1];
+        int magnitude = (int) std::sqrt((double) (gx * gx + gy * gy));
+        histogram[std::min(magnitude, SOBEL_HISTOGRAM_MAX_MAGNITUDE) >> SOBEL_HISTOGRAM_BIN_SHIFT]++;
+    }
+}
+
+} // namespace
+
+int sobelBestIsa() {
+#if SOBEL_X86
+    if (__builtin_cpu_supports("avx2")) {
+        return SOBEL_ISA_AVX2;
+    }
+    if (__builtin_cpu_supports("sse2")) {
+        return SOBEL_ISA_SSE2;
+    }
+#endif
+#if SOBEL_NEON
+    return SOBEL_ISA_NEON;
+#endif
+    return SOBEL_ISA_SCALAR;
+}
+
+bool sobelIsaSupported(int isa) {
+    switch (isa) {
+        case SOBEL_ISA_SCALAR:
+            return true;
+#if SOBEL_X86
+        case SOBEL_ISA_SSE2:
+            return __builtin_cpu_supports("sse2");
+        case SOBEL_ISA_AVX2:
+            return __builtin_cpu_supports("avx2");
+#endif
+#if SOBEL_NEON
+        case SOBEL_ISA_NEON:
+            return true;
+#endif
+        default:
+            return false;
+    }
+}
+
+const char *sobelIsaName(int isa) {
+    switch (isa) {
+        case SOBEL_ISA_SSE2: return "sse2";
+        case SOBEL_ISA_AVX2: return "avx2";
+        case SOBEL_ISA_NEON: return "neon";
+        default: return "scalar";
+    }
+}
+
+void sobelThresholdRows(const uint8_t *src, int srcStride, uint8_t *dst, int dstStride,
+                        int width, int height, int squaredThreshold, int isa,
+                        int rowStart, int rowEnd, int32_t *histogram, SobelResult *result) {
+    // Border rows and columns are passed through unchanged
+    if (rowStart == 0) {
+        std::memcpy(dst, src, width);
+    }
+    if (rowEnd == height && height > 1) {
+        std::memcpy(dst + (size_t) (height - 1) * dstStride, src + (size_t) (height - 1) * srcStride, width);
+    }
+
+    int firstRow = std::max(1, rowStart);
+    int lastRow = std::min(height - 1, rowEnd);
+    if (firstRow >= lastRow) {
+        return;
+    }
+    if (width < 3) {
+        for (int y = firstRow; y < lastRow; y++) {
+            std::memcpy(dst + (size_t) y * dstStride, src + (size_t) y * srcStride, width);
+        }
+        return;
+    }
+
+    scratch.ensure(width);
+    int16_t *s = scratch.smooth.data();
+    int16_t *d = scratch.diff.data();
+    RowStats stats = {0, result->maxSquared, result->minSquared};
+
+    for (int y = firstRow; y < lastRow; y++) {
+        const uint8_t *r0 = src + (size_t) (y - 1) * srcStride;
+        const uint8_t *r1 = src + (size_t) y * srcStride;
+        const uint8_t *r2 = src + (size_t) (y + 1) * srcStride;
+        uint8_t *out = dst + (size_t) y * dstStride;
+
+        int done = 0;
+        switch (isa) {
+#if SOBEL_X86
+            case SOBEL_ISA_AVX2: done = verticalAvx2(r0, r1, r2, s, d, width); break;
+            case SOBEL_ISA_SSE2: done = verticalSse2(r0, r1, r2, s, d, width); break;
+#endif
+#if SOBEL_NEON
+            case SOBEL_ISA_NEON: done = verticalNeon(r0, r1, r2, s, d, width); break;
+#endif
+            default: break;
+        }
+        verticalScalar(r0, r1, r2, s, d, done, width);
+
+        int x = 1;
+        switch (isa) {
+#if SOBEL_X86
+            case SOBEL_ISA_AVX2: x = horizontalAvx2(s, d, out, width, squaredThreshold, &stats); break;
+            case SOBEL_ISA_SSE2: x = horizontalSse2(s, d, out, width, squaredThreshold, &stats); break;
+#endif
+#if SOBEL_NEON
+            case SOBEL_ISA_NEON: x = horizontalNeon(s, d, out, width, squaredThreshold, &stats); break;
+#endif
+            default: break;
+        }
+        horizontalScalar(s, d, out, x, width - 1, squaredThreshold, &stats);
+
+        out[0] = r1[0];
+        out[width - 1] = r1[width - 1];
+
+        if (histogram != nullptr && y % SOBEL_HISTOGRAM_ROW_STEP == 0) {
+            sampleHistogram(s, d, width, histogram);
+        }
+    }
+
+    result->edgeCount += stats.edgeCount;
+    result->maxSquared = stats.maxSquared;
+    result->minSquared = stats.minSquared;
+}
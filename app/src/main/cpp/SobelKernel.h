@@ -0,0 +1,48 @@
+#pragma once
+
+#include <cstdint>
+
+// Sobel/threshold kernel shared by the JNI glue and the host tools.
+// Output matches com.edgedetection.core.FastSobelKernel byte for byte:
+// edges 0, background 255, border rows/columns copied from the source,
+// threshold compared on the squared magnitude.
+
+enum SobelIsa {
+    SOBEL_ISA_SCALAR = 0,
+    SOBEL_ISA_SSE2 = 1,
+    SOBEL_ISA_AVX2 = 2,
+    SOBEL_ISA_NEON = 3,
+};
+
+struct SobelResult {
+    int32_t edgeCount;
+    int32_t maxSquared;   // -1 when there are no interior pixels
+    int32_t minSquared;   // INT32_MAX when there are no interior pixels
+};
+
+// Every SOBEL_HISTOGRAM_ROW_STEP-th row is binned into histogram (if not null),
+// same sampling and bins as com.edgedetection.core.GradientHistogram.
+constexpr int SOBEL_HISTOGRAM_ROW_STEP = 8;
+constexpr int SOBEL_HISTOGRAM_BIN_SHIFT = 2;
+constexpr int SOBEL_HISTOGRAM_MAX_MAGNITUDE = 1443;
+constexpr int SOBEL_HISTOGRAM_BINS = (SOBEL_HISTOGRAM_MAX_MAGNITUDE >> SOBEL_HISTOGRAM_BIN_SHIFT) + 1;
+
+// Best instruction set this CPU supports.
+int sobelBestIsa();
+
+bool sobelIsaSupported(int isa);
+
+const char *sobelIsaName(int isa);
+
+// Processes rows [rowStart, rowEnd) of a width x height frame. src and dst
+// point at row 0; rows one above/below the range are read as halo.
+// Results are accumulated into result (initialize with sobelResultInit).
+void sobelThresholdRows(const uint8_t *src, int srcStride, uint8_t *dst, int dstStride,
+                        int width, int height, int squaredThreshold, int isa,
+                        int rowStart, int rowEnd, int32_t *histogram, SobelResult *result);
+
+inline void sobelResultInit(SobelResult *result) {
+    result->edgeCount = 0;
+    result->maxSquared = -1;
+    result->minSquared = INT32_MAX;
+}
@@ -0,0 +1,120 @@
+#include "WorkerPool.h"
+
+#include <algorithm>
+
+#if defined(__linux__)
+#include <sched.h>
+#endif
+
+namespace {
+
+void pinToCpu(int cpu) {
+#if defined(__linux__)
+    cpu_set_t set;
+    CPU_ZERO(&set);
+    CPU_SET(cpu, &set);
+    // 0 = calling thread; may fail on restricted cores, which is fine
+    sched_setaffinity(0, sizeof(set), &set);
+#else
+    (void) cpu;
+#endif
+}
+
+} // namespace
+
+WorkerPool &WorkerPool::global() {
+    static WorkerPool pool;
+    return pool;
+}
+
+void WorkerPool::start(int workerCount) {
+    stop();
+    stopping_ = false;
+    int cpus = std::max(1u, std::thread::hardware_concurrency());
+    workers_.reserve(workerCount);
+    for (int i = 0; i < workerCount; i++) {
+        int participant = i + 1;
+        workers_.emplace_back([this, participant, cpus] {
+            // Leave CPU 0 to the caller thread where possible
+            pinToCpu(participant % cpus);
+            workerLoop(participant);
+        });
+    }
+}
+
+void WorkerPool::stop() {
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        stopping_ = true;
+    }
+    wake_.notify_all();
+    for (std::thread &worker : workers_) {
+        worker.join();
+    }
+    workers_.clear();
+}
+
+void WorkerPool::run(int taskCount, int maxParticipants, TaskFn fn, void *context) {
+    int participants = std::max(1, std::min(maxParticipants, this->participants()));
+    participants = std::min(participants, std::max(1, taskCount));
+    if (participants == 1) {
+        for (int task = 0; task < taskCount; task++) {
+            fn(context, task, 0);
+        }
+        return;
+    }
+
+    {
+        std::lock_guard<std::mutex> lock(mutex_);
+        fn_ = fn;
+        context_ = context;
+        taskCount_ = taskCount;
+        activeWorkers_ = participants - 1;
+        nextTask_.store(0, std::memory_order_relaxed);
+        pendingWorkers_.store(participants - 1, std::memory_order_relaxed);
+        generation_++;
+    }
+    wake_.notify_all();
+
+    runTasks(0);
+
+    // Workers that were asleep still have to check in: context lives on
+    // our caller's stack
+    std::unique_lock<std::mutex> lock(mutex_);
+    done_.wait(lock, [this] { return pendingWorkers_.load(std::memory_order_acquire) == 0; });
+}
+
+void WorkerPool::runTasks(int participant) {
+    for (;;) {
+        int task = nextTask_.fetch_add(1, std::memory_order_relaxed);
+        if (task >= taskCount_) {
+            return;
+        }
+        fn_(context_, task, participant);
+    }
+}
+
+void WorkerPool::workerLoop(int participant) {
+    uint64_t seen = 0;
+    for (;;) {
+        {
+            std::unique_lock<std::mutex> lock(mutex_);
+            wake_.wait(lock, [&] { return stopping_ || generation_ != seen; });
+            if (stopping_) {
+                return;
+            }
+            seen = generation_;
+            if (participant > activeWorkers_) {
+                // Not needed for this job
+                continue;
+            }
+        }
+
+        runTasks(participant);
+
+        if (pendingWorkers_.fetch_sub(1, std::memory_order_acq_rel) == 1) {
+            std::lock_guard<std::mutex> lock(mutex_);
+            done_.notify_one();
+        }
+    }
+}
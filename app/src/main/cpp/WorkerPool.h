@@ -0,0 +1,57 @@
+#pragma once
+
+#include <atomic>
+#include <condition_variable>
+#include <cstdint>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+// Persistent pool of native worker threads, started once when the library
+// loads (JNI_OnLoad) and reused for every frame. Workers never touch JNI,
+// so a frame pays neither thread creation nor AttachCurrentThread.
+//
+// run() hands out task indices [0, taskCount) dynamically; the calling
+// thread takes part as participant 0, workers are participants 1..n.
+// One job at a time: run() must not be called concurrently.
+class WorkerPool {
+public:
+    using TaskFn = void (*)(void *context, int task, int participant);
+
+    static WorkerPool &global();
+
+    // Starts workerCount threads (0 runs everything on the caller).
+    // Worker i is pinned to CPU (i % cpuCount) where the OS allows; this
+    // is only a hint.
+    void start(int workerCount);
+
+    void stop();
+
+    // Caller plus workers.
+    int participants() const {
+        return (int) workers_.size() + 1;
+    }
+
+    // Runs fn for every task on at most maxParticipants threads (clamped
+    // to participants()) and returns once all of them are done.
+    void run(int taskCount, int maxParticipants, TaskFn fn, void *context);
+
+private:
+    void workerLoop(int participant);
+    void runTasks(int participant);
+
+    std::vector<std::thread> workers_;
+    std::mutex mutex_;
+    std::condition_variable wake_;
+    std::condition_variable done_;
+    uint64_t generation_ = 0;
+    bool stopping_ = false;
+
+    // Current job; written under mutex_ before generation_ is bumped
+    TaskFn fn_ = nullptr;
+    void *context_ = nullptr;
+    int taskCount_ = 0;
+    int activeWorkers_ = 0;
+    std::atomic<int> nextTask_{0};
+    std::atomic<int> pendingWorkers_{0};
+};
@@ -15,11 +15,30 @@ import android.graphics.ImageFormat;
 import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import androidx.annotation.NonNull;
+import com.edgedetection.core.BackpressurePolicy;
+import com.edgedetection.core.EdgeBits;
+import com.edgedetection.core.EdgeDetector;
+import com.edgedetection.core.EdgeStreamServer;
+import com.edgedetection.core.FilterGraph;
+import com.edgedetection.core.FrameExchange;
+import com.edgedetection.core.FrameRecorder;
+import com.edgedetection.core.FrameSource;
+import com.edgedetection.core.FrameSpan;
+import com.edgedetection.core.FrameTracer;
+import com.edgedetection.core.MorphologyOp;
+import com.edgedetection.core.PipelineMetrics;
+import com.edgedetection.core.PipelineStage;
+import com.edgedetection.core.Plane;
+import com.edgedetection.core.ProcessingStage;
+import com.edgedetection.core.ResolutionScaler;
+import com.edgedetection.core.StageStats;
+import java.util.function.LongSupplier;
 
-public class CameraHandler implements GLRenderer.SurfaceTextureListener {
+public class CameraHandler implements GLRenderer.SurfaceTextureListener, FrameSource {
     private static final String TAG = "CameraHandler";
     private CameraManager cameraManager;
     private CameraDevice cameraDevice;
@@ -28,13 +47,51 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
     private HandlerThread backgroundThread;
     private Context context;
     private GLRenderer glRenderer;
-    private boolean useRawFeed = false;  // Start with edge detection mode
+    // RAW, EDGES (the configured detector) or any other graph; start with edge detection
+    private volatile FilterGraph filterGraph = FilterGraph.EDGES;
     private ImageReader imageReader;
     private MainActivity mainActivity;
     private FrameProcessor frameProcessor;
+    private FrameExchange frameExchange;
+    private volatile ProcessingStage<Image> processingStage;
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.LATEST_WINS;
+    private long deadlineMillis = 33;
+    private volatile EdgeDetector edgeDetector = EdgeDetector.SOBEL;
+    private volatile boolean incrementalProcessing = false;
+    private volatile MorphologyOp morphology = MorphologyOp.NONE;
+    private volatile int morphologyRadius = 1;
+    private volatile float preSmoothing = 0;
+    private volatile boolean gpuEdgeDetection = false;
+    // Edge maps go to the renderer and recorder as 1-bit EdgeBits maps
+    private volatile boolean packedEdges = true;
+    // Checked once, like TracePoint: the stats below build strings only when on
+    private final boolean statsLoggable = Log.isLoggable(TAG, Log.DEBUG);
+    private long lastStatsLogMs = 0;
+    private volatile PipelineMetrics metrics;
+    private volatile FrameTracer tracer;
+    // Same time base as Image.getTimestamp(); all stage times are read from it
+    private volatile LongSupplier sensorClock = System::nanoTime;
+    // One per thread: camera (acquire) and processing
+    private final TracePoint acquireTrace = new TracePoint(TAG, 30);
+    private final TracePoint processTrace = new TracePoint(TAG, 30);
+    // Also sees every CPU-path frame when the camera runs as a FrameSource
+    private volatile FrameListener frameListener;
+    // Camera planes as the listener and recorder see them
+    private final Plane frameY = new Plane();
+    private final Plane frameU = new Plane();
+    private final Plane frameV = new Plane();
+    private volatile FrameRecorder recorder;
+    private volatile EdgeStreamServer streamServer;
+    // Byte edge maps packed for the stream when packedEdges is off
+    private byte[] streamPacked;
     private boolean sessionClosed = false;
+    // Recorded modes besides the EdgeDetector ordinals
+    private static final int MODE_RAW = -1;
+    private static final int MODE_FILTER_GRAPH = -2;
     private static final int PREVIEW_WIDTH = 1280;
     private static final int PREVIEW_HEIGHT = 720;
+    // Frames that may wait for the processing thread (BOUNDED_QUEUE / DEADLINE)
+    private static final int PROCESSING_QUEUE_CAPACITY = 2;
     private android.view.Surface previewSurface;
     private SurfaceTexture currentSurfaceTexture;
 
@@ -52,6 +109,37 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
         // Camera will start when surface texture is ready via callback
     }
 
+    /**
+     * {@link FrameSource} view of the camera: starts it like
+     * {@link #startCamera} and also passes every ImageReader frame to
+     * listener on the processing thread, just before it is processed. The
+     * GPU edge mode bypasses the ImageReader, so the listener sees nothing
+     * while it is on.
+     */
+    @Override
+    public void start(FrameListener listener) {
+        this.frameListener = listener;
+        if (backgroundThread == null) {
+            startCamera();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopCamera();
+        frameListener = null;
+    }
+
+    @Override
+    public int getWidth() {
+        return PREVIEW_WIDTH;
+    }
+
+    @Override
+    public int getHeight() {
+        return PREVIEW_HEIGHT;
+    }
+
     @Override
     public void onSurfaceTextureReady(SurfaceTexture surfaceTexture) {
         Log.d(TAG, "SurfaceTexture ready, opening camera...");
@@ -66,14 +154,49 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
             Size previewSize = sizes[0];
             Log.d(TAG, "Camera size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
             
-            // Create ImageReader for frame capture
-            imageReader = ImageReader.newInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT, ImageFormat.YUV_420_888, 2);
+            // Processing runs on its own thread; the camera thread only acquires and hands off.
+            // Image timestamps are compared against the clock matching the sensor's time base.
+            Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            LongSupplier sensorClock = timestampSource != null
+                    && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+                    ? SystemClock::elapsedRealtimeNanos : System::nanoTime;
+            this.sensorClock = sensorClock;
+            glRenderer.setFrameTracer(tracer, sensorClock);
+            processingStage = new ProcessingStage<>("FrameProcessing", new ProcessingStage.FrameHandler<Image>() {
+                @Override
+                public void process(Image image, long timestampNs) {
+                    processImage(image);
+                }
+
+                @Override
+                public void release(Image image) {
+                    image.close();
+                }
+            }, PROCESSING_QUEUE_CAPACITY, sensorClock);
+            processingStage.setPolicy(backpressurePolicy);
+            processingStage.setDeadlineMillis(deadlineMillis);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                processingStage.setQueueWaitHistogram(metrics.get(PipelineStage.HANDOFF));
+            }
+
+            // Create ImageReader for frame capture; one extra image so acquireLatestImage
+            // still works while the processing stage holds its maximum
+            int maxImages = processingStage.getMaxFramesHeld() + 1;
+            imageReader = ImageReader.newInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT, ImageFormat.YUV_420_888, maxImages);
             Log.d(TAG, "ImageReader created: " + PREVIEW_WIDTH + "x" + PREVIEW_HEIGHT);
             imageReader.setOnImageAvailableListener(this::onImageAvailable, backgroundHandler);
             Log.d(TAG, "ImageReader listener set");
             
-            // Create frame processor
+            // Create frame processor and the triple buffer it hands frames to the renderer through
             frameProcessor = new FrameProcessor(PREVIEW_WIDTH, PREVIEW_HEIGHT);
+            frameProcessor.setEdgeDetector(edgeDetector);
+            frameProcessor.setIncremental(incrementalProcessing);
+            frameProcessor.setMorphology(morphology, morphologyRadius);
+            frameProcessor.setPreSmoothing(preSmoothing);
+            frameProcessor.setPipelineMetrics(metrics);
+            frameExchange = new FrameExchange(frameProcessor.getOutputSize());
+            glRenderer.setFrameExchange(frameExchange);
             
             cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
                 @Override
@@ -112,6 +235,8 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
         if (cameraDevice == null) return;
 
         currentSurfaceTexture = surfaceTexture;
+        // Same size as the ImageReader, so GPU passes run at the CPU resolution
+        surfaceTexture.setDefaultBufferSize(PREVIEW_WIDTH, PREVIEW_HEIGHT);
         previewSurface = new android.view.Surface(surfaceTexture);
         android.view.Surface imageSurface = imageReader.getSurface();
 
@@ -147,44 +272,297 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
 
         CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
         builder.addTarget(previewSurface);
-        builder.addTarget(imageReader.getSurface());
+        // The GPU path reads the preview texture only; without the ImageReader
+        // target the camera does not produce YUV buffers for the CPU at all
+        if (!gpuEdgeDetection) {
+            builder.addTarget(imageReader.getSurface());
+        }
         
         captureSession.setRepeatingRequest(builder.build(), null, backgroundHandler);
     }
     
     private void onImageAvailable(ImageReader reader) {
-        Log.d(TAG, "onImageAvailable called, useRawFeed=" + useRawFeed);
+        LongSupplier clock = sensorClock;
+        long start = clock.getAsLong();
         Image image = reader.acquireLatestImage();
         if (image == null) {
-            Log.d(TAG, "Image is null, skipping frame");
+            if (acquireTrace.sample()) {
+                Log.d(TAG, "Image is null, skipping frame");
+            }
             return;
         }
+        long acquired = clock.getAsLong();
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(PipelineStage.ACQUIRE, acquired - start);
+        }
+        FrameTracer tracer = this.tracer;
+        if (tracer != null) {
+            long timestamp = image.getTimestamp();
+            tracer.record(FrameSpan.SENSOR, timestamp, timestamp, start);
+            tracer.record(FrameSpan.ACQUIRE, timestamp, start, acquired);
+        }
+        if (acquireTrace.sample()) {
+            Log.d(TAG, "onImageAvailable, graph=" + filterGraph + ", timestamp=" + image.getTimestamp());
+        }
         
-        try {
-            // Process the frame based on current mode
-            byte[] processedData;
-            if (useRawFeed) {
-                processedData = frameProcessor.getRawFrame(image);
-                Log.d(TAG, "Got raw frame, size: " + (processedData != null ? processedData.length : 0));
-            } else {
-                processedData = frameProcessor.processEdgeDetection(image);
-                Log.d(TAG, "Got edge detection frame, size: " + (processedData != null ? processedData.length : 0));
+        // Hand off to the processing thread; the stage closes the image when done or dropped
+        ProcessingStage<Image> stage = processingStage;
+        if (stage == null) {
+            image.close();
+            return;
+        }
+        stage.submit(image, image.getTimestamp());
+    }
+    
+    private void processImage(Image image) {
+        LongSupplier clock = sensorClock;
+        long start = clock.getAsLong();
+        long timestamp = image.getTimestamp();
+
+        FrameListener listener = frameListener;
+        FrameRecorder recorder = this.recorder;
+        FilterGraph graph = filterGraph;
+        boolean raw = graph.isEmpty();
+        boolean detector = graph == FilterGraph.EDGES;
+        // Recorded with the frame so a replay knows what the user was looking at
+        int mode = raw ? MODE_RAW : detector ? edgeDetector.ordinal() : MODE_FILTER_GRAPH;
+        if (listener != null || recorder != null) {
+            Image.Plane[] planes = image.getPlanes();
+            frameY.set(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride());
+            frameU.set(planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride());
+            frameV.set(planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride());
+            if (listener != null) {
+                listener.onFrame(frameY, frameU, frameV, timestamp);
             }
-            
-            if (processedData != null) {
-                // Update renderer with processed frame
-                glRenderer.updateFrame(processedData, PREVIEW_WIDTH, PREVIEW_HEIGHT, !useRawFeed);
-                Log.d(TAG, "Frame updated in renderer");
+            if (recorder != null) {
+                recorder.recordFrame(frameY, frameU, frameV, timestamp, mode);
             }
-        } finally {
-            image.close();
         }
+        
+        // Process the frame based on current mode, straight into a free exchange slot
+        FrameExchange.Slot slot = frameExchange.beginWrite();
+        byte[] processedData;
+        boolean packed = detector && packedEdges;
+        if (raw) {
+            processedData = frameProcessor.getRawFrame(image, slot.getData());
+        } else if (packed) {
+            processedData = frameProcessor.processPackedEdges(image, slot.getData());
+        } else if (detector) {
+            processedData = frameProcessor.processEdgeDetection(image, slot.getData());
+        } else {
+            processedData = frameProcessor.processFilterGraph(image, graph, slot.getData());
+        }
+        
+        if (processedData != null) {
+            // Hand the completed frame to the renderer
+            slot.set(frameProcessor.getWidth(), frameProcessor.getHeight(), !raw, packed);
+            long published = clock.getAsLong();
+            slot.setTimestamps(timestamp, published);
+            frameExchange.publish();
+            FrameTracer tracer = this.tracer;
+            ProcessingStage<Image> stage = processingStage;
+            if (tracer != null && stage != null) {
+                tracer.record(FrameSpan.QUEUE, timestamp, stage.getCurrentEnqueuedAt(), start);
+                tracer.record(FrameSpan.PROCESS, timestamp, start, published);
+            }
+            glRenderer.onFramePublished(!raw);
+            if (recorder != null && packed) {
+                recorder.recordPackedEdges(processedData, timestamp, mode);
+            } else if (recorder != null && !raw) {
+                recorder.recordEdges(processedData, timestamp, mode);
+            }
+            EdgeStreamServer server = streamServer;
+            // Nobody watching: publish would drop the map, so skip packing it
+            if (server != null && !raw && server.getClientCount() > 0) {
+                server.publish(packed ? processedData : packForStream(processedData), timestamp);
+            }
+            if (processTrace.sample()) {
+                String kind = raw ? "raw" : packed ? "packed edge" : detector ? "edge" : graph.toString();
+                Log.d(TAG, "Published " + kind + " frame, size: "
+                      + (packed ? frameProcessor.getPackedSize() : frameProcessor.getOutputSize()));
+            }
+        }
+        
+        if (!statsLoggable) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (now - lastStatsLogMs >= 1000) {
+            lastStatsLogMs = now;
+            Log.d(TAG, "Processing stage [" + backpressurePolicy + "]: " + getProcessingStats());
+            if (frameProcessor.isAdaptiveResolution()) {
+                ResolutionScaler scaler = frameProcessor.getResolutionScaler();
+                Log.d(TAG, "Resolution level " + scaler.getLevel() +
+                      ", smoothed " + scaler.getSmoothedNanos() / 1000 + "us" +
+                      ", ms in level 0/1/2: " + scaler.getTimeInLevelNanos(0) / 1_000_000 +
+                      "/" + scaler.getTimeInLevelNanos(1) / 1_000_000 +
+                      "/" + scaler.getTimeInLevelNanos(2) / 1_000_000);
+            }
+            if (frameProcessor.isIncremental()) {
+                Log.d(TAG, "Incremental: " + String.format("%.1f", frameProcessor.getRecomputedTilePercent()) +
+                      "% of tiles recomputed");
+            }
+        }
+    }
+    
+    /**
+     * Stage timings (acquire, handoff, plane copy, kernel) go here; set
+     * before the camera starts.
+     */
+    public void setPipelineMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sensor-to-photon spans for every frame go here (and, through the
+     * renderer, its draw and swap); set before the camera starts.
+     */
+    public void setFrameTracer(FrameTracer tracer) {
+        this.tracer = tracer;
+        glRenderer.setFrameTracer(tracer, sensorClock);
+    }
+
+    /**
+     * Records CPU-path camera frames and their edge maps (as configured on
+     * the recorder) from the processing thread; null stops. The recorder
+     * must match {@link #getWidth()} x {@link #getHeight()}. The caller
+     * closes the old recorder after replacing it; frames still in flight
+     * are then ignored.
+     */
+    public void setFrameRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Broadcasts every CPU-path edge map to the server's viewers; null
+     * stops. The server must match {@link #getWidth()} x {@link #getHeight()}.
+     */
+    public void setEdgeStreamServer(EdgeStreamServer server) {
+        this.streamServer = server;
+    }
+
+    private byte[] packForStream(byte[] edges) {
+        int width = frameProcessor.getWidth();
+        int height = frameProcessor.getHeight();
+        if (streamPacked == null || streamPacked.length != EdgeBits.size(width, height)) {
+            streamPacked = new byte[EdgeBits.size(width, height)];
+        }
+        EdgeBits.pack(edges, width, height, streamPacked);
+        return streamPacked;
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        this.backpressurePolicy = policy;
+        if (processingStage != null) {
+            processingStage.setPolicy(policy);
+        }
+        Log.d(TAG, "Backpressure policy: " + policy);
+    }
+    
+    /**
+     * Latency budget for the DEADLINE policy, measured from the sensor timestamp.
+     */
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        if (processingStage != null) {
+            processingStage.setDeadlineMillis(deadlineMillis);
+        }
+    }
+    
+    public StageStats getProcessingStats() {
+        ProcessingStage<Image> stage = processingStage;
+        return stage != null ? stage.getStats(stage.getPolicy()) : null;
     }
     
-    public void setProcessingMode(boolean rawFeed) {
-        this.useRawFeed = rawFeed;
-        String mode = rawFeed ? "RAW FEED" : "EDGE DETECTION";
-        Log.d(TAG, "Processing mode changed to: " + mode + " (useRawFeed=" + rawFeed + ")");
+    /**
+     * What the CPU path shows from the next frame on: {@link FilterGraph#RAW}
+     * for the camera feed, {@link FilterGraph#EDGES} for the configured edge
+     * detector (Sobel or Canny, packed, native), or any other graph, run
+     * fused by the frame processor. Graph output is recorded and streamed
+     * like an edge map (0 = edge).
+     */
+    public void setFilterGraph(FilterGraph graph) {
+        this.filterGraph = graph;
+        Log.d(TAG, "Filter graph: " + graph);
+    }
+
+    /**
+     * Edge maps as 1 bit per pixel (default) or 1 byte per pixel. Packed
+     * maps are an eighth of the size to hand over, upload and record; the
+     * renderer expands them in its fragment shader.
+     */
+    public void setPackedEdges(boolean packed) {
+        this.packedEdges = packed;
+        Log.d(TAG, "Packed edge maps: " + packed);
+    }
+
+    /**
+     * Sobel in a fragment shader on the preview texture instead of the
+     * ImageReader / CPU path. Restarts the repeating request so the
+     * ImageReader target is dropped (or added back).
+     */
+    public void setGpuEdgeDetection(boolean enabled) {
+        if (gpuEdgeDetection == enabled) {
+            return;
+        }
+        this.gpuEdgeDetection = enabled;
+        glRenderer.setGpuEdgeMode(enabled, PREVIEW_WIDTH, PREVIEW_HEIGHT);
+        Handler handler = backgroundHandler;
+        if (handler != null) {
+            handler.post(() -> {
+                if (sessionClosed) {
+                    return;
+                }
+                try {
+                    startRepeatingCapture();
+                } catch (CameraAccessException | IllegalStateException e) {
+                    Log.e(TAG, "Error restarting capture for GPU mode " + enabled, e);
+                }
+            });
+        }
+    }
+
+    public void setEdgeDetector(EdgeDetector detector) {
+        this.edgeDetector = detector;
+        FrameProcessor processor = frameProcessor;
+        if (processor != null) {
+            processor.setEdgeDetector(detector);
+        }
+    }
+
+    /**
+     * Only recompute edges for tiles that changed (static scenes).
+     */
+    public void setIncrementalProcessing(boolean enabled) {
+        this.incrementalProcessing = enabled;
+        FrameProcessor processor = frameProcessor;
+        if (processor != null) {
+            processor.setIncremental(enabled);
+        }
+    }
+
+    /**
+     * Gaussian pre-smoothing before the CPU Sobel (sigma, 0 for none).
+     */
+    public void setPreSmoothing(float sigma) {
+        this.preSmoothing = sigma;
+        FrameProcessor processor = frameProcessor;
+        if (processor != null) {
+            processor.setPreSmoothing(sigma);
+        }
+    }
+
+    /**
+     * Morphology on the CPU edge maps, from the next frame on.
+     */
+    public void setMorphology(MorphologyOp op, int radius) {
+        this.morphology = op;
+        this.morphologyRadius = radius;
+        FrameProcessor processor = frameProcessor;
+        if (processor != null) {
+            processor.setMorphology(op, radius);
+        }
     }
 
     public void stopCamera() {
@@ -208,6 +586,13 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
                 }
             }
             
+            // Stop the processing thread; it closes any images it still holds
+            if (processingStage != null) {
+                processingStage.close();
+                processingStage = null;
+                Log.d(TAG, "Closed processing stage");
+            }
+            
             // Close capture session
             if (captureSession != null) {
                 try {
@@ -255,6 +640,12 @@ public class CameraHandler implements GLRenderer.SurfaceTextureListener {
             Log.e(TAG, "Unexpected error in stopCamera: " + e.getClass().getSimpleName(), e);
         } finally {
             stopBackgroundThread();
+
+            // Worker pool is only used from the background thread, so release it last
+            if (frameProcessor != null) {
+                frameProcessor.release();
+                frameProcessor = null;
+            }
         }
     }
 
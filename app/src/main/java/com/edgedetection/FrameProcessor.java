@@ -2,158 +2,271 @@ package com.edgedetection;
 
 import android.media.Image;
 import android.util.Log;
-import java.nio.ByteBuffer;
+import com.edgedetection.core.EdgeDetector;
+import com.edgedetection.core.EdgeFrameProcessor;
+import com.edgedetection.core.EdgeStats;
+import com.edgedetection.core.FilterGraph;
+import com.edgedetection.core.MorphologyOp;
+import com.edgedetection.core.NativeSobel;
+import com.edgedetection.core.PipelineMetrics;
+import com.edgedetection.core.PipelineStage;
+import com.edgedetection.core.Plane;
+import com.edgedetection.core.ResolutionScaler;
+import com.edgedetection.core.SobelVariant;
+import com.edgedetection.core.ThresholdMode;
 
+/**
+ * Thin Android adapter: unwraps android.media.Image into core Planes and
+ * delegates the actual work to {@link EdgeFrameProcessor}.
+ */
 public class FrameProcessor {
     private static final String TAG = "FrameProcessor";
-    private byte[] yData;
-    private byte[] uData;
-    private byte[] vData;
-    private byte[] outputData;
+    private final EdgeFrameProcessor processor;
+    private final Plane yPlane = new Plane();
+    private final Plane uPlane = new Plane();
+    private final Plane vPlane = new Plane();
     private int width;
     private int height;
+    // Per-frame details; sampled so they do not cost more than the frame
+    private final TracePoint trace = new TracePoint(TAG, 30);
+    private volatile PipelineMetrics metrics;
 
     public FrameProcessor(int width, int height) {
         // Limit to reasonable size for processing
         this.width = Math.min(width, 1280);
         this.height = Math.min(height, 720);
-        
-        int expectedSize = this.width * this.height;
-        this.yData = new byte[expectedSize];
-        this.uData = new byte[expectedSize / 4];
-        this.vData = new byte[expectedSize / 4];
-        this.outputData = new byte[expectedSize * 3 / 2]; // NV21 format
-        
-        Log.d(TAG, "FrameProcessor initialized: " + this.width + "x" + this.height);
+        this.processor = new EdgeFrameProcessor(this.width, this.height);
+        this.processor.setWorkerCount(Runtime.getRuntime().availableProcessors());
+
+        // Prefer the SIMD kernel in libedgedetector; Java FAST if it failed to load
+        if (NativeSobel.isAvailable()) {
+            processor.setSobelVariant(SobelVariant.NATIVE);
+        }
+
+        Log.d(TAG, "FrameProcessor initialized: " + this.width + "x" + this.height +
+              ", workers=" + processor.getWorkerCount() +
+              ", kernel=" + processor.getSobelVariant() +
+              (NativeSobel.isAvailable() ? " (" + NativeSobel.getBestIsa() + ")" : ""));
     }
 
     public byte[] processEdgeDetection(Image image) {
-        // Extract YUV planes from image
-        Image.Plane[] planes = image.getPlanes();
-        
-        ByteBuffer yBuffer = planes[0].getBuffer();
-        ByteBuffer uBuffer = planes[1].getBuffer();
-        ByteBuffer vBuffer = planes[2].getBuffer();
-        
-        int ySize = Math.min(yBuffer.remaining(), yData.length);
-        int uSize = Math.min(uBuffer.remaining(), uData.length);
-        int vSize = Math.min(vBuffer.remaining(), vData.length);
-        
-        Log.d(TAG, "Buffer sizes - Y: " + ySize + "/" + yData.length + 
-              ", U: " + uSize + "/" + uData.length + 
-              ", V: " + vSize + "/" + vData.length);
-        
-        yBuffer.get(yData, 0, ySize);
-        uBuffer.get(uData, 0, uSize);
-        vBuffer.get(vData, 0, vSize);
-        
-        // Apply Sobel edge detection on Y plane (modifies yData and copies to outputData)
-        applySobelEdgeDetection();
-        
-        return outputData;
-    }
-
-    private void applySobelEdgeDetection() {
+        return processEdgeDetection(image, processor.getOutputData());
+    }
+
+    public byte[] processEdgeDetection(Image image, byte[] output) {
+        long start = System.nanoTime();
+        wrapPlanes(image);
+        long wrapped = System.nanoTime();
+
         try {
-            // Output: black edges on white background
-            int edgeCount = 0;
-            int totalPixels = 0;
-            int maxMagnitude = 0;
-            int minMagnitude = Integer.MAX_VALUE;
-            long sumMagnitude = 0;
-            
-            for (int y = 1; y < height - 1; y++) {
-                for (int x = 1; x < width - 1; x++) {
-                    int idx = y * width + x;
-                    
-                    // Bounds check
-                    if (idx >= yData.length) {
-                        Log.e(TAG, "Index out of bounds in edge detection: " + idx + " >= " + yData.length);
-                        return;
-                    }
-                    
-                    // Sobel operator for X direction
-                    int gx = (-1 * (yData[(y-1)*width + (x-1)] & 0xFF)) + (0 * (yData[(y-1)*width + x] & 0xFF)) + (1 * (yData[(y-1)*width + (x+1)] & 0xFF)) +
-                             (-2 * (yData[y*width + (x-1)] & 0xFF)) + (0 * (yData[y*width + x] & 0xFF)) + (2 * (yData[y*width + (x+1)] & 0xFF)) +
-                             (-1 * (yData[(y+1)*width + (x-1)] & 0xFF)) + (0 * (yData[(y+1)*width + x] & 0xFF)) + (1 * (yData[(y+1)*width + (x+1)] & 0xFF));
-                    
-                    // Sobel operator for Y direction
-                    int gy = (-1 * (yData[(y-1)*width + (x-1)] & 0xFF)) + (-2 * (yData[(y-1)*width + x] & 0xFF)) + (-1 * (yData[(y-1)*width + (x+1)] & 0xFF)) +
-                             (0 * (yData[y*width + (x-1)] & 0xFF)) + (0 * (yData[y*width + x] & 0xFF)) + (0 * (yData[y*width + (x+1)] & 0xFF)) +
-                             (1 * (yData[(y+1)*width + (x-1)] & 0xFF)) + (2 * (yData[(y+1)*width + x] & 0xFF)) + (1 * (yData[(y+1)*width + (x+1)] & 0xFF));
-                    
-                    // Calculate magnitude
-                    int magnitude = (int) Math.sqrt(gx*gx + gy*gy);
-                    
-                    // Track magnitude statistics
-                    maxMagnitude = Math.max(maxMagnitude, magnitude);
-                    minMagnitude = Math.min(minMagnitude, magnitude);
-                    sumMagnitude += magnitude;
-                    
-                    // Black edges (0) on white background (255) - threshold based on observed avg ~600
-                    if (magnitude > 750) {
-                        yData[idx] = (byte)0;
-                        edgeCount++;
-                    } else {
-                        yData[idx] = (byte)255;
-                    }
-                    totalPixels++;
-                }
+            processor.processEdgeDetection(yPlane, uPlane, vPlane, output);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineStage.PLANE_COPY, wrapped - start);
+                metrics.record(PipelineStage.KERNEL, System.nanoTime() - wrapped);
+            }
+
+            if (trace.sample()) {
+                EdgeStats stats = processor.getStats();
+                Log.d(TAG, "Planes - Y: " + yPlane.remaining() + "b stride " + yPlane.getRowStride() +
+                      ", U/V: " + uPlane.remaining() + "b stride " + uPlane.getRowStride() +
+                      " pixelStride " + uPlane.getPixelStride());
+                Log.d(TAG, "Edge Stats - Edges: " + stats.getEdgeCount() + "/" + stats.getTotalPixels() + " (" + String.format("%.2f", stats.getEdgePercent()) + "%)");
+                Log.d(TAG, "Magnitude - Min: " + stats.getMinMagnitude() + ", Max: " + stats.getMaxMagnitude() + ", Avg: " + String.format("%.2f", stats.getAvgMagnitude()));
+                Log.d(TAG, "Threshold: " + stats.getThreshold() + " (edges detected above this value)");
             }
-            
-            // Log detailed edge detection statistics
-            float edgePercent = (edgeCount * 100.0f) / totalPixels;
-            float avgMagnitude = sumMagnitude / (float)totalPixels;
-            Log.d(TAG, "Edge Stats - Edges: " + edgeCount + "/" + totalPixels + " (" + String.format("%.2f", edgePercent) + "%)");
-            Log.d(TAG, "Magnitude - Min: " + minMagnitude + ", Max: " + maxMagnitude + ", Avg: " + String.format("%.2f", avgMagnitude));
-            Log.d(TAG, "Threshold: 750 (edges detected above this value)");
-            
-            // Copy edge-detected Y plane to output
-            System.arraycopy(yData, 0, outputData, 0, yData.length);
-            
         } catch (Exception e) {
             Log.e(TAG, "Error in applySobelEdgeDetection: " + e.getMessage(), e);
         }
+
+        return output;
+    }
+
+    /**
+     * Edge map as a 1-bit {@link com.edgedetection.core.EdgeBits} map of
+     * {@link #getPackedSize()} bytes, written directly by the Java kernel
+     * where it can.
+     */
+    public byte[] processPackedEdges(Image image, byte[] packed) {
+        long start = System.nanoTime();
+        wrapPlanes(image);
+        long wrapped = System.nanoTime();
+
+        try {
+            processor.processPackedEdges(yPlane, packed);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineStage.PLANE_COPY, wrapped - start);
+                metrics.record(PipelineStage.KERNEL, System.nanoTime() - wrapped);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error in processPackedEdges: " + e.getMessage(), e);
+        }
+
+        return packed;
+    }
+
+    /**
+     * Luma through a {@link FilterGraph} into the first width * height
+     * bytes of output.
+     */
+    public byte[] processFilterGraph(Image image, FilterGraph graph, byte[] output) {
+        long start = System.nanoTime();
+        wrapPlanes(image);
+        long wrapped = System.nanoTime();
+
+        try {
+            processor.processFilterGraph(yPlane, graph, output);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineStage.PLANE_COPY, wrapped - start);
+                metrics.record(PipelineStage.KERNEL, System.nanoTime() - wrapped);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error in processFilterGraph: " + e.getMessage(), e);
+        }
+
+        return output;
     }
 
     public byte[] getRawFrame(Image image) {
+        return getRawFrame(image, processor.getOutputData());
+    }
+
+    public byte[] getRawFrame(Image image, byte[] output) {
         try {
-            // Extract YUV planes and convert to NV21 format
-            Image.Plane[] planes = image.getPlanes();
-            
-            ByteBuffer yBuffer = planes[0].getBuffer();
-            ByteBuffer uBuffer = planes[1].getBuffer();
-            ByteBuffer vBuffer = planes[2].getBuffer();
-            
-            int ySize = Math.min(yBuffer.remaining(), outputData.length);
-            yBuffer.get(outputData, 0, ySize);
-            
-            int uvStartIdx = width * height;
-            int uvPixelStride = planes[1].getPixelStride();
-            
-            if (uvPixelStride == 1) {
-                // Packed format
-                int uvSize = Math.min(uBuffer.remaining(), outputData.length - uvStartIdx);
-                uBuffer.get(outputData, uvStartIdx, uvSize);
-            } else {
-                // Semi-planar format
-                int uvBufferSize = uBuffer.remaining();
-                byte[] uvPixels = new byte[uvBufferSize];
-                uBuffer.get(uvPixels);
-                
-                // Interleave U and V
-                int pos = uvStartIdx;
-                int maxPos = outputData.length;
-                for (int i = 0; i < uvPixels.length / 2 && pos < maxPos - 1; i++) {
-                    outputData[pos++] = uvPixels[i * 2 + 1]; // V
-                    outputData[pos++] = uvPixels[i * 2];     // U
-                }
+            long start = System.nanoTime();
+            wrapPlanes(image);
+            processor.getRawFrame(yPlane, uPlane, vPlane, output);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineStage.PLANE_COPY, System.nanoTime() - start);
             }
-            
-            return outputData;
+            return output;
         } catch (Exception e) {
             Log.e(TAG, "Error in getRawFrame: " + e.getMessage(), e);
-            return outputData;
+            return output;
         }
     }
+
+    /**
+     * Where PLANE_COPY and KERNEL timings go; null turns them off.
+     */
+    public void setPipelineMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public int getOutputSize() {
+        return processor.getOutputSize();
+    }
+
+    public int getPackedSize() {
+        return processor.getPackedSize();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        processor.setWorkerCount(workerCount);
+        Log.d(TAG, "Sobel worker count: " + workerCount);
+    }
+
+    public void setSobelVariant(SobelVariant variant) {
+        processor.setSobelVariant(variant);
+        Log.d(TAG, "Sobel kernel: " + variant);
+    }
+
+    public void setEdgeDetector(EdgeDetector detector) {
+        processor.setEdgeDetector(detector);
+        Log.d(TAG, "Edge detector: " + detector);
+    }
+
+    /**
+     * Filter graphs in one tiled pass (default) or one full-frame pass per
+     * stage.
+     */
+    public void setFusedFilters(boolean fused) {
+        processor.setFusedFilters(fused);
+        Log.d(TAG, "Fused filter graphs: " + fused);
+    }
+
+    /**
+     * Gaussian blur of this sigma before Sobel, 0 for none; lower the
+     * threshold along with it.
+     */
+    public void setPreSmoothing(float sigma) {
+        processor.setPreSmoothing(sigma);
+        Log.d(TAG, "Pre-smoothing sigma: " + sigma);
+    }
+
+    /**
+     * Dilate / erode / open / close the edge map with a (2 * radius + 1)^2
+     * square before it is displayed; NONE turns it off.
+     */
+    public void setMorphology(MorphologyOp op, int radius) {
+        processor.setMorphology(op, radius);
+        Log.d(TAG, "Edge morphology: " + op + " r=" + radius);
+    }
+
+    /**
+     * FIXED keeps the hard-coded threshold; OTSU / PERCENTILE derive it from
+     * the gradient histogram of the previous frames.
+     */
+    public void setThresholdMode(ThresholdMode mode) {
+        processor.setThresholdMode(mode);
+        Log.d(TAG, "Threshold mode: " + mode);
+    }
+
+    /**
+     * Process at full, 1/2 or 1/4 resolution depending on measured frame time.
+     */
+    public void setAdaptiveResolution(boolean enabled) {
+        processor.setAdaptiveResolution(enabled);
+        Log.d(TAG, "Adaptive resolution: " + enabled);
+    }
+
+    /**
+     * Recompute only the tiles that changed since the previous frame, with
+     * a full refresh every few frames. Meant for mostly static scenes.
+     */
+    public void setIncremental(boolean enabled) {
+        processor.setIncremental(enabled);
+        Log.d(TAG, "Incremental processing: " + enabled);
+    }
+
+    public boolean isIncremental() {
+        return processor.isIncremental();
+    }
+
+    /**
+     * Share of tiles recomputed for the last incremental frame.
+     */
+    public float getRecomputedTilePercent() {
+        return processor.getIncrementalSobel().getRecomputedTilePercent();
+    }
+
+    public ResolutionScaler getResolutionScaler() {
+        return processor.getResolutionScaler();
+    }
+
+    public boolean isAdaptiveResolution() {
+        return processor.isAdaptiveResolution();
+    }
+
+    public void release() {
+        processor.close();
+    }
+
+    private void wrapPlanes(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        yPlane.set(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride());
+        uPlane.set(planes[1].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride());
+        vPlane.set(planes[2].getBuffer(), planes[2].getRowStride(), planes[2].getPixelStride());
+    }
 }
@@ -5,12 +5,23 @@ import android.opengl.GLSurfaceView;
 import android.opengl.GLES20;
 import android.opengl.GLES11Ext;
 import android.util.Log;
+import com.edgedetection.core.DistortionMesh;
+import com.edgedetection.core.EdgeBits;
+import com.edgedetection.core.FrameExchange;
+import com.edgedetection.core.FrameSpan;
+import com.edgedetection.core.FrameTracer;
+import com.edgedetection.core.GlslSources;
+import com.edgedetection.core.PipelineMetrics;
+import com.edgedetection.core.PipelineStage;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 public class GLRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = "GLRenderer";
@@ -23,6 +34,12 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     private int processedPositionHandle;
     private int processedTexCoordHandle;
     private int processedTextureHandle;
+    private int packedProgram;
+    private int packedPositionHandle;
+    private int packedTexCoordHandle;
+    private int packedTextureHandle;
+    private int packedWidthHandle;
+    private int packedRowBytesHandle;
     private int textureId;
     private SurfaceTexture surfaceTexture;
     private float[] mSTMatrix = new float[16];
@@ -37,12 +54,54 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     private FloatBuffer vertexBuffer;
     private FloatBuffer texCoordBuffer;
     
-    private byte[] frameData;
-    private boolean hasNewFrame = false;
+    // Written by the camera thread, read here through a lock-free triple buffer
+    private volatile FrameExchange frameExchange;
     private boolean isProcessedFrame = false;
+    // 1-bit EdgeBits map; the texture is rowBytes wide and the shader unpacks it
+    private boolean isPackedFrame = false;
     private int processedWidth = 0;
     private int processedHeight = 0;
-    private int processedTextureId = -1;
+    private final TextureUploader uploader = new TextureUploader();
+    private volatile boolean pixelBufferUploads = false;
+    
+    // Drawn only on demand (RENDERMODE_WHEN_DIRTY): a new camera texture
+    // frame or a newly published exchange frame requests a render
+    private Runnable renderRequester;
+    private final AtomicBoolean cameraFrameAvailable = new AtomicBoolean();
+    private volatile boolean showingCameraTexture = true;
+    private long drawCount = 0;
+    private long redundantDrawCount = 0;
+    private long lastLogDraws = 0;
+    private long lastLogRedundant = 0;
+    private long lastLogUploads = 0;
+    private long lastLogUploadNanos = 0;
+    private volatile PipelineMetrics metrics;
+    
+    // Sensor-to-photon tracing. Times come from the camera's timestamp clock;
+    // the swap is stamped by a GL-thread event, which GLSurfaceView runs
+    // only after eglSwapBuffers for the current draw has returned
+    private volatile FrameTracer tracer;
+    private volatile LongSupplier clock = System::nanoTime;
+    private Consumer<Runnable> glEventQueue;
+    private long shownTimestamp;
+    private long swapTimestamp;
+    private long swapDrawEnd;
+    private final Runnable swapStamp = this::onSwapped;
+    
+    // GPU edge mode: Sobel runs as shader passes on the camera's OES texture
+    private final SobelPass sobelPass = new SobelPass(true);
+    private final PassChain edgeChain = new PassChain().add(sobelPass);
+    private volatile boolean gpuEdgeMode = false;
+    private volatile int gpuWidth = 0;
+    private volatile int gpuHeight = 0;
+    private int viewportWidth;
+    private int viewportHeight;
+    
+    // Side-by-side stereo through a lens pre-distortion mesh
+    private final StereoMesh stereoMesh = new StereoMesh();
+    private volatile boolean stereoMode = false;
+    private volatile float lensK1 = DistortionMesh.DEFAULT_K1;
+    private volatile float lensK2 = DistortionMesh.DEFAULT_K2;
     
     public interface SurfaceTextureListener {
         void onSurfaceTextureReady(SurfaceTexture surfaceTexture);
@@ -99,6 +158,29 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         processedTexCoordHandle = GLES20.glGetAttribLocation(processedProgram, "vTexCoord");
         processedTextureHandle = GLES20.glGetUniformLocation(processedProgram, "sTexture");
         
+        // Same quad, but sampling a packed edge map
+        int packedFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, getPackedFragmentShaderCode());
+        
+        packedProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(packedProgram, vertexShader);
+        GLES20.glAttachShader(packedProgram, packedFragmentShader);
+        GLES20.glLinkProgram(packedProgram);
+        
+        GLES20.glGetProgramiv(packedProgram, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0) {
+            Log.e(TAG, "Failed to link packed program: " + GLES20.glGetProgramInfoLog(packedProgram));
+        }
+        
+        packedPositionHandle = GLES20.glGetAttribLocation(packedProgram, "vPosition");
+        packedTexCoordHandle = GLES20.glGetAttribLocation(packedProgram, "vTexCoord");
+        packedTextureHandle = GLES20.glGetUniformLocation(packedProgram, "sTexture");
+        packedWidthHandle = GLES20.glGetUniformLocation(packedProgram, "uWidth");
+        packedRowBytesHandle = GLES20.glGetUniformLocation(packedProgram, "uRowBytes");
+        
+        edgeChain.init(vertexShader);
+        uploader.init();
+        stereoMesh.init();
+        
         // Create texture using OES_EGL_image_external
         int[] textureArray = new int[1];
         GLES20.glGenTextures(1, textureArray, 0);
@@ -136,7 +218,12 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         // Create SurfaceTexture
         surfaceTexture = new SurfaceTexture(textureId);
         surfaceTexture.setOnFrameAvailableListener(st -> {
-            Log.d(TAG, "Frame available from camera");
+            cameraFrameAvailable.set(true);
+            // In CPU edge mode the camera texture is not shown, so its frames
+            // must not cause draws; the exchange requests those
+            if (showingCameraTexture) {
+                requestRender();
+            }
         });
         
         if (surfaceTextureListener != null) {
@@ -149,83 +236,175 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
+        viewportWidth = width;
+        viewportHeight = height;
         Log.d(TAG, "Surface changed: " + width + "x" + height);
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        LongSupplier clock = this.clock;
+        long start = clock.getAsLong();
+        shownTimestamp = 0;
+        drawFrame(start);
+        long end = clock.getAsLong();
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.record(PipelineStage.DRAW, end - start);
+        }
+        
+        // Only the first draw that shows a frame counts towards its latency
+        FrameTracer tracer = this.tracer;
+        Consumer<Runnable> eventQueue = glEventQueue;
+        if (tracer != null && shownTimestamp != 0) {
+            tracer.record(FrameSpan.DRAW, shownTimestamp, start, end);
+            if (eventQueue != null) {
+                swapTimestamp = shownTimestamp;
+                swapDrawEnd = end;
+                eventQueue.accept(swapStamp);
+            }
+        }
+        updateFPS();
+    }
+    
+    private void onSwapped() {
+        FrameTracer tracer = this.tracer;
+        if (tracer == null || swapTimestamp == 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        tracer.record(FrameSpan.SWAP, swapTimestamp, swapDrawEnd, now);
+        tracer.record(FrameSpan.SENSOR_TO_PHOTON, swapTimestamp, swapTimestamp, now);
+        swapTimestamp = 0;
+    }
+    
+    private void drawFrame(long drawStart) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         
+        drawCount++;
+        
+        if (gpuEdgeMode && surfaceTexture != null && gpuWidth > 0) {
+            boolean newCameraFrame = cameraFrameAvailable.getAndSet(false);
+            if (!newCameraFrame) {
+                redundantDrawCount++;
+            }
+            drawGpuEdges();
+            if (newCameraFrame) {
+                // Camera frames reach the SurfaceTexture stamped with the sensor timestamp
+                shownTimestamp = surfaceTexture.getTimestamp();
+            }
+            return;
+        }
+        
+        // Pick up the newest complete frame, if one arrived since the last draw
+        FrameExchange exchange = frameExchange;
+        FrameExchange.Slot frame = exchange != null ? exchange.acquire() : null;
+        if (frame != null) {
+            isProcessedFrame = frame.isProcessed();
+            isPackedFrame = frame.isPacked();
+            processedWidth = frame.getWidth();
+            processedHeight = frame.getHeight();
+            showingCameraTexture = !isProcessedFrame;
+        }
+        boolean newCameraFrame = cameraFrameAvailable.getAndSet(false);
+        if (isProcessedFrame ? frame == null : !newCameraFrame) {
+            redundantDrawCount++;
+        }
+        
+        if (pixelBufferUploads != uploader.isPixelBuffersEnabled()) {
+            uploader.setPixelBuffersEnabled(pixelBufferUploads);
+        }
+        
         // Update texture based on mode
-        if (isProcessedFrame && hasNewFrame && frameData != null) {
-            // Use processed frame as regular 2D texture
-            if (processedTextureId == -1) {
-                int[] texArray = new int[1];
-                GLES20.glGenTextures(1, texArray, 0);
-                processedTextureId = texArray[0];
+        if (isProcessedFrame && frame != null) {
+            // Grayscale edge data (only Y plane) into the preallocated 2D
+            // texture; a packed map is an eighth of the width
+            long uploadStart = clock.getAsLong();
+            int uploadWidth = isPackedFrame ? EdgeBits.rowBytes(processedWidth) : processedWidth;
+            long uploadNanos = uploader.upload(frame.getData(), uploadWidth, processedHeight);
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineStage.UPLOAD, uploadNanos);
+            }
+            FrameTracer tracer = this.tracer;
+            long timestamp = frame.getSensorTimestampNs();
+            if (tracer != null && timestamp != 0) {
+                tracer.record(FrameSpan.EXCHANGE, timestamp, frame.getPublishedNs(), drawStart);
+                tracer.record(FrameSpan.UPLOAD, timestamp, uploadStart, uploadStart + uploadNanos);
+                shownTimestamp = timestamp;
             }
-            
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, processedTextureId);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-            
-            // Upload grayscale edge detection data (only Y plane)
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, 
-                processedWidth, processedHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 
-                ByteBuffer.wrap(frameData, 0, processedWidth * processedHeight));
-            
-            hasNewFrame = false;
         } else if (!isProcessedFrame && surfaceTexture != null) {
             // Use camera texture (OES external)
             surfaceTexture.updateTexImage();
+            if (newCameraFrame) {
+                shownTimestamp = surfaceTexture.getTimestamp();
+            }
         }
         
         // Use appropriate shader program
-        if (isProcessedFrame) {
+        if (isProcessedFrame && isPackedFrame) {
+            GLES20.glUseProgram(packedProgram);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, uploader.getTextureId());
+            GLES20.glUniform1i(packedTextureHandle, 0);
+            GLES20.glUniform1f(packedWidthHandle, processedWidth);
+            GLES20.glUniform1f(packedRowBytesHandle, EdgeBits.rowBytes(processedWidth));
+            drawQuad(packedPositionHandle, packedTexCoordHandle);
+        } else if (isProcessedFrame) {
             GLES20.glUseProgram(processedProgram);
             
-            // Set position
-            vertexBuffer.position(0);
-            GLES20.glVertexAttribPointer(processedPositionHandle, 2, GLES20.GL_FLOAT, false, 8, vertexBuffer);
-            GLES20.glEnableVertexAttribArray(processedPositionHandle);
-            
-            // Set texture coordinates
-            texCoordBuffer.position(0);
-            GLES20.glVertexAttribPointer(processedTexCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texCoordBuffer);
-            GLES20.glEnableVertexAttribArray(processedTexCoordHandle);
-            
             // Bind 2D texture
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, processedTextureId);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, uploader.getTextureId());
             GLES20.glUniform1i(processedTextureHandle, 0);
+            drawQuad(processedPositionHandle, processedTexCoordHandle);
         } else {
             GLES20.glUseProgram(program);
             
-            // Set position
-            vertexBuffer.position(0);
-            GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 8, vertexBuffer);
-            GLES20.glEnableVertexAttribArray(positionHandle);
-            
-            // Set texture coordinates
-            texCoordBuffer.position(0);
-            GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texCoordBuffer);
-            GLES20.glEnableVertexAttribArray(texCoordHandle);
-            
             // Bind OES external texture
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
             GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
             GLES20.glUniform1i(textureHandle, 0);
+            drawQuad(positionHandle, texCoordHandle);
         }
+    }
+    
+    /**
+     * Camera texture -> shader passes -> screen, without the ImageReader
+     * and without any CPU readback.
+     */
+    private void drawGpuEdges() {
+        surfaceTexture.updateTexImage();
+        edgeChain.setSize(gpuWidth, gpuHeight);
+        int edges = edgeChain.run(textureId);
+        GLES20.glViewport(0, 0, viewportWidth, viewportHeight);
         
-        // Draw
+        GLES20.glUseProgram(processedProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, edges);
+        GLES20.glUniform1i(processedTextureHandle, 0);
+        drawQuad(processedPositionHandle, processedTexCoordHandle);
+    }
+    
+    /**
+     * Draws the bound program's texture over the whole surface, or into
+     * both eyes through the distortion mesh in stereo mode.
+     */
+    private void drawQuad(int positionHandle, int texCoordHandle) {
+        if (stereoMode) {
+            stereoMesh.draw(positionHandle, texCoordHandle, viewportWidth, viewportHeight, lensK1, lensK2);
+            return;
+        }
+        vertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 8, vertexBuffer);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        texCoordBuffer.position(0);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texCoordBuffer);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        
-        updateFPS();
     }
     
-    private int loadShader(int type, String shaderCode) {
+    static int loadShader(int type, String shaderCode) {
         int shader = GLES20.glCreateShader(type);
         GLES20.glShaderSource(shader, shaderCode);
         GLES20.glCompileShader(shader);
@@ -241,13 +420,7 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     }
     
     private String getVertexShaderCode() {
-        return "attribute vec2 vPosition;" +
-               "attribute vec2 vTexCoord;" +
-               "varying vec2 outTexCoord;" +
-               "void main() {" +
-               "  gl_Position = vec4(vPosition, 0.0, 1.0);" +
-               "  outTexCoord = vTexCoord;" +
-               "}";
+        return GlslSources.VERTEX;
     }
     
     private String getFragmentShaderCode() {
@@ -261,22 +434,146 @@ public class GLRenderer implements GLSurfaceView.Renderer {
     }
     
     private String getProcessedFragmentShaderCode() {
-        return "precision mediump float;" +
+        return GlslSources.GREY_DISPLAY;
+    }
+    
+    /**
+     * Expands an {@link EdgeBits} map: each fragment finds its pixel's byte
+     * (sampled at the texel centre, NEAREST) and tests the bit, MSB first.
+     * GLES 2 has no integer ops, so the bit is extracted with floor and
+     * exp2; every value involved is a small integer, exact even in mediump.
+     */
+    private String getPackedFragmentShaderCode() {
+        return "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+               "precision highp float;\n" +
+               "#else\n" +
+               "precision mediump float;\n" +
+               "#endif\n" +
                "varying vec2 outTexCoord;" +
                "uniform sampler2D sTexture;" +
+               "uniform float uWidth;" +
+               "uniform float uRowBytes;" +
                "void main() {" +
-               "  float gray = texture2D(sTexture, outTexCoord).r;" +
-               "  gl_FragColor = vec4(vec3(gray), 1.0);" +
+               "  float x = min(floor(outTexCoord.x * uWidth), uWidth - 1.0);" +
+               "  float byteX = floor(x / 8.0);" +
+               "  float bit = 7.0 - (x - byteX * 8.0);" +
+               "  float value = floor(texture2D(sTexture, vec2((byteX + 0.5) / uRowBytes, outTexCoord.y)).r * 255.0 + 0.5);" +
+               "  float edge = mod(floor(value / exp2(bit)), 2.0);" +
+               "  gl_FragColor = vec4(vec3(1.0 - edge), 1.0);" +
                "}";
     }
     
-    public void updateFrame(byte[] data, int width, int height, boolean isProcessed) {
-        this.frameData = data;
-        this.processedWidth = width;
-        this.processedHeight = height;
-        this.isProcessedFrame = isProcessed;
-        this.hasNewFrame = true;
-        Log.d(TAG, "Frame updated: " + width + "x" + height + " processed=" + isProcessed);
+    /**
+     * Records exchange, upload, draw and swap spans for every newly shown
+     * frame, and its sensor-to-photon span. clock must be the time base of
+     * the camera's image timestamps.
+     */
+    public void setFrameTracer(FrameTracer tracer, LongSupplier clock) {
+        this.clock = clock;
+        this.tracer = tracer;
+    }
+    
+    /**
+     * The view's queueEvent(); used to stamp the buffer swap.
+     */
+    public void setGlEventQueue(Consumer<Runnable> eventQueue) {
+        this.glEventQueue = eventQueue;
+    }
+    
+    /**
+     * UPLOAD and DRAW timings go here.
+     */
+    public void setPipelineMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    public void setFrameExchange(FrameExchange exchange) {
+        this.frameExchange = exchange;
+    }
+    
+    /**
+     * Called by the view with its requestRender(); the renderer draws only
+     * when a frame arrives (RENDERMODE_WHEN_DIRTY).
+     */
+    public void setRenderRequester(Runnable requester) {
+        this.renderRequester = requester;
+    }
+    
+    /**
+     * Producer side, after publishing to the frame exchange. Raw frames
+     * only matter while the processed texture is still on screen; after
+     * that the camera texture's own frames drive drawing.
+     */
+    public void onFramePublished(boolean processed) {
+        if (processed || !showingCameraTexture) {
+            requestRender();
+        }
+    }
+    
+    /**
+     * Upload processed frames through two pixel unpack buffers (GLES 3
+     * only, otherwise ignored).
+     */
+    public void setPixelBufferUploads(boolean enabled) {
+        this.pixelBufferUploads = enabled;
+    }
+    
+    private void requestRender() {
+        Runnable requester = renderRequester;
+        if (requester != null) {
+            requester.run();
+        }
+    }
+    
+    /**
+     * Runs Sobel in a fragment shader on the camera texture instead of
+     * drawing CPU-processed frames. Size is the camera buffer size, so the
+     * passes sample every texel at its centre.
+     */
+    public void setGpuEdgeMode(boolean enabled, int width, int height) {
+        this.gpuWidth = width;
+        this.gpuHeight = height;
+        this.gpuEdgeMode = enabled;
+        showingCameraTexture = enabled || !isProcessedFrame;
+        requestRender();
+        Log.d(TAG, "GPU edge mode: " + enabled + " (" + width + "x" + height + ")");
+    }
+    
+    public boolean isGpuEdgeMode() {
+        return gpuEdgeMode;
+    }
+    
+    public void setGpuThreshold(int threshold) {
+        sobelPass.setThreshold(threshold);
+    }
+    
+    /**
+     * Side-by-side stereo for a phone in a VR viewer: the camera or
+     * processed image in each half of the surface, pre-distorted for the
+     * viewer's lenses.
+     */
+    public void setStereoMode(boolean enabled) {
+        this.stereoMode = enabled;
+        requestRender();
+        Log.d(TAG, "Stereo mode: " + enabled);
+    }
+    
+    public boolean isStereoMode() {
+        return stereoMode;
+    }
+    
+    /**
+     * Radial coefficients of the viewer's lenses, in units of the eye's
+     * half height (see {@link DistortionMesh}); 0, 0 for none. The mesh is
+     * rebuilt on the next stereo draw.
+     */
+    public void setLensDistortion(float k1, float k2) {
+        if (!(k1 >= 0) || !(k2 >= 0)) {
+            throw new IllegalArgumentException("Lens coefficients must not be negative: " + k1 + ", " + k2);
+        }
+        this.lensK1 = k1;
+        this.lensK2 = k2;
+        requestRender();
     }
     
     private void updateFPS() {
@@ -289,11 +586,33 @@ public class GLRenderer implements GLSurfaceView.Renderer {
             fps = frameCount * 1000.0f / (currentTime - lastTime);
             frameCount = 0;
             lastTime = currentTime;
-            Log.d(TAG, "FPS: " + fps);
+            FrameExchange exchange = frameExchange;
+            if (exchange != null) {
+                Log.d(TAG, "FPS: " + fps + ", frames produced=" + exchange.getProducedCount() +
+                      " consumed=" + exchange.getConsumedCount() + " dropped=" + exchange.getDroppedCount());
+            } else {
+                Log.d(TAG, "FPS: " + fps);
+            }
+            long uploads = uploader.getUploadCount() - lastLogUploads;
+            long uploadNanos = uploader.getUploadNanos() - lastLogUploadNanos;
+            Log.d(TAG, "Draws: " + (drawCount - lastLogDraws) +
+                  " (redundant " + (redundantDrawCount - lastLogRedundant) + ")" +
+                  ", uploads: " + uploads +
+                  (uploads > 0 ? " avg " + uploadNanos / uploads / 1000 + "us" : "") +
+                  (uploader.isPixelBuffersEnabled() ? " PBO, fence waits " + uploader.getFenceWaitCount() : "") +
+                  ", storage allocations: " + uploader.getAllocationCount());
+            lastLogDraws = drawCount;
+            lastLogRedundant = redundantDrawCount;
+            lastLogUploads = uploader.getUploadCount();
+            lastLogUploadNanos = uploader.getUploadNanos();
             
             // Notify MainActivity to update UI
             if (mainActivity != null) {
                 mainActivity.updateFPS((int) fps);
+                PipelineMetrics metrics = this.metrics;
+                if (metrics != null) {
+                    mainActivity.updateStageOverlay(metrics.formatCompact());
+                }
             }
         }
     }
@@ -302,6 +621,26 @@ public class GLRenderer implements GLSurfaceView.Renderer {
         return fps;
     }
     
+    public long getDrawCount() {
+        return drawCount;
+    }
+    
+    /**
+     * Draws that showed nothing new (no frame arrived since the previous
+     * one), e.g. surface redraws. Stays near zero under WHEN_DIRTY.
+     */
+    public long getRedundantDrawCount() {
+        return redundantDrawCount;
+    }
+    
+    /**
+     * Mean CPU-side texture upload time in microseconds over all frames.
+     */
+    public float getAverageUploadMicros() {
+        long count = uploader.getUploadCount();
+        return count > 0 ? uploader.getUploadNanos() / 1000.0f / count : 0.0f;
+    }
+    
     public SurfaceTexture getSurfaceTexture() {
         return surfaceTexture;
     }
@@ -0,0 +1,190 @@
+package com.edgedetection;
+
+import android.opengl.GLES20;
+import android.opengl.GLES11Ext;
+import android.util.Log;
+import com.edgedetection.core.GlslSources;
+
+import java.nio.FloatBuffer;
+
+/**
+ * One full-screen shader pass of a {@link PassChain}. Samples its input
+ * texture (the camera's OES texture for the first pass, the previous
+ * pass's output after that) and renders into its own FBO texture at the
+ * chain's resolution. Subclasses only supply the fragment shader body and
+ * any extra uniforms. All methods run on the GL thread.
+ */
+abstract class GlPass {
+    private static final String TAG = "GlPass";
+
+    private final String name;
+    private final boolean externalInput;
+
+    private int program;
+    private int positionHandle;
+    private int texCoordHandle;
+    private int textureHandle;
+    private int texelSizeHandle;
+    private int sizeHandle;
+
+    private int framebuffer;
+    private int outputTexture;
+    private int width;
+    private int height;
+
+    /**
+     * @param externalInput true if the input is a samplerExternalOES
+     *                      (camera) texture rather than a sampler2D
+     */
+    protected GlPass(String name, boolean externalInput) {
+        this.name = name;
+        this.externalInput = externalInput;
+    }
+
+    /**
+     * Declarations and main() of the fragment shader. The common header
+     * ({@link GlslSources#passHeader}) already declares {@code varying vec2 outTexCoord}, {@code sTexture},
+     * {@code uniform vec2 uTexelSize} (one texel in texture coordinates)
+     * and {@code uniform vec2 uSize} (output size in pixels), and selects
+     * highp where the GPU has it.
+     */
+    protected abstract String getFragmentShaderBody();
+
+    /**
+     * Looks up extra uniform locations once the program is linked.
+     */
+    protected void onProgramLinked(int program) {
+    }
+
+    /**
+     * Sets extra uniforms; called with the program in use before each draw.
+     */
+    protected void setUniforms() {
+    }
+
+    /**
+     * Compiles the pass in the current context. Also called after an EGL
+     * context loss, when the old program and FBO names are already gone.
+     */
+    void init(int vertexShader) {
+        framebuffer = 0;
+        outputTexture = 0;
+        width = 0;
+        height = 0;
+        int fragmentShader = GLRenderer.loadShader(GLES20.GL_FRAGMENT_SHADER, getFragmentShaderCode());
+        program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0) {
+            Log.e(TAG, "Failed to link " + name + " program: " + GLES20.glGetProgramInfoLog(program));
+        }
+        // Stays attached to the program; the GL deletes it with the program
+        GLES20.glDeleteShader(fragmentShader);
+
+        positionHandle = GLES20.glGetAttribLocation(program, "vPosition");
+        texCoordHandle = GLES20.glGetAttribLocation(program, "vTexCoord");
+        textureHandle = GLES20.glGetUniformLocation(program, "sTexture");
+        texelSizeHandle = GLES20.glGetUniformLocation(program, "uTexelSize");
+        sizeHandle = GLES20.glGetUniformLocation(program, "uSize");
+        onProgramLinked(program);
+    }
+
+    /**
+     * (Re)allocates the output texture and FBO; a no-op if the size is
+     * unchanged.
+     */
+    void resize(int width, int height) {
+        if (width == this.width && height == this.height && framebuffer != 0) {
+            return;
+        }
+        releaseTarget();
+        this.width = width;
+        this.height = height;
+
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        outputTexture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, outputTexture);
+        // Later passes sample exact texel centres, so no filtering
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        // RGBA8 is the only colour format GLES 2.0 guarantees to be renderable
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        framebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, outputTexture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, name + " framebuffer incomplete: 0x" + Integer.toHexString(status));
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Draws inputTexture through this pass into its FBO and returns the
+     * output texture. Leaves the pass's FBO bound.
+     */
+    int render(int inputTexture, FloatBuffer vertices, FloatBuffer texCoords) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glUseProgram(program);
+
+        vertices.position(0);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, 8, vertices);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        texCoords.position(0);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 8, texCoords);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(externalInput ? GLES11Ext.GL_TEXTURE_EXTERNAL_OES : GLES20.GL_TEXTURE_2D, inputTexture);
+        GLES20.glUniform1i(textureHandle, 0);
+        GLES20.glUniform2f(texelSizeHandle, 1.0f / width, 1.0f / height);
+        GLES20.glUniform2f(sizeHandle, width, height);
+        setUniforms();
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        return outputTexture;
+    }
+
+    int getOutputTexture() {
+        return outputTexture;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void release() {
+        releaseTarget();
+        if (program != 0) {
+            GLES20.glDeleteProgram(program);
+            program = 0;
+        }
+    }
+
+    private void releaseTarget() {
+        if (framebuffer != 0) {
+            GLES20.glDeleteFramebuffers(1, new int[]{framebuffer}, 0);
+            GLES20.glDeleteTextures(1, new int[]{outputTexture}, 0);
+            framebuffer = 0;
+            outputTexture = 0;
+        }
+        width = 0;
+        height = 0;
+    }
+
+    private String getFragmentShaderCode() {
+        return GlslSources.passHeader(externalInput) + getFragmentShaderBody();
+    }
+}
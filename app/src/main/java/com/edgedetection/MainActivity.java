@@ -3,6 +3,11 @@ package com.edgedetection;
 import android.Manifest;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.util.Log;
+import android.view.View;
+import android.widget.FrameLayout;
 import android.widget.LinearLayout;
 import android.widget.Button;
 import android.widget.TextView;
@@ -10,18 +15,49 @@ import android.view.SurfaceView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import com.edgedetection.core.EdgeDetector;
+import com.edgedetection.core.EdgeStreamServer;
+import com.edgedetection.core.FilterGraph;
+import com.edgedetection.core.FilterStage;
+import com.edgedetection.core.FrameRecorder;
+import com.edgedetection.core.FrameTracer;
+import com.edgedetection.core.PipelineMetrics;
+import com.edgedetection.core.PipelineStage;
+import com.edgedetection.core.SobelKernel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 public class MainActivity extends AppCompatActivity {
     private static final int CAMERA_PERMISSION_CODE = 100;
     private CameraHandler cameraHandler;
     private GLRenderer glRenderer;
     private TextView fpsCounter;
+    private TextView stageOverlay;
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    // ~9 spans per frame: the last ~30 s at 60 fps
+    private final FrameTracer tracer = new FrameTracer(16384);
     private Button toggleButton;
-    private boolean showRawFeed = false;  // Start with edge detection mode
-
-    static {
-        System.loadLibrary("edgedetector");
-    }
+    private Button recordButton;
+    // About the last 3 s of raw frames plus edge maps at 30 fps (~250 MB at 720p)
+    private static final int RECORDING_SLOTS = 180;
+    private FrameRecorder recorder;
+    private Button streamButton;
+    private Button stereoButton;
+    private EdgeStreamServer streamServer;
+    // Blur, Sobel and thicken the (black) edges; the blur flattens a step's
+    // gradient to about 2/3, so the threshold follows
+    private static final FilterGraph SMOOTH_EDGES = new FilterGraph(
+        FilterStage.boxBlur(1),
+        FilterStage.sobel(SobelKernel.DEFAULT_THRESHOLD * 2 / 3),
+        FilterStage.erode(1));
+    private FilterGraph filterGraph = FilterGraph.EDGES;  // Start with edge detection mode
+    private EdgeDetector edgeDetector = EdgeDetector.SOBEL;
+    private boolean gpuEdges = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -34,7 +70,26 @@ public class MainActivity extends AppCompatActivity {
         OpenGLSurfaceView glView = new OpenGLSurfaceView(this);
         glRenderer = glView.getRenderer();
         glRenderer.setMainActivity(this);  // Pass reference for FPS updates
-        layout.addView(glView, new LinearLayout.LayoutParams(
+        glRenderer.setPipelineMetrics(metrics);
+        tracer.setSensorToPhotonHistogram(metrics.get(PipelineStage.SENSOR_TO_PHOTON));
+        
+        // Stage latency overlay (p50/p99/max ms) on top of the GL view
+        FrameLayout glContainer = new FrameLayout(this);
+        glContainer.addView(glView, new FrameLayout.LayoutParams(
+            FrameLayout.LayoutParams.MATCH_PARENT,
+            FrameLayout.LayoutParams.MATCH_PARENT
+        ));
+        stageOverlay = new TextView(this);
+        stageOverlay.setTypeface(Typeface.MONOSPACE);
+        stageOverlay.setTextSize(11);
+        stageOverlay.setTextColor(Color.GREEN);
+        stageOverlay.setBackgroundColor(0x80000000);
+        stageOverlay.setPadding(8, 8, 8, 8);
+        glContainer.addView(stageOverlay, new FrameLayout.LayoutParams(
+            FrameLayout.LayoutParams.WRAP_CONTENT,
+            FrameLayout.LayoutParams.WRAP_CONTENT
+        ));
+        layout.addView(glContainer, new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT, 
             LinearLayout.LayoutParams.MATCH_PARENT, 
             1.0f
@@ -49,6 +104,14 @@ public class MainActivity extends AppCompatActivity {
         fpsCounter = new TextView(this);
         fpsCounter.setText("FPS: 0");
         fpsCounter.setTextSize(14);
+        // Tap: show/hide the stage overlay; long press: dump histograms to the log,
+        // export the frame trace and reset
+        fpsCounter.setOnClickListener(v -> stageOverlay.setVisibility(
+            stageOverlay.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE));
+        fpsCounter.setOnLongClickListener(v -> {
+            dumpMetrics();
+            return true;
+        });
         controlPanel.addView(fpsCounter, new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.WRAP_CONTENT,
             LinearLayout.LayoutParams.WRAP_CONTENT,
@@ -57,13 +120,44 @@ public class MainActivity extends AppCompatActivity {
 
         // Toggle Button
         toggleButton = new Button(this);
-        toggleButton.setText("Raw Feed");
+        toggleButton.setText("Canny");
         toggleButton.setOnClickListener(v -> toggleProcessingMode());
         controlPanel.addView(toggleButton, new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.WRAP_CONTENT,
             LinearLayout.LayoutParams.WRAP_CONTENT
         ));
 
+        // Record: raw frames and edge maps into a ring file for replay off-device
+        recordButton = new Button(this);
+        recordButton.setText("Rec");
+        recordButton.setOnClickListener(v -> toggleRecording());
+        controlPanel.addView(recordButton, new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.WRAP_CONTENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT
+        ));
+
+        // Live: serve edge maps to web viewers on ws://<device>:8765/
+        streamButton = new Button(this);
+        streamButton.setText("Live");
+        streamButton.setOnClickListener(v -> toggleStreaming());
+        controlPanel.addView(streamButton, new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.WRAP_CONTENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT
+        ));
+
+        // VR: side-by-side stereo, pre-distorted for a viewer's lenses
+        stereoButton = new Button(this);
+        stereoButton.setText("VR");
+        stereoButton.setOnClickListener(v -> {
+            boolean stereo = !glRenderer.isStereoMode();
+            glRenderer.setStereoMode(stereo);
+            stereoButton.setText(stereo ? "Flat" : "VR");
+        });
+        controlPanel.addView(stereoButton, new LinearLayout.LayoutParams(
+            LinearLayout.LayoutParams.WRAP_CONTENT,
+            LinearLayout.LayoutParams.WRAP_CONTENT
+        ));
+
         layout.addView(controlPanel, new LinearLayout.LayoutParams(
             LinearLayout.LayoutParams.MATCH_PARENT,
             LinearLayout.LayoutParams.WRAP_CONTENT
@@ -84,15 +178,150 @@ public class MainActivity extends AppCompatActivity {
 
     private void initializeCamera() {
         cameraHandler = new CameraHandler(this, glRenderer);
+        cameraHandler.setPipelineMetrics(metrics);
+        cameraHandler.setFrameTracer(tracer);
         cameraHandler.startCamera();
     }
 
+    // Cycles Sobel -> Canny -> GPU Sobel -> Filters -> Raw Feed; the button names the next mode
     private void toggleProcessingMode() {
-        showRawFeed = !showRawFeed;
-        toggleButton.setText(showRawFeed ? "Edge Detection" : "Raw Feed");
-        android.util.Log.d("MainActivity", "Toggle clicked: showRawFeed = " + showRawFeed);
+        if (filterGraph == FilterGraph.RAW) {
+            filterGraph = FilterGraph.EDGES;
+            edgeDetector = EdgeDetector.SOBEL;
+        } else if (filterGraph == SMOOTH_EDGES) {
+            filterGraph = FilterGraph.RAW;
+        } else if (gpuEdges) {
+            gpuEdges = false;
+            filterGraph = SMOOTH_EDGES;
+        } else if (edgeDetector == EdgeDetector.SOBEL) {
+            edgeDetector = EdgeDetector.CANNY;
+        } else {
+            gpuEdges = true;
+            edgeDetector = EdgeDetector.SOBEL;
+        }
+        toggleButton.setText(filterGraph == FilterGraph.RAW ? "Sobel" : filterGraph == SMOOTH_EDGES ? "Raw Feed"
+                : gpuEdges ? "Filters" : edgeDetector == EdgeDetector.SOBEL ? "Canny" : "GPU Sobel");
+        android.util.Log.d("MainActivity", "Toggle clicked: graph = " + filterGraph + ", gpu = " + gpuEdges +
+                ", detector = " + edgeDetector);
         if (cameraHandler != null) {
-            cameraHandler.setProcessingMode(showRawFeed);
+            cameraHandler.setEdgeDetector(edgeDetector);
+            cameraHandler.setFilterGraph(filterGraph);
+            cameraHandler.setGpuEdgeDetection(gpuEdges);
+        }
+    }
+
+    /**
+     * Starts or stops recording into frames-<ms>.rec in the app's external
+     * files dir. The ring file is created and closed off the UI thread.
+     */
+    private void toggleRecording() {
+        if (cameraHandler == null) {
+            return;
+        }
+        FrameRecorder active = recorder;
+        recorder = null;
+        if (active != null) {
+            cameraHandler.setFrameRecorder(null);
+            recordButton.setText("Rec");
+            new Thread(() -> closeRecorder(active), "RecorderClose").start();
+            return;
+        }
+
+        recordButton.setEnabled(false);
+        int width = cameraHandler.getWidth();
+        int height = cameraHandler.getHeight();
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        File file = new File(dir, "frames-" + System.currentTimeMillis() + ".rec");
+        new Thread(() -> {
+            FrameRecorder opened = null;
+            try {
+                // Room for padded camera rows; wider strides are repacked
+                opened = new FrameRecorder(file, width, height, (width + 255) & ~255, RECORDING_SLOTS);
+                Log.i("MainActivity", "Recording to " + file.getAbsolutePath());
+            } catch (IOException e) {
+                Log.e("MainActivity", "Failed to create recording", e);
+            }
+            FrameRecorder created = opened;
+            runOnUiThread(() -> {
+                recordButton.setEnabled(true);
+                if (created == null) {
+                    return;
+                }
+                if (cameraHandler == null || isDestroyed()) {
+                    new Thread(() -> closeRecorder(created), "RecorderClose").start();
+                    return;
+                }
+                recorder = created;
+                cameraHandler.setFrameRecorder(created);
+                recordButton.setText("Stop");
+            });
+        }, "RecorderOpen").start();
+    }
+
+    /**
+     * Starts or stops the edge stream on {@link EdgeStreamServer#DEFAULT_PORT}.
+     * The socket is bound and closed off the UI thread.
+     */
+    private void toggleStreaming() {
+        if (cameraHandler == null) {
+            return;
+        }
+        EdgeStreamServer active = streamServer;
+        streamServer = null;
+        if (active != null) {
+            cameraHandler.setEdgeStreamServer(null);
+            streamButton.setText("Live");
+            new Thread(() -> closeStreamServer(active), "StreamClose").start();
+            return;
+        }
+
+        streamButton.setEnabled(false);
+        int width = cameraHandler.getWidth();
+        int height = cameraHandler.getHeight();
+        new Thread(() -> {
+            EdgeStreamServer opened = null;
+            try {
+                opened = new EdgeStreamServer(EdgeStreamServer.DEFAULT_PORT, width, height);
+                Log.i("MainActivity", "Streaming edges on port " + opened.getPort());
+            } catch (IOException e) {
+                Log.e("MainActivity", "Failed to start edge stream", e);
+            }
+            EdgeStreamServer created = opened;
+            runOnUiThread(() -> {
+                streamButton.setEnabled(true);
+                if (created == null) {
+                    return;
+                }
+                if (cameraHandler == null || isDestroyed()) {
+                    new Thread(() -> closeStreamServer(created), "StreamClose").start();
+                    return;
+                }
+                streamServer = created;
+                cameraHandler.setEdgeStreamServer(created);
+                streamButton.setText("Off");
+            });
+        }, "StreamOpen").start();
+    }
+
+    private static void closeStreamServer(EdgeStreamServer server) {
+        server.close();
+        long encoded = server.getEncodedCount();
+        Log.i("MainActivity", "Edge stream closed: " + encoded + " frames (" + server.getKeyFrameCount() +
+              " key), " + server.getEncodedBytes() / Math.max(1, encoded) + " B/frame, " +
+              server.getDroppedCount() + " dropped for slow viewers");
+    }
+
+    private static void closeRecorder(FrameRecorder recorder) {
+        try {
+            recorder.close();
+            Log.i("MainActivity", "Recording closed: " + recorder.getWrittenCount() + " records, " +
+                  recorder.getDroppedCount() + " dropped, " +
+                  recorder.getTotalWriteNanos() / Math.max(1, recorder.getWrittenCount()) / 1000 + " us/write");
+        } catch (IOException e) {
+            Log.e("MainActivity", "Failed to close recording", e);
         }
     }
 
@@ -112,11 +341,53 @@ public class MainActivity extends AppCompatActivity {
         if (cameraHandler != null) {
             cameraHandler.stopCamera();
         }
+        if (recorder != null) {
+            FrameRecorder active = recorder;
+            recorder = null;
+            new Thread(() -> closeRecorder(active), "RecorderClose").start();
+        }
+        if (streamServer != null) {
+            EdgeStreamServer active = streamServer;
+            streamServer = null;
+            new Thread(() -> closeStreamServer(active), "StreamClose").start();
+        }
     }
 
     public void updateFPS(int fps) {
         runOnUiThread(() -> fpsCounter.setText("FPS: " + fps));
     }
 
-    public native void processFrame(byte[] frameData, int width, int height);
+    public void updateStageOverlay(String text) {
+        runOnUiThread(() -> stageOverlay.setText("stage      p50   p99   max ms\n" + text));
+    }
+
+    /**
+     * Logs every stage's count and p50/p99/max since the last dump, then
+     * starts a fresh window.
+     */
+    public void dumpMetrics() {
+        Log.i("MainActivity", "Pipeline stage latencies:\n" + metrics.format());
+        metrics.reset();
+        exportTrace();
+    }
+
+    /**
+     * Writes the frame trace ring as Chrome trace-event JSON to the app's
+     * external files dir (adb pull it and open in ui.perfetto.dev).
+     */
+    public void exportTrace() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            dir = getFilesDir();
+        }
+        File file = new File(dir, "frame-trace-" + System.currentTimeMillis() + ".json");
+        new Thread(() -> {
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                tracer.writeChromeTrace(out);
+                Log.i("MainActivity", "Frame trace written to " + file.getAbsolutePath());
+            } catch (IOException e) {
+                Log.e("MainActivity", "Failed to write frame trace", e);
+            }
+        }, "TraceExport").start();
+    }
 }
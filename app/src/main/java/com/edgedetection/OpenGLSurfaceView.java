@@ -11,8 +11,11 @@ public class OpenGLSurfaceView extends GLSurfaceView {
         
         setEGLContextClientVersion(2);
         renderer = new GLRenderer();
+        renderer.setRenderRequester(this::requestRender);
+        renderer.setGlEventQueue(this::queueEvent);
         setRenderer(renderer);
-        setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        // Draw only when the renderer asks, i.e. when a new frame arrived
+        setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
     public GLRenderer getRenderer() {
@@ -0,0 +1,117 @@
+package com.edgedetection;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered list of {@link GlPass}es run entirely on the GPU: each pass
+ * samples the previous one's FBO texture, so nothing is read back to the
+ * CPU. All passes render at the same resolution (normally the camera
+ * buffer size, so every texel is sampled at its centre). Further passes
+ * such as a blur before the Sobel or a separate threshold go in with
+ * {@link #add}. GL thread only.
+ */
+final class PassChain {
+    private final List<GlPass> passes = new ArrayList<>();
+    private final FloatBuffer vertexBuffer;
+    private final FloatBuffer texCoordBuffer;
+    private int width;
+    private int height;
+    private boolean initialized;
+
+    PassChain() {
+        float[] vertices = {
+            -1.0f, -1.0f,
+             1.0f, -1.0f,
+            -1.0f,  1.0f,
+             1.0f,  1.0f
+        };
+        // Unflipped: passes keep the input's texture orientation, the
+        // final on-screen draw applies the usual flip
+        float[] texCoords = {
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+            0.0f, 1.0f,
+            1.0f, 1.0f
+        };
+        vertexBuffer = ByteBuffer.allocateDirect(vertices.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertexBuffer.put(vertices).position(0);
+        texCoordBuffer = ByteBuffer.allocateDirect(texCoords.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        texCoordBuffer.put(texCoords).position(0);
+    }
+
+    /**
+     * Appends a pass. Only the first pass may take an external (OES) input.
+     */
+    PassChain add(GlPass pass) {
+        if (initialized) {
+            throw new IllegalStateException("add passes before init()");
+        }
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * Compiles every pass; needs a current GL context. Call again after
+     * the context is recreated.
+     */
+    void init(int vertexShader) {
+        width = 0;
+        height = 0;
+        for (GlPass pass : passes) {
+            pass.init(vertexShader);
+        }
+        initialized = true;
+    }
+
+    /**
+     * Render size of every pass; FBOs are only reallocated when it changes.
+     */
+    void setSize(int width, int height) {
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        for (GlPass pass : passes) {
+            pass.resize(width, height);
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Runs all passes on inputTexture and returns the last pass's output
+     * texture. Rebinds the default framebuffer; the caller restores its
+     * own viewport.
+     */
+    int run(int inputTexture) {
+        int texture = inputTexture;
+        for (GlPass pass : passes) {
+            texture = pass.render(texture, vertexBuffer, texCoordBuffer);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return texture;
+    }
+
+    void release() {
+        for (GlPass pass : passes) {
+            pass.release();
+        }
+        width = 0;
+        height = 0;
+    }
+}
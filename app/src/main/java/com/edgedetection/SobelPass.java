@@ -0,0 +1,55 @@
+package com.edgedetection;
+
+import android.opengl.GLES20;
+import com.edgedetection.core.FastSobelKernel;
+import com.edgedetection.core.GlslSources;
+import com.edgedetection.core.SobelKernel;
+
+/**
+ * Sobel + threshold in one fragment shader pass, with the same output
+ * convention as {@link SobelKernel}: black (0) edges on white (255), border
+ * pixels keep their luminance.
+ *
+ * Luminance is recovered from the sampled RGB with BT.601 weights and
+ * rounded to 0..255, so gradients are integers just like on the CPU and
+ * the threshold test is the exact squared one. On a single-channel input
+ * (e.g. a LUMINANCE upload of a Y plane) the result matches the CPU kernel
+ * bit for bit; from the camera's OES texture it can differ by the driver's
+ * YUV to RGB round trip. The shader is {@link GlslSources#SOBEL_PASS},
+ * which the core tests run against the CPU kernel.
+ */
+final class SobelPass extends GlPass {
+    private int squaredThresholdHandle;
+    private volatile int threshold = SobelKernel.DEFAULT_THRESHOLD;
+
+    SobelPass(boolean externalInput) {
+        super("sobel", externalInput);
+    }
+
+    /**
+     * Magnitude threshold as in {@link SobelKernel}; takes effect on the
+     * next frame. Callable from any thread.
+     */
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    protected String getFragmentShaderBody() {
+        return GlslSources.SOBEL_PASS;
+    }
+
+    @Override
+    protected void onProgramLinked(int program) {
+        squaredThresholdHandle = GLES20.glGetUniformLocation(program, "uSquaredThreshold");
+    }
+
+    @Override
+    protected void setUniforms() {
+        GLES20.glUniform1f(squaredThresholdHandle, FastSobelKernel.squaredThreshold(threshold));
+    }
+}
@@ -0,0 +1,91 @@
+package com.edgedetection;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import com.edgedetection.core.DistortionMesh;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Side-by-side stereo output: whatever the current program draws is drawn
+ * once into each half of the surface through a {@link DistortionMesh}.
+ *
+ * The mesh lives in a vertex and an index buffer and is rebuilt and
+ * uploaded only when the eye size or the lens changes; a frame costs two
+ * indexed draws (one per eye viewport) instead of the quad's one, with the
+ * program, texture and uniforms set once. Both eyes see the same image,
+ * there is one camera. GL thread only.
+ */
+final class StereoMesh {
+    private static final String TAG = "StereoMesh";
+    private static final int STRIDE = DistortionMesh.FLOATS_PER_VERTEX * 4;
+
+    private final int[] buffers = new int[2];
+    private DistortionMesh mesh;
+    private boolean uploaded;
+
+    /**
+     * Creates the buffers; needs a current context. Call again after the
+     * context is recreated, old names are gone with it.
+     */
+    void init() {
+        GLES20.glGenBuffers(2, buffers, 0);
+        uploaded = false;
+    }
+
+    /**
+     * Draws the bound program's texture into both eyes of a viewport of
+     * the given size, then restores the full viewport and unbinds the
+     * buffers (the quad uses client-side arrays).
+     */
+    void draw(int positionHandle, int texCoordHandle, int viewportWidth, int viewportHeight, float k1, float k2) {
+        int eyeWidth = viewportWidth / 2;
+        if (eyeWidth <= 0 || viewportHeight <= 0) {
+            return;
+        }
+        if (mesh == null || mesh.getK1() != k1 || mesh.getK2() != k2) {
+            mesh = new DistortionMesh(k1, k2);
+            uploaded = false;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        if (mesh.build(eyeWidth, viewportHeight) || !uploaded) {
+            upload();
+        }
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 0);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 8);
+        GLES20.glEnableVertexAttribArray(texCoordHandle);
+
+        int indexCount = mesh.getIndices().length;
+        GLES20.glViewport(0, 0, eyeWidth, viewportHeight);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+        // An odd pixel column stays between the eyes
+        GLES20.glViewport(viewportWidth - eyeWidth, 0, eyeWidth, viewportHeight);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+
+        GLES20.glViewport(0, 0, viewportWidth, viewportHeight);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    private void upload() {
+        float[] vertices = mesh.getVertices();
+        short[] indices = mesh.getIndices();
+        FloatBuffer vertexData = ByteBuffer.allocateDirect(vertices.length * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        vertexData.put(vertices).position(0);
+        ShortBuffer indexData = ByteBuffer.allocateDirect(indices.length * 2)
+            .order(ByteOrder.nativeOrder()).asShortBuffer();
+        indexData.put(indices).position(0);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertices.length * 4, vertexData, GLES20.GL_STATIC_DRAW);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, indexData, GLES20.GL_STATIC_DRAW);
+        uploaded = true;
+        Log.d(TAG, "Distortion mesh " + mesh.getVertexCount() + " vertices, " + indices.length / 3 +
+              " triangles per eye (" + mesh.getEyeWidth() + "x" + mesh.getEyeHeight() +
+              ", k1 " + mesh.getK1() + " k2 " + mesh.getK2() + ")");
+    }
+}
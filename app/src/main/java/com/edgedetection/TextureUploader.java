@@ -0,0 +1,233 @@
+package com.edgedetection;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams single-channel frames into one GL_LUMINANCE texture. Storage is
+ * allocated (and the tex parameters set) only when the frame size changes;
+ * every other frame is a glTexSubImage2D into the existing storage.
+ *
+ * On a GLES 3 context the optional PBO path copies the frame into one of
+ * two pixel unpack buffers and lets the driver do the texture transfer
+ * from there asynchronously. Both buffers keep their storage for the
+ * frame size and are mapped unsynchronized, so mapping never waits on
+ * the GPU by itself; a fence set after each transfer is what keeps frame
+ * N from overwriting the buffer frame N-2 is still being read from. That
+ * fence has normally signalled by the time its buffer comes round again,
+ * so the CPU only waits if the GPU is more than a frame behind. GL thread
+ * only.
+ */
+final class TextureUploader {
+    private static final String TAG = "TextureUploader";
+    // Longer than any sane frame; a lost fence must not hang the GL thread
+    private static final long FENCE_TIMEOUT_NS = 100_000_000L;
+
+    private final int[] pixelBuffers = new int[2];
+    // Per buffer: fence after the last transfer from it, 0 if none pending
+    private final long[] fences = new long[2];
+    private int textureId;
+    private int width;
+    private int height;
+    private boolean gles3;
+    private boolean usePixelBuffers;
+    private int nextPixelBuffer;
+
+    // Upload cost as seen by the calling thread (the GL work itself is async)
+    private long uploadCount;
+    private long uploadNanos;
+    private long allocationCount;
+    private long fenceWaitCount;
+
+    /**
+     * Creates the texture; needs a current context. Call again after the
+     * context is recreated, old names are gone with it.
+     */
+    void init() {
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        textureId = ids[0];
+        width = 0;
+        height = 0;
+        pixelBuffers[0] = 0;
+        pixelBuffers[1] = 0;
+        fences[0] = 0;
+        fences[1] = 0;
+        nextPixelBuffer = 0;
+        // GLSurfaceView asks for ES 2.0 but most drivers hand out the newest
+        // compatible version, so check what we actually got
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        gles3 = version != null && version.startsWith("OpenGL ES ") && version.length() > 10
+                && version.charAt(10) >= '3';
+        // Rows of odd-width (downscaled) frames are not 4-byte aligned
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        Log.d(TAG, "GL version " + version + ", PBO uploads " + (gles3 ? "available" : "unavailable"));
+    }
+
+    /**
+     * Double-buffered PBO uploads; ignored unless the context is GLES 3.
+     */
+    void setPixelBuffersEnabled(boolean enabled) {
+        usePixelBuffers = enabled && gles3;
+        // Buffers are sized with the texture, so force a reallocation
+        width = 0;
+        height = 0;
+    }
+
+    boolean isPixelBuffersEnabled() {
+        return usePixelBuffers;
+    }
+
+    boolean isPixelBuffersAvailable() {
+        return gles3;
+    }
+
+    int getTextureId() {
+        return textureId;
+    }
+
+    /**
+     * Uploads the first width * height bytes of data and leaves the
+     * texture bound to GL_TEXTURE_2D. Returns the CPU-side nanoseconds spent.
+     */
+    long upload(byte[] data, int width, int height) {
+        long start = System.nanoTime();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        if (width != this.width || height != this.height) {
+            allocate(width, height);
+        }
+
+        int size = width * height;
+        if (usePixelBuffers) {
+            int index = nextPixelBuffer;
+            nextPixelBuffer ^= 1;
+            awaitFence(index);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, pixelBuffers[index]);
+            // Unsynchronized: the fence above already covers the last read
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                    GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_UNSYNCHRONIZED_BIT);
+            if (mapped != null) {
+                mapped.put(data, 0, size);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+                // Offset 0 into the bound unpack buffer
+                GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                        GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 0);
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+                fences[index] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                return record(start);
+            }
+            // Mapping failed; fall back to a client-memory upload for this frame
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        }
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(data, 0, size));
+        return record(start);
+    }
+
+    long getUploadCount() {
+        return uploadCount;
+    }
+
+    /**
+     * Total CPU-side nanoseconds spent in {@link #upload}, including
+     * reallocations.
+     */
+    long getUploadNanos() {
+        return uploadNanos;
+    }
+
+    /**
+     * Number of times texture storage was (re)allocated.
+     */
+    long getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * PBO uploads that had to wait for the GPU to finish reading the
+     * buffer, i.e. the GPU was more than a frame behind.
+     */
+    long getFenceWaitCount() {
+        return fenceWaitCount;
+    }
+
+    void release() {
+        if (textureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+            textureId = 0;
+        }
+        releasePixelBuffers();
+        width = 0;
+        height = 0;
+    }
+
+    private void allocate(int width, int height) {
+        this.width = width;
+        this.height = height;
+        allocationCount++;
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_LUMINANCE, width, height, 0,
+                GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
+
+        releasePixelBuffers();
+        if (usePixelBuffers) {
+            // Storage once per size; uploads reuse it instead of orphaning
+            GLES30.glGenBuffers(2, pixelBuffers, 0);
+            for (int buffer : pixelBuffers) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, buffer);
+                GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, width * height, null, GLES30.GL_STREAM_DRAW);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            nextPixelBuffer = 0;
+        }
+        Log.d(TAG, "Texture storage allocated: " + width + "x" + height + (usePixelBuffers ? " (PBO)" : ""));
+    }
+
+    /**
+     * Waits until the GPU has read the last upload from buffer index, if it
+     * has not already.
+     */
+    private void awaitFence(int index) {
+        long fence = fences[index];
+        if (fence == 0) {
+            return;
+        }
+        int result = GLES30.glClientWaitSync(fence, 0, 0);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            fenceWaitCount++;
+            result = GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NS);
+        }
+        if (result == GLES30.GL_TIMEOUT_EXPIRED || result == GLES30.GL_WAIT_FAILED) {
+            Log.w(TAG, "PBO fence wait " + (result == GLES30.GL_WAIT_FAILED ? "failed" : "timed out"));
+        }
+        GLES30.glDeleteSync(fence);
+        fences[index] = 0;
+    }
+
+    private void releasePixelBuffers() {
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                GLES30.glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        if (pixelBuffers[0] != 0) {
+            GLES20.glDeleteBuffers(2, pixelBuffers, 0);
+            pixelBuffers[0] = 0;
+            pixelBuffers[1] = 0;
+        }
+    }
+
+    private long record(long start) {
+        long elapsed = System.nanoTime() - start;
+        uploadNanos += elapsed;
+        uploadCount++;
+        return elapsed;
+    }
+}
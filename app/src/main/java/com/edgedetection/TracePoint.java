@@ -0,0 +1,34 @@
+package com.edgedetection;
+
+import android.util.Log;
+
+/**
+ * Per-frame debug log point that is cheap when off. Enabled only if the
+ * tag is loggable at DEBUG (adb shell setprop log.tag.&lt;TAG&gt; DEBUG,
+ * checked once at construction), and then fires for one call in every
+ * sampleEvery. Not thread-safe: give each thread its own instance.
+ */
+final class TracePoint {
+    private final boolean enabled;
+    private final int sampleEvery;
+    private int countdown;
+
+    TracePoint(String tag, int sampleEvery) {
+        this.enabled = Log.isLoggable(tag, Log.DEBUG);
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /**
+     * True if this call should log; the caller builds the message only then.
+     */
+    boolean sample() {
+        if (!enabled) {
+            return false;
+        }
+        if (--countdown > 0) {
+            return false;
+        }
+        countdown = sampleEvery;
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic YUV_420_888 frames for the JMH suite.
+ */
+final class BenchmarkFrames {
+    private BenchmarkFrames() {
+    }
+
+    static int parseWidth(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int parseHeight(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /**
+     * Luma plane with a diagonal gradient, a grid of hard-edged blocks and
+     * some sensor-like noise, so every kernel branch is exercised.
+     */
+    static ByteBuffer lumaPlane(int width, int height, int rowStride) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(rowStride * (height - 1) + width);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ((x + y) * 255) / (width + height);
+                if (((x / 64) + (y / 64)) % 2 == 0) {
+                    value = 255 - value;
+                }
+                value += random.nextInt(17) - 8;
+                buffer.put(y * rowStride + x, (byte) Math.max(0, Math.min(255, value)));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Chroma plane of a subsampled (width/2 x height/2) image.
+     */
+    static ByteBuffer chromaPlane(int width, int height, int rowStride, int pixelStride, int seed) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(rowStride * (chromaHeight - 1) + (chromaWidth - 1) * pixelStride + 1);
+        Random random = new Random(seed);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (128 + random.nextInt(32) - 16));
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,86 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole-frame cost of the edge and raw paths.
+ *
+ * Primary score is ns per frame; the "pixels" secondary score is ns per
+ * pixel and gc.alloc.rate.norm is bytes allocated per frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EdgeFrameProcessorBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    // NATIVE needs -Pnative.lib.dir, otherwise it measures FAST
+    @Param({"REFERENCE", "FAST", "NATIVE"})
+    public SobelVariant variant;
+
+    // OTSU adds the fused histogram and the per-frame pick
+    @Param({"FIXED", "OTSU"})
+    public ThresholdMode thresholdMode;
+
+    private EdgeFrameProcessor processor;
+    private Plane yPlane;
+    private Plane uPlane;
+    private Plane vPlane;
+    private int pixels;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class PixelCounter {
+        public long pixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pixels = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.parseWidth(resolution);
+        int height = BenchmarkFrames.parseHeight(resolution);
+        pixels = width * height;
+        processor = new EdgeFrameProcessor(width, height);
+        processor.setSobelVariant(variant);
+        processor.setThresholdMode(thresholdMode);
+
+        // Semi-planar chroma, the common case on our devices
+        yPlane = new Plane(BenchmarkFrames.lumaPlane(width, height, width), width, 1);
+        uPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 1), width, 2);
+        vPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 2), width, 2);
+    }
+
+    @Benchmark
+    public byte[] processEdgeDetection(PixelCounter counter) {
+        counter.pixels += pixels;
+        return processor.processEdgeDetection(yPlane, uPlane, vPlane);
+    }
+
+    @Benchmark
+    public byte[] getRawFrame(PixelCounter counter) {
+        counter.pixels += pixels;
+        return processor.getRawFrame(yPlane, uPlane, vPlane);
+    }
+}
@@ -0,0 +1,235 @@
+package com.edgedetection.core;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Stand-in viewer for {@link EdgeStreamServer}: connects over WebSocket,
+ * decodes every message with {@link EdgeStreamCodec.Decoder} and reports
+ * frame rate, bandwidth, compression against the packed and byte maps,
+ * frames lost to the server's drop-oldest queue and undecodable deltas.
+ * With --delay it reads slowly to show a lagging viewer being dropped
+ * rather than stalling the stream, e.g. against
+ * <pre>
+ * ./gradlew :core:runHeadless --args='--serve 8765 --rate 30 --frames 100000'
+ * ./gradlew :core:runStreamClient --args='--port 8765 --delay 100'
+ * </pre>
+ * The frame age uses the sender's timestamps, so it is only meaningful
+ * when both run on the same host (System.nanoTime is then one clock).
+ */
+public final class EdgeStreamClient {
+    private static final long CONNECT_TIMEOUT_MS = 10_000;
+
+    private String host = "localhost";
+    private int port = EdgeStreamServer.DEFAULT_PORT;
+    private long frames = Long.MAX_VALUE;
+    private long delayMs;
+
+    private EdgeStreamClient() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        EdgeStreamClient client = new EdgeStreamClient();
+        try {
+            client.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: EdgeStreamClient [--host HOST] [--port PORT] [--frames N] [--delay MS]");
+            System.exit(2);
+        }
+        client.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--frames":
+                    frames = Long.parseLong(value);
+                    break;
+                case "--delay":
+                    delayMs = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        try (Socket socket = connect()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            handshake(socket.getOutputStream(), in);
+            System.out.printf(Locale.US, "connected  ws://%s:%d/%n", host, port);
+
+            EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+            LatencyHistogram age = new LatencyHistogram();
+            byte[] message = new byte[0];
+            byte[] packed = new byte[0];
+            long received = 0;
+            long keys = 0;
+            long undecodable = 0;
+            long lost = 0;
+            long bytes = 0;
+            long rawBytes = 0;
+            long edges = 0;
+            int lastSequence = 0;
+            long start = System.nanoTime();
+            long lastReport = start;
+            while (received < frames) {
+                int length;
+                try {
+                    length = readFrame(in);
+                } catch (EOFException e) {
+                    System.out.println("server closed the connection");
+                    break;
+                }
+                if (message.length < length) {
+                    message = new byte[length];
+                }
+                in.readFully(message, 0, length);
+                ByteBuffer buffer = ByteBuffer.wrap(message, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+                int width = buffer.getShort(12) & 0xFFFF;
+                int height = buffer.getShort(14) & 0xFFFF;
+                if (packed.length < EdgeBits.size(width, height)) {
+                    packed = new byte[EdgeBits.size(width, height)];
+                }
+
+                received++;
+                bytes += length;
+                rawBytes += EdgeBits.size(width, height);
+                if (decoder.decode(buffer, packed)) {
+                    if (decoder.getType() != EdgeStreamCodec.TYPE_DELTA_RLE) {
+                        keys++;
+                    }
+                    edges += EdgeBits.countEdges(packed, width, height);
+                    age.record(System.nanoTime() - decoder.getTimestampNs());
+                } else {
+                    undecodable++;
+                }
+                int sequence = buffer.getInt(4);
+                if (lastSequence != 0 && sequence - lastSequence > 1) {
+                    lost += sequence - lastSequence - 1;
+                }
+                lastSequence = sequence;
+
+                long now = System.nanoTime();
+                if (now - lastReport >= 1_000_000_000L) {
+                    report(received, keys, undecodable, lost, bytes, rawBytes, edges, age, now - start,
+                           decoder.getWidth(), decoder.getHeight());
+                    lastReport = now;
+                }
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+            }
+            report(received, keys, undecodable, lost, bytes, rawBytes, edges, age, System.nanoTime() - start,
+                   decoder.getWidth(), decoder.getHeight());
+        }
+    }
+
+    private Socket connect() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while (true) {
+            try {
+                Socket socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                return socket;
+            } catch (ConnectException e) {
+                // The server may still be starting
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    private void handshake(OutputStream out, InputStream in) throws IOException {
+        byte[] nonce = new byte[16];
+        new Random().nextBytes(nonce);
+        String key = Base64.getEncoder().encodeToString(nonce);
+        String request = "GET / HTTP/1.1\r\n" +
+                         "Host: " + host + ":" + port + "\r\n" +
+                         "Upgrade: websocket\r\n" +
+                         "Connection: Upgrade\r\n" +
+                         "Sec-WebSocket-Key: " + key + "\r\n" +
+                         "Sec-WebSocket-Version: 13\r\n\r\n";
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        StringBuilder response = new StringBuilder();
+        while (response.length() < 4 || !response.substring(response.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("connection closed during handshake");
+            }
+            response.append((char) b);
+        }
+        String text = response.toString();
+        if (!text.startsWith("HTTP/1.1 101")) {
+            throw new IOException("handshake refused: " + text.split("\r\n")[0]);
+        }
+        if (!text.contains("Sec-WebSocket-Accept: " + EdgeStreamServer.acceptKey(key))) {
+            throw new IOException("bad Sec-WebSocket-Accept in " + text);
+        }
+    }
+
+    /**
+     * Reads a binary frame header and returns the payload length.
+     */
+    private static int readFrame(DataInputStream in) throws IOException {
+        int first = in.readUnsignedByte();
+        int second = in.readUnsignedByte();
+        if ((first & 0x0F) != 0x2 || (second & 0x80) != 0) {
+            throw new IOException(String.format(Locale.US, "unexpected frame %02x %02x", first, second));
+        }
+        long length = second & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("frame of " + length + " bytes");
+        }
+        return (int) length;
+    }
+
+    private static void report(long received, long keys, long undecodable, long lost, long bytes, long rawBytes,
+                               long edges, LatencyHistogram age, long elapsedNs, int width, int height) {
+        double seconds = elapsedNs / 1e9;
+        long decoded = received - undecodable;
+        System.out.printf(Locale.US,
+                          "%dx%d  %d frames, %.1f fps, %d key / %d delta, %d lost, %d undecodable%n",
+                          width, height, received, received / seconds, keys, decoded - keys, lost, undecodable);
+        System.out.printf(Locale.US,
+                          "           %.1f KB/frame, %.2f Mbit/s, %.1fx smaller than packed, %.0fx than bytes, " +
+                          "%.2f%% edges, age p50 %.1f ms p99 %.1f%n",
+                          bytes / 1024.0 / Math.max(1, received), bytes * 8 / 1e6 / seconds,
+                          rawBytes / (double) Math.max(1, bytes), rawBytes * 8 / (double) Math.max(1, bytes),
+                          100.0 * edges / Math.max(1, (long) width * height * decoded),
+                          age.getPercentile(50) / 1e6, age.getPercentile(99) / 1e6);
+    }
+}
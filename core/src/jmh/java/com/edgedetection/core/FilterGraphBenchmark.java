@@ -0,0 +1,83 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fused (one tiled pass, rolling row buffers) against unfused (one
+ * full-frame pass per stage) execution of the same {@link FilterGraph}.
+ * "sobel" is the app's default edge map, for comparison with
+ * StripedSobelBenchmark; the longer graphs are where the intermediates of
+ * the unfused run start to cost memory bandwidth.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterGraphBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"sobel", "blur-sobel-erode", "blur-invert-threshold-dilate-erode"})
+    public String graph;
+
+    @Param({"true", "false"})
+    public boolean fused;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private FilterExecutor executor;
+    private FilterGraph filterGraph;
+    private Plane yPlane;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.parseWidth(resolution);
+        int height = BenchmarkFrames.parseHeight(resolution);
+        filterGraph = graph(graph);
+        executor = new FilterExecutor(width, height, workers);
+        executor.setFused(fused);
+        yPlane = new Plane(BenchmarkFrames.lumaPlane(width, height, width), width, 1);
+        output = new byte[width * height];
+    }
+
+    static FilterGraph graph(String name) {
+        switch (name) {
+            case "sobel":
+                return FilterGraph.EDGES;
+            case "blur-sobel-erode":
+                return new FilterGraph(FilterStage.boxBlur(1), FilterStage.sobel(500), FilterStage.erode(1));
+            case "blur-invert-threshold-dilate-erode":
+                return new FilterGraph(FilterStage.boxBlur(2), FilterStage.invert(), FilterStage.threshold(128),
+                                       FilterStage.dilate(1), FilterStage.erode(1));
+            default:
+                throw new IllegalArgumentException("unknown graph " + name);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public byte[] apply() {
+        return executor.apply(filterGraph, yPlane, output);
+    }
+}
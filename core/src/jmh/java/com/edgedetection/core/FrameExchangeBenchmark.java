@@ -0,0 +1,92 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress run of {@link FrameExchange}: one producer and one consumer thread
+ * hammer the triple buffer as fast as they can. Every published frame is
+ * filled with a single sequence byte; the consumer fails the run if it ever
+ * sees a mixed (torn) frame or a frame older than the previous one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class FrameExchangeBenchmark {
+
+    @Param({"4096", "1382400"})
+    public int frameSize;
+
+    private FrameExchange exchange;
+    private long nextSequence;
+    private long lastSeen;
+
+    @Setup
+    public void setUp() {
+        exchange = new FrameExchange(frameSize);
+        nextSequence = 1;
+        lastSeen = 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        long produced = exchange.getProducedCount();
+        long consumed = exchange.getConsumedCount();
+        long dropped = exchange.getDroppedCount();
+        // Every produced frame is either consumed, dropped or still waiting in the ready slot
+        if (consumed + dropped > produced || produced - consumed - dropped > 1) {
+            throw new IllegalStateException("Counters out of balance: produced=" + produced +
+                    " consumed=" + consumed + " dropped=" + dropped);
+        }
+    }
+
+    @Benchmark
+    @Group("exchange")
+    @GroupThreads(1)
+    public void produce() {
+        FrameExchange.Slot slot = exchange.beginWrite();
+        long sequence = nextSequence++;
+        Arrays.fill(slot.getData(), (byte) sequence);
+        slot.set((int) sequence, 0, true);
+        exchange.publish();
+    }
+
+    @Benchmark
+    @Group("exchange")
+    @GroupThreads(1)
+    public int consume() {
+        FrameExchange.Slot slot = exchange.acquire();
+        if (slot == null) {
+            return -1;
+        }
+        byte[] data = slot.getData();
+        byte expected = data[0];
+        for (int i = 1; i < data.length; i++) {
+            if (data[i] != expected) {
+                throw new IllegalStateException("Torn frame " + slot.getWidth() + " at byte " + i);
+            }
+        }
+        if (expected != (byte) slot.getWidth() || slot.getWidth() <= lastSeen) {
+            throw new IllegalStateException("Stale frame " + slot.getWidth() + " after " + lastSeen);
+        }
+        lastSeen = slot.getWidth();
+        return expected;
+    }
+}
@@ -0,0 +1,418 @@
+package com.edgedetection.core;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Max-throughput run of the whole {@link EdgeFrameProcessor} frame path on
+ * a {@link PlaybackFrameSource}, for a plain Linux box with no device:
+ *
+ * <pre>
+ * ./gradlew :core:runHeadless --args='--source samples --frames 2000'
+ * </pre>
+ *
+ * Frames are pushed back to back (or paced with --rate) on the main
+ * thread and processed as they arrive, the way the camera's processing
+ * thread would. Reports frames per second, per-frame latency percentiles
+ * (delivery to processed output) and the allocation rate of every thread
+ * in the JVM, stripe workers included, over the measured frames only.
+ *
+ * Sources:
+ * <ul>
+ *   <li>{@code synthetic[:PATTERN]} - {@link SyntheticFrames.Pattern}, default MOVING_BLOCKS</li>
+ *   <li>{@code samples} - the checked-in "Edge detection.jpg" and "Raw detection.jpg"</li>
+ *   <li>{@code image:a.jpg[,b.png...]} - any stills ImageIO can decode, as luma</li>
+ *   <li>{@code nv21:file} / {@code gray:file} - raw recordings, see {@link RawFrameFiles}</li>
+ *   <li>{@code recording:file.rec} - raw frames of a {@link FrameRecorder} ring;
+ *       {@code --rate original} keeps their recorded spacing</li>
+ * </ul>
+ *
+ * {@code --record file.rec} also records every raw frame and edge map
+ * through a {@link FrameRecorder}, and reports what that costs the frame
+ * path (the staging copy) and the writer thread.
+ *
+ * {@code --packed} produces (and records) 1-bit {@link EdgeBits} maps, as
+ * the app does for display, instead of byte edge maps. {@code --serve PORT}
+ * (implies --packed) also broadcasts them through an
+ * {@link EdgeStreamServer}, with this runner standing in for the camera;
+ * connect {@link EdgeStreamClient} or the web viewer to it.
+ */
+public final class HeadlessRunner {
+    private static final String[] SAMPLE_IMAGES = {"Edge detection.jpg", "Raw detection.jpg"};
+    private static final int SYNTHETIC_FRAMES = 32;
+    private static final int MAX_RECORDED_FRAMES = 600;
+
+    private String source = "synthetic";
+    private int width;
+    private int height;
+    private long frames = 2000;
+    private long warmupFrames = 300;
+    private double rate;
+    private boolean originalTiming;
+    private File recordFile;
+    private EdgeDetector detector = EdgeDetector.SOBEL;
+    private SobelVariant variant = SobelVariant.FAST;
+    private ThresholdMode thresholdMode = ThresholdMode.FIXED;
+    private int workers = 1;
+    private boolean incremental;
+    private boolean adaptive;
+    private boolean packed;
+    private int servePort = -1;
+
+    private HeadlessRunner() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: HeadlessRunner [--source synthetic[:PATTERN]|samples|image:FILES|nv21:FILE|gray:FILE|recording:FILE]\n" +
+                               "    [--size WxH] [--frames N] [--warmup N] [--rate FPS|original] [--detector SOBEL|CANNY]\n" +
+                               "    [--variant REFERENCE|FAST|NATIVE] [--threshold FIXED|OTSU|...] [--workers N]\n" +
+                               "    [--incremental] [--adaptive] [--packed] [--record FILE] [--serve PORT]");
+            System.exit(2);
+        }
+        runner.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--incremental":
+                    incremental = true;
+                    continue;
+                case "--adaptive":
+                    adaptive = true;
+                    continue;
+                case "--packed":
+                    packed = true;
+                    continue;
+                default:
+                    break;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("missing value for " + arg);
+            }
+            String value = args[++i];
+            switch (arg) {
+                case "--source":
+                    source = value;
+                    break;
+                case "--size":
+                    width = BenchmarkFrames.parseWidth(value);
+                    height = BenchmarkFrames.parseHeight(value);
+                    break;
+                case "--frames":
+                    frames = Long.parseLong(value);
+                    break;
+                case "--warmup":
+                    warmupFrames = Long.parseLong(value);
+                    break;
+                case "--rate":
+                    if (value.equals("original")) {
+                        originalTiming = true;
+                    } else {
+                        rate = Double.parseDouble(value);
+                    }
+                    break;
+                case "--record":
+                    recordFile = new File(value);
+                    break;
+                case "--serve":
+                    servePort = Integer.parseInt(value);
+                    packed = true;
+                    break;
+                case "--detector":
+                    detector = EdgeDetector.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "--variant":
+                    variant = SobelVariant.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "--threshold":
+                    thresholdMode = ThresholdMode.valueOf(value.toUpperCase(Locale.US));
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+    }
+
+    private void run() throws IOException {
+        PlaybackFrameSource frameSource = openSource();
+        int frameWidth = frameSource.getWidth();
+        int frameHeight = frameSource.getHeight();
+        frameSource.setFrameRate(rate);
+        frameSource.setOriginalTiming(originalTiming);
+        // Slots for the measured frames' raw and edge records, capped near 1 GB
+        int slots = (int) Math.max(2, Math.min(2 * frames,
+                (1L << 30) / ((long) frameWidth * frameHeight * 3 / 2)));
+        FrameRecorder recorder = recordFile == null ? null
+                : new FrameRecorder(recordFile, frameWidth, frameHeight, frameWidth, slots);
+
+        EdgeStreamServer server = servePort < 0 ? null
+                : new EdgeStreamServer(servePort, frameWidth, frameHeight);
+        if (server != null) {
+            System.out.printf(Locale.US, "serving    ws://localhost:%d/%n", server.getPort());
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        try (EdgeFrameProcessor processor = new EdgeFrameProcessor(frameWidth, frameHeight)) {
+            processor.setEdgeDetector(detector);
+            processor.setSobelVariant(variant);
+            processor.setThresholdMode(thresholdMode);
+            processor.setWorkerCount(workers);
+            processor.setIncremental(incremental);
+            processor.setAdaptiveResolution(adaptive);
+
+            byte[] packedEdges = new byte[processor.getPackedSize()];
+            FrameSource.FrameListener listener = (y, u, v, timestampNs) -> {
+                if (recorder != null) {
+                    recorder.recordFrame(y, u, v, timestampNs, detector.ordinal());
+                }
+                if (packed) {
+                    processor.processPackedEdges(y, packedEdges);
+                    if (server != null) {
+                        server.publish(packedEdges, timestampNs);
+                    }
+                    if (recorder != null) {
+                        recorder.recordPackedEdges(packedEdges, timestampNs, detector.ordinal());
+                    }
+                } else {
+                    byte[] edges = processor.processEdgeDetection(y, u, v);
+                    if (recorder != null) {
+                        recorder.recordEdges(edges, timestampNs, detector.ordinal());
+                    }
+                }
+                latency.record(System.nanoTime() - timestampNs);
+            };
+
+            frameSource.play(listener, warmupFrames);
+            latency.reset();
+            RecorderCost warmupCost = recorder == null ? null : new RecorderCost(recorder);
+
+            long gcsBefore = gcCount();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long delivered = frameSource.play(listener, frames);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            long gcs = gcCount() - gcsBefore;
+            if (recorder != null) {
+                recorder.close();
+            }
+
+            double seconds = elapsed / 1e9;
+            System.out.printf(Locale.US, "source     %s, %d distinct frames, %dx%d%n",
+                              source, frameSource.getFrameCount(), frameWidth, frameHeight);
+            System.out.printf(Locale.US, "pipeline   %s / %s, threshold %s, %d worker(s)%s%s%s%s%n",
+                              detector, processor.getSobelVariant(), thresholdMode, processor.getWorkerCount(),
+                              incremental ? ", incremental" : "", adaptive ? ", adaptive" : "",
+                              packed ? ", packed" : "",
+                              variant == SobelVariant.NATIVE && !NativeSobel.isAvailable()
+                                      ? " (libedgedetector not loaded, ran FAST)" : "");
+            System.out.printf(Locale.US, "frames     %d in %.2f s = %.1f fps%s%n",
+                              delivered, seconds, delivered / seconds,
+                              originalTiming ? " (paced as recorded)"
+                                      : rate > 0 ? String.format(Locale.US, " (paced at %.1f)", rate) : "");
+            System.out.printf(Locale.US, "latency    p50 %.3f ms, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f, mean %.3f%n",
+                              millis(latency.getPercentile(50)), millis(latency.getPercentile(90)),
+                              millis(latency.getPercentile(99)), millis(latency.getPercentile(99.9)),
+                              millis(latency.getMax()), millis(latency.getMean()));
+            if (allocated >= 0) {
+                System.out.printf(Locale.US, "alloc      %.1f B/frame, %.3f MB/s, %d GC(s)%n",
+                                  (double) allocated / Math.max(1, delivered), allocated / seconds / 1e6, gcs);
+            } else {
+                System.out.printf(Locale.US, "alloc      n/a (thread allocation counters unsupported), %d GC(s)%n", gcs);
+            }
+            if (recorder != null) {
+                RecorderCost cost = new RecorderCost(recorder).minus(warmupCost);
+                System.out.printf(Locale.US, "recorder   %.3f ms/frame staging on the frame path, %.3f ms/record writing, " +
+                                  "%d records (%d slots), %d dropped -> %s%n",
+                                  millis(cost.captureNanos) / Math.max(1, delivered),
+                                  millis(cost.writeNanos) / Math.max(1, cost.written),
+                                  cost.written, recorder.getSlotCount(), cost.dropped, recordFile);
+            }
+            if (server != null) {
+                server.close();
+                long encoded = server.getEncodedCount();
+                System.out.printf(Locale.US, "stream     %d published, %d encoded (%d key), %.1f KB/frame " +
+                                  "(%.1fx smaller than packed), %d sent bytes, %d dropped for slow viewers%n",
+                                  server.getPublishedCount(), encoded, server.getKeyFrameCount(),
+                                  server.getEncodedBytes() / 1024.0 / Math.max(1, encoded),
+                                  (double) encoded * EdgeBits.size(frameWidth, frameHeight)
+                                          / Math.max(1, server.getEncodedBytes()),
+                                  server.getSentBytes(), server.getDroppedCount());
+            }
+        }
+    }
+
+    // Recorder totals, so the warmup can be subtracted
+    private static final class RecorderCost {
+        final long captureNanos;
+        final long writeNanos;
+        final long written;
+        final long dropped;
+
+        RecorderCost(FrameRecorder recorder) {
+            this(recorder.getTotalCaptureNanos(), recorder.getTotalWriteNanos(),
+                 recorder.getWrittenCount(), recorder.getDroppedCount());
+        }
+
+        RecorderCost(long captureNanos, long writeNanos, long written, long dropped) {
+            this.captureNanos = captureNanos;
+            this.writeNanos = writeNanos;
+            this.written = written;
+            this.dropped = dropped;
+        }
+
+        RecorderCost minus(RecorderCost other) {
+            return new RecorderCost(captureNanos - other.captureNanos, writeNanos - other.writeNanos,
+                                    written - other.written, dropped - other.dropped);
+        }
+    }
+
+    private PlaybackFrameSource openSource() throws IOException {
+        String kind = source;
+        String argument = null;
+        int colon = source.indexOf(':');
+        if (colon >= 0) {
+            kind = source.substring(0, colon);
+            argument = source.substring(colon + 1);
+        }
+
+        switch (kind) {
+            case "synthetic": {
+                SyntheticFrames.Pattern pattern = argument == null ? SyntheticFrames.Pattern.MOVING_BLOCKS
+                        : SyntheticFrames.Pattern.valueOf(argument.toUpperCase(Locale.US));
+                useDefaultSize(1280, 720);
+                return new PlaybackFrameSource(width, height,
+                        SyntheticFrames.generate(pattern, width, height, SYNTHETIC_FRAMES));
+            }
+            case "samples":
+                return decodeImages(SAMPLE_IMAGES);
+            case "image":
+                return decodeImages(requireArgument(kind, argument).split(","));
+            case "recording": {
+                FrameRecording recording = FrameRecording.open(new File(requireArgument(kind, argument)));
+                return recording.toFrameSource();
+            }
+            case "nv21":
+            case "gray": {
+                if (width == 0) {
+                    throw new IllegalArgumentException(kind + " recordings need --size");
+                }
+                RawFrameFiles.Format format = kind.equals("nv21") ? RawFrameFiles.Format.NV21
+                        : RawFrameFiles.Format.GRAY;
+                return new PlaybackFrameSource(width, height, RawFrameFiles.read(
+                        new File(requireArgument(kind, argument)), format, width, height, MAX_RECORDED_FRAMES));
+            }
+            default:
+                throw new IllegalArgumentException("unknown source " + source);
+        }
+    }
+
+    private static String requireArgument(String kind, String argument) {
+        if (argument == null || argument.isEmpty()) {
+            throw new IllegalArgumentException(kind + " needs a file: " + kind + ":path");
+        }
+        return argument;
+    }
+
+    private void useDefaultSize(int defaultWidth, int defaultHeight) {
+        if (width == 0) {
+            width = defaultWidth;
+            height = defaultHeight;
+        }
+    }
+
+    /**
+     * Stills as luma, scaled to --size or else all at the first image's
+     * size (rounded down to even, as NV21 needs).
+     */
+    private PlaybackFrameSource decodeImages(String[] paths) throws IOException {
+        List<byte[]> frames = new ArrayList<>(paths.length);
+        for (String path : paths) {
+            BufferedImage image = ImageIO.read(new File(path));
+            if (image == null) {
+                throw new IOException("no ImageIO decoder for " + path);
+            }
+            useDefaultSize(image.getWidth() & ~1, image.getHeight() & ~1);
+            frames.add(PlaybackFrameSource.nv21FromLuma(luma(image, width, height), width, height));
+        }
+        return new PlaybackFrameSource(width, height, frames);
+    }
+
+    // BT.601 full-range luma, what the camera's Y plane holds
+    private static byte[] luma(BufferedImage image, int width, int height) {
+        if (image.getWidth() != width || image.getHeight() != height || image.getType() != BufferedImage.TYPE_INT_RGB) {
+            BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+            graphics.dispose();
+            image = scaled;
+        }
+        int[] row = new int[width];
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+                luma[y * width + x] = (byte) ((299 * r + 587 * g + 114 * b + 500) / 1000);
+            }
+        }
+        return luma;
+    }
+
+    /**
+     * Bytes allocated so far by all live threads, or -1 if the JVM does
+     * not track it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocation.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,88 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Incremental Sobel against a full recompute, with a given share of tiles
+ * changing every frame. Each frame inverts a different set of tiles, so
+ * the changed tiles always fail the SAD test. The periodic full refresh
+ * is included in the average.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class IncrementalSobelBenchmark {
+
+    @Param({"1280x720"})
+    public String resolution;
+
+    @Param({"0", "5", "25", "100"})
+    public int changedPercent;
+
+    @Param({"false", "true"})
+    public boolean incremental;
+
+    private EdgeFrameProcessor processor;
+    private ByteBuffer luma;
+    private Plane yPlane;
+    private Plane uPlane;
+    private Plane vPlane;
+    private int width;
+    private int tilesX;
+    private int tileCount;
+    private int changedTiles;
+    private int nextTile;
+
+    @Setup
+    public void setUp() {
+        width = BenchmarkFrames.parseWidth(resolution);
+        int height = BenchmarkFrames.parseHeight(resolution);
+        processor = new EdgeFrameProcessor(width, height);
+        processor.setIncremental(incremental);
+
+        luma = BenchmarkFrames.lumaPlane(width, height, width);
+        yPlane = new Plane(luma, width, 1);
+        uPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 1), width, 2);
+        vPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 2), width, 2);
+
+        // Whole tiles only, so every changed tile is exactly one tile
+        tilesX = width / IncrementalSobel.TILE_SIZE;
+        tileCount = tilesX * (height / IncrementalSobel.TILE_SIZE);
+        changedTiles = tileCount * changedPercent / 100;
+    }
+
+    @Benchmark
+    public byte[] processEdgeDetection() {
+        for (int i = 0; i < changedTiles; i++) {
+            invertTile(nextTile);
+            nextTile = (nextTile + 1) % tileCount;
+        }
+        return processor.processEdgeDetection(yPlane, uPlane, vPlane);
+    }
+
+    private void invertTile(int tile) {
+        int x0 = (tile % tilesX) * IncrementalSobel.TILE_SIZE;
+        int y0 = (tile / tilesX) * IncrementalSobel.TILE_SIZE;
+        for (int y = y0; y < y0 + IncrementalSobel.TILE_SIZE; y++) {
+            for (int x = x0; x < x0 + IncrementalSobel.TILE_SIZE; x++) {
+                int i = y * width + x;
+                luma.put(i, (byte) ~luma.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link EdgeMorphology} on a Sobel edge map of the benchmark frame, for
+ * radii 1..7: time per frame should stay flat as the radius grows. PACKED
+ * works on the {@link EdgeBits} map the packed pipeline carries; BYTES is
+ * the byte edge map path, which adds packing and unpacking.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MorphologyBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"DILATE", "ERODE", "OPEN", "CLOSE"})
+    public MorphologyOp op;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    public int radius;
+
+    @Param({"PACKED", "BYTES"})
+    public String layout;
+
+    private EdgeMorphology morphology;
+    private byte[] edges;
+    private byte[] packed;
+    private byte[] work;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.parseWidth(resolution);
+        int height = BenchmarkFrames.parseHeight(resolution);
+        morphology = new EdgeMorphology(width, height);
+        edges = new byte[width * height];
+        Plane yPlane = new Plane(BenchmarkFrames.lumaPlane(width, height, width), width, 1);
+        new FastSobelKernel().apply(yPlane, edges, width, height, SobelKernel.DEFAULT_THRESHOLD, new EdgeStats());
+        packed = new byte[EdgeBits.size(width, height)];
+        EdgeBits.pack(edges, width, height, packed);
+        work = new byte[layout.equals("PACKED") ? packed.length : edges.length];
+    }
+
+    @Benchmark
+    public byte[] apply() {
+        // Every run starts from the same map, so open/close do not converge
+        if (layout.equals("PACKED")) {
+            System.arraycopy(packed, 0, work, 0, packed.length);
+            morphology.applyPacked(work, op, radius);
+        } else {
+            System.arraycopy(edges, 0, work, 0, edges.length);
+            morphology.apply(work, op, radius);
+        }
+        return work;
+    }
+}
@@ -0,0 +1,77 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sobel with {@link GaussianSmoother} pre-smoothing; sigma 0 is plain
+ * Sobel, the baseline the added cost is read against.
+ *
+ * FUSED streams blurred rows into the kernel's window, FRAME blurs a full
+ * copy with running sums first, SUMMED_AREA blurs it with a summed-area
+ * table per pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PreSmoothingBenchmark {
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"0", "1", "1.5", "2", "3", "6"})
+    public float sigma;
+
+    @Param({"FUSED", "FRAME", "SUMMED_AREA"})
+    public String path;
+
+    private int width;
+    private int height;
+    private Plane yPlane;
+    private final FastSobelKernel kernel = new FastSobelKernel();
+    private final EdgeStats stats = new EdgeStats();
+    private GaussianSmoother smoother;
+    private byte[] smoothed;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        width = BenchmarkFrames.parseWidth(resolution);
+        height = BenchmarkFrames.parseHeight(resolution);
+        yPlane = new Plane(BenchmarkFrames.lumaPlane(width, height, width), width, 1);
+        smoothed = new byte[width * height];
+        output = new byte[width * height];
+        if (sigma > 0) {
+            if (path.equals("FUSED")) {
+                kernel.setPreSmoothing(sigma);
+            } else {
+                smoother = new GaussianSmoother(sigma);
+                smoother.setSummedArea(path.equals("SUMMED_AREA"));
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] sobel() {
+        if (smoother == null) {
+            kernel.apply(yPlane, output, width, height, SobelKernel.DEFAULT_THRESHOLD, stats);
+        } else {
+            smoother.smooth(yPlane, smoothed, width, height);
+            kernel.apply(smoothed, output, width, height, SobelKernel.DEFAULT_THRESHOLD, stats);
+        }
+        return output;
+    }
+}
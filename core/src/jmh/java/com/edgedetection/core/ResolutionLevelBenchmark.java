@@ -0,0 +1,56 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frame cost at each adaptive-resolution pyramid level, including the
+ * downsample and the upscale back to full size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResolutionLevelBenchmark {
+
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"0", "1", "2"})
+    public int level;
+
+    private EdgeFrameProcessor processor;
+    private Plane yPlane;
+    private Plane uPlane;
+    private Plane vPlane;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.parseWidth(resolution);
+        int height = BenchmarkFrames.parseHeight(resolution);
+        processor = new EdgeFrameProcessor(width, height);
+        processor.setAdaptiveResolution(true);
+        processor.getResolutionScaler().setFixedLevel(level);
+
+        yPlane = new Plane(BenchmarkFrames.lumaPlane(width, height, width), width, 1);
+        uPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 1), width, 2);
+        vPlane = new Plane(BenchmarkFrames.chromaPlane(width, height, width, 2, 2), width, 2);
+    }
+
+    @Benchmark
+    public byte[] processEdgeDetection() {
+        return processor.processEdgeDetection(yPlane, uPlane, vPlane);
+    }
+}
@@ -0,0 +1,129 @@
+package com.edgedetection.core;
+
+/**
+ * Picks the edge threshold for the next frame from the gradient histogram
+ * of the current one, so every frame is still thresholded in a single
+ * pass. The pick is smoothed over frames so the edge map does not flicker
+ * when the histogram shifts a little.
+ */
+public final class AutoThreshold {
+    public static final float DEFAULT_TARGET_EDGE_PERCENT = 10.0f;
+    // Weight of the newest pick; 1 jumps immediately
+    private static final float SMOOTHING = 0.25f;
+
+    private ThresholdMode mode = ThresholdMode.OTSU;
+    private float targetEdgePercent = DEFAULT_TARGET_EDGE_PERCENT;
+    private float smoothed;
+    private boolean primed;
+
+    public AutoThreshold(int initialThreshold) {
+        this.smoothed = initialThreshold;
+    }
+
+    public void setMode(ThresholdMode mode) {
+        if (mode == ThresholdMode.FIXED) {
+            throw new IllegalArgumentException("AutoThreshold needs OTSU or PERCENTILE");
+        }
+        this.mode = mode;
+    }
+
+    public ThresholdMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Share of pixels (0..100) PERCENTILE mode aims to mark as edges.
+     */
+    public void setTargetEdgePercent(float targetEdgePercent) {
+        if (!(targetEdgePercent > 0.0f && targetEdgePercent < 100.0f)) {
+            throw new IllegalArgumentException("targetEdgePercent must be in (0, 100): " + targetEdgePercent);
+        }
+        this.targetEdgePercent = targetEdgePercent;
+    }
+
+    public float getTargetEdgePercent() {
+        return targetEdgePercent;
+    }
+
+    /** Threshold to use for the next frame. */
+    public int getThreshold() {
+        return Math.round(smoothed);
+    }
+
+    /**
+     * Forgets the smoothing history; the next histogram is taken as is.
+     */
+    public void reset(int threshold) {
+        smoothed = threshold;
+        primed = false;
+    }
+
+    /**
+     * Folds one frame's histogram in. Empty histograms (e.g. from a
+     * kernel that does not fill one) leave the threshold unchanged.
+     */
+    public int update(GradientHistogram histogram) {
+        if (histogram == null || histogram.getTotal() == 0) {
+            return getThreshold();
+        }
+        int pick = mode == ThresholdMode.PERCENTILE
+                ? percentile(histogram, targetEdgePercent)
+                : otsu(histogram);
+        smoothed = primed ? smoothed + SMOOTHING * (pick - smoothed) : pick;
+        primed = true;
+        return getThreshold();
+    }
+
+    /**
+     * Otsu's method: the split that maximizes between-class variance.
+     * Returns the largest magnitude of the lower (background) class.
+     */
+    static int otsu(GradientHistogram histogram) {
+        int[] counts = histogram.counts;
+        long total = histogram.getTotal();
+        double sumAll = 0;
+        for (int bin = 0; bin < GradientHistogram.BIN_COUNT; bin++) {
+            sumAll += (double) bin * counts[bin];
+        }
+
+        long weightBelow = 0;
+        double sumBelow = 0;
+        double bestVariance = -1;
+        int bestBin = 0;
+        for (int bin = 0; bin < GradientHistogram.BIN_COUNT - 1; bin++) {
+            weightBelow += counts[bin];
+            if (weightBelow == 0) {
+                continue;
+            }
+            long weightAbove = total - weightBelow;
+            if (weightAbove == 0) {
+                break;
+            }
+            sumBelow += (double) bin * counts[bin];
+            double meanDiff = sumBelow / weightBelow - (sumAll - sumBelow) / weightAbove;
+            double variance = (double) weightBelow * weightAbove * meanDiff * meanDiff;
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                bestBin = bin;
+            }
+        }
+        return GradientHistogram.binUpperBound(bestBin);
+    }
+
+    /**
+     * Smallest bin boundary with at most targetPercent of the pixels above
+     * it.
+     */
+    static int percentile(GradientHistogram histogram, float targetPercent) {
+        int[] counts = histogram.counts;
+        long allowed = (long) (histogram.getTotal() * (targetPercent / 100.0f));
+        long above = 0;
+        for (int bin = GradientHistogram.BIN_COUNT - 1; bin > 0; bin--) {
+            if (above + counts[bin] > allowed) {
+                return GradientHistogram.binUpperBound(bin);
+            }
+            above += counts[bin];
+        }
+        return GradientHistogram.binUpperBound(0);
+    }
+}
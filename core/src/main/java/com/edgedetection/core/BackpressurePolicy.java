@@ -0,0 +1,18 @@
+package com.edgedetection.core;
+
+/**
+ * What {@link ProcessingStage} does when frames arrive faster than they
+ * can be processed.
+ */
+public enum BackpressurePolicy {
+    /** Keep only the newest pending frame; a new arrival replaces it. */
+    LATEST_WINS,
+    /** FIFO up to the stage's queue capacity; arrivals are dropped when full. */
+    BOUNDED_QUEUE,
+    /**
+     * FIFO like BOUNDED_QUEUE, but a frame is skipped before processing if
+     * it cannot finish within the deadline measured from its sensor
+     * timestamp (using a running estimate of processing time).
+     */
+    DEADLINE
+}
@@ -0,0 +1,339 @@
+package com.edgedetection.core;
+
+/**
+ * Canny edge detector: 5x5 Gaussian smoothing, Sobel gradient with the
+ * direction quantized to four sectors, non-maximum suppression and
+ * double-threshold hysteresis.
+ *
+ * The first three stages run as a wavefront over horizontal bands sized to
+ * stay in L2, so the rows a stage produces are consumed by the next stage
+ * while still in cache. Hysteresis needs the whole frame and follows with
+ * an explicit int stack instead of recursion. All buffers are allocated
+ * once for the frame size and reused.
+ *
+ * Output uses the same convention as the Sobel path: edges 0, background
+ * 255. Instances are not thread-safe.
+ */
+public final class CannyKernel {
+    public static final int DEFAULT_LOW_THRESHOLD = 150;
+    public static final int DEFAULT_HIGH_THRESHOLD = 300;
+
+    private static final int L2_BYTES = 256 * 1024;
+    // hPass + smooth (short) + magnitude (int) + direction + class (byte)
+    private static final int BYTES_PER_PIXEL = 2 + 2 + 4 + 1 + 1;
+    private static final int MIN_BAND_ROWS = 8;
+
+    // tan(22.5) and tan(67.5) in Q15 for direction quantization
+    private static final int TAN_22_5_Q15 = 13573;
+    private static final int TAN_67_5_Q15 = 79109;
+
+    private static final byte DIR_HORIZONTAL = 0;
+    private static final byte DIR_DIAGONAL_DOWN = 1;
+    private static final byte DIR_VERTICAL = 2;
+    private static final byte DIR_DIAGONAL_UP = 3;
+
+    private static final byte NONE = 0;
+    private static final byte WEAK = 1;
+    private static final byte STRONG = 2;
+
+    private final int width;
+    private final int height;
+    private final int bandRows;
+    private final short[] hPass;
+    private final short[] smooth;
+    private final int[] magnitude;
+    private final byte[] direction;
+    private final byte[] edgeClass;
+    private final int[] stack;
+    private final byte[] rowBytes;
+    private final int[] neighbourOffsets;
+    // Step to the neighbour across the gradient, indexed by DIR_*
+    private final int[] nmsOffsets;
+
+    private int lowThreshold = DEFAULT_LOW_THRESHOLD;
+    private int highThreshold = DEFAULT_HIGH_THRESHOLD;
+
+    // Current source; exactly one of these is set during a pass
+    private byte[] srcArray;
+    private Plane srcPlane;
+
+    public CannyKernel(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.bandRows = Math.max(MIN_BAND_ROWS, L2_BYTES / (Math.max(1, width) * BYTES_PER_PIXEL));
+        int size = width * height;
+        this.hPass = new short[size];
+        this.smooth = new short[size];
+        this.magnitude = new int[size];
+        this.direction = new byte[size];
+        this.edgeClass = new byte[size];
+        this.stack = new int[size];
+        this.rowBytes = new byte[width];
+        this.neighbourOffsets = new int[] {
+            -width - 1, -width, -width + 1,
+            -1, 1,
+            width - 1, width, width + 1
+        };
+        this.nmsOffsets = new int[4];
+        nmsOffsets[DIR_HORIZONTAL] = 1;
+        nmsOffsets[DIR_DIAGONAL_DOWN] = width + 1;
+        nmsOffsets[DIR_VERTICAL] = width;
+        nmsOffsets[DIR_DIAGONAL_UP] = width - 1;
+    }
+
+    public void setThresholds(int low, int high) {
+        if (low > high) {
+            throw new IllegalArgumentException("low threshold " + low + " > high threshold " + high);
+        }
+        this.lowThreshold = low;
+        this.highThreshold = high;
+    }
+
+    public int getLowThreshold() {
+        return lowThreshold;
+    }
+
+    public int getHighThreshold() {
+        return highThreshold;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void apply(byte[] src, byte[] dst, EdgeStats stats) {
+        srcArray = src;
+        try {
+            run(dst, stats);
+        } finally {
+            srcArray = null;
+        }
+    }
+
+    public void apply(Plane src, byte[] dst, EdgeStats stats) {
+        srcPlane = src;
+        try {
+            run(dst, stats);
+        } finally {
+            srcPlane = null;
+        }
+    }
+
+    private void run(byte[] dst, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = highThreshold;
+        stats.sumTracked = false;
+
+        int lowSquared = FastSobelKernel.squaredThreshold(lowThreshold);
+        int highSquared = FastSobelKernel.squaredThreshold(highThreshold);
+
+        // Wavefront over bands: each stage runs only as far as the next one needs
+        int hDone = 0;
+        int smoothDone = 0;
+        int gradientDone = 0;
+        int nmsDone = 0;
+        int stackSize = 0;
+        for (int bandStart = 0; bandStart < height; bandStart += bandRows) {
+            int nmsTarget = Math.min(height, bandStart + bandRows);
+            int gradientTarget = Math.min(height, nmsTarget + 1);
+            int smoothTarget = Math.min(height, gradientTarget + 1);
+            int hTarget = Math.min(height, smoothTarget + 2);
+
+            horizontalGaussian(hDone, hTarget);
+            verticalGaussian(smoothDone, smoothTarget);
+            gradient(gradientDone, gradientTarget, lowSquared);
+            stackSize = suppressNonMaxima(nmsDone, nmsTarget, lowSquared, highSquared, stackSize);
+
+            hDone = hTarget;
+            smoothDone = smoothTarget;
+            gradientDone = gradientTarget;
+            nmsDone = nmsTarget;
+        }
+
+        hysteresis(stackSize);
+        writeOutput(dst, stats);
+    }
+
+    /** [1 4 6 4 1] along each row, edges clamped. Values up to 255 * 16. */
+    private void horizontalGaussian(int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            byte[] row;
+            int offset;
+            if (srcPlane != null) {
+                srcPlane.readRow(y, rowBytes, 0, width);
+                row = rowBytes;
+                offset = 0;
+            } else {
+                row = srcArray;
+                offset = y * width;
+            }
+            int out = y * width;
+            // Clamped taps only near the left/right edges
+            int interiorEnd = Math.max(2, width - 2);
+            for (int x = 0; x < Math.min(2, width); x++) {
+                hPass[out + x] = clampedHorizontalTap(row, offset, x);
+            }
+            for (int x = 2; x < interiorEnd; x++) {
+                int i = offset + x;
+                hPass[out + x] = (short) ((row[i - 2] & 0xFF) + 4 * (row[i - 1] & 0xFF) + 6 * (row[i] & 0xFF)
+                        + 4 * (row[i + 1] & 0xFF) + (row[i + 2] & 0xFF));
+            }
+            for (int x = interiorEnd; x < width; x++) {
+                hPass[out + x] = clampedHorizontalTap(row, offset, x);
+            }
+        }
+    }
+
+    private short clampedHorizontalTap(byte[] row, int offset, int x) {
+        int l2 = row[offset + Math.max(0, x - 2)] & 0xFF;
+        int l1 = row[offset + Math.max(0, x - 1)] & 0xFF;
+        int c = row[offset + x] & 0xFF;
+        int r1 = row[offset + Math.min(width - 1, x + 1)] & 0xFF;
+        int r2 = row[offset + Math.min(width - 1, x + 2)] & 0xFF;
+        return (short) (l2 + 4 * l1 + 6 * c + 4 * r1 + r2);
+    }
+
+    /** [1 4 6 4 1]^T over the horizontal pass, rounded back to 0..255. */
+    private void verticalGaussian(int rowStart, int rowEnd) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int u2 = Math.max(0, y - 2) * width;
+            int u1 = Math.max(0, y - 1) * width;
+            int c = y * width;
+            int d1 = Math.min(height - 1, y + 1) * width;
+            int d2 = Math.min(height - 1, y + 2) * width;
+            for (int x = 0; x < width; x++) {
+                int sum = hPass[u2 + x] + 4 * hPass[u1 + x] + 6 * hPass[c + x]
+                        + 4 * hPass[d1 + x] + hPass[d2 + x];
+                smooth[c + x] = (short) ((sum + 128) >> 8);
+            }
+        }
+    }
+
+    /** Squared Sobel magnitude and quantized direction; zero on the border. */
+    private void gradient(int rowStart, int rowEnd, int lowSquared) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) {
+                    magnitude[row + x] = 0;
+                }
+                continue;
+            }
+            magnitude[row] = 0;
+            magnitude[row + width - 1] = 0;
+            int up = row - width;
+            int down = row + width;
+            for (int x = 1; x < width - 1; x++) {
+                int gx = (smooth[up + x + 1] + 2 * smooth[row + x + 1] + smooth[down + x + 1])
+                       - (smooth[up + x - 1] + 2 * smooth[row + x - 1] + smooth[down + x - 1]);
+                int gy = (smooth[down + x - 1] + 2 * smooth[down + x] + smooth[down + x + 1])
+                       - (smooth[up + x - 1] + 2 * smooth[up + x] + smooth[up + x + 1]);
+                int m = gx * gx + gy * gy;
+                magnitude[row + x] = m;
+                if (m < lowSquared) {
+                    // NMS never looks at the direction of pixels below the low threshold
+                    continue;
+                }
+
+                // Branch-free sector pick: noise makes these comparisons unpredictable
+                int ax = Math.abs(gx);
+                int ay = Math.abs(gy);
+                int horizontal = ((ay << 15) - ax * TAN_22_5_Q15) >>> 31;
+                int vertical = (ax * TAN_67_5_Q15 - (ay << 15)) >>> 31;
+                int diagonal = DIR_DIAGONAL_DOWN + (((gx ^ gy) >>> 31) << 1);
+                int dir = vertical * DIR_VERTICAL + (1 - vertical) * diagonal;
+                direction[row + x] = (byte) ((1 - horizontal) * dir);
+            }
+        }
+    }
+
+    /**
+     * Keeps pixels that are a local maximum across the gradient direction and
+     * classifies them as weak/strong. Strong pixels are pushed as hysteresis seeds.
+     */
+    private int suppressNonMaxima(int rowStart, int rowEnd, int lowSquared, int highSquared, int stackSize) {
+        for (int y = rowStart; y < rowEnd; y++) {
+            int row = y * width;
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) {
+                    edgeClass[row + x] = NONE;
+                }
+                continue;
+            }
+            edgeClass[row] = NONE;
+            edgeClass[row + width - 1] = NONE;
+            for (int x = 1; x < width - 1; x++) {
+                int i = row + x;
+                int m = magnitude[i];
+                if (m < lowSquared) {
+                    edgeClass[i] = NONE;
+                    continue;
+                }
+
+                int offset = nmsOffsets[direction[i]];
+                int before = magnitude[i - offset];
+                int after = magnitude[i + offset];
+
+                // >= on one side so plateaus keep exactly one pixel
+                if (m >= before && m > after) {
+                    if (m >= highSquared) {
+                        edgeClass[i] = STRONG;
+                        stack[stackSize++] = i;
+                    } else {
+                        edgeClass[i] = WEAK;
+                    }
+                } else {
+                    edgeClass[i] = NONE;
+                }
+            }
+        }
+        return stackSize;
+    }
+
+    /** Promotes weak pixels 8-connected to a strong one, depth-first. */
+    private void hysteresis(int stackSize) {
+        while (stackSize > 0) {
+            int i = stack[--stackSize];
+            // Border pixels are never marked, so neighbours of a marked pixel are in range
+            for (int offset : neighbourOffsets) {
+                int n = i + offset;
+                if (edgeClass[n] == WEAK) {
+                    edgeClass[n] = STRONG;
+                    stack[stackSize++] = n;
+                }
+            }
+        }
+    }
+
+    private void writeOutput(byte[] dst, EdgeStats stats) {
+        int size = width * height;
+        for (int i = 0; i < size; i++) {
+            dst[i] = edgeClass[i] == STRONG ? (byte) 0 : (byte) 255;
+        }
+
+        // Stats over the interior, like the Sobel kernels
+        int edgeCount = 0;
+        int totalPixels = 0;
+        int maxSquared = 0;
+        int minSquared = Integer.MAX_VALUE;
+        for (int y = 1; y < height - 1; y++) {
+            for (int i = y * width + 1, end = y * width + width - 1; i < end; i++) {
+                if (edgeClass[i] == STRONG) {
+                    edgeCount++;
+                }
+                int m = magnitude[i];
+                maxSquared = Math.max(maxSquared, m);
+                minSquared = Math.min(minSquared, m);
+                totalPixels++;
+            }
+        }
+        stats.edgeCount = edgeCount;
+        stats.totalPixels = totalPixels;
+        stats.maxMagnitude = (int) Math.sqrt(maxSquared);
+        stats.minMagnitude = totalPixels == 0 ? Integer.MAX_VALUE : (int) Math.sqrt(minSquared);
+    }
+}
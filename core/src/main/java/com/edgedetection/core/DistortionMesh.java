@@ -0,0 +1,171 @@
+package com.edgedetection.core;
+
+/**
+ * Pre-distortion mesh for one eye of a side-by-side stereo view through a
+ * magnifier lens. The lens shows a point drawn at radius r from its centre
+ * at r (1 + k1 r^2 + k2 r^4) (pincushion), so the image is drawn barrel
+ * distorted by the inverse and looks flat through the lens.
+ *
+ * The inverse is solved per vertex here, once per eye size, instead of
+ * per fragment: the mesh is a regular grid over the texture whose vertex
+ * positions are moved inwards, and the GPU interpolates between them.
+ * Radii are in units of the eye's half height, with the lens centred on
+ * the eye; the image fills the eye as the flat full-screen quad does, and
+ * everything outside the mesh is left at the clear colour.
+ *
+ * Vertices are {x, y, u, v}: x and y in the eye viewport's clip space, u
+ * and v texture coordinates with v = 0 at the top (the quad's flip).
+ * Indices are triangles as unsigned shorts, for GLES 2.
+ */
+public final class DistortionMesh {
+    /** Cardboard-style viewer, in half-height units. */
+    public static final float DEFAULT_K1 = 0.22f;
+    public static final float DEFAULT_K2 = 0.24f;
+    /** Cells per side; 32 keeps the mesh within half a pixel of exact on a 1080p eye. */
+    public static final int DEFAULT_CELLS = 32;
+    public static final int FLOATS_PER_VERTEX = 4;
+    public static final int MAX_CELLS = 255;
+
+    private static final int NEWTON_ITERATIONS = 32;
+
+    private final int cells;
+    private final float k1;
+    private final float k2;
+    private final float[] vertices;
+    private final short[] indices;
+    private int eyeWidth;
+    private int eyeHeight;
+
+    public DistortionMesh(float k1, float k2) {
+        this(k1, k2, DEFAULT_CELLS);
+    }
+
+    /**
+     * k1 and k2 are the lens' radial coefficients and must not be negative;
+     * cells is per side, up to {@link #MAX_CELLS} so vertex indices fit an
+     * unsigned short.
+     */
+    public DistortionMesh(float k1, float k2, int cells) {
+        if (!(k1 >= 0) || !(k2 >= 0)) {
+            throw new IllegalArgumentException("Lens coefficients must not be negative: " + k1 + ", " + k2);
+        }
+        if (cells < 1 || cells > MAX_CELLS) {
+            throw new IllegalArgumentException("Cells must be in 1.." + MAX_CELLS + ": " + cells);
+        }
+        this.cells = cells;
+        this.k1 = k1;
+        this.k2 = k2;
+        int side = cells + 1;
+        this.vertices = new float[side * side * FLOATS_PER_VERTEX];
+        this.indices = new short[cells * cells * 6];
+        int i = 0;
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                int topLeft = row * side + column;
+                int bottomLeft = topLeft + side;
+                indices[i++] = (short) topLeft;
+                indices[i++] = (short) bottomLeft;
+                indices[i++] = (short) (topLeft + 1);
+                indices[i++] = (short) (topLeft + 1);
+                indices[i++] = (short) bottomLeft;
+                indices[i++] = (short) (bottomLeft + 1);
+            }
+        }
+    }
+
+    /**
+     * Lays the vertices out for an eye viewport of the given size. Returns
+     * false (and leaves them as they are) if that is the current size.
+     */
+    public boolean build(int eyeWidth, int eyeHeight) {
+        if (eyeWidth <= 0 || eyeHeight <= 0) {
+            throw new IllegalArgumentException("Invalid eye size " + eyeWidth + "x" + eyeHeight);
+        }
+        if (eyeWidth == this.eyeWidth && eyeHeight == this.eyeHeight) {
+            return false;
+        }
+        this.eyeWidth = eyeWidth;
+        this.eyeHeight = eyeHeight;
+        float aspect = (float) eyeWidth / eyeHeight;
+        int side = cells + 1;
+        int out = 0;
+        for (int row = 0; row < side; row++) {
+            float v = (float) row / cells;
+            for (int column = 0; column < side; column++) {
+                float u = (float) column / cells;
+                // Where the lens should show this texel, then where to draw it
+                float x = (2 * u - 1) * aspect;
+                float y = 1 - 2 * v;
+                float r = (float) Math.sqrt(x * x + y * y);
+                float scale = r > 0 ? undistort(r) / r : 1;
+                vertices[out++] = x * scale / aspect;
+                vertices[out++] = y * scale;
+                vertices[out++] = u;
+                vertices[out++] = v;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The radius the lens shows at r.
+     */
+    public float distort(float r) {
+        float r2 = r * r;
+        return r * (1 + r2 * (k1 + k2 * r2));
+    }
+
+    /**
+     * The radius to draw at so the lens shows it at r: Newton on
+     * distort(s) = r, which is monotonic for non-negative coefficients.
+     */
+    public float undistort(float r) {
+        double s = r;
+        for (int i = 0; i < NEWTON_ITERATIONS; i++) {
+            double s2 = s * s;
+            double f = s * (1 + s2 * (k1 + k2 * s2)) - r;
+            double slope = 1 + s2 * (3 * k1 + 5 * k2 * s2);
+            double step = f / slope;
+            s -= step;
+            if (Math.abs(step) < 1e-7) {
+                break;
+            }
+        }
+        return (float) s;
+    }
+
+    /**
+     * {x, y, u, v} per vertex, row by row from the top of the image.
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / FLOATS_PER_VERTEX;
+    }
+
+    public short[] getIndices() {
+        return indices;
+    }
+
+    public int getCells() {
+        return cells;
+    }
+
+    public float getK1() {
+        return k1;
+    }
+
+    public float getK2() {
+        return k2;
+    }
+
+    public int getEyeWidth() {
+        return eyeWidth;
+    }
+
+    public int getEyeHeight() {
+        return eyeHeight;
+    }
+}
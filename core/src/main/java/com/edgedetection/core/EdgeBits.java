@@ -0,0 +1,83 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+
+/**
+ * Layout of a packed edge map: 1 bit per pixel, 1 = edge, rows padded to
+ * whole bytes ({@link #rowBytes}), most significant bit first, as in a
+ * PBM bitmap. A 1280x720 map is 115 KB instead of the 900 KB luma plane
+ * (or 1.4 MB NV21 frame) the byte kernels fill.
+ *
+ * Border pixels, which the byte kernels pass through as luma, are never
+ * edges here, and padding bits are 0.
+ */
+public final class EdgeBits {
+
+    private EdgeBits() {
+    }
+
+    public static int rowBytes(int width) {
+        return (width + 7) >> 3;
+    }
+
+    public static int size(int width, int height) {
+        return rowBytes(width) * height;
+    }
+
+    /**
+     * Packs an edge map from the byte kernels (edges are 0, everything
+     * else 255 or border luma) into packed.
+     */
+    public static void pack(byte[] edges, int width, int height, byte[] packed) {
+        int rowBytes = rowBytes(width);
+        for (int y = 0; y < height; y++) {
+            int out = y * rowBytes;
+            if (y == 0 || y == height - 1) {
+                Arrays.fill(packed, out, out + rowBytes, (byte) 0);
+                continue;
+            }
+            int in = y * width;
+            int bits = 0;
+            for (int x = 0; x < width; x++) {
+                if (edges[in + x] == 0 && x > 0 && x < width - 1) {
+                    bits |= 0x80 >>> (x & 7);
+                }
+                if ((x & 7) == 7) {
+                    packed[out + (x >> 3)] = (byte) bits;
+                    bits = 0;
+                }
+            }
+            if ((width & 7) != 0) {
+                packed[out + (width >> 3)] = (byte) bits;
+            }
+        }
+    }
+
+    /**
+     * Expands packed into width x height bytes: 0 for edges, 255 for
+     * everything else, so it displays like the byte kernels' output.
+     */
+    public static void unpack(byte[] packed, int width, int height, byte[] out) {
+        int rowBytes = rowBytes(width);
+        for (int y = 0; y < height; y++) {
+            int in = y * rowBytes;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                boolean edge = (packed[in + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+                out[row + x] = edge ? (byte) 0 : (byte) 255;
+            }
+        }
+    }
+
+    /**
+     * Number of set bits, i.e. edge pixels.
+     */
+    public static int countEdges(byte[] packed, int width, int height) {
+        int count = 0;
+        int size = size(width, height);
+        for (int i = 0; i < size; i++) {
+            count += Integer.bitCount(packed[i] & 0xFF);
+        }
+        return count;
+    }
+}
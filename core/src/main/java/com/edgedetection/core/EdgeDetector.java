@@ -0,0 +1,11 @@
+package com.edgedetection.core;
+
+/**
+ * Edge detection algorithm used by {@link EdgeFrameProcessor}.
+ */
+public enum EdgeDetector {
+    /** Single fixed-threshold Sobel pass ({@link SobelVariant} picks the implementation). */
+    SOBEL,
+    /** Gaussian + Sobel + non-maximum suppression + hysteresis ({@link CannyKernel}). */
+    CANNY
+}
@@ -0,0 +1,594 @@
+package com.edgedetection.core;
+
+/**
+ * Platform-independent half of FrameProcessor. Takes plain planes instead of
+ * android.media.Image and produces an NV21-sized output frame.
+ *
+ * Planes are read with their row/pixel strides, so padded rows from the
+ * camera do not shear the output. The FAST kernel reads the Y plane in
+ * place; only the REFERENCE kernel needs a packed copy of it.
+ */
+public class EdgeFrameProcessor implements AutoCloseable {
+    private final byte[] yData;
+    private final byte[] outputData;
+    private final int width;
+    private final int height;
+    private final EdgeStats stats = new EdgeStats();
+    private int threshold = SobelKernel.DEFAULT_THRESHOLD;
+    private final GradientHistogram histogram = new GradientHistogram();
+    private final AutoThreshold autoThreshold = new AutoThreshold(SobelKernel.DEFAULT_THRESHOLD);
+    private volatile ThresholdMode thresholdMode = ThresholdMode.FIXED;
+    // Threshold the last frame was processed with
+    private int frameThreshold = SobelKernel.DEFAULT_THRESHOLD;
+    private StripedSobel stripedSobel;
+    private final FastSobelKernel fastKernel = new FastSobelKernel();
+    private NativeSobel nativeSobel;
+    private final Nv21Packer nv21Packer = new Nv21Packer();
+    private final YPyramid pyramid;
+    private final ResolutionScaler resolutionScaler;
+    private final byte[] levelEdges;
+    private volatile boolean adaptiveResolution;
+    private volatile boolean incremental;
+    private IncrementalSobel incrementalSobel;
+    private volatile EdgeDetector detector = EdgeDetector.SOBEL;
+    // One per pyramid level, allocated on first use
+    private final CannyKernel[] cannyKernels = new CannyKernel[YPyramid.MAX_LEVEL + 1];
+    private int cannyLow = CannyKernel.DEFAULT_LOW_THRESHOLD;
+    private int cannyHigh = CannyKernel.DEFAULT_HIGH_THRESHOLD;
+    private volatile SobelVariant variant = SobelVariant.FAST;
+    private FilterExecutor filterExecutor;
+    private volatile boolean fusedFilters = true;
+    private volatile MorphologyOp morphology = MorphologyOp.NONE;
+    private volatile int morphologyRadius = 1;
+    private EdgeMorphology edgeMorphology;
+    // Gaussian sigma of the blur before Sobel; 0 is off
+    private volatile float preSmoothing;
+    private GaussianSmoother smoother;
+
+    public EdgeFrameProcessor(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        int expectedSize = width * height;
+        this.yData = new byte[expectedSize];
+        this.outputData = new byte[expectedSize * 3 / 2]; // NV21 format
+        this.pyramid = new YPyramid(width, height);
+        this.resolutionScaler = new ResolutionScaler(pyramid.getMaxLevel());
+        this.levelEdges = new byte[pyramid.getWidth(1) * pyramid.getHeight(1)];
+    }
+
+    public byte[] processEdgeDetection(Plane yPlane, Plane uPlane, Plane vPlane) {
+        return processEdgeDetection(yPlane, uPlane, vPlane, outputData);
+    }
+
+    /**
+     * Same as above, but writes into a caller-supplied NV21-sized buffer
+     * (e.g. a {@link FrameExchange} slot) instead of the internal one.
+     */
+    public byte[] processEdgeDetection(Plane yPlane, Plane uPlane, Plane vPlane, byte[] output) {
+        beginFrame();
+        if (!adaptiveResolution) {
+            if (incremental && detector == EdgeDetector.SOBEL) {
+                detectIncremental(yPlane, output);
+            } else {
+                detectFullResolution(yPlane, output, smoother());
+            }
+            morph(output);
+            endFrame();
+            return output;
+        }
+
+        // Adaptive: run at the level the scaler picked and upscale the edge map for display
+        long start = System.nanoTime();
+        int level = resolutionScaler.getLevel();
+        if (level == 0) {
+            // Unblurred like the other levels, so stepping between them
+            // does not change the edge response
+            detectFullResolution(yPlane, output, null);
+        } else {
+            byte[] levelY = pyramid.build(yPlane, level);
+            int levelWidth = pyramid.getWidth(level);
+            int levelHeight = pyramid.getHeight(level);
+            detect(level, levelY, levelEdges, levelWidth, levelHeight);
+            pyramid.upscale(level, levelEdges, output);
+        }
+        resolutionScaler.record(level, System.nanoTime() - start);
+        morph(output);
+        endFrame();
+
+        return output;
+    }
+
+    /**
+     * Edge map only, as a 1-bit {@link EdgeBits} map of
+     * {@link #getPackedSize()} bytes. Full-resolution Sobel on the FAST
+     * kernel (serial or striped) writes the bits straight from the
+     * threshold compare; every other path (REFERENCE, NATIVE, Canny,
+     * incremental, adaptive) runs as usual and is packed afterwards.
+     */
+    public byte[] processPackedEdges(Plane yPlane, byte[] packed) {
+        SobelVariant variant = this.variant;
+        if (variant == SobelVariant.NATIVE && !(NativeSobel.isAvailable() && NativeSobel.canRead(yPlane))) {
+            variant = SobelVariant.FAST;
+        }
+        if (adaptiveResolution || incremental || detector != EdgeDetector.SOBEL || variant != SobelVariant.FAST) {
+            // The chroma planes are only read by getRawFrame
+            processEdgeDetection(yPlane, null, null, outputData);
+            EdgeBits.pack(outputData, width, height, packed);
+            return packed;
+        }
+
+        beginFrame();
+        kernelSmoothing(smoother());
+        if (stripedSobel != null) {
+            stripedSobel.applyPacked(yPlane, packed, width, height, frameThreshold, stats);
+        } else {
+            fastKernel.applyPacked(yPlane, packed, width, height, frameThreshold, stats);
+        }
+        MorphologyOp op = morphology;
+        if (op != MorphologyOp.NONE) {
+            edgeMorphology().applyPacked(packed, op, morphologyRadius);
+        }
+        endFrame();
+        return packed;
+    }
+
+    /**
+     * Runs graph over the Y plane into the first width * height bytes of
+     * output, on the same number of cores as the Sobel pass. The detector,
+     * threshold mode, adaptive resolution and incremental settings do not
+     * apply, and {@link #getStats()} is left as it was.
+     */
+    public byte[] processFilterGraph(Plane yPlane, FilterGraph graph, byte[] output) {
+        if (filterExecutor == null) {
+            filterExecutor = new FilterExecutor(width, height, getWorkerCount());
+        }
+        filterExecutor.setFused(fusedFilters);
+        filterExecutor.apply(graph, yPlane, output);
+        if (incrementalSobel != null) {
+            incrementalSobel.invalidate();
+        }
+        return output;
+    }
+
+    /**
+     * Single tiled pass over all stages of a filter graph (default) or one
+     * full-frame pass per stage, for comparison. Safe to call from any
+     * thread; takes effect on the next frame.
+     */
+    public void setFusedFilters(boolean fused) {
+        this.fusedFilters = fused;
+    }
+
+    public boolean isFusedFilters() {
+        return fusedFilters;
+    }
+
+    /**
+     * Morphology applied to every Sobel or Canny edge map (byte and packed
+     * alike) with a (2 * radius + 1)^2 square, e.g. CLOSE to join broken
+     * edges or OPEN to drop specks. Edge stats still describe the map
+     * before it. Filter graphs and raw frames are not affected. Safe to
+     * call from any thread; takes effect on the next frame.
+     */
+    public void setMorphology(MorphologyOp op, int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius must be >= 0: " + radius);
+        }
+        this.morphologyRadius = radius;
+        this.morphology = op;
+    }
+
+    public MorphologyOp getMorphology() {
+        return morphology;
+    }
+
+    public int getMorphologyRadius() {
+        return morphologyRadius;
+    }
+
+    /**
+     * Blurs the luma plane with an integer approximation of a Gaussian of
+     * this sigma before full-resolution Sobel, to keep sensor noise out of
+     * the edge map; 0 (the default) turns it off. The FAST kernel blurs
+     * rows as they enter its window; the REFERENCE and NATIVE variants blur
+     * a copy of the frame first (NATIVE then runs the FAST kernel on it).
+     * Canny has its own Gaussian, and incremental frames and adaptive
+     * resolution (at every level, full resolution included; the pyramid
+     * levels are already averaged down) are not blurred.
+     *
+     * Blurring also flattens real edges (a sharp step by about 2.5x at
+     * sigma 1.5), so lower the threshold with it: 1 to 1.5 with a
+     * threshold near 100 keeps low-light noise out where the unblurred
+     * kernel needs about 200. Safe to call from any thread; takes effect
+     * on the next frame.
+     */
+    public void setPreSmoothing(float sigma) {
+        if (!(sigma >= 0 && sigma <= GaussianSmoother.MAX_SIGMA)) {
+            throw new IllegalArgumentException("sigma must be in [0, " + GaussianSmoother.MAX_SIGMA + "]: " + sigma);
+        }
+        this.preSmoothing = sigma;
+    }
+
+    public float getPreSmoothing() {
+        return preSmoothing;
+    }
+
+    /**
+     * The smoother for the current sigma, or null when smoothing is off.
+     */
+    private GaussianSmoother smoother() {
+        float sigma = preSmoothing;
+        if (sigma <= 0) {
+            return null;
+        }
+        if (smoother == null || smoother.getSigma() != sigma) {
+            smoother = new GaussianSmoother(sigma);
+        }
+        return smoother;
+    }
+
+    /**
+     * Streams the FAST kernels' rows through smoother (null: raw rows).
+     */
+    private void kernelSmoothing(GaussianSmoother smoother) {
+        float sigma = smoother != null ? smoother.getSigma() : 0;
+        fastKernel.setPreSmoothing(sigma);
+        if (stripedSobel != null) {
+            stripedSobel.setPreSmoothing(sigma);
+        }
+    }
+
+    private void morph(byte[] output) {
+        MorphologyOp op = morphology;
+        if (op != MorphologyOp.NONE) {
+            edgeMorphology().apply(output, op, morphologyRadius);
+        }
+    }
+
+    private EdgeMorphology edgeMorphology() {
+        if (edgeMorphology == null) {
+            edgeMorphology = new EdgeMorphology(width, height);
+        }
+        return edgeMorphology;
+    }
+
+    /**
+     * Auto modes threshold this frame with the value picked from the
+     * previous frames and collect this frame's histogram for the next one.
+     */
+    private void beginFrame() {
+        ThresholdMode mode = thresholdMode;
+        if (mode == ThresholdMode.FIXED) {
+            stats.histogram = null;
+            frameThreshold = threshold;
+        } else {
+            if (autoThreshold.getMode() != mode) {
+                autoThreshold.setMode(mode);
+            }
+            stats.histogram = histogram;
+            frameThreshold = autoThreshold.getThreshold();
+        }
+    }
+
+    private void endFrame() {
+        if (stats.histogram != null) {
+            autoThreshold.update(stats.histogram);
+        }
+        if (!incremental && incrementalSobel != null) {
+            // Cached edges go stale while other paths run
+            incrementalSobel.invalidate();
+        }
+    }
+
+    private void detectIncremental(Plane yPlane, byte[] output) {
+        IncrementalSobel incremental = incrementalSobel();
+        byte[] luma = incremental.load(yPlane);
+        byte[] edges = incremental.getEdges();
+        int picked = frameThreshold;
+        if (stats.histogram != null && incremental.isValid()) {
+            // The auto threshold moves a little on almost every frame, and a
+            // changed threshold forces a full refresh; keep the one the cached
+            // edges were computed with until a refresh is due anyway
+            frameThreshold = incremental.getThreshold();
+        }
+        if (incremental.beginFrame(frameThreshold)) {
+            frameThreshold = picked;
+            detect(0, luma, edges, width, height);
+            incremental.completeFullRefresh(frameThreshold);
+        } else {
+            incremental.updateChangedTiles(frameThreshold, stats);
+        }
+        System.arraycopy(edges, 0, output, 0, width * height);
+    }
+
+    private IncrementalSobel incrementalSobel() {
+        if (incrementalSobel == null) {
+            incrementalSobel = new IncrementalSobel(width, height);
+        }
+        return incrementalSobel;
+    }
+
+    /** smoother: pre-smoothing to apply, null for none. */
+    private void detectFullResolution(Plane yPlane, byte[] output, GaussianSmoother smoother) {
+        if (detector == EdgeDetector.CANNY) {
+            canny(0).apply(yPlane, output, stats);
+            return;
+        }
+
+        // Apply Sobel edge detection on Y plane (-> Y plane of output)
+        SobelVariant variant = this.variant;
+        if (smoother != null && variant != SobelVariant.FAST) {
+            // Blur the whole frame once, then run the kernel on the copy
+            smoother.smooth(yPlane, yData, width, height);
+            detect(0, yData, output, width, height);
+            return;
+        }
+        kernelSmoothing(smoother);
+        if (variant == SobelVariant.NATIVE) {
+            if (NativeSobel.isAvailable() && NativeSobel.canRead(yPlane)) {
+                nativeSobel().apply(yPlane, output, width, height, frameThreshold, stats);
+                return;
+            }
+            variant = SobelVariant.FAST;
+        }
+        if (variant == SobelVariant.FAST) {
+            if (stripedSobel != null) {
+                stripedSobel.apply(yPlane, output, width, height, frameThreshold, stats);
+            } else {
+                fastKernel.apply(yPlane, output, width, height, frameThreshold, stats);
+            }
+        } else {
+            yPlane.readRows(yData, width, height);
+            detect(0, yData, output, width, height);
+        }
+    }
+
+    private void detect(int level, byte[] src, byte[] dst, int width, int height) {
+        SobelVariant variant = this.variant;
+        if (variant == SobelVariant.NATIVE) {
+            // The native kernel reads direct buffers only
+            variant = SobelVariant.FAST;
+        }
+        kernelSmoothing(null);
+        if (detector == EdgeDetector.CANNY) {
+            canny(level).apply(src, dst, stats);
+        } else if (stripedSobel != null) {
+            stripedSobel.apply(variant, src, dst, width, height, frameThreshold, stats);
+        } else if (variant == SobelVariant.FAST) {
+            fastKernel.apply(src, dst, width, height, frameThreshold, stats);
+        } else {
+            SobelKernel.apply(src, dst, width, height, frameThreshold, stats);
+        }
+    }
+
+    public byte[] getRawFrame(Plane yPlane, Plane uPlane, Plane vPlane) {
+        return getRawFrame(yPlane, uPlane, vPlane, outputData);
+    }
+
+    public byte[] getRawFrame(Plane yPlane, Plane uPlane, Plane vPlane, byte[] output) {
+        yPlane.readRows(output, width, height);
+        nv21Packer.pack(uPlane, vPlane, width, height, output, width * height);
+        return output;
+    }
+
+    public EdgeStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Threshold used for the most recent frame; in auto modes this is the
+     * value picked from the frames before it.
+     */
+    public int getThreshold() {
+        return frameThreshold;
+    }
+
+    /**
+     * Threshold for {@link ThresholdMode#FIXED}; also seeds the auto modes.
+     * Call from the processing thread.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+        this.frameThreshold = threshold;
+        autoThreshold.reset(threshold);
+    }
+
+    public ThresholdMode getThresholdMode() {
+        return thresholdMode;
+    }
+
+    /**
+     * FIXED uses {@link #setThreshold(int)}. OTSU and PERCENTILE build a
+     * gradient histogram in the same pass as the threshold (sampled rows on
+     * the FAST kernel) and apply its pick to the next frame. Safe to call
+     * from any thread; takes effect on the next frame. Auto modes only
+     * drive the Sobel detector; Canny keeps its own thresholds.
+     */
+    public void setThresholdMode(ThresholdMode mode) {
+        this.thresholdMode = mode;
+    }
+
+    /**
+     * Share of pixels PERCENTILE mode aims to mark as edges. Call from the
+     * processing thread.
+     */
+    public void setTargetEdgePercent(float percent) {
+        autoThreshold.setTargetEdgePercent(percent);
+    }
+
+    public AutoThreshold getAutoThreshold() {
+        return autoThreshold;
+    }
+
+    public SobelVariant getSobelVariant() {
+        return variant;
+    }
+
+    /**
+     * Switches kernel implementation for A/B comparison. Safe to call from
+     * any thread; takes effect on the next frame.
+     */
+    public void setSobelVariant(SobelVariant variant) {
+        this.variant = variant;
+    }
+
+    /**
+     * When enabled, each frame is processed at full, 1/2 or 1/4 resolution
+     * as chosen by {@link #getResolutionScaler()} from measured processing
+     * time. Edge stats then describe the downsampled frame.
+     */
+    public void setAdaptiveResolution(boolean adaptiveResolution) {
+        this.adaptiveResolution = adaptiveResolution;
+    }
+
+    public boolean isAdaptiveResolution() {
+        return adaptiveResolution;
+    }
+
+    /**
+     * When enabled, Sobel frames only recompute the tiles whose luma changed
+     * since they were last computed (see {@link IncrementalSobel}). Applies
+     * to full-resolution Sobel; adaptive resolution and Canny bypass it.
+     * A changed threshold forces a full refresh, so with an OTSU or
+     * PERCENTILE {@link ThresholdMode} the threshold is held between full
+     * refreshes (every {@link IncrementalSobel#DEFAULT_FULL_REFRESH_INTERVAL}
+     * frames, or when much of the frame changed) and the auto threshold only
+     * learns from those; a FIXED threshold change applies on the next frame.
+     * Safe to call from any thread; takes effect on the next frame.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Tile bookkeeping and tuning for incremental mode. Call from the
+     * processing thread.
+     */
+    public IncrementalSobel getIncrementalSobel() {
+        return incrementalSobel();
+    }
+
+    private NativeSobel nativeSobel() {
+        if (nativeSobel == null) {
+            nativeSobel = new NativeSobel();
+            nativeSobel.setThreads(getWorkerCount());
+        }
+        return nativeSobel;
+    }
+
+    private CannyKernel canny(int level) {
+        CannyKernel kernel = cannyKernels[level];
+        if (kernel == null) {
+            kernel = new CannyKernel(pyramid.getWidth(level), pyramid.getHeight(level));
+            kernel.setThresholds(cannyLow, cannyHigh);
+            cannyKernels[level] = kernel;
+        }
+        return kernel;
+    }
+
+    public EdgeDetector getEdgeDetector() {
+        return detector;
+    }
+
+    /**
+     * Switches between the Sobel and Canny detectors. Safe to call from any
+     * thread; takes effect on the next frame. Canny always runs on the
+     * processing thread (hysteresis is a whole-frame pass), regardless of
+     * the worker count.
+     */
+    public void setEdgeDetector(EdgeDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Canny hysteresis thresholds in gradient-magnitude units. Call from the
+     * processing thread.
+     */
+    public void setCannyThresholds(int low, int high) {
+        if (low > high) {
+            throw new IllegalArgumentException("low threshold " + low + " > high threshold " + high);
+        }
+        cannyLow = low;
+        cannyHigh = high;
+        for (CannyKernel kernel : cannyKernels) {
+            if (kernel != null) {
+                kernel.setThresholds(low, high);
+            }
+        }
+    }
+
+    public ResolutionScaler getResolutionScaler() {
+        return resolutionScaler;
+    }
+
+    /**
+     * Number of cores the Sobel pass is spread over. 1 runs the serial
+     * kernel on the calling thread; anything higher keeps a persistent pool
+     * of workerCount - 1 threads until the count changes or close() is called.
+     * The NATIVE variant uses libedgedetector's own pool with the same
+     * count (capped at its size) instead.
+     */
+    public void setWorkerCount(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be >= 1: " + workerCount);
+        }
+        if (workerCount == getWorkerCount()) {
+            return;
+        }
+        if (stripedSobel != null) {
+            stripedSobel.close();
+        }
+        stripedSobel = workerCount > 1 ? new StripedSobel(workerCount) : null;
+        if (filterExecutor != null) {
+            filterExecutor.close();
+            filterExecutor = null;
+        }
+        if (nativeSobel != null) {
+            nativeSobel.setThreads(workerCount);
+        }
+    }
+
+    public int getWorkerCount() {
+        return stripedSobel != null ? stripedSobel.getWorkerCount() : 1;
+    }
+
+    @Override
+    public void close() {
+        if (stripedSobel != null) {
+            stripedSobel.close();
+            stripedSobel = null;
+        }
+        if (filterExecutor != null) {
+            filterExecutor.close();
+            filterExecutor = null;
+        }
+    }
+
+    public int getOutputSize() {
+        return outputData.length;
+    }
+
+    /**
+     * Bytes of a {@link #processPackedEdges} map.
+     */
+    public int getPackedSize() {
+        return EdgeBits.size(width, height);
+    }
+
+    public byte[] getOutputData() {
+        return outputData;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,302 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+
+/**
+ * Binary dilate / erode / open / close of an edge map with a square
+ * (2r + 1) x (2r + 1) structuring element, on 64 pixels at a time.
+ *
+ * The map is held as 64-bit words (one bit per pixel, most significant
+ * bit first, as in {@link EdgeBits}) and filtered separably:
+ * <ul>
+ *   <li>down each column of words with van Herk / Gil-Werman: OR prefixes
+ *       and suffixes over blocks of 2r + 1 rows, so every output word is
+ *       one OR of a suffix and a prefix, whatever the radius;</li>
+ *   <li>along each row by shift-and-OR doubling within and across words:
+ *       one shift to centre the window and ceil(log2(2r + 1)) shift-ORs
+ *       per word (4 for r up to 7), well under one operation per pixel.</li>
+ * </ul>
+ * Erosion is the dilation of the complement. Border pixels count as
+ * outside the map: they never become edges and never erode their
+ * neighbours, matching the kernels, which never mark them.
+ *
+ * Buffers grow to the largest radius used and are then reused; not
+ * thread-safe, one instance per processing thread.
+ */
+public final class EdgeMorphology {
+    private final int width;
+    private final int height;
+    private final int rowBytes;
+    // 64-pixel words per row
+    private final int words;
+    private final long[] frame;
+    // Interior pixels of a row (not column 0, width - 1 or padding)
+    private final long[] interior;
+    // Row scratch, one word longer than a row (more for radii over 63)
+    private long[] rowA;
+    private long[] rowB;
+    // van Herk prefix / suffix ORs over the row-padded frame
+    private long[] prefix = new long[0];
+    private long[] suffix = new long[0];
+    private final byte[] packed;
+
+    public EdgeMorphology(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.rowBytes = EdgeBits.rowBytes(width);
+        this.words = (width + 63) >> 6;
+        this.frame = new long[words * height];
+        this.interior = new long[words];
+        this.rowA = new long[words + 1];
+        this.rowB = new long[words + 1];
+        this.packed = new byte[EdgeBits.size(width, height)];
+        for (int x = 1; x < width - 1; x++) {
+            interior[x >> 6] |= Long.MIN_VALUE >>> (x & 63);
+        }
+    }
+
+    /**
+     * Applies op to a packed {@link EdgeBits} map in place.
+     */
+    public void applyPacked(byte[] packed, MorphologyOp op, int radius) {
+        if (op == MorphologyOp.NONE || radius <= 0) {
+            return;
+        }
+        load(packed);
+        apply(op, radius);
+        store(packed);
+    }
+
+    /**
+     * Applies op in place to the first width * height bytes of a byte edge
+     * map (edges 0, everything else 255, border rows and columns left as
+     * they are).
+     */
+    public void apply(byte[] edges, MorphologyOp op, int radius) {
+        // Under 3 pixels wide or high every pixel is border: nothing to do
+        if (op == MorphologyOp.NONE || radius <= 0 || width < 3 || height < 3) {
+            return;
+        }
+        EdgeBits.pack(edges, width, height, packed);
+        load(packed);
+        apply(op, radius);
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * words;
+            int out = y * width;
+            for (int i = 0; i < words; i++) {
+                long word = frame[row + i];
+                int start = Math.max(1, i << 6);
+                int end = Math.min(width - 1, (i << 6) + 64);
+                if (word == 0) {
+                    Arrays.fill(edges, out + start, out + end, (byte) 255);
+                    continue;
+                }
+                for (int x = start; x < end; x++) {
+                    edges[out + x] = (word << (x & 63)) < 0 ? 0 : (byte) 255;
+                }
+            }
+        }
+    }
+
+    private void apply(MorphologyOp op, int radius) {
+        switch (op) {
+            case DILATE:
+                dilate(radius);
+                break;
+            case ERODE:
+                erode(radius);
+                break;
+            case OPEN:
+                erode(radius);
+                dilate(radius);
+                break;
+            case CLOSE:
+                dilate(radius);
+                erode(radius);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void dilate(int radius) {
+        for (int y = 0; y < height; y++) {
+            dilateRow(y * words, radius);
+        }
+        dilateColumns(radius);
+        clearBorder();
+    }
+
+    private void erode(int radius) {
+        // Border pixels are outside: 1 for erosion, so 0 in the complement
+        complement();
+        dilate(radius);
+        complement();
+        clearBorder();
+    }
+
+    private void complement() {
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * words;
+            for (int i = 0; i < words; i++) {
+                frame[row + i] = ~frame[row + i] & interior[i];
+            }
+        }
+    }
+
+    private void clearBorder() {
+        for (int i = 0; i < words; i++) {
+            frame[i] = 0;
+            if (height > 1) {
+                frame[(height - 1) * words + i] = 0;
+            }
+        }
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * words;
+            for (int i = 0; i < words; i++) {
+                frame[row + i] &= interior[i];
+            }
+        }
+    }
+
+    /**
+     * OR over pixels x - r .. x + r of one row: the row moved r pixels
+     * right (into a buffer long enough to keep its last pixels), then
+     * doubling ORs over 2r + 1 pixels (overlapping halves are fine, OR is
+     * idempotent).
+     */
+    private void dilateRow(int row, int radius) {
+        int length = 2 * radius + 1;
+        int count = words + (radius >> 6) + 1;
+        if (rowA.length < count) {
+            rowA = new long[count];
+            rowB = new long[count];
+        }
+        long[] window = rowA;
+        int wordShift = radius >> 6;
+        int bitShift = radius & 63;
+        for (int i = 0; i < count; i++) {
+            int source = i - wordShift;
+            long hi = source >= 0 && source < words ? frame[row + source] : 0;
+            long lo = source - 1 >= 0 && source - 1 < words ? frame[row + source - 1] : 0;
+            window[i] = bitShift == 0 ? hi : (hi >>> bitShift) | (lo << (64 - bitShift));
+        }
+        int span = 1;
+        while (span * 2 <= length) {
+            orShiftedLeft(window, count, span);
+            span *= 2;
+        }
+        if (span < length) {
+            orShiftedLeft(window, count, length - span);
+        }
+        System.arraycopy(window, 0, frame, row, words);
+    }
+
+    /**
+     * window[x] |= window[x + shift] over the first count words.
+     */
+    private void orShiftedLeft(long[] window, int count, int shift) {
+        long[] shifted = rowB;
+        int wordShift = shift >> 6;
+        int bitShift = shift & 63;
+        for (int i = 0; i < count; i++) {
+            int source = i + wordShift;
+            long hi = source < count ? window[source] : 0;
+            long lo = source + 1 < count ? window[source + 1] : 0;
+            shifted[i] = bitShift == 0 ? hi : (hi << bitShift) | (lo >>> (64 - bitShift));
+        }
+        for (int i = 0; i < count; i++) {
+            window[i] |= shifted[i];
+        }
+    }
+
+    /**
+     * van Herk / Gil-Werman down every column of words at once. Padded row
+     * p holds frame row p - r (zero outside the frame); prefix ORs run
+     * forward from the start of each block of 2r + 1 padded rows, suffix
+     * ORs backward from its end, and the window over padded rows
+     * y .. y + 2r is suffix[y] | prefix[y + 2r].
+     */
+    private void dilateColumns(int radius) {
+        int length = 2 * radius + 1;
+        int padded = height + 2 * radius;
+        if (prefix.length < padded * words) {
+            prefix = new long[padded * words];
+            suffix = new long[padded * words];
+        }
+        long[] frame = this.frame;
+        long[] prefix = this.prefix;
+        long[] suffix = this.suffix;
+        int words = this.words;
+
+        for (int p = 0; p < padded; p++) {
+            int y = p - radius;
+            int out = p * words;
+            boolean inside = y >= 0 && y < height;
+            if (p % length == 0) {
+                for (int i = 0; i < words; i++) {
+                    prefix[out + i] = inside ? frame[y * words + i] : 0;
+                }
+            } else {
+                for (int i = 0; i < words; i++) {
+                    prefix[out + i] = prefix[out - words + i] | (inside ? frame[y * words + i] : 0);
+                }
+            }
+        }
+        for (int p = padded - 1; p >= 0; p--) {
+            int y = p - radius;
+            int out = p * words;
+            boolean inside = y >= 0 && y < height;
+            if (p % length == length - 1 || p == padded - 1) {
+                for (int i = 0; i < words; i++) {
+                    suffix[out + i] = inside ? frame[y * words + i] : 0;
+                }
+            } else {
+                for (int i = 0; i < words; i++) {
+                    suffix[out + i] = suffix[out + words + i] | (inside ? frame[y * words + i] : 0);
+                }
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int row = y * words;
+            int last = (y + 2 * radius) * words;
+            for (int i = 0; i < words; i++) {
+                frame[row + i] = suffix[row + i] | prefix[last + i];
+            }
+        }
+    }
+
+    private void load(byte[] packed) {
+        for (int y = 0; y < height; y++) {
+            int in = y * rowBytes;
+            int row = y * words;
+            for (int i = 0; i < words; i++) {
+                long word = 0;
+                int start = i << 3;
+                int end = Math.min(rowBytes, start + 8);
+                for (int b = start; b < end; b++) {
+                    word |= (packed[in + b] & 0xFFL) << (56 - ((b - start) << 3));
+                }
+                frame[row + i] = word;
+            }
+        }
+    }
+
+    private void store(byte[] packed) {
+        for (int y = 0; y < height; y++) {
+            int out = y * rowBytes;
+            int row = y * words;
+            for (int b = 0; b < rowBytes; b++) {
+                packed[out + b] = (byte) (frame[row + (b >> 3)] >>> (56 - ((b & 7) << 3)));
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
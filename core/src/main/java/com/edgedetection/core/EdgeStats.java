@@ -0,0 +1,90 @@
+package com.edgedetection.core;
+
+/**
+ * Per-frame statistics gathered by the edge kernels.
+ */
+public final class EdgeStats {
+    int edgeCount;
+    int totalPixels;
+    int maxMagnitude;
+    int minMagnitude;
+    long sumMagnitude;
+    int threshold;
+    boolean sumTracked = true;
+    // Filled alongside the other stats when set; null skips the binning
+    GradientHistogram histogram;
+
+    public void reset() {
+        edgeCount = 0;
+        totalPixels = 0;
+        maxMagnitude = 0;
+        minMagnitude = Integer.MAX_VALUE;
+        sumMagnitude = 0;
+        sumTracked = true;
+        if (histogram != null) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Folds another partial result (e.g. one stripe) into this one.
+     */
+    void merge(EdgeStats other) {
+        edgeCount += other.edgeCount;
+        totalPixels += other.totalPixels;
+        maxMagnitude = Math.max(maxMagnitude, other.maxMagnitude);
+        minMagnitude = Math.min(minMagnitude, other.minMagnitude);
+        sumMagnitude += other.sumMagnitude;
+        sumTracked &= other.sumTracked;
+        if (histogram != null && other.histogram != null) {
+            histogram.merge(other.histogram);
+        }
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getTotalPixels() {
+        return totalPixels;
+    }
+
+    public int getMaxMagnitude() {
+        return maxMagnitude;
+    }
+
+    public int getMinMagnitude() {
+        return minMagnitude;
+    }
+
+    public long getSumMagnitude() {
+        return sumMagnitude;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Gradient magnitude histogram of the frame, or null when the processor
+     * is not collecting one (only auto-threshold modes do).
+     */
+    public GradientHistogram getHistogram() {
+        return histogram;
+    }
+
+    public float getEdgePercent() {
+        return totalPixels == 0 ? 0.0f : (edgeCount * 100.0f) / totalPixels;
+    }
+
+    /**
+     * NaN when the kernel that produced these stats does not compute
+     * per-pixel magnitudes (see {@link FastSobelKernel}).
+     */
+    public float getAvgMagnitude() {
+        if (!sumTracked) {
+            return Float.NaN;
+        }
+        return totalPixels == 0 ? 0.0f : sumMagnitude / (float) totalPixels;
+    }
+}
@@ -0,0 +1,354 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Wire format of {@link EdgeStreamServer}: one message per {@link EdgeBits}
+ * map, compressed as runs.
+ *
+ * A message is a {@value #HEADER_SIZE}-byte little-endian header
+ * <pre>
+ *   0  u8   type (KEY_RLE, KEY_RAW, DELTA_RLE)
+ *   1  u8   version ({@value #VERSION})
+ *   2  u16  reserved, 0
+ *   4  u32  sequence number of this frame
+ *   8  u32  sequence number of the key frame it is relative to (its own for keys)
+ *   12 u16  width
+ *   14 u16  height
+ *   16 i64  timestamp, ns
+ * </pre>
+ * and a payload:
+ * <ul>
+ *   <li>KEY_RAW - the packed map as is, {@link EdgeBits#size} bytes.</li>
+ *   <li>KEY_RLE - the width x height pixels in row order (no row padding)
+ *       as alternating run lengths, starting with non-edges (so the first
+ *       run may be 0), each an unsigned LEB128 varint.</li>
+ *   <li>DELTA_RLE - the same runs over the XOR of this map with the key
+ *       frame's, i.e. the pixels that changed since the last key frame.</li>
+ * </ul>
+ * Deltas are relative to the last key frame rather than the previous
+ * frame, so a receiver may miss any number of deltas and still decode the
+ * next one; only a missed key frame needs a new one.
+ *
+ * The encoder sends a key frame every {@link #setKeyInterval} frames, on
+ * request, or when the delta's runs would not fit in the size of the raw
+ * map; a key frame whose runs would not fit is sent as KEY_RAW.
+ */
+public final class EdgeStreamCodec {
+
+    public static final int TYPE_KEY_RLE = 1;
+    public static final int TYPE_KEY_RAW = 2;
+    public static final int TYPE_DELTA_RLE = 3;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int DEFAULT_KEY_INTERVAL = 30;
+
+    private final int width;
+    private final int height;
+    private final int size;
+    private final byte[] reference;
+    private final byte[] message;
+    private int keyInterval = DEFAULT_KEY_INTERVAL;
+    private boolean hasReference;
+    private int sequence;
+    private int keySequence;
+    private int sinceKey;
+    private int length;
+
+    public EdgeStreamCodec(int width, int height) {
+        if (width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException(width + "x" + height + " does not fit the header");
+        }
+        this.width = width;
+        this.height = height;
+        this.size = EdgeBits.size(width, height);
+        this.reference = new byte[size];
+        this.message = new byte[HEADER_SIZE + size];
+    }
+
+    /**
+     * Frames between forced key frames; 1 sends only key frames.
+     */
+    public void setKeyInterval(int frames) {
+        this.keyInterval = Math.max(1, frames);
+    }
+
+    public int getKeyInterval() {
+        return keyInterval;
+    }
+
+    /**
+     * Encodes packed into {@link #getMessage()}. Returns the message type.
+     *
+     * @param forceKey encode a key frame whatever the interval
+     */
+    public int encode(byte[] packed, long timestampNs, boolean forceKey) {
+        int payload = -1;
+        int type = TYPE_DELTA_RLE;
+        sequence++;
+        if (hasReference && !forceKey && sinceKey < keyInterval) {
+            // Gives up (-1) once it grows past the raw map
+            payload = encodeRuns(packed, reference, width, height, message, HEADER_SIZE, message.length);
+        }
+        if (payload < 0) {
+            type = TYPE_KEY_RLE;
+            payload = encodeRuns(packed, null, width, height, message, HEADER_SIZE, message.length);
+            if (payload < 0) {
+                type = TYPE_KEY_RAW;
+                System.arraycopy(packed, 0, message, HEADER_SIZE, size);
+                payload = size;
+            }
+            System.arraycopy(packed, 0, reference, 0, size);
+            hasReference = true;
+            keySequence = sequence;
+            sinceKey = 0;
+        }
+        sinceKey++;
+
+        message[0] = (byte) type;
+        message[1] = (byte) VERSION;
+        putLittleEndian(message, 2, 0, 2);
+        putLittleEndian(message, 4, sequence, 4);
+        putLittleEndian(message, 8, keySequence, 4);
+        putLittleEndian(message, 12, width, 2);
+        putLittleEndian(message, 14, height, 2);
+        putLittleEndian(message, 16, timestampNs, 8);
+        length = HEADER_SIZE + payload;
+        return type;
+    }
+
+    /**
+     * The last encoded message; valid until the next {@link #encode}.
+     */
+    public byte[] getMessage() {
+        return message;
+    }
+
+    public int getMessageLength() {
+        return length;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Writes the runs of packed (XOR reference, if not null) from offset;
+     * returns the bytes written, or -1 as soon as they would pass limit.
+     */
+    static int encodeRuns(byte[] packed, byte[] reference, int width, int height, byte[] out, int offset,
+                          int limit) {
+        int rowBytes = EdgeBits.rowBytes(width);
+        int position = offset;
+        int value = 0;
+        int run = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * rowBytes;
+            for (int i = 0; i < rowBytes; i++) {
+                int bits = packed[row + i] & 0xFF;
+                if (reference != null) {
+                    bits ^= reference[row + i] & 0xFF;
+                }
+                int count = Math.min(8, width - (i << 3));
+                // Whole bytes that continue the current run
+                int same = value == 0 ? 0 : (0xFF00 >>> count) & 0xFF;
+                if (bits == same) {
+                    run += count;
+                    continue;
+                }
+                for (int k = 0; k < count; k++) {
+                    int bit = (bits >>> (7 - k)) & 1;
+                    if (bit == value) {
+                        run++;
+                        continue;
+                    }
+                    if (limit - position < 5) {
+                        return -1;
+                    }
+                    position = putVarint(out, position, run);
+                    value = bit;
+                    run = 1;
+                }
+            }
+        }
+        if (limit - position < 5) {
+            return -1;
+        }
+        position = putVarint(out, position, run);
+        return position - offset;
+    }
+
+    private static void putLittleEndian(byte[] out, int position, long value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out[position + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    private static int putVarint(byte[] out, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Receiving side: turns messages back into {@link EdgeBits} maps. Keeps
+     * the last key frame to apply deltas to.
+     */
+    public static final class Decoder {
+        private byte[] reference = new byte[0];
+        private int keySequence = -1;
+        private int width;
+        private int height;
+        private int sequence;
+        private int type;
+        private long timestampNs;
+
+        /**
+         * Decodes one message into packed, which must hold
+         * {@link EdgeBits#size} bytes for the message's dimensions. Returns
+         * false (leaving packed untouched) for a delta whose key frame was
+         * not seen.
+         *
+         * @throws IllegalArgumentException if the message is malformed
+         */
+        public boolean decode(ByteBuffer message, byte[] packed) {
+            ByteBuffer in = message.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < HEADER_SIZE) {
+                throw new IllegalArgumentException("short message: " + in.remaining() + " bytes");
+            }
+            int type = in.get() & 0xFF;
+            int version = in.get() & 0xFF;
+            in.getShort();
+            int sequence = in.getInt();
+            int keySequence = in.getInt();
+            int width = in.getShort() & 0xFFFF;
+            int height = in.getShort() & 0xFFFF;
+            long timestampNs = in.getLong();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported stream version " + version);
+            }
+            int size = EdgeBits.size(width, height);
+            if (type == TYPE_DELTA_RLE) {
+                if (keySequence != this.keySequence || width != this.width || height != this.height) {
+                    return false;
+                }
+                System.arraycopy(reference, 0, packed, 0, size);
+                decodeRuns(in, width, height, packed);
+            } else if (type == TYPE_KEY_RLE || type == TYPE_KEY_RAW) {
+                if (type == TYPE_KEY_RAW) {
+                    if (in.remaining() != size) {
+                        throw new IllegalArgumentException("raw key frame of " + in.remaining() + " bytes");
+                    }
+                    in.get(packed, 0, size);
+                } else {
+                    Arrays.fill(packed, 0, size, (byte) 0);
+                    decodeRuns(in, width, height, packed);
+                }
+                if (reference.length < size) {
+                    reference = new byte[size];
+                }
+                System.arraycopy(packed, 0, reference, 0, size);
+                this.keySequence = keySequence;
+                this.width = width;
+                this.height = height;
+            } else {
+                throw new IllegalArgumentException("unknown message type " + type);
+            }
+            this.type = type;
+            this.sequence = sequence;
+            this.timestampNs = timestampNs;
+            return true;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** Sequence number of the last decoded frame. */
+        public int getSequence() {
+            return sequence;
+        }
+
+        /** Type of the last decoded frame. */
+        public int getType() {
+            return type;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        /**
+         * Flips the pixels in every second run (the edge, or changed, runs)
+         * of packed.
+         */
+        private static void decodeRuns(ByteBuffer in, int width, int height, byte[] packed) {
+            int rowBytes = EdgeBits.rowBytes(width);
+            long total = (long) width * height;
+            long pixel = 0;
+            boolean flip = false;
+            while (in.hasRemaining()) {
+                int run = getVarint(in);
+                if (pixel + run > total) {
+                    throw new IllegalArgumentException("runs exceed " + width + "x" + height);
+                }
+                if (flip) {
+                    int y = (int) (pixel / width);
+                    int x = (int) (pixel - (long) y * width);
+                    for (int remaining = run; remaining > 0; ) {
+                        int count = Math.min(remaining, width - x);
+                        flipRange(packed, y * rowBytes, x, count);
+                        remaining -= count;
+                        x = 0;
+                        y++;
+                    }
+                }
+                pixel += run;
+                flip = !flip;
+            }
+            if (pixel != total) {
+                throw new IllegalArgumentException("runs cover " + pixel + " of " + total + " pixels");
+            }
+        }
+
+        private static void flipRange(byte[] packed, int row, int x, int count) {
+            int end = x + count;
+            while (x < end && (x & 7) != 0) {
+                packed[row + (x >> 3)] ^= (byte) (0x80 >>> (x & 7));
+                x++;
+            }
+            while (end - x >= 8) {
+                packed[row + (x >> 3)] ^= (byte) 0xFF;
+                x += 8;
+            }
+            while (x < end) {
+                packed[row + (x >> 3)] ^= (byte) (0x80 >>> (x & 7));
+                x++;
+            }
+        }
+
+        private static int getVarint(ByteBuffer in) {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (!in.hasRemaining()) {
+                    throw new IllegalArgumentException("truncated run length");
+                }
+                int b = in.get() & 0xFF;
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("run length too long");
+        }
+    }
+}
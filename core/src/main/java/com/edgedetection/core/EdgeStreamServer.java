@@ -0,0 +1,576 @@
+package com.edgedetection.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Broadcasts {@link EdgeBits} maps to any number of viewers as WebSocket
+ * binary messages in the {@link EdgeStreamCodec} format, from one
+ * non-blocking "EdgeStreamServer" thread.
+ *
+ * The producer (the processing thread) only copies the map into a
+ * {@link FrameExchange} slot and wakes the server thread; nothing is
+ * copied while nobody is connected. The server thread encodes the newest
+ * map once and queues the same message for every viewer. Each viewer has
+ * a bounded queue: when it is full the oldest queued frame is dropped, so
+ * a slow viewer gets fewer frames but never delays the pipeline or the
+ * other viewers. A viewer that loses a key frame skips deltas until the
+ * next key frame, which the encoder then sends at once.
+ *
+ * Any GET with "Upgrade: websocket" is accepted, whatever the path;
+ * anything else is answered with 426. Messages from viewers are read and
+ * ignored, except close.
+ */
+public final class EdgeStreamServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8765;
+    /** Frames a viewer may have queued before the oldest is dropped. */
+    public static final int DEFAULT_QUEUE_FRAMES = 3;
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // Longest HTTP request, and longest message a viewer may send
+    private static final int MAX_REQUEST = 8192;
+    private static final int OPCODE_CLOSE = 0x8;
+    // Kept small so a slow viewer's backlog builds up in its queue, where
+    // old frames are dropped, rather than in an autotuned kernel buffer
+    // (megabytes of stale frames)
+    private static final int SEND_BUFFER_BYTES = 64 * 1024;
+
+    private final int width;
+    private final int height;
+    private final int queueFrames;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final FrameExchange exchange;
+    private final EdgeStreamCodec codec;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Server thread
+    private final List<Client> clients = new ArrayList<>();
+    private volatile int clientCount;
+    private volatile long encodedCount;
+    private volatile long keyFrameCount;
+    private volatile long encodedBytes;
+    private volatile long sentBytes;
+    private volatile long droppedCount;
+
+    // Producer
+    private volatile long publishedCount;
+
+    /** One encoded frame, shared by every viewer it is queued for. */
+    private static final class Message {
+        final ByteBuffer frame;
+        final boolean key;
+
+        Message(ByteBuffer frame, boolean key) {
+            this.frame = frame;
+            this.key = key;
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        final SelectionKey selectionKey;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+        final ArrayDeque<Message> queue;
+        // Handshake response or the frame being written
+        ByteBuffer out;
+        boolean upgraded;
+        boolean needsKey = true;
+        // Close once out is written (after an error response)
+        boolean closing;
+
+        Client(SocketChannel channel, SelectionKey selectionKey, int queueFrames) {
+            this.channel = channel;
+            this.selectionKey = selectionKey;
+            this.queue = new ArrayDeque<>(queueFrames);
+        }
+    }
+
+    /**
+     * Listens on port (0 picks a free one, see {@link #getPort()}) on all
+     * interfaces for width x height edge maps.
+     */
+    public EdgeStreamServer(int port, int width, int height) throws IOException {
+        this(new InetSocketAddress(port), width, height, DEFAULT_QUEUE_FRAMES);
+    }
+
+    public EdgeStreamServer(InetSocketAddress address, int width, int height, int queueFrames) throws IOException {
+        if (queueFrames < 1) {
+            throw new IllegalArgumentException("queueFrames must be >= 1");
+        }
+        this.width = width;
+        this.height = height;
+        this.queueFrames = queueFrames;
+        this.codec = new EdgeStreamCodec(width, height);
+        this.exchange = new FrameExchange(EdgeBits.size(width, height));
+        this.selector = Selector.open();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        this.thread = new Thread(this::serve, "EdgeStreamServer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Frames between key frames; see {@link EdgeStreamCodec#setKeyInterval}.
+     * Takes effect on the server thread's next frame.
+     */
+    public void setKeyInterval(int frames) {
+        synchronized (codec) {
+            codec.setKeyInterval(frames);
+        }
+    }
+
+    /**
+     * Hands an edge map of {@link EdgeBits#size} bytes to the server
+     * thread. Never blocks; if the server thread has not picked up the
+     * previous map yet, that one is replaced. Call from one thread.
+     */
+    public void publish(byte[] packed, long timestampNs) {
+        if (closed || clientCount == 0) {
+            return;
+        }
+        FrameExchange.Slot slot = exchange.beginWrite();
+        System.arraycopy(packed, 0, slot.getData(), 0, slot.getData().length);
+        slot.set(width, height, true, true);
+        slot.setTimestamps(timestampNs, 0);
+        exchange.publish();
+        publishedCount++;
+        selector.wakeup();
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                if (closed) {
+                    break;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(client);
+                        }
+                    } catch (IOException e) {
+                        disconnect(client);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                FrameExchange.Slot slot = exchange.acquire();
+                if (slot != null) {
+                    broadcast(slot);
+                }
+            }
+        } catch (IOException e) {
+            // Selector or listening socket failed; the server is unusable
+        } finally {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                disconnect(clients.get(i));
+            }
+            closeQuietly();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setSendBufferSize(SEND_BUFFER_BYTES);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Client client = new Client(channel, key, queueFrames);
+            key.attach(client);
+            clients.add(client);
+            clientCount = clients.size();
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            disconnect(client);
+            return;
+        }
+        if (client.upgraded) {
+            readMessages(client);
+        } else if (!client.closing) {
+            readRequest(client);
+        }
+    }
+
+    private void readRequest(Client client) throws IOException {
+        ByteBuffer in = client.in;
+        int end = -1;
+        for (int i = 3; i < in.position(); i++) {
+            if (in.get(i - 3) == '\r' && in.get(i - 2) == '\n' && in.get(i - 1) == '\r' && in.get(i) == '\n') {
+                end = i + 1;
+                break;
+            }
+        }
+        if (end < 0) {
+            if (!in.hasRemaining()) {
+                reject(client, "431 Request Header Fields Too Large");
+            }
+            return;
+        }
+
+        String request = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+        String[] lines = request.split("\r\n");
+        String upgrade = null;
+        String key = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equals("upgrade")) {
+                upgrade = value;
+            } else if (name.equals("sec-websocket-key")) {
+                key = value;
+            }
+        }
+        if (!lines[0].startsWith("GET ") || key == null || upgrade == null
+                || !upgrade.toLowerCase(Locale.US).contains("websocket")) {
+            reject(client, "426 Upgrade Required");
+            return;
+        }
+
+        // Anything after the request already belongs to the WebSocket
+        in.flip();
+        in.position(end);
+        in.compact();
+        client.upgraded = true;
+        client.out = ascii("HTTP/1.1 101 Switching Protocols\r\n" +
+                           "Upgrade: websocket\r\n" +
+                           "Connection: Upgrade\r\n" +
+                           "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n");
+        write(client);
+    }
+
+    private void reject(Client client, String status) throws IOException {
+        String body = "EdgeStreamServer: connect with a WebSocket\n";
+        client.closing = true;
+        client.out = ascii("HTTP/1.1 " + status + "\r\n" +
+                           "Upgrade: websocket\r\n" +
+                           "Connection: close\r\n" +
+                           "Content-Type: text/plain\r\n" +
+                           "Content-Length: " + body.length() + "\r\n\r\n" + body);
+        write(client);
+    }
+
+    /**
+     * Skips whole frames from the viewer; a close frame disconnects it.
+     */
+    private void readMessages(Client client) {
+        ByteBuffer in = client.in;
+        in.flip();
+        while (in.remaining() >= 2) {
+            int start = in.position();
+            int opcode = in.get(start) & 0x0F;
+            int second = in.get(start + 1) & 0xFF;
+            long length = second & 0x7F;
+            int header = 2;
+            if (length == 126) {
+                if (in.remaining() < 4) {
+                    break;
+                }
+                length = in.getShort(start + 2) & 0xFFFF;
+                header = 4;
+            } else if (length == 127) {
+                if (in.remaining() < 10) {
+                    break;
+                }
+                length = in.getLong(start + 2);
+                header = 10;
+            }
+            if ((second & 0x80) != 0) {
+                // Client frames are masked
+                header += 4;
+            }
+            if (opcode == OPCODE_CLOSE || length < 0 || length > in.capacity() - header) {
+                disconnect(client);
+                return;
+            }
+            if (in.remaining() < header + length) {
+                break;
+            }
+            in.position(start + header + (int) length);
+        }
+        in.compact();
+    }
+
+    private void broadcast(FrameExchange.Slot slot) {
+        boolean anyUpgraded = false;
+        boolean forceKey = false;
+        for (Client client : clients) {
+            if (client.upgraded && !client.closing) {
+                anyUpgraded = true;
+                forceKey |= client.needsKey;
+            }
+        }
+        if (!anyUpgraded) {
+            return;
+        }
+
+        Message message;
+        synchronized (codec) {
+            int type = codec.encode(slot.getData(), slot.getSensorTimestampNs(), forceKey);
+            message = frame(codec.getMessage(), codec.getMessageLength(),
+                            type != EdgeStreamCodec.TYPE_DELTA_RLE);
+            encodedBytes += codec.getMessageLength();
+        }
+        encodedCount++;
+        if (message.key) {
+            keyFrameCount++;
+        }
+
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (!client.upgraded || client.closing) {
+                continue;
+            }
+            offer(client, message);
+            try {
+                write(client);
+            } catch (IOException e) {
+                disconnect(client);
+            }
+        }
+    }
+
+    private void offer(Client client, Message message) {
+        if (client.needsKey && !message.key) {
+            // A delta is useless without its key frame
+            return;
+        }
+        ArrayDeque<Message> queue = client.queue;
+        if (queue.size() >= queueFrames) {
+            Message oldest = queue.pollFirst();
+            droppedCount++;
+            if (oldest.key) {
+                // Deltas queued behind it refer to a key frame the viewer
+                // will now never see
+                while (!queue.isEmpty() && !queue.peekFirst().key) {
+                    queue.pollFirst();
+                    droppedCount++;
+                }
+                if (queue.isEmpty() && !message.key) {
+                    client.needsKey = true;
+                    return;
+                }
+            }
+        }
+        if (message.key) {
+            client.needsKey = false;
+        }
+        queue.addLast(message);
+    }
+
+    /**
+     * Writes until the socket would block; the selector finishes the rest.
+     */
+    private void write(Client client) throws IOException {
+        while (true) {
+            if (client.out == null) {
+                Message message = client.queue.pollFirst();
+                if (message == null) {
+                    break;
+                }
+                client.out = message.frame.duplicate();
+            }
+            sentBytes += client.channel.write(client.out);
+            if (client.out.hasRemaining()) {
+                client.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            client.out = null;
+        }
+        if (client.closing) {
+            disconnect(client);
+            return;
+        }
+        client.selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void disconnect(Client client) {
+        client.selectionKey.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        clients.remove(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * An unmasked, final binary frame around data.
+     */
+    private static Message frame(byte[] data, int length, boolean key) {
+        int header = length < 126 ? 2 : length < 65536 ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + length);
+        frame.put((byte) 0x82);
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length < 65536) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        frame.put(data, 0, length);
+        frame.flip();
+        return new Message(frame, key);
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 unavailable", e);
+        }
+    }
+
+    // java.util.Base64 needs Android API 26
+    private static String base64(byte[] data) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+            out.append(alphabet.charAt(b >>> 18));
+            out.append(alphabet.charAt((b >>> 12) & 0x3F));
+            out.append(i + 1 < data.length ? alphabet.charAt((b >>> 6) & 0x3F) : '=');
+            out.append(i + 2 < data.length ? alphabet.charAt(b & 0x3F) : '=');
+        }
+        return out.toString();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Connected sockets, including ones still in the handshake. */
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /** Maps handed over by {@link #publish}. */
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Maps replaced by a newer one before the server thread encoded them.
+     */
+    public long getSupersededCount() {
+        return exchange.getDroppedCount();
+    }
+
+    public long getEncodedCount() {
+        return encodedCount;
+    }
+
+    public long getKeyFrameCount() {
+        return keyFrameCount;
+    }
+
+    /** Total size of the encoded messages, before WebSocket framing. */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /** Bytes written to all viewers, handshakes included. */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Queued frames dropped for slow viewers (summed over viewers).
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Disconnects every viewer and stops listening.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+}
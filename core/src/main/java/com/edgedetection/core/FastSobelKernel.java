@@ -0,0 +1,347 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+
+/**
+ * Optimized Sobel kernel with the same output as {@link SobelKernel}.
+ *
+ * - Each source row is widened to int exactly once, into a rolling window
+ *   of three rows. The source can be a packed array or a strided
+ *   {@link Plane}, which is then read in place with no full-frame copy.
+ * - The 3x3 operator is split into a vertical pass (smooth / difference per
+ *   column) and a horizontal pass, so there are no zero-weight taps.
+ * - (int) sqrt(m) > t is equivalent to m >= (t + 1)^2, so the threshold is
+ *   compared on the squared magnitude and no sqrt is taken per pixel.
+ * - Border rows/columns are copied outside the inner loop.
+ * - The applyPacked variants write a 1-bit {@link EdgeBits} map straight
+ *   from the threshold compare, eight pixels per output byte.
+ * - With {@link #setPreSmoothing} the rows entering the window come from a
+ *   streaming {@link GaussianSmoother} instead, so the blur costs no
+ *   full-frame pass. Border pixels then keep the blurred luminance, as
+ *   {@link SobelKernel} does on a blurred copy.
+ *
+ * Min/max magnitude are exact (sqrt is monotonic, so it is only applied to
+ * the extremes). The magnitude sum is not computed, so the average is not
+ * available from this kernel. A requested {@link GradientHistogram} is
+ * filled from every {@link GradientHistogram#SAMPLE_ROW_STEP}th row while
+ * that row is still in the window.
+ *
+ * Instances own their row buffers and are not thread-safe; use one per
+ * worker thread.
+ */
+public final class FastSobelKernel {
+    private int[] above = new int[0];
+    private int[] center = new int[0];
+    private int[] below = new int[0];
+    private int[] smooth = new int[0];
+    private int[] diff = new int[0];
+    private byte[] rowBytes = new byte[0];
+    // Kept while smoothing is off, so toggling it per call is free
+    private GaussianSmoother smoother;
+    private boolean smoothing;
+
+    // Current source; exactly one of these is set during a pass
+    private byte[] srcArray;
+    private Plane srcPlane;
+    // dst is an EdgeBits map rather than a byte per pixel
+    private boolean packedOutput;
+
+    /**
+     * Blurs the source with a Gaussian of this sigma before the gradient;
+     * 0 turns it off. Takes effect on the next call.
+     */
+    public void setPreSmoothing(float sigma) {
+        smoothing = sigma > 0;
+        if (smoothing && (smoother == null || smoother.getSigma() != sigma)) {
+            smoother = new GaussianSmoother(sigma);
+        }
+    }
+
+    public void apply(byte[] src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        applyRows(src, dst, width, height, threshold, 0, height, stats);
+    }
+
+    public void apply(Plane src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        applyRows(src, dst, width, height, threshold, 0, height, stats);
+    }
+
+    /**
+     * Same edges as {@link #apply}, written as an {@link EdgeBits} map of
+     * {@link EdgeBits#size} bytes.
+     */
+    public void applyPacked(byte[] src, byte[] packed, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        applyPackedRows(src, packed, width, height, threshold, 0, height, stats);
+    }
+
+    public void applyPacked(Plane src, byte[] packed, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        applyPackedRows(src, packed, width, height, threshold, 0, height, stats);
+    }
+
+    void applyPackedRows(byte[] src, byte[] packed, int width, int height, int threshold,
+                         int rowStart, int rowEnd, EdgeStats stats) {
+        packedOutput = true;
+        try {
+            applyRows(src, packed, width, height, threshold, rowStart, rowEnd, stats);
+        } finally {
+            packedOutput = false;
+        }
+    }
+
+    void applyPackedRows(Plane src, byte[] packed, int width, int height, int threshold,
+                         int rowStart, int rowEnd, EdgeStats stats) {
+        packedOutput = true;
+        try {
+            applyRows(src, packed, width, height, threshold, rowStart, rowEnd, stats);
+        } finally {
+            packedOutput = false;
+        }
+    }
+
+    /**
+     * Processes rows [rowStart, rowEnd) and accumulates into stats.
+     */
+    void applyRows(byte[] src, byte[] dst, int width, int height, int threshold,
+                   int rowStart, int rowEnd, EdgeStats stats) {
+        srcArray = src;
+        try {
+            run(dst, width, height, threshold, rowStart, rowEnd, stats);
+        } finally {
+            srcArray = null;
+        }
+    }
+
+    void applyRows(Plane src, byte[] dst, int width, int height, int threshold,
+                   int rowStart, int rowEnd, EdgeStats stats) {
+        srcPlane = src;
+        try {
+            run(dst, width, height, threshold, rowStart, rowEnd, stats);
+        } finally {
+            srcPlane = null;
+        }
+    }
+
+    private void run(byte[] dst, int width, int height, int threshold,
+                     int rowStart, int rowEnd, EdgeStats stats) {
+        if (!smoothing) {
+            runRows(dst, width, height, threshold, rowStart, rowEnd, stats);
+            return;
+        }
+        smoother.begin(srcArray, srcPlane, width);
+        try {
+            runRows(dst, width, height, threshold, rowStart, rowEnd, stats);
+        } finally {
+            smoother.end();
+        }
+    }
+
+    private void runRows(byte[] dst, int width, int height, int threshold,
+                         int rowStart, int rowEnd, EdgeStats stats) {
+        ensureCapacity(width);
+        stats.sumTracked = false;
+
+        int firstRow = Math.max(1, rowStart);
+        int lastRow = Math.min(height - 1, rowEnd);
+        if (firstRow >= lastRow || width < 3) {
+            // No interior pixels: every row passes through, in order
+            for (int y = rowStart; y < rowEnd; y++) {
+                if (smoothing && !packedOutput) {
+                    loadRow(y, width, height, center);
+                    storeRow(y, center, dst, width);
+                } else {
+                    copyRow(y, dst, width);
+                }
+            }
+            return;
+        }
+
+        int squaredThreshold = squaredThreshold(threshold);
+        int edgeCount = 0;
+        int maxSquared = -1;
+        int minSquared = Integer.MAX_VALUE;
+        GradientHistogram histogram = stats.histogram;
+
+        int[] r0 = above;
+        int[] r1 = center;
+        int[] r2 = below;
+        int[] s = smooth;
+        int[] d = diff;
+        loadRow(firstRow - 1, width, height, r0);
+        if (rowStart == 0) {
+            borderRow(0, r0, dst, width);
+        }
+        loadRow(firstRow, width, height, r1);
+
+        for (int y = firstRow; y < lastRow; y++) {
+            loadRow(y + 1, width, height, r2);
+
+            // Vertical pass: [1 2 1]^T smoothing and [-1 0 1]^T difference
+            for (int x = 0; x < width; x++) {
+                s[x] = r0[x] + 2 * r1[x] + r2[x];
+                d[x] = r2[x] - r0[x];
+            }
+
+            if (packedOutput) {
+                // Same pass, but eight compares make one output byte; the
+                // border columns stay 0
+                int rowOffset = y * EdgeBits.rowBytes(width);
+                int rowBytes = EdgeBits.rowBytes(width);
+                for (int i = 0; i < rowBytes; i++) {
+                    int start = Math.max(1, i << 3);
+                    int end = Math.min(width - 1, (i << 3) + 8);
+                    int bits = 0;
+                    for (int x = start; x < end; x++) {
+                        int gx = s[x + 1] - s[x - 1];
+                        int gy = d[x - 1] + 2 * d[x] + d[x + 1];
+                        int squared = gx * gx + gy * gy;
+
+                        if (squared > maxSquared) {
+                            maxSquared = squared;
+                        }
+                        if (squared < minSquared) {
+                            minSquared = squared;
+                        }
+
+                        if (squared >= squaredThreshold) {
+                            bits |= 0x80 >>> (x & 7);
+                            edgeCount++;
+                        }
+                    }
+                    dst[rowOffset + i] = (byte) bits;
+                }
+            } else {
+                int rowOffset = y * width;
+                dst[rowOffset] = (byte) r1[0];
+                dst[rowOffset + width - 1] = (byte) r1[width - 1];
+
+                // Horizontal pass: gx = [-1 0 1] * smooth, gy = [1 2 1] * diff
+                for (int x = 1; x < width - 1; x++) {
+                    int gx = s[x + 1] - s[x - 1];
+                    int gy = d[x - 1] + 2 * d[x] + d[x + 1];
+                    int squared = gx * gx + gy * gy;
+
+                    if (squared > maxSquared) {
+                        maxSquared = squared;
+                    }
+                    if (squared < minSquared) {
+                        minSquared = squared;
+                    }
+
+                    if (squared >= squaredThreshold) {
+                        dst[rowOffset + x] = (byte) 0;
+                        edgeCount++;
+                    } else {
+                        dst[rowOffset + x] = (byte) 255;
+                    }
+                }
+            }
+
+            // Rows are sampled by absolute index, so striping does not change the histogram
+            if (histogram != null && y % GradientHistogram.SAMPLE_ROW_STEP == 0) {
+                sampleRow(s, d, width, histogram);
+            }
+
+            // Roll the window down one row
+            int[] recycled = r0;
+            r0 = r1;
+            r1 = r2;
+            r2 = recycled;
+        }
+        if (rowEnd == height) {
+            // The window has rolled onto the last row
+            borderRow(height - 1, r1, dst, width);
+        }
+
+        stats.edgeCount += edgeCount;
+        stats.totalPixels += (lastRow - firstRow) * (width - 2);
+        stats.maxMagnitude = Math.max(stats.maxMagnitude, (int) Math.sqrt(maxSquared));
+        stats.minMagnitude = Math.min(stats.minMagnitude, (int) Math.sqrt(minSquared));
+    }
+
+    private static void sampleRow(int[] s, int[] d, int width, GradientHistogram histogram) {
+        for (int x = 1; x < width - 1; x++) {
+            int gx = s[x + 1] - s[x - 1];
+            int gy = d[x - 1] + 2 * d[x] + d[x + 1];
+            histogram.add((int) Math.sqrt(gx * gx + gy * gy));
+        }
+    }
+
+    /**
+     * Smallest squared magnitude m with (int) sqrt(m) > threshold.
+     */
+    public static int squaredThreshold(int threshold) {
+        if (threshold < 0) {
+            return 0;
+        }
+        long next = (long) threshold + 1;
+        return (int) Math.min(Integer.MAX_VALUE, next * next);
+    }
+
+    private void loadRow(int y, int width, int height, int[] row) {
+        if (smoothing) {
+            smoother.readRow(y, height, row);
+            return;
+        }
+        byte[] bytes;
+        int offset;
+        if (srcPlane != null) {
+            srcPlane.readRow(y, rowBytes, 0, width);
+            bytes = rowBytes;
+            offset = 0;
+        } else {
+            bytes = srcArray;
+            offset = y * width;
+        }
+        for (int x = 0; x < width; x++) {
+            row[x] = bytes[offset + x] & 0xFF;
+        }
+    }
+
+    /**
+     * Top or bottom border row y, already loaded into row: blurred when
+     * smoothing, else copied from the source.
+     */
+    private void borderRow(int y, int[] row, byte[] dst, int width) {
+        if (smoothing && !packedOutput) {
+            storeRow(y, row, dst, width);
+        } else {
+            copyRow(y, dst, width);
+        }
+    }
+
+    private static void storeRow(int y, int[] row, byte[] dst, int width) {
+        int offset = y * width;
+        for (int x = 0; x < width; x++) {
+            dst[offset + x] = (byte) row[x];
+        }
+    }
+
+    private void copyRow(int y, byte[] dst, int width) {
+        if (packedOutput) {
+            int rowBytes = EdgeBits.rowBytes(width);
+            Arrays.fill(dst, y * rowBytes, (y + 1) * rowBytes, (byte) 0);
+        } else if (srcPlane != null) {
+            srcPlane.readRow(y, dst, y * width, width);
+        } else {
+            System.arraycopy(srcArray, y * width, dst, y * width, width);
+        }
+    }
+
+    private void ensureCapacity(int width) {
+        if (above.length < width) {
+            above = new int[width];
+            center = new int[width];
+            below = new int[width];
+            smooth = new int[width];
+            diff = new int[width];
+            rowBytes = new byte[width];
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a {@link FilterGraph} over a luma frame into a width x height map.
+ *
+ * Fused (the default), the frame is cut into one horizontal tile per
+ * worker and each tile streams through every stage in a single pass: the
+ * rows a stage has produced sit in a rolling buffer of 2r + 1 rows that the
+ * next stage (radius r) reads, so no stage ever writes a full-frame
+ * intermediate and the working set stays in cache. Tiles recompute
+ * {@link FilterGraph#getReach()} rows on either side instead of sharing
+ * them. Unfused runs the same row code one stage at a time over the whole
+ * frame, through two full-frame buffers; it is kept for comparison (see
+ * FilterGraphBenchmark) and gives identical output.
+ *
+ * Like {@link StripedSobel}, the calling thread runs the first tile itself
+ * and a pool of workerCount - 1 threads runs the rest.
+ */
+public final class FilterExecutor implements AutoCloseable {
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private final int width;
+    private final int height;
+    private final int workerCount;
+    private final ExecutorService pool;
+    private final Phaser phaser;
+    private final Tile[] tiles;
+    private volatile Throwable failure;
+    private volatile boolean fused = true;
+    // Unfused intermediates, allocated on the first unfused run
+    private byte[] frameA;
+    private byte[] frameB;
+
+    public FilterExecutor(int width, int height, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be >= 1: " + workerCount);
+        }
+        this.width = width;
+        this.height = height;
+        this.workerCount = workerCount;
+        this.phaser = new Phaser(workerCount);
+        this.tiles = new Tile[workerCount];
+        int rowsPerTile = (height + workerCount - 1) / workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            int rowStart = Math.min(height, i * rowsPerTile);
+            tiles[i] = new Tile(i > 0, rowStart, Math.min(height, rowStart + rowsPerTile));
+        }
+
+        int poolId = POOL_ID.incrementAndGet();
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = workerCount > 1 ? Executors.newFixedThreadPool(workerCount - 1, r -> {
+            Thread t = new Thread(r, "FilterWorker-" + poolId + "-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public boolean isFused() {
+        return fused;
+    }
+
+    /**
+     * Single tiled pass (true) or one full-frame pass per stage. Safe to
+     * call from any thread; takes effect on the next frame.
+     */
+    public void setFused(boolean fused) {
+        this.fused = fused;
+    }
+
+    /**
+     * Filters a strided luma plane into the first width * height bytes of
+     * dst; each tile reads the plane through its own view.
+     */
+    public byte[] apply(FilterGraph graph, Plane src, byte[] dst) {
+        return run(graph, null, src, dst);
+    }
+
+    public byte[] apply(FilterGraph graph, byte[] src, byte[] dst) {
+        return run(graph, src, null, dst);
+    }
+
+    private byte[] run(FilterGraph graph, byte[] src, Plane srcPlane, byte[] dst) {
+        boolean fused = this.fused;
+        for (Tile tile : tiles) {
+            tile.prepare(graph, src, srcPlane, dst);
+        }
+        if (fused) {
+            runTiles(Tile.FUSED);
+            return dst;
+        }
+
+        if (frameA == null) {
+            frameA = new byte[width * height];
+            frameB = new byte[width * height];
+        }
+        // The source (through its table) into frameA, then one pass per stage, ping-ponging
+        runTiles(Tile.LOAD);
+        for (int step = 0; step < graph.windows.length; step++) {
+            runTiles(step);
+        }
+        return dst;
+    }
+
+    private void runTiles(int step) {
+        failure = null;
+        for (int i = 1; i < workerCount; i++) {
+            tiles[i].step = step;
+            pool.execute(tiles[i]);
+        }
+        tiles[0].step = step;
+        tiles[0].run();
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable t = failure;
+        if (t != null) {
+            throw new IllegalStateException("Filter tile failed: " + t.getMessage(), t);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private final class Tile implements Runnable {
+        static final int FUSED = -2;
+        static final int LOAD = -1;
+
+        private final boolean pooled;
+        private final int rowStart;
+        private final int rowEnd;
+        private final Plane planeView = new Plane();
+        private FilterGraph graph;
+        // rings[k]: the rows window stage k reads, 2r + 1 of them
+        private byte[][] rings = new byte[0][];
+        private int[] rows = new int[0];
+        private int[] scratch = new int[0];
+        private byte[] src;
+        private Plane srcPlane;
+        private byte[] dst;
+        int step;
+
+        Tile(boolean pooled, int rowStart, int rowEnd) {
+            this.pooled = pooled;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        void prepare(FilterGraph graph, byte[] src, Plane srcPlane, byte[] dst) {
+            if (graph != this.graph) {
+                FilterStage[] windows = graph.windows;
+                rings = new byte[windows.length][];
+                int maxRows = 1;
+                int maxScratch = 0;
+                for (int k = 0; k < windows.length; k++) {
+                    int size = 2 * windows[k].getRadius() + 1;
+                    rings[k] = new byte[size * width];
+                    maxRows = Math.max(maxRows, size);
+                    maxScratch = Math.max(maxScratch, windows[k].scratchSize(width));
+                }
+                rows = new int[maxRows];
+                scratch = new int[maxScratch];
+                this.graph = graph;
+            }
+            this.src = src;
+            this.srcPlane = srcPlane != null ? planeView.viewOf(srcPlane) : null;
+            this.dst = dst;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (rowStart < rowEnd) {
+                    if (step == FUSED) {
+                        runFused();
+                    } else if (step == LOAD) {
+                        boolean direct = graph.windows.length == 0;
+                        for (int y = rowStart; y < rowEnd; y++) {
+                            loadRow(y, direct ? dst : frameA, y * width);
+                        }
+                    } else {
+                        runStep(step);
+                    }
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (pooled) {
+                    phaser.arrive();
+                }
+            }
+        }
+
+        /**
+         * Source row y through the graph's leading table, to out at offset.
+         */
+        private void loadRow(int y, byte[] out, int offset) {
+            if (srcPlane != null) {
+                srcPlane.readRow(y, out, offset, width);
+            } else {
+                System.arraycopy(src, y * width, out, offset, width);
+            }
+            FilterStage.Lookup lookup = graph.sourceLookup;
+            if (lookup != null) {
+                lookup.apply(out, offset, out, offset, width);
+            }
+        }
+
+        /**
+         * Walks source rows t from the top of the halo down; window stage k
+         * produces its row t - lag(k) as soon as its last input row is in.
+         */
+        private void runFused() {
+            FilterStage[] windows = graph.windows;
+            int count = windows.length;
+            if (count == 0) {
+                for (int y = rowStart; y < rowEnd; y++) {
+                    loadRow(y, dst, y * width);
+                }
+                return;
+            }
+
+            int reach = graph.reach;
+            int sourceEnd = Math.min(height, rowEnd + reach);
+            for (int t = rowStart - reach; t < rowEnd + reach; t++) {
+                if (t >= 0 && t < sourceEnd) {
+                    loadRow(t, rings[0], slot(t, windows[0].getRadius()));
+                }
+                int lag = 0;
+                for (int k = 0; k < count; k++) {
+                    FilterStage stage = windows[k];
+                    int radius = stage.getRadius();
+                    lag += radius;
+                    int y = t - lag;
+                    // Rows this stage owes the stages after it, or the tile itself for the last
+                    int halo = reach - lag;
+                    if (y < Math.max(0, rowStart - halo) || y >= Math.min(height, rowEnd + halo)) {
+                        continue;
+                    }
+                    byte[] out;
+                    int outOffset;
+                    if (k == count - 1) {
+                        out = dst;
+                        outOffset = y * width;
+                    } else {
+                        out = rings[k + 1];
+                        outOffset = slot(y, windows[k + 1].getRadius());
+                    }
+                    filterRow(k, rings[k], y, out, outOffset, true);
+                }
+            }
+        }
+
+        /**
+         * Window stage k over the tile's rows, full frame to full frame.
+         */
+        private void runStep(int k) {
+            boolean last = k == graph.windows.length - 1;
+            byte[] in = k % 2 == 0 ? frameA : frameB;
+            byte[] out = last ? dst : k % 2 == 0 ? frameB : frameA;
+            for (int y = rowStart; y < rowEnd; y++) {
+                filterRow(k, in, y, out, y * width, false);
+            }
+        }
+
+        private void filterRow(int k, byte[] in, int y, byte[] out, int outOffset, boolean ring) {
+            FilterStage stage = graph.windows[k];
+            int radius = stage.getRadius();
+            if (y < radius || y >= height - radius) {
+                // Border rows keep their input
+                System.arraycopy(in, ring ? slot(y, radius) : y * width, out, outOffset, width);
+            } else {
+                for (int j = 0; j <= 2 * radius; j++) {
+                    rows[j] = ring ? slot(y - radius + j, radius) : (y - radius + j) * width;
+                }
+                stage.filterRow(in, rows, out, outOffset, width, scratch);
+            }
+            FilterStage.Lookup lookup = graph.lookups[k];
+            if (lookup != null) {
+                lookup.apply(out, outOffset, out, outOffset, width);
+            }
+        }
+
+        /**
+         * Offset of row y in the ring read by a stage of this radius.
+         */
+        private int slot(int y, int radius) {
+            return (y % (2 * radius + 1)) * width;
+        }
+    }
+}
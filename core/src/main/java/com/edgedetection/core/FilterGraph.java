@@ -0,0 +1,103 @@
+package com.edgedetection.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable chain of {@link FilterStage}s applied to the luma plane,
+ * run by {@link FilterExecutor}. Built once and swapped as a whole, so a
+ * graph can be handed to the processing thread while it runs.
+ *
+ * On construction consecutive point stages are composed into one lookup
+ * table, and each table is attached to the neighborhood stage before it
+ * (or to the source, if it comes first), so every step of the plan is at
+ * most one window pass plus one table lookup per pixel.
+ */
+public final class FilterGraph {
+
+    /** No stages: the camera feed as is. */
+    public static final FilterGraph RAW = new FilterGraph();
+
+    /** The app's default edge map, {@link FilterStage#sobel} at the default threshold. */
+    public static final FilterGraph EDGES = new FilterGraph(FilterStage.sobel(SobelKernel.DEFAULT_THRESHOLD));
+
+    private final List<FilterStage> stages;
+    // Plan: table applied to source rows, then window stages each followed by an optional table
+    final FilterStage.Lookup sourceLookup;
+    final FilterStage[] windows;
+    final FilterStage.Lookup[] lookups;
+    // Rows of the source a final output row depends on above (and below) it
+    final int reach;
+
+    public FilterGraph(FilterStage... stages) {
+        this(Arrays.asList(stages));
+    }
+
+    public FilterGraph(List<FilterStage> stages) {
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+
+        FilterStage.Lookup pending = null;
+        FilterStage.Lookup first = null;
+        List<FilterStage> windows = new ArrayList<>();
+        List<FilterStage.Lookup> lookups = new ArrayList<>();
+        int reach = 0;
+        for (FilterStage stage : this.stages) {
+            if (stage instanceof FilterStage.Lookup) {
+                FilterStage.Lookup lookup = (FilterStage.Lookup) stage;
+                pending = pending == null ? lookup : pending.then(lookup);
+                continue;
+            }
+            if (windows.isEmpty()) {
+                first = pending;
+            } else {
+                lookups.set(lookups.size() - 1, pending);
+            }
+            pending = null;
+            windows.add(stage);
+            lookups.add(null);
+            reach += stage.getRadius();
+        }
+        if (windows.isEmpty()) {
+            first = pending;
+        } else {
+            lookups.set(lookups.size() - 1, pending);
+        }
+        this.sourceLookup = first;
+        this.windows = windows.toArray(new FilterStage[0]);
+        this.lookups = lookups.toArray(new FilterStage.Lookup[0]);
+        this.reach = reach;
+    }
+
+    public List<FilterStage> getStages() {
+        return stages;
+    }
+
+    public boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    /**
+     * Rows above and below an output row that it depends on; also the
+     * halo each tile of a fused run recomputes on either side.
+     */
+    public int getReach() {
+        return reach;
+    }
+
+    @Override
+    public String toString() {
+        if (stages.isEmpty()) {
+            return "raw";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (FilterStage stage : stages) {
+            if (builder.length() > 0) {
+                builder.append(" -> ");
+            }
+            builder.append(stage);
+        }
+        return builder.toString();
+    }
+}
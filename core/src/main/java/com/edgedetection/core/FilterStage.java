@@ -0,0 +1,281 @@
+package com.edgedetection.core;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * One step of a {@link FilterGraph}: turns 8-bit rows into an 8-bit row.
+ *
+ * A stage of radius r computes output row y from input rows y - r .. y + r
+ * (a (2r + 1) x (2r + 1) window); radius 0 is a point stage, which is a
+ * 256-entry lookup table so that runs of them collapse into one. Pixels
+ * closer than r to the frame border keep their input value, as the Sobel
+ * kernels keep border luma; the executor handles border rows, stages
+ * handle border columns.
+ *
+ * Stages are immutable and hold no per-frame state, so one instance can
+ * run on several threads at once; scratch space comes from the executor.
+ */
+public abstract class FilterStage {
+    private final String name;
+    private final int radius;
+
+    FilterStage(String name, int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("radius must be >= 0: " + radius);
+        }
+        this.name = name;
+        this.radius = radius;
+    }
+
+    public final int getRadius() {
+        return radius;
+    }
+
+    /**
+     * Ints of scratch {@link #filterRow} needs for a row of width pixels.
+     */
+    int scratchSize(int width) {
+        return 0;
+    }
+
+    /**
+     * Writes one output row of width pixels to dst at dstOffset. rows[0..2r]
+     * hold the offsets in src of input rows y - r .. y + r (the array may
+     * be longer); the executor only calls this for rows at least r away
+     * from the top and bottom border.
+     */
+    abstract void filterRow(byte[] src, int[] rows, byte[] dst, int dstOffset, int width, int[] scratch);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Mean over a (2 * radius + 1)^2 box, rounded.
+     */
+    public static FilterStage boxBlur(int radius) {
+        return new BoxBlur(radius);
+    }
+
+    /**
+     * Sobel edge map as the app shows it: 0 where floor(sqrt(gx^2 + gy^2))
+     * &gt; threshold, 255 elsewhere (see {@link FastSobelKernel}).
+     */
+    public static FilterStage sobel(int threshold) {
+        return new Sobel(threshold);
+    }
+
+    /**
+     * Maximum over a (2 * radius + 1)^2 box. On the app's edge map (edges
+     * are 0) this thins edges; {@link #erode} thickens them.
+     */
+    public static FilterStage dilate(int radius) {
+        return new Extremum("dilate", radius, true);
+    }
+
+    /**
+     * Minimum over a (2 * radius + 1)^2 box.
+     */
+    public static FilterStage erode(int radius) {
+        return new Extremum("erode", radius, false);
+    }
+
+    /**
+     * 255 above threshold, 0 elsewhere.
+     */
+    public static FilterStage threshold(int threshold) {
+        return lookup("threshold(" + threshold + ")", v -> v > threshold ? 255 : 0);
+    }
+
+    public static FilterStage invert() {
+        return lookup("invert", v -> 255 - v);
+    }
+
+    /**
+     * Point stage from any 0..255 -&gt; 0..255 function (results are
+     * clamped); the function is only evaluated to build the table.
+     */
+    public static FilterStage lookup(String name, IntUnaryOperator function) {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = (byte) Math.max(0, Math.min(255, function.applyAsInt(v)));
+        }
+        return new Lookup(name, table);
+    }
+
+    static final class Lookup extends FilterStage {
+        final byte[] table;
+
+        Lookup(String name, byte[] table) {
+            super(name, 0);
+            this.table = table;
+        }
+
+        /**
+         * This table followed by next's.
+         */
+        Lookup then(Lookup next) {
+            byte[] combined = new byte[256];
+            for (int v = 0; v < 256; v++) {
+                combined[v] = next.table[table[v] & 0xFF];
+            }
+            return new Lookup(this + "+" + next, combined);
+        }
+
+        @Override
+        void filterRow(byte[] src, int[] rows, byte[] dst, int dstOffset, int width, int[] scratch) {
+            apply(src, rows[0], dst, dstOffset, width);
+        }
+
+        void apply(byte[] src, int srcOffset, byte[] dst, int dstOffset, int width) {
+            byte[] table = this.table;
+            for (int x = 0; x < width; x++) {
+                dst[dstOffset + x] = table[src[srcOffset + x] & 0xFF];
+            }
+        }
+    }
+
+    private static final class Sobel extends FilterStage {
+        private final int squaredThreshold;
+
+        Sobel(int threshold) {
+            super("sobel(" + threshold + ")", 1);
+            this.squaredThreshold = FastSobelKernel.squaredThreshold(threshold);
+        }
+
+        @Override
+        int scratchSize(int width) {
+            return 2 * width;
+        }
+
+        @Override
+        void filterRow(byte[] src, int[] rows, byte[] dst, int dstOffset, int width, int[] scratch) {
+            int above = rows[0];
+            int center = rows[1];
+            int below = rows[2];
+            if (width < 3) {
+                System.arraycopy(src, center, dst, dstOffset, width);
+                return;
+            }
+            // Vertical [1 2 1] in scratch[0, width), [-1 0 1] in scratch[width, 2 * width)
+            for (int x = 0; x < width; x++) {
+                int a = src[above + x] & 0xFF;
+                int b = src[below + x] & 0xFF;
+                scratch[x] = a + 2 * (src[center + x] & 0xFF) + b;
+                scratch[width + x] = b - a;
+            }
+            int squaredThreshold = this.squaredThreshold;
+            dst[dstOffset] = src[center];
+            dst[dstOffset + width - 1] = src[center + width - 1];
+            for (int x = 1; x < width - 1; x++) {
+                int gx = scratch[x + 1] - scratch[x - 1];
+                int gy = scratch[width + x - 1] + 2 * scratch[width + x] + scratch[width + x + 1];
+                dst[dstOffset + x] = gx * gx + gy * gy >= squaredThreshold ? 0 : (byte) 255;
+            }
+        }
+    }
+
+    private static final class BoxBlur extends FilterStage {
+        private final int area;
+        // ceil(2^32 / area): (n * reciprocal) >>> 32 == n / area for n < 256 * area while area < 4096
+        private final long reciprocal;
+
+        BoxBlur(int radius) {
+            super("boxBlur(" + radius + ")", radius);
+            int size = 2 * radius + 1;
+            this.area = size * size;
+            this.reciprocal = area < 4096 ? ((1L << 32) + area - 1) / area : 0;
+        }
+
+        @Override
+        int scratchSize(int width) {
+            return width;
+        }
+
+        @Override
+        void filterRow(byte[] src, int[] rows, byte[] dst, int dstOffset, int width, int[] scratch) {
+            int radius = getRadius();
+            int center = rows[radius];
+            if (width <= 2 * radius) {
+                System.arraycopy(src, center, dst, dstOffset, width);
+                return;
+            }
+            // Column sums (row by row, so the inner loop runs along memory), then a sliding window
+            int first = rows[0];
+            for (int x = 0; x < width; x++) {
+                scratch[x] = src[first + x] & 0xFF;
+            }
+            for (int j = 1; j <= 2 * radius; j++) {
+                int row = rows[j];
+                for (int x = 0; x < width; x++) {
+                    scratch[x] += src[row + x] & 0xFF;
+                }
+            }
+            int area = this.area;
+            long reciprocal = this.reciprocal;
+            int half = area / 2;
+            int sum = 0;
+            for (int x = 0; x < 2 * radius; x++) {
+                sum += scratch[x];
+            }
+            System.arraycopy(src, center, dst, dstOffset, radius);
+            for (int x = radius; x < width - radius; x++) {
+                sum += scratch[x + radius];
+                int rounded = sum + half;
+                dst[dstOffset + x] = (byte) (reciprocal != 0 ? (rounded * reciprocal) >>> 32 : rounded / area);
+                sum -= scratch[x - radius];
+            }
+            System.arraycopy(src, center + width - radius, dst, dstOffset + width - radius, radius);
+        }
+    }
+
+    private static final class Extremum extends FilterStage {
+        private final boolean max;
+
+        Extremum(String name, int radius, boolean max) {
+            super(name + "(" + radius + ")", radius);
+            this.max = max;
+        }
+
+        @Override
+        int scratchSize(int width) {
+            return 2 * width;
+        }
+
+        @Override
+        void filterRow(byte[] src, int[] rows, byte[] dst, int dstOffset, int width, int[] scratch) {
+            int radius = getRadius();
+            int center = rows[radius];
+            if (width <= 2 * radius) {
+                System.arraycopy(src, center, dst, dstOffset, width);
+                return;
+            }
+            // Max (or, on inverted values, min) down each column into scratch[0, width), then
+            // along the row into scratch[width, 2 * width); both a whole row at a time
+            int flip = max ? 0 : 0xFF;
+            int first = rows[0];
+            for (int x = 0; x < width; x++) {
+                scratch[x] = (src[first + x] & 0xFF) ^ flip;
+            }
+            for (int j = 1; j <= 2 * radius; j++) {
+                int row = rows[j];
+                for (int x = 0; x < width; x++) {
+                    scratch[x] = Math.max(scratch[x], (src[row + x] & 0xFF) ^ flip);
+                }
+            }
+            int inner = width - 2 * radius;
+            System.arraycopy(scratch, 0, scratch, width, inner);
+            for (int j = 1; j <= 2 * radius; j++) {
+                for (int x = 0; x < inner; x++) {
+                    scratch[width + x] = Math.max(scratch[width + x], scratch[j + x]);
+                }
+            }
+            System.arraycopy(src, center, dst, dstOffset, radius);
+            for (int x = 0; x < inner; x++) {
+                dst[dstOffset + radius + x] = (byte) (scratch[width + x] ^ flip);
+            }
+            System.arraycopy(src, center + width - radius, dst, dstOffset + width - radius, radius);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer between one producer (camera/processing thread)
+ * and one consumer (GL thread).
+ *
+ * The producer always writes into a slot nobody else can see and then
+ * swaps it with the shared "ready" slot; the consumer swaps its slot with
+ * the ready one only when a newer frame has been published. Neither side
+ * ever waits, and a slot is never written while it is being read. If the
+ * producer publishes twice before the consumer looks, the older frame is
+ * dropped and counted.
+ */
+public final class FrameExchange {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Slot[] slots = new Slot[3];
+
+    // Index of the ready slot, plus FRESH while it holds an unconsumed frame
+    private final AtomicInteger ready = new AtomicInteger(1);
+
+    // Owned by the producer
+    private int back = 0;
+    private volatile long produced;
+    private volatile long dropped;
+
+    // Owned by the consumer
+    private int front = 2;
+    private volatile long consumed;
+
+    public FrameExchange(int frameSize) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(frameSize);
+        }
+    }
+
+    /**
+     * Producer side: the slot to fill for the next frame. Stays the same
+     * until {@link #publish()} is called.
+     */
+    public Slot beginWrite() {
+        return slots[back];
+    }
+
+    /**
+     * Producer side: makes the slot from {@link #beginWrite()} the newest
+     * complete frame.
+     */
+    public void publish() {
+        int previous = ready.getAndSet(back | FRESH);
+        back = previous & INDEX_MASK;
+        produced++;
+        if ((previous & FRESH) != 0) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Consumer side: the newest complete frame, or null if nothing was
+     * published since the last call. The returned slot stays valid until
+     * the next call.
+     */
+    public Slot acquire() {
+        if ((ready.get() & FRESH) == 0) {
+            return null;
+        }
+        int previous = ready.getAndSet(front);
+        front = previous & INDEX_MASK;
+        consumed++;
+        return slots[front];
+    }
+
+    public long getProducedCount() {
+        return produced;
+    }
+
+    public long getConsumedCount() {
+        return consumed;
+    }
+
+    /**
+     * Frames that were overwritten by a newer one before the consumer saw them.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * One frame buffer plus the metadata the renderer needs to draw it.
+     */
+    public static final class Slot {
+        private final byte[] data;
+        private int width;
+        private int height;
+        private boolean processed;
+        private boolean packed;
+        private long sensorTimestampNs;
+        private long publishedNs;
+
+        Slot(int frameSize) {
+            this.data = new byte[frameSize];
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public void set(int width, int height, boolean processed) {
+            set(width, height, processed, false);
+        }
+
+        /**
+         * @param packed the data is an {@link EdgeBits} map rather than
+         *               one byte per pixel
+         */
+        public void set(int width, int height, boolean processed, boolean packed) {
+            this.width = width;
+            this.height = height;
+            this.processed = processed;
+            this.packed = packed;
+        }
+
+        /**
+         * Sensor timestamp of the source image and the time the frame was
+         * handed over, both in the sensor's time base, for latency tracing.
+         */
+        public void setTimestamps(long sensorTimestampNs, long publishedNs) {
+            this.sensorTimestampNs = sensorTimestampNs;
+            this.publishedNs = publishedNs;
+        }
+
+        public long getSensorTimestampNs() {
+            return sensorTimestampNs;
+        }
+
+        public long getPublishedNs() {
+            return publishedNs;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public boolean isProcessed() {
+            return processed;
+        }
+
+        public boolean isPacked() {
+            return packed;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.edgedetection.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Records raw frames and/or edge maps into a preallocated, memory-mapped
+ * ring file, so what the pipeline saw can be pulled off a device and
+ * replayed with {@link FrameRecording}.
+ *
+ * The file is a {@value #FILE_HEADER_SIZE}-byte header followed by a fixed
+ * number of equal slots; each slot is a {@value #RECORD_HEADER_SIZE}-byte
+ * record header (sequence, timestamp, dimensions, stride, format, mode)
+ * and its payload. Once every slot is used the oldest record is
+ * overwritten. All values are little-endian.
+ *
+ * The calling (processing) thread never touches the file: it copies the
+ * frame into one of a few preallocated staging buffers and returns. A
+ * "FrameRecorder" thread moves staged frames into the mapping. If all
+ * staging buffers are still queued the frame is dropped and counted, so a
+ * slow disk never stalls the pipeline. A record's sequence number is
+ * written last, so a record torn by a crash or by the ring wrapping is
+ * recognisable and skipped on replay.
+ */
+public final class FrameRecorder implements AutoCloseable {
+
+    /** What a record's payload holds. */
+    public enum Format {
+        /** Luma rows at the record's stride, then NV21 VU rows of width bytes. */
+        NV21,
+        /** Luma rows at the record's stride only. */
+        LUMA,
+        /** Edge map as produced by the kernels, width bytes per row. */
+        EDGES,
+        /** {@link EdgeBits} map, {@link EdgeBits#rowBytes} per row. */
+        PACKED_EDGES
+    }
+
+    static final long MAGIC = 0x3143455245474445L; // "EDGEREC1" little-endian
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 48;
+    // Slots start on page boundaries
+    private static final int SLOT_ALIGNMENT = 4096;
+    private static final int DEFAULT_STAGING_BUFFERS = 3;
+
+    private final int width;
+    private final int height;
+    private final int maxStride;
+    private final int slotCount;
+    private final int slotSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapping;
+    private final ArrayBlockingQueue<Staged> free;
+    private final ArrayBlockingQueue<Staged> filled;
+    private final Thread writer;
+    private final Nv21Packer nv21Packer = new Nv21Packer();
+    private volatile Format rawFormat = Format.NV21;
+    private volatile boolean recordEdges = true;
+    private volatile boolean closed;
+
+    // Capture side (one thread)
+    private long droppedSinceLast;
+    private long captureNanos;
+    private volatile long droppedCount;
+
+    // Writer thread
+    private long nextSequence = 1;
+    private volatile long writtenCount;
+    private volatile long writeNanos;
+
+    private static final class Staged {
+        final byte[] data;
+        long timestampNs;
+        int stride;
+        Format format;
+        int mode;
+        int length;
+        long droppedBefore;
+
+        Staged(int capacity) {
+            data = new byte[capacity];
+        }
+    }
+
+    /**
+     * Creates (or truncates) file and maps slotCount slots sized for
+     * width x height NV21 frames with rows of up to maxStride bytes.
+     */
+    public FrameRecorder(File file, int width, int height, int maxStride, int slotCount) throws IOException {
+        this(file, width, height, maxStride, slotCount, DEFAULT_STAGING_BUFFERS);
+    }
+
+    public FrameRecorder(File file, int width, int height, int maxStride, int slotCount, int stagingBuffers)
+            throws IOException {
+        if (slotCount < 1 || stagingBuffers < 1) {
+            throw new IllegalArgumentException("slotCount and stagingBuffers must be >= 1");
+        }
+        if (maxStride < width) {
+            throw new IllegalArgumentException("maxStride " + maxStride + " < width " + width);
+        }
+        int payload = maxStride * height + width * (height / 2);
+        int slot = RECORD_HEADER_SIZE + payload;
+        slot = (slot + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+        long size = FILE_HEADER_SIZE + (long) slot * slotCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(slotCount + " slots of " + slot + " bytes do not fit one mapping");
+        }
+        this.width = width;
+        this.height = height;
+        this.maxStride = maxStride;
+        this.slotCount = slotCount;
+        this.slotSize = slot;
+
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.file.setLength(0);
+            this.channel = this.file.getChannel();
+            allocate(channel, size);
+            this.mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        mapping.putLong(0, MAGIC);
+        mapping.putInt(8, VERSION);
+        mapping.putInt(12, FILE_HEADER_SIZE);
+        mapping.putInt(16, RECORD_HEADER_SIZE);
+        mapping.putInt(20, slotCount);
+        mapping.putInt(24, slotSize);
+        mapping.putInt(28, width);
+        mapping.putInt(32, height);
+
+        this.free = new ArrayBlockingQueue<>(stagingBuffers);
+        this.filled = new ArrayBlockingQueue<>(stagingBuffers);
+        for (int i = 0; i < stagingBuffers; i++) {
+            free.add(new Staged(payload));
+        }
+        this.writer = new Thread(this::writeLoop, "FrameRecorder");
+        this.writer.setDaemon(true);
+        // Below the processing thread; Android maps this to a nice value
+        this.writer.setPriority(Thread.MIN_PRIORITY);
+        this.writer.start();
+    }
+
+    /**
+     * Writes the whole file out up front. A sparse file would get its
+     * blocks on first touch through the mapping, and a full disk then
+     * faults the writer thread instead of failing here.
+     */
+    private static void allocate(FileChannel channel, long size) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocateDirect(1 << 20);
+        long position = 0;
+        while (position < size) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), size - position));
+            position += channel.write(zeros, position);
+        }
+    }
+
+    /**
+     * Format raw frames are recorded in; null records no raw frames.
+     */
+    public void setRawFormat(Format format) {
+        if (format == Format.EDGES || format == Format.PACKED_EDGES) {
+            throw new IllegalArgumentException("raw frames are NV21 or LUMA");
+        }
+        this.rawFormat = format;
+    }
+
+    public Format getRawFormat() {
+        return rawFormat;
+    }
+
+    public void setRecordEdges(boolean recordEdges) {
+        this.recordEdges = recordEdges;
+    }
+
+    public boolean isRecordEdges() {
+        return recordEdges;
+    }
+
+    /**
+     * Stages a camera frame in the current raw format. The luma plane is
+     * copied with its row stride in one bulk read; chroma is packed to
+     * NV21. Returns false if raw recording is off or the frame was dropped.
+     *
+     * @param mode caller-defined processing mode stored with the record
+     *             (CameraHandler stores the EdgeDetector ordinal, -1 for
+     *             the raw feed)
+     */
+    public boolean recordFrame(Plane yPlane, Plane uPlane, Plane vPlane, long timestampNs, int mode) {
+        Format format = rawFormat;
+        if (format == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        Staged staged = claim();
+        if (staged == null) {
+            return false;
+        }
+        int stride = yPlane.getRowStride();
+        if (yPlane.getPixelStride() == 1 && stride <= maxStride) {
+            // Rows keep their padding; the last row usually stops at width
+            ByteBuffer buffer = yPlane.getBuffer();
+            int length = Math.min(buffer.remaining(), stride * height);
+            int position = buffer.position();
+            try {
+                buffer.get(staged.data, 0, length);
+            } finally {
+                buffer.position(position);
+            }
+        } else {
+            stride = width;
+            yPlane.readRows(staged.data, width, height);
+        }
+        int length = stride * height;
+        if (format == Format.NV21) {
+            nv21Packer.pack(uPlane, vPlane, width, height, staged.data, length);
+            length += width * (height / 2);
+        }
+        return submit(staged, format, timestampNs, stride, length, mode, start);
+    }
+
+    /**
+     * Stages the first width * height bytes of an edge map. Returns false
+     * if edge recording is off or the frame was dropped.
+     */
+    public boolean recordEdges(byte[] edges, long timestampNs, int mode) {
+        if (!recordEdges) {
+            return false;
+        }
+        long start = System.nanoTime();
+        Staged staged = claim();
+        if (staged == null) {
+            return false;
+        }
+        int length = width * height;
+        System.arraycopy(edges, 0, staged.data, 0, length);
+        return submit(staged, Format.EDGES, timestampNs, width, length, mode, start);
+    }
+
+    /**
+     * Stages an {@link EdgeBits} map, an eighth of what
+     * {@link #recordEdges} copies. Returns false if edge recording is off
+     * or the frame was dropped.
+     */
+    public boolean recordPackedEdges(byte[] packed, long timestampNs, int mode) {
+        if (!recordEdges) {
+            return false;
+        }
+        long start = System.nanoTime();
+        Staged staged = claim();
+        if (staged == null) {
+            return false;
+        }
+        int length = EdgeBits.size(width, height);
+        System.arraycopy(packed, 0, staged.data, 0, length);
+        return submit(staged, Format.PACKED_EDGES, timestampNs, EdgeBits.rowBytes(width), length, mode, start);
+    }
+
+    private Staged claim() {
+        if (closed) {
+            return null;
+        }
+        Staged staged = free.poll();
+        if (staged == null) {
+            droppedSinceLast++;
+            droppedCount++;
+        }
+        return staged;
+    }
+
+    private boolean submit(Staged staged, Format format, long timestampNs, int stride, int length, int mode,
+                           long start) {
+        staged.format = format;
+        staged.timestampNs = timestampNs;
+        staged.stride = stride;
+        staged.length = length;
+        staged.mode = mode;
+        staged.droppedBefore = droppedSinceLast;
+        droppedSinceLast = 0;
+        // Cannot fail: there are only as many staged frames as queue slots
+        filled.offer(staged);
+        captureNanos += System.nanoTime() - start;
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Staged staged = filled.take();
+                if (staged.length < 0) {
+                    // Close marker
+                    return;
+                }
+                long start = System.nanoTime();
+                write(staged);
+                writeNanos += System.nanoTime() - start;
+                writtenCount++;
+                free.offer(staged);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Staged staged) {
+        long sequence = nextSequence++;
+        int base = FILE_HEADER_SIZE + (int) ((sequence - 1) % slotCount) * slotSize;
+        mapping.putLong(base, 0);
+        mapping.putLong(base + 8, staged.timestampNs);
+        mapping.putInt(base + 16, width);
+        mapping.putInt(base + 20, height);
+        mapping.putInt(base + 24, staged.stride);
+        mapping.putInt(base + 28, staged.format.ordinal());
+        mapping.putInt(base + 32, staged.mode);
+        mapping.putInt(base + 36, staged.length);
+        mapping.putLong(base + 40, staged.droppedBefore);
+        mapping.position(base + RECORD_HEADER_SIZE);
+        mapping.put(staged.data, 0, staged.length);
+        mapping.putLong(base, sequence);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Records written to the file so far, including overwritten ones.
+     */
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Frames dropped because every staging buffer was still queued.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Total time the calling thread spent staging frames; read it from the
+     * calling thread.
+     */
+    public long getTotalCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Total time the writer thread spent copying records into the mapping.
+     */
+    public long getTotalWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Writes out what is staged, flushes the mapping to disk and closes the
+     * file. Frames offered afterwards are ignored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Staged marker = new Staged(0);
+        marker.length = -1;
+        try {
+            // A frame being staged right now may still take a queue slot
+            filled.put(marker);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mapping.force();
+        file.close();
+    }
+}
@@ -0,0 +1,245 @@
+package com.edgedetection.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Read side of a {@link FrameRecorder} ring file: the complete records in
+ * the order they were recorded, and replay of the raw ones through a
+ * {@link FrameSource.FrameListener} (e.g. into {@link EdgeFrameProcessor})
+ * at the original pace or as fast as possible.
+ *
+ * The file is mapped read-only and record payloads are views into that
+ * mapping, so opening a large ring is cheap.
+ */
+public final class FrameRecording {
+
+    /** One complete record; the payload is a read-only view into the file. */
+    public static final class Record {
+        private final long sequence;
+        private final long timestampNs;
+        private final int width;
+        private final int height;
+        private final int stride;
+        private final FrameRecorder.Format format;
+        private final int mode;
+        private final long droppedBefore;
+        private final ByteBuffer payload;
+
+        Record(long sequence, long timestampNs, int width, int height, int stride, FrameRecorder.Format format,
+               int mode, long droppedBefore, ByteBuffer payload) {
+            this.sequence = sequence;
+            this.timestampNs = timestampNs;
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.format = format;
+            this.mode = mode;
+            this.droppedBefore = droppedBefore;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestampNs() {
+            return timestampNs;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** Bytes per luma (or edge) row in the payload. */
+        public int getStride() {
+            return stride;
+        }
+
+        public FrameRecorder.Format getFormat() {
+            return format;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        /** Frames the recorder dropped just before this one. */
+        public long getDroppedBefore() {
+            return droppedBefore;
+        }
+
+        public ByteBuffer getPayload() {
+            return payload.duplicate();
+        }
+
+        /**
+         * Packed width x height luma (the edge map for EDGES records, and
+         * PACKED_EDGES records expanded to 0 and 255).
+         */
+        public byte[] getLuma() {
+            byte[] luma = new byte[width * height];
+            if (format == FrameRecorder.Format.PACKED_EDGES) {
+                byte[] packed = new byte[EdgeBits.size(width, height)];
+                payload.duplicate().get(packed);
+                EdgeBits.unpack(packed, width, height, luma);
+                return luma;
+            }
+            new Plane(payload.duplicate(), stride, 1).readRows(luma, width, height);
+            return luma;
+        }
+
+        /**
+         * Packed NV21 frame; LUMA and edge records get neutral chroma.
+         */
+        public byte[] toNv21() {
+            byte[] frame = PlaybackFrameSource.nv21FromLuma(getLuma(), width, height);
+            if (format == FrameRecorder.Format.NV21) {
+                ByteBuffer chroma = payload.duplicate();
+                chroma.position(stride * height);
+                chroma.get(frame, width * height, width * (height / 2));
+            }
+            return frame;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int slotCount;
+    private final List<Record> records;
+
+    private FrameRecording(int width, int height, int slotCount, List<Record> records) {
+        this.width = width;
+        this.height = height;
+        this.slotCount = slotCount;
+        this.records = records;
+    }
+
+    public static FrameRecording open(File file) throws IOException {
+        MappedByteBuffer mapping;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long size = in.length();
+            if (size < FrameRecorder.FILE_HEADER_SIZE) {
+                throw new IOException(file + " is not a frame recording (" + size + " bytes)");
+            }
+            // The mapping stays valid after the channel is closed
+            mapping = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        mapping.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapping.getLong(0) != FrameRecorder.MAGIC) {
+            throw new IOException(file + " is not a frame recording");
+        }
+        if (mapping.getInt(8) != FrameRecorder.VERSION) {
+            throw new IOException(file + ": unsupported recording version " + mapping.getInt(8));
+        }
+        int headerSize = mapping.getInt(12);
+        int recordHeaderSize = mapping.getInt(16);
+        int slotCount = mapping.getInt(20);
+        int slotSize = mapping.getInt(24);
+        if ((long) headerSize + (long) slotCount * slotSize > mapping.capacity()) {
+            throw new IOException(file + " is truncated");
+        }
+
+        FrameRecorder.Format[] formats = FrameRecorder.Format.values();
+        List<Record> records = new ArrayList<>(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = headerSize + slot * slotSize;
+            long sequence = mapping.getLong(base);
+            int format = mapping.getInt(base + 28);
+            int length = mapping.getInt(base + 36);
+            if (sequence == 0 || format < 0 || format >= formats.length
+                    || length < 0 || length > slotSize - recordHeaderSize) {
+                // Never written, or torn mid-write
+                continue;
+            }
+            ByteBuffer payload = mapping.duplicate();
+            payload.position(base + recordHeaderSize);
+            payload.limit(base + recordHeaderSize + length);
+            records.add(new Record(sequence, mapping.getLong(base + 8), mapping.getInt(base + 16),
+                                   mapping.getInt(base + 20), mapping.getInt(base + 24), formats[format],
+                                   mapping.getInt(base + 32), mapping.getLong(base + 40),
+                                   payload.slice().asReadOnlyBuffer()));
+        }
+        Collections.sort(records, Comparator.comparingLong(Record::getSequence));
+        return new FrameRecording(mapping.getInt(28), mapping.getInt(32), slotCount, records);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Complete records, oldest first.
+     */
+    public List<Record> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Raw (NV21 and LUMA) records only, oldest first.
+     */
+    public List<Record> getRawRecords() {
+        List<Record> raw = new ArrayList<>(records.size());
+        for (Record record : records) {
+            FrameRecorder.Format format = record.getFormat();
+            if (format == FrameRecorder.Format.NV21 || format == FrameRecorder.Format.LUMA) {
+                raw.add(record);
+            }
+        }
+        return raw;
+    }
+
+    /**
+     * The raw frames as a looping source; with
+     * {@link PlaybackFrameSource#setOriginalTiming} it keeps the recorded
+     * frame spacing.
+     *
+     * @throws IllegalStateException if there are no raw records
+     */
+    public PlaybackFrameSource toFrameSource() {
+        List<Record> raw = getRawRecords();
+        if (raw.isEmpty()) {
+            throw new IllegalStateException("recording has no raw frames");
+        }
+        List<byte[]> frames = new ArrayList<>(raw.size());
+        long[] timestamps = new long[raw.size()];
+        for (int i = 0; i < raw.size(); i++) {
+            frames.add(raw.get(i).toNv21());
+            timestamps[i] = raw.get(i).getTimestampNs();
+        }
+        return new PlaybackFrameSource(width, height, frames, timestamps);
+    }
+
+    /**
+     * Plays every raw frame once to listener on the calling thread, either
+     * spaced as recorded or back to back.
+     *
+     * @return frames delivered
+     */
+    public long replay(FrameSource.FrameListener listener, boolean originalSpeed) {
+        PlaybackFrameSource source = toFrameSource();
+        source.setOriginalTiming(originalSpeed);
+        return source.play(listener, source.getFrameCount());
+    }
+}
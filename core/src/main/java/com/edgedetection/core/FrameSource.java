@@ -0,0 +1,36 @@
+package com.edgedetection.core;
+
+/**
+ * Anything that produces YUV_420_888-style frames for the edge pipeline:
+ * the camera, or a synthetic / replayed stand-in when there is no device.
+ *
+ * Frames are pushed to a {@link FrameListener} on the source's delivery
+ * thread. The planes are only valid for the duration of the callback and
+ * are reused for the next frame, so a listener that keeps data must copy
+ * it.
+ */
+public interface FrameSource {
+
+    interface FrameListener {
+        /**
+         * @param timestampNs capture time of the frame, in the source's own
+         *                    time base (the sensor clock for the camera)
+         */
+        void onFrame(Plane yPlane, Plane uPlane, Plane vPlane, long timestampNs);
+    }
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Starts delivering frames to listener. Calling it again while running
+     * replaces the listener.
+     */
+    void start(FrameListener listener);
+
+    /**
+     * Stops delivery; no callbacks run once this returns.
+     */
+    void stop();
+}
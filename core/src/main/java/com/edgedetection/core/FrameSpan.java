@@ -0,0 +1,37 @@
+package com.edgedetection.core;
+
+/**
+ * Spans {@link FrameTracer} records for each frame, keyed by the frame's
+ * sensor timestamp. Each belongs to the track (thread) it runs on.
+ */
+public enum FrameSpan {
+    /** Sensor timestamp (start of exposure readout) until the image is acquired. */
+    SENSOR(FrameSpan.TRACK_CAMERA),
+    /** acquireLatestImage on the camera thread. */
+    ACQUIRE(FrameSpan.TRACK_CAMERA),
+    /** Waiting in the processing queue. */
+    QUEUE(FrameSpan.TRACK_PROCESSING),
+    /** Plane unwrapping and the kernel, up to publishing into the exchange. */
+    PROCESS(FrameSpan.TRACK_PROCESSING),
+    /** Published but not yet picked up by the GL thread. */
+    EXCHANGE(FrameSpan.TRACK_GL),
+    /** Texture upload. */
+    UPLOAD(FrameSpan.TRACK_GL),
+    /** onDrawFrame for the draw that first shows the frame. */
+    DRAW(FrameSpan.TRACK_GL),
+    /** From the end of onDrawFrame until eglSwapBuffers has returned. */
+    SWAP(FrameSpan.TRACK_GL),
+    /** Whole trip: sensor timestamp to buffer swap. */
+    SENSOR_TO_PHOTON(FrameSpan.TRACK_FRAME);
+
+    static final int TRACK_CAMERA = 1;
+    static final int TRACK_PROCESSING = 2;
+    static final int TRACK_GL = 3;
+    static final int TRACK_FRAME = 4;
+
+    final int track;
+
+    FrameSpan(int track) {
+        this.track = track;
+    }
+}
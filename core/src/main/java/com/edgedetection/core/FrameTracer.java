@@ -0,0 +1,170 @@
+package com.edgedetection.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring of per-frame {@link FrameSpan}s for sensor-to-photon
+ * latency tracing, exportable as Chrome trace-event JSON (opens in
+ * Perfetto / chrome://tracing).
+ *
+ * All times are in the sensor's time base (the clock the camera's image
+ * timestamps use), so a span can start at the sensor timestamp itself.
+ * Recording claims a slot with one atomic increment and writes it under a
+ * per-slot sequence number; it never allocates or blocks, and the oldest
+ * spans are overwritten once the ring is full. Export skips slots that are
+ * mid-write.
+ */
+public final class FrameTracer {
+    private static final FrameSpan[] SPANS = FrameSpan.values();
+    private static final String[] TRACK_NAMES = {"", "camera", "processing", "gl", "sensor-to-photon"};
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    // Per slot: index + 1 of the span it holds, or 0 while being written
+    private final AtomicLongArray sequence;
+    private final AtomicLongArray frames;
+    private final AtomicLongArray starts;
+    private final AtomicLongArray ends;
+    private final AtomicLongArray spans;
+    private volatile LatencyHistogram sensorToPhoton;
+
+    /**
+     * @param capacity spans kept, rounded up to a power of two; about nine
+     *                 are recorded per displayed frame
+     */
+    public FrameTracer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.sequence = new AtomicLongArray(size);
+        this.frames = new AtomicLongArray(size);
+        this.starts = new AtomicLongArray(size);
+        this.ends = new AtomicLongArray(size);
+        this.spans = new AtomicLongArray(size);
+    }
+
+    /**
+     * Also feeds every SENSOR_TO_PHOTON span into histogram (e.g.
+     * {@link PipelineStage#SENSOR_TO_PHOTON}); null stops it.
+     */
+    public void setSensorToPhotonHistogram(LatencyHistogram histogram) {
+        this.sensorToPhoton = histogram;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Records span [startNs, endNs] of the frame with the given sensor
+     * timestamp. Callable from any thread.
+     */
+    public void record(FrameSpan span, long frameTimestampNs, long startNs, long endNs) {
+        long index = next.getAndIncrement();
+        int slot = (int) (index & mask);
+        sequence.set(slot, 0);
+        frames.set(slot, frameTimestampNs);
+        starts.set(slot, startNs);
+        ends.set(slot, endNs);
+        spans.set(slot, span.ordinal());
+        sequence.set(slot, index + 1);
+
+        if (span == FrameSpan.SENSOR_TO_PHOTON) {
+            LatencyHistogram histogram = sensorToPhoton;
+            if (histogram != null) {
+                histogram.record(endNs - startNs);
+            }
+        }
+    }
+
+    /**
+     * Spans recorded so far, including overwritten ones.
+     */
+    public long getRecordedCount() {
+        return next.get();
+    }
+
+    /**
+     * Forgets all spans.
+     */
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            sequence.set(i, 0);
+        }
+    }
+
+    /**
+     * Writes the spans currently in the ring as a Chrome trace-event JSON
+     * object: one complete ("X") event per span on per-thread tracks, with
+     * the frame's sensor timestamp in args so one frame can be followed
+     * across tracks. Safe to call while recording.
+     */
+    public void writeChromeTrace(Writer out) throws IOException {
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        for (int track = 1; track < TRACK_NAMES.length; track++) {
+            out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + track +
+                      ",\"args\":{\"name\":\"" + TRACK_NAMES[track] + "\"}},\n");
+            out.write("{\"name\":\"thread_sort_index\",\"ph\":\"M\",\"pid\":1,\"tid\":" + track +
+                      ",\"args\":{\"sort_index\":" + track + "}},\n");
+        }
+        out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"edge detection\"}}");
+
+        // Oldest first, so the file reads in time order per track
+        long end = next.get();
+        long begin = Math.max(0, end - (mask + 1));
+        StringBuilder line = new StringBuilder(160);
+        for (long index = begin; index < end; index++) {
+            int slot = (int) (index & mask);
+            if (sequence.get(slot) != index + 1) {
+                continue;
+            }
+            long frame = frames.get(slot);
+            long start = starts.get(slot);
+            long stop = ends.get(slot);
+            int span = (int) spans.get(slot);
+            if (sequence.get(slot) != index + 1) {
+                // Overwritten while we read it
+                continue;
+            }
+            FrameSpan type = SPANS[span];
+            line.setLength(0);
+            line.append(",\n{\"name\":\"").append(type.name().toLowerCase(Locale.US))
+                .append("\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(type.track)
+                .append(",\"ts\":");
+            appendMicros(line, start);
+            line.append(",\"dur\":");
+            appendMicros(line, Math.max(0, stop - start));
+            line.append(",\"args\":{\"frame\":").append(frame).append("}}");
+            out.write(line.toString());
+        }
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    // Trace-event times are microseconds; keep ns precision as a fraction
+    private static void appendMicros(StringBuilder out, long nanos) {
+        if (nanos < 0) {
+            // Sign first: -5 ns is -0.005, not 0.00-5
+            out.append('-');
+            nanos = -nanos;
+        }
+        out.append(nanos / 1000).append('.');
+        long fraction = nanos % 1000;
+        if (fraction < 100) {
+            out.append('0');
+        }
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+}
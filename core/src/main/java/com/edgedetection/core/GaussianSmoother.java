@@ -0,0 +1,395 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+
+/**
+ * Integer approximation of a Gaussian blur of the luma plane, used to
+ * smooth sensor noise away before the gradient.
+ *
+ * The blur is {@link #PASSES} box filters, with widths picked for the
+ * requested sigma (Kovesi, "Fast almost-Gaussian filtering"). Each pass
+ * rounds back to 0..255. Near the frame border a box only averages the
+ * pixels inside the frame, so flat borders stay flat. A box is computed
+ * one of two ways:
+ * <ul>
+ *   <li>Running sums. Each row is filtered horizontally, then the
+ *       vertical passes stream down the frame, each holding 2r + 2 rows
+ *       and their column sums. {@link #readRow} hands out smoothed rows in
+ *       order, so {@link FastSobelKernel} can pull them straight into its
+ *       row window and no smoothed frame is ever stored.</li>
+ *   <li>A summed-area table per pass over the whole frame (see
+ *       {@link #setSummedArea}), where any box is four reads.</li>
+ * </ul>
+ * Neither costs more per pixel as the radius grows. Their results differ
+ * by rounding: running sums round the row pass and the column pass
+ * separately, the table rounds each 2-D box once. All arithmetic is
+ * integer; sigma only picks the box widths.
+ *
+ * Buffers grow to the largest frame seen and are then reused. Not
+ * thread-safe; use one per worker thread.
+ */
+public final class GaussianSmoother {
+    /** Box filters per blur; three are within a few percent of a Gaussian. */
+    public static final int PASSES = 3;
+
+    /** Largest sigma accepted; keeps every running-sum window within RECIPROCAL_SHIFT's range. */
+    public static final float MAX_SIGMA = 60;
+
+    // (m * reciprocals[n]) >>> RECIPROCAL_SHIFT == m / n for m < 257 * n, n <= 131, all in int
+    private static final int RECIPROCAL_SHIFT = 22;
+
+    private final float sigma;
+    // Box radius of each pass; 0 radii are left out
+    private final int[] radii;
+    private final int maxRadius;
+    private boolean summedArea;
+    // ceil(2^RECIPROCAL_SHIFT / n) for window lengths n up to 2 * maxRadius + 1
+    private final int[] reciprocals;
+
+    private int width;
+    private byte[] srcArray;
+    private Plane srcPlane;
+    private byte[] rowBytes = new byte[0];
+    private int[] rowPrefix = new int[0];
+    private int[] frameRow = new int[0];
+    private int[] zeros = new int[0];
+    private final VerticalPass[] verticalPasses;
+    // Summed-area table, (width + 1) x (height + 1)
+    private int[] table = new int[0];
+
+    public GaussianSmoother(float sigma) {
+        if (!(sigma > 0 && sigma <= MAX_SIGMA)) {
+            throw new IllegalArgumentException("sigma must be in (0, " + MAX_SIGMA + "]: " + sigma);
+        }
+        this.sigma = sigma;
+        this.radii = boxRadii(sigma);
+        int maxRadius = 0;
+        for (int radius : radii) {
+            maxRadius = Math.max(maxRadius, radius);
+        }
+        this.maxRadius = maxRadius;
+        this.reciprocals = new int[2 * maxRadius + 2];
+        for (int n = 1; n < reciprocals.length; n++) {
+            reciprocals[n] = ((1 << RECIPROCAL_SHIFT) + n - 1) / n;
+        }
+        this.verticalPasses = new VerticalPass[radii.length];
+        for (int k = 0; k < radii.length; k++) {
+            verticalPasses[k] = new VerticalPass(radii[k]);
+        }
+    }
+
+    /**
+     * Radii of the {@link #PASSES} boxes whose cascade has standard
+     * deviation closest to sigma, with the zero ones dropped.
+     */
+    static int[] boxRadii(float sigma) {
+        int n = PASSES;
+        double variance = 12.0 * sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(variance / n + 1));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        long narrow = Math.round((variance - n * lower * lower - 4.0 * n * lower - 3.0 * n) / (-4.0 * lower - 4));
+        int count = 0;
+        int[] radii = new int[n];
+        for (int i = 0; i < n; i++) {
+            int radius = ((i < narrow ? lower : upper) - 1) / 2;
+            if (radius > 0) {
+                radii[count++] = radius;
+            }
+        }
+        return Arrays.copyOf(radii, count);
+    }
+
+    public float getSigma() {
+        return sigma;
+    }
+
+    /**
+     * Radius of the widest box pass.
+     */
+    public int getMaxRadius() {
+        return maxRadius;
+    }
+
+    public boolean usesSummedArea() {
+        return summedArea;
+    }
+
+    /**
+     * Makes {@link #smooth} build a summed-area table per pass instead of
+     * using running sums. Off by default: on the hosts measured so far
+     * (see PreSmoothingBenchmark) the table's int frame costs about twice
+     * the running sums at every radius up to {@link #MAX_SIGMA}, so it is
+     * kept for comparison on other devices. {@link #readRow} always uses
+     * running sums.
+     */
+    public void setSummedArea(boolean summedArea) {
+        this.summedArea = summedArea;
+    }
+
+    /**
+     * Blurs the first width * height bytes of a luma plane into dst.
+     */
+    public void smooth(Plane src, byte[] dst, int width, int height) {
+        if (usesSummedArea()) {
+            src.readRows(dst, width, height);
+            smoothSummedArea(dst, width, height);
+        } else {
+            begin(null, src, width);
+            smoothRunning(dst, width, height);
+        }
+    }
+
+    public void smooth(byte[] src, byte[] dst, int width, int height) {
+        if (usesSummedArea()) {
+            System.arraycopy(src, 0, dst, 0, width * height);
+            smoothSummedArea(dst, width, height);
+        } else {
+            begin(src, null, width);
+            smoothRunning(dst, width, height);
+        }
+    }
+
+    private void smoothRunning(byte[] dst, int width, int height) {
+        try {
+            int[] row = frameRow;
+            for (int y = 0; y < height; y++) {
+                readRow(y, height, row);
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[offset + x] = (byte) row[x];
+                }
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Starts streaming rows of src (exactly one of srcArray, srcPlane set).
+     */
+    void begin(byte[] srcArray, Plane srcPlane, int width) {
+        this.srcArray = srcArray;
+        this.srcPlane = srcPlane;
+        this.width = width;
+        if (frameRow.length < width) {
+            rowPrefix = new int[width + 1];
+            frameRow = new int[width];
+            zeros = new int[width];
+            rowBytes = new byte[width];
+        }
+        for (VerticalPass pass : verticalPasses) {
+            pass.ensureCapacity(width);
+            pass.next = -1;
+        }
+    }
+
+    void end() {
+        srcArray = null;
+        srcPlane = null;
+    }
+
+    /**
+     * Smoothed row y (of a frame height rows tall) into out, 0..255 per
+     * pixel. Cheapest when rows are read in order; any other row restarts
+     * the passes' windows a little above it.
+     */
+    void readRow(int y, int height, int[] out) {
+        produce(verticalPasses.length - 1, y, height, out);
+    }
+
+    /**
+     * Row y after vertical pass k (k = -1: after the horizontal passes).
+     */
+    private void produce(int k, int y, int height, int[] out) {
+        if (k < 0) {
+            loadSource(y, out);
+            for (int radius : radii) {
+                horizontalBox(out, radius);
+            }
+            return;
+        }
+
+        VerticalPass pass = verticalPasses[k];
+        int width = this.width;
+        int radius = pass.radius;
+        int[][] ring = pass.ring;
+        int slots = ring.length;
+        int[] sum = pass.sum;
+        int low = Math.max(0, y - radius);
+        int high = Math.min(height, y + radius + 1);
+        int count = high - low;
+        int reciprocal = reciprocals[count];
+        int half = count / 2;
+
+        if (y != pass.next) {
+            // Out of order (or the first row): refill the window from scratch
+            Arrays.fill(sum, 0, width, 0);
+            for (int j = low; j < high; j++) {
+                int[] row = ring[j % slots];
+                produce(k - 1, j, height, row);
+                for (int x = 0; x < width; x++) {
+                    sum[x] += row[x];
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                out[x] = ((sum[x] + half) * reciprocal) >>> RECIPROCAL_SHIFT;
+            }
+        } else {
+            // Slide down one row: at most one row enters and one leaves, in
+            // different slots (the ring has 2r + 2), so it is a single pass
+            int[] entering = zeros;
+            int[] leaving = zeros;
+            if (pass.high < high) {
+                entering = ring[pass.high % slots];
+                produce(k - 1, pass.high, height, entering);
+            }
+            if (pass.low < low) {
+                leaving = ring[pass.low % slots];
+            }
+            for (int x = 0; x < width; x++) {
+                int s = sum[x] + entering[x] - leaving[x];
+                sum[x] = s;
+                out[x] = ((s + half) * reciprocal) >>> RECIPROCAL_SHIFT;
+            }
+        }
+        pass.low = low;
+        pass.high = high;
+        pass.next = y + 1;
+    }
+
+    private void loadSource(int y, int[] out) {
+        byte[] bytes;
+        int offset;
+        if (srcPlane != null) {
+            srcPlane.readRow(y, rowBytes, 0, width);
+            bytes = rowBytes;
+            offset = 0;
+        } else {
+            bytes = srcArray;
+            offset = y * width;
+        }
+        for (int x = 0; x < width; x++) {
+            out[x] = bytes[offset + x] & 0xFF;
+        }
+    }
+
+    /**
+     * Box of the given radius along one row, in place: prefix sums, then each window is the difference of two of them.
+     */
+    private void horizontalBox(int[] row, int radius) {
+        int width = this.width;
+        int[] prefix = rowPrefix;
+        int[] reciprocals = this.reciprocals;
+        int sum = 0;
+        prefix[0] = 0;
+        for (int x = 0; x < width; x++) {
+            sum += row[x];
+            prefix[x + 1] = sum;
+        }
+        // Full windows in the middle, clipped ones at either end
+        int inner = Math.max(radius, width - radius);
+        int reciprocal = reciprocals[2 * radius + 1];
+        for (int x = radius; x < inner; x++) {
+            row[x] = ((prefix[x + radius + 1] - prefix[x - radius] + radius) * reciprocal) >>> RECIPROCAL_SHIFT;
+        }
+        for (int x = 0; x < Math.min(radius, width); x++) {
+            row[x] = clippedWindow(prefix, x, radius, width);
+        }
+        for (int x = inner; x < width; x++) {
+            row[x] = clippedWindow(prefix, x, radius, width);
+        }
+    }
+
+    private int clippedWindow(int[] prefix, int x, int radius, int width) {
+        int low = Math.max(0, x - radius);
+        int high = Math.min(width, x + radius + 1);
+        int count = high - low;
+        return ((prefix[high] - prefix[low] + count / 2) * reciprocals[count]) >>> RECIPROCAL_SHIFT;
+    }
+
+    /**
+     * All passes over frame in place, one summed-area table per pass.
+     * Sums wrap around int, which is harmless: every box sum fits, and
+     * the four-corner difference is exact modulo 2^32. A box sum m is
+     * under 257 * area, so (m * ceil(2^40 / area)) >>> 40 == m / area.
+     */
+    private void smoothSummedArea(byte[] frame, int width, int height) {
+        int stride = width + 1;
+        if (table.length < stride * (height + 1)) {
+            table = new int[stride * (height + 1)];
+        }
+        int[] table = this.table;
+        // Row 0 and column 0 are the empty sums (stale if the width changed)
+        Arrays.fill(table, 0, stride, 0);
+        for (int radius : radii) {
+            for (int y = 0; y < height; y++) {
+                int rowSum = 0;
+                int in = y * width;
+                int above = y * stride + 1;
+                int out = above + stride;
+                table[out - 1] = 0;
+                for (int x = 0; x < width; x++) {
+                    rowSum += frame[in + x] & 0xFF;
+                    table[out + x] = table[above + x] + rowSum;
+                }
+            }
+
+            int size = 2 * radius + 1;
+            int area = size * size;
+            long reciprocal = ((1L << 40) + area - 1) / area;
+            for (int y = 0; y < height; y++) {
+                int top = Math.max(0, y - radius) * stride;
+                int bottom = Math.min(height, y + radius + 1) * stride;
+                int rows = (bottom - top) / stride;
+                int out = y * width;
+                int inner = rows == size ? Math.max(radius, width - radius) : radius;
+                // Full boxes on inner rows multiply by the reciprocal, clipped ones divide
+                for (int x = 0; x < Math.min(radius, width); x++) {
+                    frame[out + x] = clippedBox(table, top, bottom, rows, x, radius, width);
+                }
+                for (int x = radius; x < inner; x++) {
+                    int left = x - radius;
+                    int right = x + radius + 1;
+                    int sum = table[bottom + right] - table[top + right] - table[bottom + left] + table[top + left];
+                    frame[out + x] = (byte) (((sum + area / 2) * reciprocal) >>> 40);
+                }
+                for (int x = inner; x < width; x++) {
+                    frame[out + x] = clippedBox(table, top, bottom, rows, x, radius, width);
+                }
+            }
+        }
+    }
+
+    private static byte clippedBox(int[] table, int top, int bottom, int rows, int x, int radius, int width) {
+        int left = Math.max(0, x - radius);
+        int right = Math.min(width, x + radius + 1);
+        int sum = table[bottom + right] - table[top + right] - table[bottom + left] + table[top + left];
+        int area = rows * (right - left);
+        return (byte) ((sum + area / 2) / area);
+    }
+
+    private static final class VerticalPass {
+        final int radius;
+        // Input rows low .. high - 1 of the window, row y in slot y % (2r + 2)
+        int[][] ring = new int[0][];
+        int[] sum = new int[0];
+        int low;
+        int high;
+        // Row the window is positioned for, or -1
+        int next = -1;
+
+        VerticalPass(int radius) {
+            this.radius = radius;
+        }
+
+        void ensureCapacity(int width) {
+            if (sum.length < width) {
+                ring = new int[2 * radius + 2][width];
+                sum = new int[width];
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.edgedetection.core;
+
+/**
+ * GLSL ES 1.00 sources of the app's shader passes. They live here rather
+ * than next to the GLES 2 calls in the app so the host tests compile and
+ * run the same text in a headless context, and check it against the CPU
+ * kernels it mirrors.
+ */
+public final class GlslSources {
+
+    /**
+     * Vertex shader of every draw: vPosition in clip space, vTexCoord
+     * passed through as outTexCoord.
+     */
+    public static final String VERTEX =
+        "attribute vec2 vPosition;" +
+        "attribute vec2 vTexCoord;" +
+        "varying vec2 outTexCoord;" +
+        "void main() {" +
+        "  gl_Position = vec4(vPosition, 0.0, 1.0);" +
+        "  outTexCoord = vTexCoord;" +
+        "}";
+
+    /**
+     * Fragment shader that shows a processed frame: the grey level in the
+     * red channel of a sampler2D, drawn opaque. Stereo mode draws it
+     * through the {@link DistortionMesh} into each eye.
+     */
+    public static final String GREY_DISPLAY =
+        "precision mediump float;" +
+        "varying vec2 outTexCoord;" +
+        "uniform sampler2D sTexture;" +
+        "void main() {" +
+        "  float gray = texture2D(sTexture, outTexCoord).r;" +
+        "  gl_FragColor = vec4(vec3(gray), 1.0);" +
+        "}";
+
+    /**
+     * Body of the app's Sobel pass: Sobel + threshold on BT.601 luma
+     * rounded to 0..255, in {@link SobelKernel}'s output convention. On grey
+     * input it matches {@link FastSobelKernel} with uSquaredThreshold set to
+     * {@link FastSobelKernel#squaredThreshold}.
+     */
+    public static final String SOBEL_PASS =
+        "uniform float uSquaredThreshold;\n" +
+        "float luma(vec2 offset) {\n" +
+        "  vec3 rgb = texture2D(sTexture, outTexCoord + offset * uTexelSize).rgb;\n" +
+        "  return floor(dot(rgb, vec3(0.299, 0.587, 0.114)) * 255.0 + 0.5);\n" +
+        "}\n" +
+        "void main() {\n" +
+        "  float c = luma(vec2(0.0));\n" +
+        // gl_FragCoord is at pixel centres: 0.5 .. size - 0.5
+        "  vec2 p = gl_FragCoord.xy;\n" +
+        "  if (p.x < 1.0 || p.y < 1.0 || p.x > uSize.x - 1.0 || p.y > uSize.y - 1.0) {\n" +
+        "    gl_FragColor = vec4(vec3(c / 255.0), 1.0);\n" +
+        "    return;\n" +
+        "  }\n" +
+        "  float tl = luma(vec2(-1.0, -1.0));\n" +
+        "  float t  = luma(vec2( 0.0, -1.0));\n" +
+        "  float tr = luma(vec2( 1.0, -1.0));\n" +
+        "  float l  = luma(vec2(-1.0,  0.0));\n" +
+        "  float r  = luma(vec2( 1.0,  0.0));\n" +
+        "  float bl = luma(vec2(-1.0,  1.0));\n" +
+        "  float b  = luma(vec2( 0.0,  1.0));\n" +
+        "  float br = luma(vec2( 1.0,  1.0));\n" +
+        "  float gx = (tr + 2.0 * r + br) - (tl + 2.0 * l + bl);\n" +
+        "  float gy = (bl + 2.0 * b + br) - (tl + 2.0 * t + tr);\n" +
+        // Exact below 2^24: |gx|, |gy| <= 1020. 1.0 where m >= (t + 1)^2
+        "  float edge = step(uSquaredThreshold, gx * gx + gy * gy);\n" +
+        "  gl_FragColor = vec4(vec3(1.0 - edge), 1.0);\n" +
+        "}\n";
+
+    private GlslSources() {
+    }
+
+    /**
+     * Start of a full-screen pass's fragment shader, to be followed by its
+     * body: declares {@code varying vec2 outTexCoord}, {@code sTexture}
+     * (a samplerExternalOES if externalInput, else a sampler2D),
+     * {@code uniform vec2 uTexelSize} (one texel in texture coordinates)
+     * and {@code uniform vec2 uSize} (output size in pixels), and selects
+     * highp where the GPU has it.
+     */
+    public static String passHeader(boolean externalInput) {
+        // Integer-exact pixel arithmetic needs more than mediump's 10-bit mantissa
+        return (externalInput ? "#extension GL_OES_EGL_image_external : require\n" : "") +
+               "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+               "precision highp float;\n" +
+               "#else\n" +
+               "precision mediump float;\n" +
+               "#endif\n" +
+               "varying vec2 outTexCoord;\n" +
+               "uniform " + (externalInput ? "samplerExternalOES" : "sampler2D") + " sTexture;\n" +
+               "uniform vec2 uTexelSize;\n" +
+               "uniform vec2 uSize;\n";
+    }
+}
@@ -0,0 +1,56 @@
+package com.edgedetection.core;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of Sobel gradient magnitudes, filled by the kernels while they
+ * threshold a frame (see {@link EdgeStats#getHistogram()}). Bins are
+ * {@link #BIN_WIDTH} magnitude units wide and cover 0..{@link #MAX_MAGNITUDE},
+ * the largest magnitude a 3x3 Sobel on 8-bit input can produce.
+ *
+ * The reference kernel bins every pixel; the fast kernel bins every
+ * {@link #SAMPLE_ROW_STEP}th row so it only takes a sqrt on those rows.
+ */
+public final class GradientHistogram {
+    public static final int MAX_MAGNITUDE = 1443; // sqrt(2) * 4 * 255
+    static final int BIN_SHIFT = 2;
+    public static final int BIN_WIDTH = 1 << BIN_SHIFT;
+    public static final int BIN_COUNT = (MAX_MAGNITUDE >> BIN_SHIFT) + 1;
+    static final int SAMPLE_ROW_STEP = 8;
+
+    final int[] counts = new int[BIN_COUNT];
+    int total;
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    void add(int magnitude) {
+        counts[Math.min(magnitude, MAX_MAGNITUDE) >> BIN_SHIFT]++;
+        total++;
+    }
+
+    void merge(GradientHistogram other) {
+        for (int i = 0; i < BIN_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public int getCount(int bin) {
+        return counts[bin];
+    }
+
+    /**
+     * Number of pixels binned; smaller than the frame when rows are sampled.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /** Largest magnitude that falls into bin. */
+    public static int binUpperBound(int bin) {
+        return Math.min(MAX_MAGNITUDE, ((bin + 1) << BIN_SHIFT) - 1);
+    }
+}
@@ -0,0 +1,311 @@
+package com.edgedetection.core;
+
+/**
+ * Incremental Sobel for mostly static scenes. The frame is split into
+ * square tiles; a tile is recomputed only when the sum of absolute
+ * differences against the luma it was last computed from exceeds
+ * {@link #setChangeThreshold(int)} per pixel, or a single pixel changed
+ * by a large step. A recomputed tile also
+ * refreshes a one-pixel halo around it, since a changed pixel moves the
+ * gradient of its neighbours. All other tiles keep their previous edges.
+ *
+ * Small changes below the threshold can add up, so a full refresh is
+ * forced every {@link #setFullRefreshInterval(int)} frames, and whenever
+ * the threshold differs from the one the cached edges were computed with
+ * ({@link #getThreshold()}); callers with a drifting auto threshold hold
+ * that one until a refresh is due. Frames where more than a fifth of the
+ * tiles changed also go through the (faster per pixel) full-frame kernel.
+ *
+ * Driven by {@link EdgeFrameProcessor}: {@link #load} the frame, then
+ * either run a full-frame kernel into {@link #getEdges()} and call
+ * {@link #completeFullRefresh} when {@link #beginFrame} asks for it, or
+ * {@link #updateChangedTiles}. Not thread-safe.
+ */
+public final class IncrementalSobel {
+    public static final int TILE_SIZE = 32;
+    public static final int DEFAULT_CHANGE_THRESHOLD = 3;
+    public static final int DEFAULT_FULL_REFRESH_INTERVAL = 30;
+    // A few strongly changed pixels (a small object edge) are below any
+    // useful mean threshold, so a single large difference also marks the tile
+    private static final int PIXEL_CHANGE_LIMIT = 48;
+    // Above this share of changed tiles the full-frame kernel is cheaper
+    private static final int MAX_INCREMENTAL_PERCENT = 20;
+
+    private final int width;
+    private final int height;
+    private final int tilesX;
+    private final int tilesY;
+    private byte[] current;
+    private byte[] reference;
+    private final byte[] edges;
+    private final boolean[] dirty;
+    private final int[] tileEdges;
+    private final boolean[] recount;
+
+    private int changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+    private int fullRefreshInterval = DEFAULT_FULL_REFRESH_INTERVAL;
+    private int framesSinceRefresh;
+    private boolean valid;
+    private int lastThreshold;
+    private int changedTiles;
+    private int recomputedTiles;
+
+    public IncrementalSobel(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.current = new byte[width * height];
+        this.reference = new byte[width * height];
+        this.edges = new byte[width * height];
+        this.dirty = new boolean[tilesX * tilesY];
+        this.tileEdges = new int[tilesX * tilesY];
+        this.recount = new boolean[tilesX * tilesY];
+    }
+
+    /**
+     * Mean absolute luma difference per pixel above which a tile counts as
+     * changed.
+     */
+    public void setChangeThreshold(int changeThreshold) {
+        this.changeThreshold = changeThreshold;
+    }
+
+    public int getChangeThreshold() {
+        return changeThreshold;
+    }
+
+    /**
+     * Recompute the whole frame at least every interval frames. 1 disables
+     * the incremental path.
+     */
+    public void setFullRefreshInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be >= 1: " + interval);
+        }
+        this.fullRefreshInterval = interval;
+    }
+
+    public int getFullRefreshInterval() {
+        return fullRefreshInterval;
+    }
+
+    /**
+     * Drops the cached edges; the next frame is a full refresh. Call when
+     * the edge map was produced some other way in between (e.g. Canny).
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /** Copies the frame's luma into the packed buffer the kernels read. */
+    public byte[] load(Plane yPlane) {
+        yPlane.readRows(current, width, height);
+        return current;
+    }
+
+    /** Edge map kept across frames; full refreshes write straight into it. */
+    public byte[] getEdges() {
+        return edges;
+    }
+
+    /**
+     * Finds the changed tiles of the loaded frame. Returns true when the
+     * frame must be recomputed in full instead: refresh due, threshold
+     * changed, or so many tiles changed that the full-frame kernel is
+     * cheaper.
+     */
+    public boolean beginFrame(int threshold) {
+        boolean forced = !valid || threshold != lastThreshold || ++framesSinceRefresh >= fullRefreshInterval;
+        if (forced) {
+            return true;
+        }
+
+        changedTiles = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                boolean changed = tileChanged(tx, ty);
+                dirty[ty * tilesX + tx] = changed;
+                if (changed) {
+                    changedTiles++;
+                }
+            }
+        }
+        return changedTiles * 100 > dirty.length * MAX_INCREMENTAL_PERCENT;
+    }
+
+    /** True once a full refresh filled {@link #getEdges()}. */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /** Threshold of the last full refresh, which the cached edges use. */
+    public int getThreshold() {
+        return lastThreshold;
+    }
+
+    /**
+     * Records that {@link #getEdges()} now holds the edges of the loaded
+     * frame at threshold.
+     */
+    public void completeFullRefresh(int threshold) {
+        lastThreshold = threshold;
+        byte[] swap = reference;
+        reference = current;
+        current = swap;
+        for (int t = 0; t < tileEdges.length; t++) {
+            tileEdges[t] = countTileEdges(t % tilesX, t / tilesX);
+        }
+        framesSinceRefresh = 0;
+        valid = true;
+        recomputedTiles = tileEdges.length;
+    }
+
+    /**
+     * Recomputes the tiles {@link #beginFrame} found changed and fills
+     * stats. Edge count covers the whole frame; min/max magnitude
+     * only the recomputed pixels.
+     */
+    public void updateChangedTiles(int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        stats.sumTracked = false;
+
+        int squaredThreshold = FastSobelKernel.squaredThreshold(threshold);
+        int maxSquared = -1;
+        int minSquared = Integer.MAX_VALUE;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (!dirty[ty * tilesX + tx]) {
+                    continue;
+                }
+                int x0 = tx * TILE_SIZE;
+                int y0 = ty * TILE_SIZE;
+                int x1 = Math.min(width, x0 + TILE_SIZE);
+                int y1 = Math.min(height, y0 + TILE_SIZE);
+
+                // Tile plus halo; the halo may overlap tiles that did not change
+                long extremes = sobelRect(Math.max(0, x0 - 1), Math.max(0, y0 - 1),
+                        Math.min(width, x1 + 1), Math.min(height, y1 + 1), squaredThreshold);
+                maxSquared = Math.max(maxSquared, (int) (extremes >>> 32));
+                minSquared = Math.min(minSquared, (int) extremes);
+
+                for (int y = y0; y < y1; y++) {
+                    System.arraycopy(current, y * width + x0, reference, y * width + x0, x1 - x0);
+                }
+                markRecount(tx, ty);
+            }
+        }
+
+        int edgeCount = 0;
+        for (int t = 0; t < tileEdges.length; t++) {
+            if (recount[t]) {
+                tileEdges[t] = countTileEdges(t % tilesX, t / tilesX);
+                recount[t] = false;
+            }
+            edgeCount += tileEdges[t];
+        }
+
+        recomputedTiles = changedTiles;
+        stats.edgeCount = edgeCount;
+        stats.totalPixels = Math.max(0, width - 2) * Math.max(0, height - 2);
+        if (maxSquared >= 0) {
+            stats.maxMagnitude = (int) Math.sqrt(maxSquared);
+            stats.minMagnitude = (int) Math.sqrt(minSquared);
+        }
+    }
+
+    public int getTileCount() {
+        return tileEdges.length;
+    }
+
+    /** Tiles recomputed for the last frame (all of them on a full refresh). */
+    public int getRecomputedTiles() {
+        return recomputedTiles;
+    }
+
+    public float getRecomputedTilePercent() {
+        return recomputedTiles * 100.0f / tileEdges.length;
+    }
+
+    /** SAD of one tile against the reference, stopping early once over the limit. */
+    private boolean tileChanged(int tx, int ty) {
+        int x0 = tx * TILE_SIZE;
+        int x1 = Math.min(width, x0 + TILE_SIZE);
+        int y0 = ty * TILE_SIZE;
+        int y1 = Math.min(height, y0 + TILE_SIZE);
+        int limit = changeThreshold * (x1 - x0) * (y1 - y0);
+        int sad = 0;
+        int maxDiff = 0;
+        for (int y = y0; y < y1 && sad <= limit && maxDiff <= PIXEL_CHANGE_LIMIT; y++) {
+            for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                int diff = Math.abs((current[i] & 0xFF) - (reference[i] & 0xFF));
+                sad += diff;
+                maxDiff = Math.max(maxDiff, diff);
+            }
+        }
+        return sad > limit || maxDiff > PIXEL_CHANGE_LIMIT;
+    }
+
+    /**
+     * Same operator and output as {@link FastSobelKernel} over [x0, x1) x
+     * [y0, y1). Returns max squared magnitude in the high and min in the
+     * low 32 bits.
+     */
+    private long sobelRect(int x0, int y0, int x1, int y1, int squaredThreshold) {
+        int maxSquared = -1;
+        int minSquared = Integer.MAX_VALUE;
+        byte[] src = current;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            if (y == 0 || y == height - 1) {
+                // Border rows keep the original luminance
+                System.arraycopy(src, row + x0, edges, row + x0, x1 - x0);
+                continue;
+            }
+            int up = row - width;
+            int down = row + width;
+            for (int x = x0; x < x1; x++) {
+                if (x == 0 || x == width - 1) {
+                    edges[row + x] = src[row + x];
+                    continue;
+                }
+                int gx = (src[up + x + 1] & 0xFF) + 2 * (src[row + x + 1] & 0xFF) + (src[down + x + 1] & 0xFF)
+                       - (src[up + x - 1] & 0xFF) - 2 * (src[row + x - 1] & 0xFF) - (src[down + x - 1] & 0xFF);
+                int gy = (src[down + x - 1] & 0xFF) + 2 * (src[down + x] & 0xFF) + (src[down + x + 1] & 0xFF)
+                       - (src[up + x - 1] & 0xFF) - 2 * (src[up + x] & 0xFF) - (src[up + x + 1] & 0xFF);
+                int squared = gx * gx + gy * gy;
+                maxSquared = Math.max(maxSquared, squared);
+                minSquared = Math.min(minSquared, squared);
+                edges[row + x] = squared >= squaredThreshold ? (byte) 0 : (byte) 255;
+            }
+        }
+        return ((long) maxSquared << 32) | (minSquared & 0xFFFFFFFFL);
+    }
+
+    /** The tile and its 8 neighbours may have edges changed by the halo. */
+    private void markRecount(int tx, int ty) {
+        for (int ny = Math.max(0, ty - 1); ny <= Math.min(tilesY - 1, ty + 1); ny++) {
+            for (int nx = Math.max(0, tx - 1); nx <= Math.min(tilesX - 1, tx + 1); nx++) {
+                recount[ny * tilesX + nx] = true;
+            }
+        }
+    }
+
+    /** Edge pixels of a tile, interior of the frame only (like EdgeStats). */
+    private int countTileEdges(int tx, int ty) {
+        int x0 = Math.max(1, tx * TILE_SIZE);
+        int x1 = Math.min(width - 1, tx * TILE_SIZE + TILE_SIZE);
+        int y0 = Math.max(1, ty * TILE_SIZE);
+        int y1 = Math.min(height - 1, ty * TILE_SIZE + TILE_SIZE);
+        int count = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                if (edges[i] == 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,18 @@
+package com.edgedetection.core;
+
+/**
+ * Clean-up {@link EdgeMorphology} applies to an edge map, with a square
+ * (2r + 1) x (2r + 1) structuring element.
+ */
+public enum MorphologyOp {
+    /** Edge map as the detector produced it. */
+    NONE,
+    /** Thickens edges; closes gaps of up to 2r pixels along a line. */
+    DILATE,
+    /** Thins edges; removes any edge narrower than 2r + 1. */
+    ERODE,
+    /** Erode, then dilate: removes speckles, keeps the shape of wide edges. */
+    OPEN,
+    /** Dilate, then erode: joins broken edges without thickening them. */
+    CLOSE
+}
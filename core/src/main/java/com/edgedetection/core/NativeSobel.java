@@ -0,0 +1,191 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sobel/threshold kernel in libedgedetector (app/src/main/cpp), with
+ * AVX2/SSE2 paths on x86, NEON on ARM and a scalar fallback. Output and
+ * stats match {@link FastSobelKernel}.
+ *
+ * The source must be a direct buffer with pixelStride 1, which is what
+ * the camera's Y plane is; it is read in place via GetDirectBufferAddress.
+ * The library is loaded on first use; when it is missing (plain JVM
+ * without -Djava.library.path, unsupported ABI) {@link #isAvailable()} is
+ * false and callers use the Java kernels instead.
+ *
+ * Loading the library starts a native worker pool (one thread per extra
+ * core, pinned where the OS allows) that every frame is split across in
+ * row tiles; the calling thread works on tiles too. Workers never enter
+ * the JVM, so there is no per-frame thread creation or attach.
+ *
+ * Instances hold a small result array and are not thread-safe.
+ */
+public final class NativeSobel {
+
+    /** Instruction set the native kernel runs with. */
+    public enum Isa {
+        SCALAR, SSE2, AVX2, NEON
+    }
+
+    private static final boolean AVAILABLE = load();
+
+    private final int[] result = new int[3];
+    private Isa isa;
+    private int threads;
+
+    public NativeSobel() {
+        if (!AVAILABLE) {
+            throw new IllegalStateException("libedgedetector is not loaded");
+        }
+        this.isa = getBestIsa();
+        this.threads = getMaxThreads();
+    }
+
+    private static boolean load() {
+        try {
+            System.loadLibrary("edgedetector");
+            return true;
+        } catch (UnsatisfiedLinkError | SecurityException e) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /** Fastest instruction set this CPU supports. Requires {@link #isAvailable()}. */
+    public static Isa getBestIsa() {
+        return Isa.values()[nativeBestIsa()];
+    }
+
+    public static boolean isSupported(Isa isa) {
+        return AVAILABLE && nativeIsaSupported(isa.ordinal());
+    }
+
+    public Isa getIsa() {
+        return isa;
+    }
+
+    /**
+     * Forces an instruction set, e.g. SCALAR to compare against the SIMD
+     * paths. Defaults to {@link #getBestIsa()}.
+     */
+    public void setIsa(Isa isa) {
+        if (!isSupported(isa)) {
+            throw new IllegalArgumentException("ISA not supported on this CPU: " + isa);
+        }
+        this.isa = isa;
+    }
+
+    /** Native pool size, including the calling thread. */
+    public static int getMaxThreads() {
+        return nativeThreadCount();
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Threads a frame is split across, clamped to {@link #getMaxThreads()}.
+     * 1 runs on the calling thread only.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        }
+        this.threads = Math.min(threads, getMaxThreads());
+    }
+
+    /** True when src can be read in place by the native kernel. */
+    public static boolean canRead(Plane src) {
+        return src.getPixelStride() == 1 && src.getBuffer().isDirect();
+    }
+
+    public void apply(Plane src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        checkSource(src, width, height);
+        if (dst.length < width * height) {
+            throw new IllegalArgumentException("dst too small: " + dst.length);
+        }
+        prepare(stats, threshold);
+        ByteBuffer buffer = src.getBuffer();
+        boolean ok = nativeApplyToArray(buffer, buffer.position(), src.getRowStride(), dst,
+                width, height, FastSobelKernel.squaredThreshold(threshold), isa.ordinal(), threads,
+                histogramBins(stats), result);
+        finish(ok, stats, width, height);
+    }
+
+    /**
+     * Writes width * height bytes at dst's position; dst must be direct.
+     */
+    public void apply(Plane src, ByteBuffer dst, int width, int height, int threshold, EdgeStats stats) {
+        checkSource(src, width, height);
+        if (!dst.isDirect() || dst.remaining() < width * height) {
+            throw new IllegalArgumentException("dst must be direct with " + (width * height) + " bytes remaining");
+        }
+        prepare(stats, threshold);
+        ByteBuffer buffer = src.getBuffer();
+        boolean ok = nativeApplyToBuffer(buffer, buffer.position(), src.getRowStride(), dst, dst.position(),
+                width, height, FastSobelKernel.squaredThreshold(threshold), isa.ordinal(), threads,
+                histogramBins(stats), result);
+        finish(ok, stats, width, height);
+    }
+
+    private static void checkSource(Plane src, int width, int height) {
+        if (!canRead(src)) {
+            throw new IllegalArgumentException("native kernel needs a direct buffer with pixelStride 1");
+        }
+        long needed = (long) (height - 1) * src.getRowStride() + width;
+        if (height > 0 && src.remaining() < needed) {
+            throw new IllegalArgumentException("src has " + src.remaining() + " bytes, needs " + needed);
+        }
+    }
+
+    private static void prepare(EdgeStats stats, int threshold) {
+        stats.reset();
+        stats.threshold = threshold;
+        stats.sumTracked = false;
+    }
+
+    private static int[] histogramBins(EdgeStats stats) {
+        GradientHistogram histogram = stats.histogram;
+        return histogram != null ? histogram.counts : null;
+    }
+
+    private void finish(boolean ok, EdgeStats stats, int width, int height) {
+        if (!ok) {
+            throw new IllegalStateException("native Sobel failed (buffer address unavailable)");
+        }
+        int interiorWidth = Math.max(0, width - 2);
+        int interiorRows = Math.max(0, height - 2);
+        stats.edgeCount = result[0];
+        stats.totalPixels = interiorWidth * interiorRows;
+        if (result[1] >= 0) {
+            stats.maxMagnitude = (int) Math.sqrt(result[1]);
+            stats.minMagnitude = (int) Math.sqrt(result[2]);
+        }
+        GradientHistogram histogram = stats.histogram;
+        if (histogram != null) {
+            // Same row sampling as FastSobelKernel: interior rows divisible by the step
+            int sampledRows = interiorRows / GradientHistogram.SAMPLE_ROW_STEP;
+            histogram.total += sampledRows * interiorWidth;
+        }
+    }
+
+    private static native int nativeBestIsa();
+
+    private static native boolean nativeIsaSupported(int isa);
+
+    private static native int nativeThreadCount();
+
+    private static native boolean nativeApplyToBuffer(ByteBuffer src, int srcOffset, int srcRowStride,
+                                                      ByteBuffer dst, int dstOffset,
+                                                      int width, int height, int squaredThreshold, int isa,
+                                                      int threads, int[] histogram, int[] result);
+
+    private static native boolean nativeApplyToArray(ByteBuffer src, int srcOffset, int srcRowStride,
+                                                     byte[] dst,
+                                                     int width, int height, int squaredThreshold, int isa,
+                                                     int threads, int[] histogram, int[] result);
+}
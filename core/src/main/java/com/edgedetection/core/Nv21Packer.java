@@ -0,0 +1,57 @@
+package com.edgedetection.core;
+
+/**
+ * Interleaves the U and V planes of a YUV_420_888 frame into NV21 (VUVU...)
+ * chroma. Works for any pixelStride/rowStride combination: planar (I420,
+ * pixelStride 1), semi-planar (pixelStride 2) and padded rows. Row buffers
+ * are reused across frames.
+ */
+public final class Nv21Packer {
+    private byte[] uRow = new byte[0];
+    private byte[] vRow = new byte[0];
+    private byte[] uSpan = new byte[0];
+
+    /**
+     * Writes (width / 2) x (height / 2) VU pairs to out starting at offset.
+     */
+    public void pack(Plane uPlane, Plane vPlane, int width, int height, byte[] out, int offset) {
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (chromaWidth == 0 || chromaHeight == 0) {
+            // A frame narrower or shorter than 2 pixels has no chroma samples
+            return;
+        }
+        if (uRow.length < chromaWidth) {
+            uRow = new byte[chromaWidth];
+            vRow = new byte[chromaWidth];
+        }
+
+        int pos = offset;
+        if (uPlane.getPixelStride() == 2 && vPlane.getPixelStride() == 2) {
+            // Semi-planar (what most cameras deliver): a V row already has
+            // the VU spacing, so copy it straight into place and only drop
+            // the U samples into the gaps
+            int span = 2 * chromaWidth - 1;
+            if (uSpan.length < span) {
+                uSpan = new byte[span];
+            }
+            for (int row = 0; row < chromaHeight; row++) {
+                vPlane.readSpan(row, out, pos, span);
+                uPlane.readSpan(row, uSpan, 0, span);
+                for (int x = 0; x < chromaWidth; x++) {
+                    out[pos + 2 * x + 1] = uSpan[2 * x];
+                }
+                pos += 2 * chromaWidth;
+            }
+            return;
+        }
+        for (int row = 0; row < chromaHeight; row++) {
+            uPlane.readRow(row, uRow, 0, chromaWidth);
+            vPlane.readRow(row, vRow, 0, chromaWidth);
+            for (int x = 0; x < chromaWidth; x++) {
+                out[pos++] = vRow[x];
+                out[pos++] = uRow[x];
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.edgedetection.core;
+
+import java.util.Locale;
+
+/**
+ * One {@link LatencyHistogram} per {@link PipelineStage}, shared by the
+ * threads that time them. Recording is lock-free and allocation-free;
+ * the format methods allocate and are meant for on-demand dumps and a
+ * once-per-second overlay.
+ */
+public final class PipelineMetrics {
+    private static final PipelineStage[] STAGES = PipelineStage.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(PipelineStage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(PipelineStage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Table with count, p50, p99 and max per stage in microseconds.
+     */
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%-10s %8s %9s %9s %9s%n", "stage", "count", "p50 us", "p99 us", "max us"));
+        for (PipelineStage stage : STAGES) {
+            LatencyHistogram h = get(stage);
+            out.append(String.format(Locale.US, "%-10s %8d %9.1f %9.1f %9.1f%n", stage, h.getCount(),
+                    h.getPercentile(50) / 1000.0, h.getPercentile(99) / 1000.0, h.getMax() / 1000.0));
+        }
+        return out.toString();
+    }
+
+    /**
+     * One short line per stage that has samples: p50/p99/max in ms.
+     */
+    public String formatCompact() {
+        StringBuilder out = new StringBuilder();
+        for (PipelineStage stage : STAGES) {
+            LatencyHistogram h = get(stage);
+            if (h.getCount() == 0) {
+                continue;
+            }
+            if (out.length() > 0) {
+                out.append('\n');
+            }
+            out.append(String.format(Locale.US, "%-10s %5.2f %5.2f %5.2f", stage.name().toLowerCase(Locale.US),
+                    h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        return out.toString();
+    }
+}
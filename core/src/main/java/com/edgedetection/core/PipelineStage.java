@@ -0,0 +1,22 @@
+package com.edgedetection.core;
+
+/**
+ * Steps of one frame's trip from the camera to the screen, as timed by
+ * {@link PipelineMetrics}.
+ */
+public enum PipelineStage {
+    /** Camera thread: taking the image from the reader. */
+    ACQUIRE,
+    /** Waiting in the {@link ProcessingStage} queue for the processing thread. */
+    HANDOFF,
+    /** Unwrapping the image planes; in raw mode also the Y copy and NV21 packing. */
+    PLANE_COPY,
+    /** Edge detection into the exchange slot (including any packed copy it needs). */
+    KERNEL,
+    /** GL thread: texture upload of the processed frame. */
+    UPLOAD,
+    /** GL thread: the whole onDrawFrame, upload included. */
+    DRAW,
+    /** Sensor timestamp to buffer swap of the first draw showing the frame (see {@link FrameTracer}). */
+    SENSOR_TO_PHOTON
+}
@@ -0,0 +1,132 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One image plane as the camera hands it to us: a buffer plus its row and
+ * pixel strides (same meaning as android.media.Image.Plane).
+ *
+ * Instances are mutable so callers can keep one per plane and re-point it
+ * at each new frame without allocating.
+ */
+public final class Plane {
+    private ByteBuffer buffer;
+    private int rowStride;
+    private int pixelStride;
+    private ByteBuffer viewSource;
+    private byte[] spanScratch = new byte[0];
+
+    public Plane() {
+    }
+
+    public Plane(ByteBuffer buffer, int rowStride, int pixelStride) {
+        set(buffer, rowStride, pixelStride);
+    }
+
+    public Plane set(ByteBuffer buffer, int rowStride, int pixelStride) {
+        this.buffer = buffer;
+        this.viewSource = null;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+        return this;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+
+    public int getPixelStride() {
+        return pixelStride;
+    }
+
+    public int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Reads count pixels of one row into dst, honouring rowStride and
+     * pixelStride. Offsets are relative to the buffer's current position,
+     * which is left untouched so the same frame can be read again.
+     *
+     * Not thread-safe: the buffer position is used for bulk reads. Threads
+     * sharing a frame should each read through their own {@link #viewOf}.
+     */
+    public void readRow(int row, byte[] dst, int dstOffset, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int base = buffer.position();
+        int start = base + row * rowStride;
+        if (pixelStride == 1) {
+            try {
+                buffer.position(start);
+                buffer.get(dst, dstOffset, count);
+            } finally {
+                buffer.position(base);
+            }
+            return;
+        }
+
+        // The last row of a plane usually stops right after its last pixel,
+        // so only read the span that is actually covered
+        int span = (count - 1) * pixelStride + 1;
+        if (spanScratch.length < span) {
+            spanScratch = new byte[span];
+        }
+        try {
+            buffer.position(start);
+            buffer.get(spanScratch, 0, span);
+        } finally {
+            buffer.position(base);
+        }
+        for (int i = 0, j = 0; i < count; i++, j += pixelStride) {
+            dst[dstOffset + i] = spanScratch[j];
+        }
+    }
+
+    /**
+     * Copies length bytes starting at the first pixel of row into dst as
+     * they are, without de-interleaving pixelStride. Same buffer-position
+     * rules as {@link #readRow}.
+     */
+    public void readSpan(int row, byte[] dst, int dstOffset, int length) {
+        int base = buffer.position();
+        try {
+            buffer.position(base + row * rowStride);
+            buffer.get(dst, dstOffset, length);
+        } finally {
+            buffer.position(base);
+        }
+    }
+
+    /**
+     * Reads a width x height region into a tightly packed dst.
+     */
+    public void readRows(byte[] dst, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            readRow(y, dst, y * width, width);
+        }
+    }
+
+    /**
+     * Points this plane at the same pixels as source through a private
+     * duplicate of its buffer, so another thread can read the frame
+     * concurrently. The duplicate is only recreated when source switches
+     * to a different buffer. Call from the thread that owns source, before
+     * handing this view to another thread.
+     */
+    public Plane viewOf(Plane source) {
+        if (viewSource != source.buffer) {
+            viewSource = source.buffer;
+            buffer = source.buffer.duplicate();
+        }
+        buffer.position(source.buffer.position());
+        rowStride = source.rowStride;
+        pixelStride = source.pixelStride;
+        return this;
+    }
+}
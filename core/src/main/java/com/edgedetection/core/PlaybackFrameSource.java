@@ -0,0 +1,230 @@
+package com.edgedetection.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link FrameSource} that loops over a fixed set of NV21 frames held in
+ * memory: synthetic patterns ({@link SyntheticFrames}), recorded files
+ * ({@link RawFrameFiles}) or decoded stills.
+ *
+ * Frames are copied into direct buffers once, so delivery allocates
+ * nothing and the NATIVE kernel can read the Y plane in place, as it does
+ * with camera images. Planes are handed out the way the camera does NV21:
+ * Y with pixelStride 1, U and V interleaved with pixelStride 2.
+ *
+ * Playback is either paced at a frame rate, paced by the frames' own
+ * capture timestamps, or unlimited (every frame is delivered as soon as
+ * the listener returns), and runs either on its own
+ * thread ({@link #start}) or on the caller's ({@link #play}). Timestamps
+ * are System.nanoTime() at delivery.
+ */
+public final class PlaybackFrameSource implements FrameSource {
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] yBuffers;
+    private final ByteBuffer[] uBuffers;
+    private final ByteBuffer[] vBuffers;
+    private final Plane yPlane = new Plane();
+    private final Plane uPlane = new Plane();
+    private final Plane vPlane = new Plane();
+    private final Object lock = new Object();
+    // Delay before each frame at its original pace; [0] is used on wrap-around
+    private final long[] frameGapsNs;
+    // 0 = unlimited
+    private volatile long framePeriodNs;
+    private volatile boolean originalTiming;
+    // Bumped by stop(); a play() call ends when it changes
+    private volatile int generation;
+    private volatile FrameListener listener;
+    // Guarded by lock
+    private Thread thread;
+    // Delivering thread only (one at a time)
+    private int next;
+    private volatile long deliveredCount;
+
+    /**
+     * @param nv21Frames width * height * 3 / 2 bytes each; copied
+     */
+    public PlaybackFrameSource(int width, int height, List<byte[]> nv21Frames) {
+        this(width, height, nv21Frames, null);
+    }
+
+    /**
+     * @param timestampsNs capture time of each frame, for
+     *                     {@link #setOriginalTiming}; may be null
+     */
+    public PlaybackFrameSource(int width, int height, List<byte[]> nv21Frames, long[] timestampsNs) {
+        if (nv21Frames.isEmpty()) {
+            throw new IllegalArgumentException("no frames");
+        }
+        this.width = width;
+        this.height = height;
+        int lumaSize = width * height;
+        int frameSize = lumaSize * 3 / 2;
+        int count = nv21Frames.size();
+        this.yBuffers = new ByteBuffer[count];
+        this.uBuffers = new ByteBuffer[count];
+        this.vBuffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            byte[] frame = nv21Frames.get(i);
+            if (frame.length < frameSize) {
+                throw new IllegalArgumentException("frame " + i + " has " + frame.length +
+                                                   " bytes, expected " + frameSize);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize);
+            buffer.put(frame, 0, frameSize);
+            buffer.clear();
+            yBuffers[i] = slice(buffer, 0, lumaSize);
+            // NV21 chroma is VUVU..., so V starts first and U one byte later
+            vBuffers[i] = slice(buffer, lumaSize, frameSize - lumaSize - 1);
+            uBuffers[i] = slice(buffer, lumaSize + 1, frameSize - lumaSize - 1);
+        }
+
+        this.frameGapsNs = new long[count];
+        if (timestampsNs != null && count > 1) {
+            for (int i = 1; i < count; i++) {
+                frameGapsNs[i] = Math.max(0, timestampsNs[i] - timestampsNs[i - 1]);
+            }
+            // Looping back to the first frame takes an average frame
+            frameGapsNs[0] = Math.max(0, timestampsNs[count - 1] - timestampsNs[0]) / (count - 1);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return yBuffers.length;
+    }
+
+    /**
+     * Frames per second to pace playback at; 0 (the default) delivers
+     * frames back to back. When the listener falls more than a frame behind,
+     * the schedule restarts from now instead of bursting to catch up, as a
+     * camera would drop the missed frames.
+     */
+    public void setFrameRate(double framesPerSecond) {
+        this.framePeriodNs = framesPerSecond > 0 ? (long) (1_000_000_000L / framesPerSecond) : 0;
+    }
+
+    /**
+     * Paces playback by the capture timestamps given at construction
+     * instead of {@link #setFrameRate}; without timestamps this plays back
+     * to back.
+     */
+    public void setOriginalTiming(boolean originalTiming) {
+        this.originalTiming = originalTiming;
+    }
+
+    /**
+     * Frames delivered since construction, by either {@link #start} or
+     * {@link #play}.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Plays on a new "FrameSource" thread until {@link #stop}.
+     */
+    @Override
+    public void start(FrameListener listener) {
+        synchronized (lock) {
+            this.listener = listener;
+            if (thread != null) {
+                return;
+            }
+            int current = generation;
+            thread = new Thread(() -> play(null, Long.MAX_VALUE, current), "FrameSource");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        Thread playing;
+        synchronized (lock) {
+            generation++;
+            playing = thread;
+            thread = null;
+        }
+        if (playing != null && playing != Thread.currentThread()) {
+            try {
+                playing.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Delivers up to count frames to listener on the calling thread,
+     * continuing the loop where the last call left off. Returns early if
+     * {@link #stop} is called. A null listener plays to the one given to
+     * {@link #start}.
+     *
+     * @return frames delivered
+     */
+    public long play(FrameListener listener, long count) {
+        return play(listener, count, generation);
+    }
+
+    private long play(FrameListener listener, long count, int startGeneration) {
+        long delivered = 0;
+        long due = System.nanoTime();
+        while (delivered < count && generation == startGeneration) {
+            int frame = next;
+            int following = frame + 1 == yBuffers.length ? 0 : frame + 1;
+            long now = System.nanoTime();
+            if (now < due) {
+                LockSupport.parkNanos(due - now);
+                continue;
+            }
+            // Delay until the frame after this one; 0 when unlimited
+            long period = originalTiming ? frameGapsNs[following] : framePeriodNs;
+            if (now - due > period) {
+                due = now;
+            }
+            due += period;
+
+            FrameListener target = listener != null ? listener : this.listener;
+            next = following;
+            yPlane.set(yBuffers[frame], width, 1);
+            uPlane.set(uBuffers[frame], width, 2);
+            vPlane.set(vBuffers[frame], width, 2);
+            target.onFrame(yPlane, uPlane, vPlane, System.nanoTime());
+            delivered++;
+            deliveredCount++;
+        }
+        return delivered;
+    }
+
+    /**
+     * NV21 frame with the given luma and neutral (grey) chroma.
+     */
+    public static byte[] nv21FromLuma(byte[] luma, int width, int height) {
+        int lumaSize = width * height;
+        byte[] frame = new byte[lumaSize * 3 / 2];
+        System.arraycopy(luma, 0, frame, 0, lumaSize);
+        Arrays.fill(frame, lumaSize, frame.length, (byte) 128);
+        return frame;
+    }
+}
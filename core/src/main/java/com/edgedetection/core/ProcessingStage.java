@@ -0,0 +1,282 @@
+package com.edgedetection.core;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Dedicated processing thread between the frame source and the kernels.
+ *
+ * The source thread only calls {@link #submit}, which never blocks on
+ * processing; what happens to frames that arrive while the worker is busy
+ * is decided by the current {@link BackpressurePolicy}. Every frame handed
+ * to submit is eventually passed to {@link FrameHandler#release} exactly
+ * once, whether it was processed or dropped, so frames can be pooled
+ * resources such as android.media.Image.
+ *
+ * @param <T> frame type
+ */
+public final class ProcessingStage<T> implements AutoCloseable {
+
+    public interface FrameHandler<T> {
+        /** Runs on the stage thread. Exceptions are counted as failures. */
+        void process(T frame, long timestampNs);
+
+        /** Called once per frame after processing or when it is dropped. */
+        void release(T frame);
+    }
+
+    private final FrameHandler<T> handler;
+    private final LongSupplier clock;
+    private final int queueCapacity;
+    private final Object lock = new Object();
+    private final Object[] queue;
+    private final long[] timestamps;
+    // Clock reading at submit, for the queue wait
+    private final long[] enqueuedAt;
+    // Frames dropped under the lock, released once it is left (release can
+    // be slow, e.g. Image.close); submit runs on the source thread only
+    private final Object[] dropped;
+    private final StageStats[] stats;
+    private final Thread thread;
+
+    // Guarded by lock
+    private int head;
+    private int size;
+    private boolean closed;
+
+    private volatile BackpressurePolicy policy = BackpressurePolicy.LATEST_WINS;
+    private volatile long deadlineNs = 33_000_000L;
+    private volatile long estimatedProcessingNs;
+    private volatile LatencyHistogram queueWaitHistogram;
+    // Submit time of the frame being processed; stage thread only
+    private long currentEnqueuedAt;
+
+    /**
+     * @param queueCapacity most frames that can wait for processing (1 for
+     *                      LATEST_WINS regardless); at most queueCapacity + 1
+     *                      frames are held at any time
+     * @param clock         same time base as the frame timestamps
+     */
+    public ProcessingStage(String name, FrameHandler<T> handler, int queueCapacity, LongSupplier clock) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be >= 1: " + queueCapacity);
+        }
+        this.handler = handler;
+        this.clock = clock;
+        this.queueCapacity = queueCapacity;
+        this.queue = new Object[queueCapacity];
+        this.timestamps = new long[queueCapacity];
+        this.enqueuedAt = new long[queueCapacity];
+        this.dropped = new Object[queueCapacity];
+        this.stats = new StageStats[BackpressurePolicy.values().length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new StageStats();
+        }
+        this.thread = new Thread(this::runLoop, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void setPolicy(BackpressurePolicy policy) {
+        this.policy = policy;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineNs = deadlineMillis * 1_000_000L;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineNs / 1_000_000L;
+    }
+
+    /**
+     * Most frames the stage holds at once (waiting plus in progress).
+     */
+    public int getMaxFramesHeld() {
+        return queueCapacity + 1;
+    }
+
+    /**
+     * Records how long each processed frame waited between submit and the
+     * start of processing (e.g. {@link PipelineStage#HANDOFF}); null stops
+     * recording.
+     */
+    public void setQueueWaitHistogram(LatencyHistogram histogram) {
+        this.queueWaitHistogram = histogram;
+    }
+
+    /**
+     * Clock reading at which the frame now being processed was submitted.
+     * Only meaningful from inside {@link FrameHandler#process}.
+     */
+    public long getCurrentEnqueuedAt() {
+        return currentEnqueuedAt;
+    }
+
+    public StageStats getStats(BackpressurePolicy policy) {
+        return stats[policy.ordinal()];
+    }
+
+    /**
+     * Offers a frame from the source thread. Returns false if the frame was
+     * rejected (and already released).
+     */
+    public boolean submit(T frame, long timestampNs) {
+        BackpressurePolicy policy = this.policy;
+        StageStats s = stats[policy.ordinal()];
+        s.submitted++;
+
+        Object replaced = null;
+        int droppedCount = 0;
+        boolean accepted = true;
+        long now = clock.getAsLong();
+        synchronized (lock) {
+            if (closed) {
+                accepted = false;
+            } else if (policy == BackpressurePolicy.LATEST_WINS && size > 0) {
+                // Drop everything waiting; the newest frame is all we want
+                while (size > 1) {
+                    dropped[droppedCount++] = poll();
+                }
+                int index = head;
+                replaced = queue[index];
+                queue[index] = frame;
+                timestamps[index] = timestampNs;
+                enqueuedAt[index] = now;
+            } else if (size == queueCapacity) {
+                accepted = false;
+            } else {
+                int index = (head + size) % queueCapacity;
+                queue[index] = frame;
+                timestamps[index] = timestampNs;
+                enqueuedAt[index] = now;
+                size++;
+                lock.notify();
+            }
+        }
+
+        for (int i = 0; i < droppedCount; i++) {
+            Object waiting = dropped[i];
+            dropped[i] = null;
+            releaseDropped(waiting, s);
+        }
+        if (replaced != null) {
+            releaseDropped(replaced, s);
+        }
+        if (!accepted) {
+            releaseDropped(frame, s);
+        }
+        return accepted;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notify();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runLoop() {
+        while (true) {
+            T frame = null;
+            long timestampNs = 0;
+            long enqueued = 0;
+            Object[] leftover = null;
+            synchronized (lock) {
+                while (size == 0 && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (closed) {
+                    // Released below, outside the lock
+                    leftover = new Object[size];
+                    for (int i = 0; i < leftover.length; i++) {
+                        leftover[i] = poll();
+                    }
+                } else {
+                    timestampNs = timestamps[head];
+                    enqueued = enqueuedAt[head];
+                    frame = poll();
+                }
+            }
+            if (leftover != null) {
+                for (Object waiting : leftover) {
+                    @SuppressWarnings("unchecked")
+                    T typed = (T) waiting;
+                    handler.release(typed);
+                }
+                return;
+            }
+            processOne(frame, timestampNs, enqueued);
+        }
+    }
+
+    private void processOne(T frame, long timestampNs, long enqueued) {
+        BackpressurePolicy policy = this.policy;
+        StageStats s = stats[policy.ordinal()];
+        try {
+            long start = clock.getAsLong();
+            currentEnqueuedAt = enqueued;
+            LatencyHistogram queueWait = queueWaitHistogram;
+            if (queueWait != null) {
+                queueWait.record(start - enqueued);
+            }
+            if (policy == BackpressurePolicy.DEADLINE
+                    && start + estimatedProcessingNs > timestampNs + deadlineNs) {
+                s.droppedLate++;
+                return;
+            }
+
+            try {
+                handler.process(frame, timestampNs);
+            } catch (RuntimeException e) {
+                s.failed++;
+                return;
+            }
+
+            long end = clock.getAsLong();
+            long elapsed = end - start;
+            long estimate = estimatedProcessingNs;
+            // Exponential moving average, 1/8 weight on the newest sample
+            estimatedProcessingNs = estimate == 0 ? elapsed : estimate + (elapsed - estimate) / 8;
+
+            long latency = end - timestampNs;
+            s.lastLatencyNs = latency;
+            s.totalLatencyNs += latency;
+            if (latency > s.maxLatencyNs) {
+                s.maxLatencyNs = latency;
+            }
+            s.processed++;
+        } finally {
+            handler.release(frame);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T poll() {
+        T frame = (T) queue[head];
+        queue[head] = null;
+        head = (head + 1) % queueCapacity;
+        size--;
+        return frame;
+    }
+
+    private void releaseDropped(Object frame, StageStats s) {
+        s.droppedOnSubmit++;
+        @SuppressWarnings("unchecked")
+        T typed = (T) frame;
+        handler.release(typed);
+    }
+}
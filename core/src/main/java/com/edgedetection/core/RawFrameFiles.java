@@ -0,0 +1,61 @@
+package com.edgedetection.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads headerless recordings of back-to-back frames for
+ * {@link PlaybackFrameSource}: NV21 ({@code ffmpeg -f rawvideo -pix_fmt nv21})
+ * or luma only ({@code -pix_fmt gray}). The frame size is not stored in
+ * these files, so the caller supplies it.
+ */
+public final class RawFrameFiles {
+
+    public enum Format {
+        NV21,
+        GRAY
+    }
+
+    private RawFrameFiles() {
+    }
+
+    /**
+     * Reads up to maxFrames frames as NV21; GRAY frames get neutral chroma.
+     *
+     * @throws IOException if the file ends partway through a frame
+     */
+    public static List<byte[]> read(File file, Format format, int width, int height, int maxFrames)
+            throws IOException {
+        int lumaSize = width * height;
+        int frameSize = format == Format.NV21 ? lumaSize * 3 / 2 : lumaSize;
+        long length = file.length();
+        if (length % frameSize != 0) {
+            throw new IOException(file + ": " + length + " bytes is not a whole number of " +
+                                  width + "x" + height + " " + format + " frames");
+        }
+        int count = (int) Math.min(maxFrames, length / frameSize);
+        List<byte[]> frames = new ArrayList<>(count);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            byte[] luma = format == Format.GRAY ? new byte[lumaSize] : null;
+            for (int i = 0; i < count; i++) {
+                if (luma != null) {
+                    in.readFully(luma);
+                    frames.add(PlaybackFrameSource.nv21FromLuma(luma, width, height));
+                } else {
+                    byte[] frame = new byte[frameSize];
+                    in.readFully(frame);
+                    frames.add(frame);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " was truncated while reading", e);
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,117 @@
+package com.edgedetection.core;
+
+/**
+ * Picks the pyramid level to process each frame at from a smoothed
+ * processing time, so slow devices drop to 1/2 or 1/4 resolution instead
+ * of missing frames.
+ *
+ * Going coarser needs the smoothed time to exceed DOWN_RATIO of the budget;
+ * going finer needs the predicted time at the finer level (4x the pixels)
+ * to stay under UP_RATIO of it. The gap between the two, plus a minimum
+ * number of frames between switches, keeps the level from oscillating.
+ * Levels past the pyramid's {@link YPyramid#getMaxLevel()} are never
+ * returned, fixed or adaptive.
+ */
+public final class ResolutionScaler {
+    private static final double DOWN_RATIO = 0.9;
+    private static final double UP_RATIO = 0.6;
+    private static final int HOLD_FRAMES = 15;
+    // Each pyramid level has a quarter of the pixels of the one above
+    private static final int LEVEL_COST_FACTOR = 4;
+
+    private final int maxLevel;
+    private volatile long budgetNs = 1_000_000_000L / 60;
+    private volatile int fixedLevel = -1;
+    private volatile int level;
+    private long smoothedNs;
+    private int framesSinceSwitch;
+    private final long[] timeInLevelNs = new long[YPyramid.MAX_LEVEL + 1];
+    private final long[] framesInLevel = new long[YPyramid.MAX_LEVEL + 1];
+
+    public ResolutionScaler() {
+        this(YPyramid.MAX_LEVEL);
+    }
+
+    /**
+     * @param maxLevel coarsest level the frame size allows, e.g.
+     *                 {@link YPyramid#getMaxLevel()}
+     */
+    public ResolutionScaler(int maxLevel) {
+        if (maxLevel < 0 || maxLevel > YPyramid.MAX_LEVEL) {
+            throw new IllegalArgumentException("maxLevel must be 0.." + YPyramid.MAX_LEVEL + ": " + maxLevel);
+        }
+        this.maxLevel = maxLevel;
+    }
+
+    public int getLevel() {
+        int fixed = fixedLevel;
+        return Math.min(fixed >= 0 ? fixed : level, maxLevel);
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public void setBudgetNanos(long budgetNs) {
+        this.budgetNs = budgetNs;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNs;
+    }
+
+    /**
+     * Pins processing to one level (for tuning and benchmarks); -1 returns
+     * to adaptive selection. A level past {@link #getMaxLevel()} runs at
+     * the max level.
+     */
+    public void setFixedLevel(int fixedLevel) {
+        if (fixedLevel < -1 || fixedLevel > YPyramid.MAX_LEVEL) {
+            throw new IllegalArgumentException("fixedLevel must be -1.." + YPyramid.MAX_LEVEL + ": " + fixedLevel);
+        }
+        this.fixedLevel = fixedLevel;
+    }
+
+    public long getSmoothedNanos() {
+        return smoothedNs;
+    }
+
+    public long getTimeInLevelNanos(int level) {
+        return timeInLevelNs[level];
+    }
+
+    public long getFramesInLevel(int level) {
+        return framesInLevel[level];
+    }
+
+    /**
+     * Records how long a frame processed at usedLevel took and updates the
+     * level for the next frame.
+     */
+    public void record(int usedLevel, long elapsedNs) {
+        timeInLevelNs[usedLevel] += elapsedNs;
+        framesInLevel[usedLevel]++;
+
+        // Exponential moving average, 1/8 weight on the newest sample
+        smoothedNs = smoothedNs == 0 ? elapsedNs : smoothedNs + (elapsedNs - smoothedNs) / 8;
+        framesSinceSwitch++;
+
+        if (fixedLevel >= 0 || usedLevel != level || framesSinceSwitch < HOLD_FRAMES) {
+            return;
+        }
+
+        long budget = budgetNs;
+        if (smoothedNs > budget * DOWN_RATIO && level < maxLevel) {
+            switchTo(level + 1, smoothedNs / LEVEL_COST_FACTOR);
+        } else if (level > 0 && smoothedNs * LEVEL_COST_FACTOR < budget * UP_RATIO) {
+            switchTo(level - 1, smoothedNs * LEVEL_COST_FACTOR);
+        }
+    }
+
+    private void switchTo(int newLevel, long predictedNs) {
+        level = newLevel;
+        // Start from the predicted cost so the next decision isn't based on the old level
+        smoothedNs = predictedNs;
+        framesSinceSwitch = 0;
+    }
+}
@@ -0,0 +1,95 @@
+package com.edgedetection.core;
+
+/**
+ * Reference Sobel edge kernel, originally the loop in the Android
+ * FrameProcessor. Kept deliberately simple; faster variants must match its
+ * output byte for byte.
+ *
+ * Unlike that loop, which thresholded yData in place (so row y read the
+ * already-thresholded row y - 1), this reads src and writes dst: every
+ * gradient is computed from the original luminance. Edge maps therefore
+ * differ from the original app's; src and dst must not be the same array.
+ */
+public final class SobelKernel {
+    // Threshold based on observed avg magnitude ~600
+    public static final int DEFAULT_THRESHOLD = 750;
+
+    private SobelKernel() {
+    }
+
+    /**
+     * Output: black edges (0) on white background (255) in dst. Border
+     * pixels keep the original luminance. src is only read, so rows can be
+     * split across threads (see {@link StripedSobel}).
+     */
+    public static void apply(byte[] src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+        applyRows(src, dst, width, height, threshold, 0, height, stats);
+    }
+
+    /**
+     * Processes rows [rowStart, rowEnd) and accumulates into stats. Reads
+     * one halo row above and below the range from src.
+     */
+    static void applyRows(byte[] src, byte[] dst, int width, int height, int threshold,
+                          int rowStart, int rowEnd, EdgeStats stats) {
+        int edgeCount = 0;
+        int totalPixels = 0;
+        int maxMagnitude = stats.maxMagnitude;
+        int minMagnitude = stats.minMagnitude;
+        long sumMagnitude = 0;
+        GradientHistogram histogram = stats.histogram;
+
+        // Border rows and columns are passed through unchanged
+        if (rowStart == 0) {
+            System.arraycopy(src, 0, dst, 0, width);
+        }
+        if (rowEnd == height && height > 1) {
+            System.arraycopy(src, (height - 1) * width, dst, (height - 1) * width, width);
+        }
+
+        for (int y = Math.max(1, rowStart); y < Math.min(height - 1, rowEnd); y++) {
+            dst[y * width] = src[y * width];
+            dst[y * width + width - 1] = src[y * width + width - 1];
+            for (int x = 1; x < width - 1; x++) {
+                int idx = y * width + x;
+
+                // Sobel operator for X direction
+                int gx = (-1 * (src[(y-1)*width + (x-1)] & 0xFF)) + (0 * (src[(y-1)*width + x] & 0xFF)) + (1 * (src[(y-1)*width + (x+1)] & 0xFF)) +
+                         (-2 * (src[y*width + (x-1)] & 0xFF)) + (0 * (src[y*width + x] & 0xFF)) + (2 * (src[y*width + (x+1)] & 0xFF)) +
+                         (-1 * (src[(y+1)*width + (x-1)] & 0xFF)) + (0 * (src[(y+1)*width + x] & 0xFF)) + (1 * (src[(y+1)*width + (x+1)] & 0xFF));
+
+                // Sobel operator for Y direction
+                int gy = (-1 * (src[(y-1)*width + (x-1)] & 0xFF)) + (-2 * (src[(y-1)*width + x] & 0xFF)) + (-1 * (src[(y-1)*width + (x+1)] & 0xFF)) +
+                         (0 * (src[y*width + (x-1)] & 0xFF)) + (0 * (src[y*width + x] & 0xFF)) + (0 * (src[y*width + (x+1)] & 0xFF)) +
+                         (1 * (src[(y+1)*width + (x-1)] & 0xFF)) + (2 * (src[(y+1)*width + x] & 0xFF)) + (1 * (src[(y+1)*width + (x+1)] & 0xFF));
+
+                // Calculate magnitude
+                int magnitude = (int) Math.sqrt(gx*gx + gy*gy);
+
+                // Track magnitude statistics
+                maxMagnitude = Math.max(maxMagnitude, magnitude);
+                minMagnitude = Math.min(minMagnitude, magnitude);
+                sumMagnitude += magnitude;
+                if (histogram != null) {
+                    histogram.add(magnitude);
+                }
+
+                if (magnitude > threshold) {
+                    dst[idx] = (byte)0;
+                    edgeCount++;
+                } else {
+                    dst[idx] = (byte)255;
+                }
+                totalPixels++;
+            }
+        }
+
+        stats.edgeCount += edgeCount;
+        stats.totalPixels += totalPixels;
+        stats.maxMagnitude = maxMagnitude;
+        stats.minMagnitude = minMagnitude;
+        stats.sumMagnitude += sumMagnitude;
+    }
+}
@@ -0,0 +1,19 @@
+package com.edgedetection.core;
+
+/**
+ * Selectable Sobel implementations. All produce identical output; they
+ * exist so they can be A/B'd on device.
+ */
+public enum SobelVariant {
+    /** {@link SobelKernel}: straightforward 3x3 loop with sqrt per pixel. */
+    REFERENCE,
+    /** {@link FastSobelKernel}: separable, rolling rows, squared threshold. */
+    FAST,
+    /**
+     * {@link NativeSobel}: SIMD kernel in libedgedetector, reading the Y
+     * plane in place, tiled across the library's native thread pool. Falls back to FAST when the library is not loaded,
+     * the plane is not a direct buffer, or the source is a packed array
+     * (downscaled levels, incremental mode).
+     */
+    NATIVE
+}
@@ -0,0 +1,69 @@
+package com.edgedetection.core;
+
+/**
+ * Counters {@link ProcessingStage} keeps for one backpressure policy.
+ * Latency is sensor timestamp to end of processing.
+ */
+public final class StageStats {
+    volatile long submitted;
+    volatile long processed;
+    volatile long droppedOnSubmit;
+    volatile long droppedLate;
+    volatile long failed;
+    volatile long lastLatencyNs;
+    volatile long maxLatencyNs;
+    volatile long totalLatencyNs;
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * Frames replaced (LATEST_WINS) or rejected because the queue was full.
+     */
+    public long getDroppedOnSubmit() {
+        return droppedOnSubmit;
+    }
+
+    /**
+     * Frames skipped because they would have missed the deadline.
+     */
+    public long getDroppedLate() {
+        return droppedLate;
+    }
+
+    /**
+     * Frames whose handler threw.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getDropped() {
+        return droppedOnSubmit + droppedLate;
+    }
+
+    public long getLastLatencyNs() {
+        return lastLatencyNs;
+    }
+
+    public long getMaxLatencyNs() {
+        return maxLatencyNs;
+    }
+
+    public long getAvgLatencyNs() {
+        long count = processed;
+        return count == 0 ? 0 : totalLatencyNs / count;
+    }
+
+    @Override
+    public String toString() {
+        return "submitted=" + submitted + " processed=" + processed +
+               " dropped=" + droppedOnSubmit + "+" + droppedLate + "late failed=" + failed +
+               " latency avg=" + getAvgLatencyNs() / 1000 + "us max=" + maxLatencyNs / 1000 + "us";
+    }
+}
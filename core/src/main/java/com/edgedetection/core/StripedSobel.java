@@ -0,0 +1,203 @@
+package com.edgedetection.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link SobelKernel} or {@link FastSobelKernel} over horizontal stripes of the frame on a
+ * persistent fixed pool. Each stripe reads a one-row halo above and below
+ * from the shared (read-only) source, so the output is identical to the
+ * serial kernel. Per-stripe stats are reduced once all stripes are done.
+ *
+ * The calling thread processes the first stripe itself, so a pool of
+ * workerCount - 1 threads keeps workerCount cores busy.
+ */
+public final class StripedSobel implements AutoCloseable {
+    private static final AtomicInteger POOL_ID = new AtomicInteger();
+
+    private final int workerCount;
+    private final ExecutorService pool;
+    private final Phaser phaser;
+    private final Stripe[] stripes;
+    private volatile Throwable failure;
+
+    public StripedSobel(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be >= 1: " + workerCount);
+        }
+        this.workerCount = workerCount;
+        this.phaser = new Phaser(workerCount);
+        this.stripes = new Stripe[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            stripes[i] = new Stripe(i > 0);
+        }
+
+        int poolId = POOL_ID.incrementAndGet();
+        AtomicInteger threadId = new AtomicInteger();
+        this.pool = workerCount > 1 ? Executors.newFixedThreadPool(workerCount - 1, r -> {
+            Thread t = new Thread(r, "EdgeWorker-" + poolId + "-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }) : null;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * {@link FastSobelKernel#setPreSmoothing} on every stripe. Each stripe
+     * blurs its own rows plus the halo the blur needs, so the output is
+     * still identical to the serial kernel. The reference kernel ignores it.
+     */
+    public void setPreSmoothing(float sigma) {
+        for (Stripe stripe : stripes) {
+            stripe.fastKernel.setPreSmoothing(sigma);
+        }
+    }
+
+    public void apply(byte[] src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        apply(SobelVariant.REFERENCE, src, dst, width, height, threshold, stats);
+    }
+
+    public void apply(SobelVariant variant, byte[] src, byte[] dst, int width, int height, int threshold,
+                      EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+
+        int rowsPerStripe = (height + workerCount - 1) / workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            int rowStart = Math.min(height, i * rowsPerStripe);
+            int rowEnd = Math.min(height, rowStart + rowsPerStripe);
+            stripes[i].prepare(variant, src, null, dst, false, width, height, threshold, rowStart, rowEnd);
+        }
+        runStripes(stats);
+    }
+
+    /**
+     * Reads a strided plane in place with {@link FastSobelKernel}; each
+     * stripe gets its own view of the buffer. (The reference kernel only
+     * works on packed arrays.)
+     */
+    public void apply(Plane src, byte[] dst, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+
+        int rowsPerStripe = (height + workerCount - 1) / workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            int rowStart = Math.min(height, i * rowsPerStripe);
+            int rowEnd = Math.min(height, rowStart + rowsPerStripe);
+            stripes[i].prepare(SobelVariant.FAST, null, src, dst, false, width, height, threshold, rowStart, rowEnd);
+        }
+        runStripes(stats);
+    }
+
+    /**
+     * {@link FastSobelKernel#applyPacked} over stripes. Packed rows are
+     * whole bytes, so stripes never share an output byte.
+     */
+    public void applyPacked(Plane src, byte[] packed, int width, int height, int threshold, EdgeStats stats) {
+        stats.reset();
+        stats.threshold = threshold;
+
+        int rowsPerStripe = (height + workerCount - 1) / workerCount;
+        for (int i = 0; i < workerCount; i++) {
+            int rowStart = Math.min(height, i * rowsPerStripe);
+            int rowEnd = Math.min(height, rowStart + rowsPerStripe);
+            stripes[i].prepare(SobelVariant.FAST, null, src, packed, true, width, height, threshold, rowStart, rowEnd);
+        }
+        runStripes(stats);
+    }
+
+    private void runStripes(EdgeStats stats) {
+        failure = null;
+        for (Stripe stripe : stripes) {
+            stripe.collectHistogram(stats.histogram != null);
+        }
+        for (int i = 1; i < workerCount; i++) {
+            pool.execute(stripes[i]);
+        }
+        stripes[0].run();
+        phaser.arriveAndAwaitAdvance();
+
+        Throwable t = failure;
+        if (t != null) {
+            throw new IllegalStateException("Stripe failed: " + t.getMessage(), t);
+        }
+
+        for (Stripe stripe : stripes) {
+            stats.merge(stripe.stats);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private final class Stripe implements Runnable {
+        private final boolean pooled;
+        private final EdgeStats stats = new EdgeStats();
+        private final GradientHistogram histogram = new GradientHistogram();
+        private final FastSobelKernel fastKernel = new FastSobelKernel();
+        private final Plane planeView = new Plane();
+        private SobelVariant variant;
+        private byte[] src;
+        private Plane srcPlane;
+        private byte[] dst;
+        private boolean packed;
+        private int width;
+        private int height;
+        private int threshold;
+        private int rowStart;
+        private int rowEnd;
+
+        Stripe(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        void collectHistogram(boolean enabled) {
+            stats.histogram = enabled ? histogram : null;
+        }
+
+        void prepare(SobelVariant variant, byte[] src, Plane srcPlane, byte[] dst, boolean packed, int width,
+                     int height, int threshold, int rowStart, int rowEnd) {
+            this.variant = variant;
+            this.src = src;
+            this.srcPlane = srcPlane != null ? planeView.viewOf(srcPlane) : null;
+            this.dst = dst;
+            this.packed = packed;
+            this.width = width;
+            this.height = height;
+            this.threshold = threshold;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        @Override
+        public void run() {
+            try {
+                stats.reset();
+                if (packed) {
+                    fastKernel.applyPackedRows(srcPlane, dst, width, height, threshold, rowStart, rowEnd, stats);
+                } else if (srcPlane != null) {
+                    fastKernel.applyRows(srcPlane, dst, width, height, threshold, rowStart, rowEnd, stats);
+                } else if (variant == SobelVariant.FAST) {
+                    fastKernel.applyRows(src, dst, width, height, threshold, rowStart, rowEnd, stats);
+                } else {
+                    SobelKernel.applyRows(src, dst, width, height, threshold, rowStart, rowEnd, stats);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (pooled) {
+                    phaser.arrive();
+                }
+            }
+        }
+    }
+}
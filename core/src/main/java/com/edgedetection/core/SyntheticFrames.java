@@ -0,0 +1,73 @@
+package com.edgedetection.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic NV21 test sequences for {@link PlaybackFrameSource}, so the
+ * pipeline can be driven and profiled without a camera. Chroma is neutral.
+ */
+public final class SyntheticFrames {
+
+    public enum Pattern {
+        /**
+         * Gradient with a 64 px block grid that moves 4 px per frame, plus
+         * sensor-like noise; 32 frames loop seamlessly.
+         */
+        MOVING_BLOCKS,
+        /** The first MOVING_BLOCKS frame repeated: a static scene. */
+        STATIC_BLOCKS,
+        /** Uniform random luma: the most edges, the worst case for every kernel. */
+        NOISE,
+        /** Flat mid-grey: no edges at all. */
+        FLAT
+    }
+
+    private static final int BLOCK_SIZE = 64;
+    private static final int STEP = 4;
+    private static final int NOISE_AMPLITUDE = 8;
+
+    private SyntheticFrames() {
+    }
+
+    public static List<byte[]> generate(Pattern pattern, int width, int height, int count) {
+        Random random = new Random(42);
+        List<byte[]> frames = new ArrayList<>(count);
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < count; i++) {
+            switch (pattern) {
+                case MOVING_BLOCKS:
+                    blocks(luma, width, height, i * STEP, random);
+                    break;
+                case STATIC_BLOCKS:
+                    if (i == 0) {
+                        blocks(luma, width, height, 0, random);
+                    }
+                    break;
+                case NOISE:
+                    random.nextBytes(luma);
+                    break;
+                case FLAT:
+                    Arrays.fill(luma, (byte) 128);
+                    break;
+            }
+            frames.add(PlaybackFrameSource.nv21FromLuma(luma, width, height));
+        }
+        return frames;
+    }
+
+    private static void blocks(byte[] luma, int width, int height, int offset, Random random) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ((x + y) * 255) / (width + height);
+                if ((((x + offset) / BLOCK_SIZE) + (y / BLOCK_SIZE)) % 2 == 0) {
+                    value = 255 - value;
+                }
+                value += random.nextInt(2 * NOISE_AMPLITUDE + 1) - NOISE_AMPLITUDE;
+                luma[y * width + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.edgedetection.core;
+
+/**
+ * How {@link EdgeFrameProcessor} picks the Sobel edge threshold.
+ */
+public enum ThresholdMode {
+    /** The value given to {@link EdgeFrameProcessor#setThreshold(int)}. */
+    FIXED,
+    /** Otsu's split of the previous frames' gradient histogram. */
+    OTSU,
+    /** The magnitude above which a target share of pixels lies. */
+    PERCENTILE
+}
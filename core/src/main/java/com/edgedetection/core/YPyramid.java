@@ -0,0 +1,129 @@
+package com.edgedetection.core;
+
+/**
+ * Box-downsampled luma pyramid: level 0 is the full frame, each further
+ * level halves both dimensions by averaging 2x2 blocks. Buffers are
+ * allocated once for the frame size. Frames under 2 (or 4) pixels in
+ * either dimension have no level 1 (or 2); see {@link #getMaxLevel()}.
+ */
+public final class YPyramid {
+    public static final int MAX_LEVEL = 2;
+
+    private final int[] widths = new int[MAX_LEVEL + 1];
+    private final int[] heights = new int[MAX_LEVEL + 1];
+    private final byte[][] levels = new byte[MAX_LEVEL + 1][];
+    private final int[][] columnMaps = new int[MAX_LEVEL + 1][];
+    private final int maxLevel;
+    private final byte[] rowA;
+    private final byte[] rowB;
+
+    public YPyramid(int width, int height) {
+        int usable = 0;
+        while (usable < MAX_LEVEL && width >> (usable + 1) > 0 && height >> (usable + 1) > 0) {
+            usable++;
+        }
+        this.maxLevel = usable;
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            widths[level] = Math.max(1, width >> level);
+            heights[level] = Math.max(1, height >> level);
+            if (level > 0) {
+                levels[level] = new byte[widths[level] * heights[level]];
+            }
+        }
+        // Output column -> level column, for the upscale
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            int[] map = new int[width];
+            for (int x = 0; x < width; x++) {
+                map[x] = Math.min(widths[level] - 1, (int) ((long) x * widths[level] / width));
+            }
+            columnMaps[level] = map;
+        }
+        rowA = new byte[width];
+        rowB = new byte[width];
+    }
+
+    /**
+     * Coarsest level {@link #build} accepts for this frame size: each level
+     * needs a whole 2x2 block of the one above per pixel.
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    public int getWidth(int level) {
+        return widths[level];
+    }
+
+    public int getHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * Fills levels 1..level from the full-resolution plane and returns the
+     * packed luma of the requested level.
+     */
+    public byte[] build(Plane yPlane, int level) {
+        if (level < 1 || level > maxLevel) {
+            throw new IllegalArgumentException("level must be 1.." + maxLevel + " for " + widths[0] + "x"
+                                               + heights[0] + ": " + level);
+        }
+
+        // Level 1 straight from the strided plane, two source rows at a time
+        byte[] dst = levels[1];
+        int dw = widths[1];
+        for (int y = 0; y < heights[1]; y++) {
+            yPlane.readRow(2 * y, rowA, 0, dw * 2);
+            yPlane.readRow(2 * y + 1, rowB, 0, dw * 2);
+            average2x2(rowA, 0, rowB, 0, dst, y * dw, dw);
+        }
+
+        for (int l = 2; l <= level; l++) {
+            byte[] src = levels[l - 1];
+            int sw = widths[l - 1];
+            dst = levels[l];
+            dw = widths[l];
+            for (int y = 0; y < heights[l]; y++) {
+                average2x2(src, 2 * y * sw, src, (2 * y + 1) * sw, dst, y * dw, dw);
+            }
+        }
+        return levels[level];
+    }
+
+    /**
+     * Nearest-neighbour upscale of a level-sized map (e.g. an edge map
+     * computed from {@link #build}) back to the full frame size.
+     */
+    public void upscale(int level, byte[] src, byte[] dst) {
+        int sw = widths[level];
+        int sh = heights[level];
+        int dw = widths[0];
+        int dh = heights[0];
+        int[] xMap = columnMaps[level];
+
+        int lastSourceRow = -1;
+        for (int y = 0; y < dh; y++) {
+            int sy = Math.min(sh - 1, (int) ((long) y * sh / dh));
+            int dstRow = y * dw;
+            if (sy == lastSourceRow) {
+                // Same source row as the previous output row: just repeat it
+                System.arraycopy(dst, dstRow - dw, dst, dstRow, dw);
+                continue;
+            }
+            int srcRow = sy * sw;
+            for (int x = 0; x < dw; x++) {
+                dst[dstRow + x] = src[srcRow + xMap[x]];
+            }
+            lastSourceRow = sy;
+        }
+    }
+
+    private static void average2x2(byte[] top, int topOffset, byte[] bottom, int bottomOffset,
+                                   byte[] dst, int dstOffset, int count) {
+        for (int x = 0; x < count; x++) {
+            int i = 2 * x;
+            int sum = (top[topOffset + i] & 0xFF) + (top[topOffset + i + 1] & 0xFF)
+                    + (bottom[bottomOffset + i] & 0xFF) + (bottom[bottomOffset + i + 1] & 0xFF);
+            dst[dstOffset + x] = (byte) ((sum + 2) >> 2);
+        }
+    }
+}
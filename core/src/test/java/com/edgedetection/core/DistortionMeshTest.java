@@ -0,0 +1,153 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link DistortionMesh}: the lens model inverts, the mesh puts every
+ * texel where the lens shows it in place, no triangle folds over, and the
+ * mesh is symmetric about the lens centre, so the one mesh both eyes
+ * draw suits either eye.
+ */
+class DistortionMeshTest {
+    private static final float[][] LENSES = {
+        {0, 0}, {DistortionMesh.DEFAULT_K1, DistortionMesh.DEFAULT_K2}, {0.5f, 0}, {0, 0.6f}, {1, 1}
+    };
+    // Portrait, square, the usual landscape eyes and a very wide one
+    private static final int[][] EYES = {{540, 1200}, {512, 512}, {960, 1080}, {1280, 1440}, {1000, 300}};
+
+    @Test
+    void undistortInvertsDistort() {
+        for (float[] lens : LENSES) {
+            DistortionMesh mesh = new DistortionMesh(lens[0], lens[1]);
+            // Out to the corner of the widest eye, in half-height units
+            for (float r = 0; r <= 3.5f; r += 0.0005f) {
+                float tolerance = 2e-6f * Math.max(1, mesh.distort(r));
+                assertEquals(r, mesh.distort(mesh.undistort(r)), tolerance, lensName(lens) + " r " + r);
+                assertEquals(r, mesh.undistort(mesh.distort(r)), tolerance, lensName(lens) + " r " + r);
+                assertTrue(mesh.undistort(r) <= r, lensName(lens) + " pulls outwards at " + r);
+            }
+        }
+    }
+
+    @Test
+    void lensShowsEveryVertexWhereItsTexelBelongs() {
+        for (float[] lens : LENSES) {
+            for (int[] eye : EYES) {
+                DistortionMesh mesh = built(lens, eye);
+                float aspect = (float) eye[0] / eye[1];
+                float[] v = mesh.getVertices();
+                for (int i = 0; i < v.length; i += DistortionMesh.FLOATS_PER_VERTEX) {
+                    String name = lensName(lens) + " " + eye[0] + "x" + eye[1] + " vertex " + i / 4;
+                    // Drawn position and the texel's place in the flat image,
+                    // both in half-height units around the lens centre
+                    double x = v[i] * aspect;
+                    double y = v[i + 1];
+                    double targetX = (2 * v[i + 2] - 1) * aspect;
+                    double targetY = 1 - 2 * v[i + 3];
+                    double drawn = Math.hypot(x, y);
+                    double target = Math.hypot(targetX, targetY);
+                    assertEquals(target, mesh.distort((float) drawn), 1e-5 * Math.max(1, target), name);
+                    // Radially only: same direction from the centre
+                    assertEquals(0, x * targetY - y * targetX, 1e-5 * Math.max(1, target * target), name);
+                    assertTrue(x * targetX + y * targetY >= 0, name);
+                    assertTrue(Math.abs(v[i]) <= 1 && Math.abs(v[i + 1]) <= 1, name + " outside the eye");
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyTriangleKeepsItsOrientation() {
+        for (float[] lens : LENSES) {
+            for (int[] eye : EYES) {
+                for (int cells : new int[] {1, 2, DistortionMesh.DEFAULT_CELLS, 97}) {
+                    DistortionMesh mesh = new DistortionMesh(lens[0], lens[1], cells);
+                    mesh.build(eye[0], eye[1]);
+                    float[] v = mesh.getVertices();
+                    short[] indices = mesh.getIndices();
+                    assertEquals(cells * cells * 6, indices.length);
+                    double area = 0;
+                    for (int t = 0; t < indices.length; t += 3) {
+                        String name = lensName(lens) + " " + eye[0] + "x" + eye[1] + " cells " + cells
+                                + " triangle " + t / 3;
+                        int a = (indices[t] & 0xFFFF) * 4;
+                        int b = (indices[t + 1] & 0xFFFF) * 4;
+                        int c = (indices[t + 2] & 0xFFFF) * 4;
+                        assertTrue(c < v.length && b < v.length && a < v.length, name);
+                        // Counter-clockwise in pixels (clip y up), as in texture space
+                        double screen = signedArea(v, a, b, c, 0, eye[0], eye[1]);
+                        double texture = -signedArea(v, a, b, c, 2, 1, 1);
+                        assertTrue(screen > 0, name + ": screen area " + screen);
+                        assertTrue(texture > 0, name + ": texture area " + texture);
+                        area += texture / 2;
+                    }
+                    // The triangles tile the whole texture once
+                    assertEquals(1.0, area, 1e-5, lensName(lens) + " cells " + cells);
+                }
+            }
+        }
+    }
+
+    @Test
+    void meshIsSymmetricAboutTheLensCentre() {
+        for (float[] lens : LENSES) {
+            for (int[] eye : EYES) {
+                DistortionMesh mesh = built(lens, eye);
+                float[] v = mesh.getVertices();
+                int side = mesh.getCells() + 1;
+                for (int row = 0; row < side; row++) {
+                    for (int column = 0; column < side; column++) {
+                        String name = lensName(lens) + " " + eye[0] + "x" + eye[1] + " (" + column + ", " + row + ")";
+                        int i = (row * side + column) * 4;
+                        int mirrored = (row * side + side - 1 - column) * 4;
+                        int flipped = ((side - 1 - row) * side + column) * 4;
+                        assertEquals(-v[i], v[mirrored], 1e-6f, name);
+                        assertEquals(v[i + 1], v[mirrored + 1], 1e-6f, name);
+                        assertEquals(1 - v[i + 2], v[mirrored + 2], 1e-6f, name);
+                        assertEquals(v[i], v[flipped], 1e-6f, name);
+                        assertEquals(-v[i + 1], v[flipped + 1], 1e-6f, name);
+                        assertEquals(1 - v[i + 3], v[flipped + 3], 1e-6f, name);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void buildsOncePerEyeSize() {
+        DistortionMesh mesh = new DistortionMesh(DistortionMesh.DEFAULT_K1, DistortionMesh.DEFAULT_K2);
+        assertTrue(mesh.build(960, 1080));
+        float[] first = mesh.getVertices().clone();
+        // Both eyes of a frame, and the next frames, reuse it
+        assertFalse(mesh.build(960, 1080));
+        assertArrayEquals(first, mesh.getVertices());
+        assertTrue(mesh.build(1280, 1440));
+        assertTrue(mesh.build(960, 1080));
+        assertArrayEquals(first, mesh.getVertices());
+        assertEquals(first.length / DistortionMesh.FLOATS_PER_VERTEX, mesh.getVertexCount());
+    }
+
+    private static DistortionMesh built(float[] lens, int[] eye) {
+        DistortionMesh mesh = new DistortionMesh(lens[0], lens[1]);
+        mesh.build(eye[0], eye[1]);
+        return mesh;
+    }
+
+    /** Twice the signed area of triangle abc from the pairs at offset, scaled. */
+    private static double signedArea(float[] v, int a, int b, int c, int offset, double scaleX, double scaleY) {
+        double abx = (v[b + offset] - v[a + offset]) * scaleX;
+        double aby = (v[b + offset + 1] - v[a + offset + 1]) * scaleY;
+        double acx = (v[c + offset] - v[a + offset]) * scaleX;
+        double acy = (v[c + offset + 1] - v[a + offset + 1]) * scaleY;
+        return abx * acy - aby * acx;
+    }
+
+    private static String lensName(float[] lens) {
+        return "k1 " + lens[0] + " k2 " + lens[1];
+    }
+}
@@ -0,0 +1,103 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link EdgeFrameProcessor} routing: which frames the pre-smoothing
+ * blur applies to, and post-processing and adaptive resolution on frames
+ * too narrow or short to have an interior or a coarser level.
+ */
+class EdgeFrameProcessorTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    void preSmoothingSkipsAdaptiveFullResolution() {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        new Random(31).nextBytes(luma);
+        Plane plane = new Plane(ByteBuffer.wrap(luma), WIDTH, 1);
+        byte[] raw = new byte[WIDTH * HEIGHT];
+        SobelKernel.apply(luma, raw, WIDTH, HEIGHT, SobelKernel.DEFAULT_THRESHOLD, new EdgeStats());
+
+        for (SobelVariant variant : SobelVariant.values()) {
+            try (EdgeFrameProcessor processor = new EdgeFrameProcessor(WIDTH, HEIGHT)) {
+                processor.setSobelVariant(variant);
+                processor.setPreSmoothing(1.5f);
+                byte[] smoothed = edges(processor.processEdgeDetection(plane, null, null));
+                assertFalse(Arrays.equals(raw, smoothed), variant + ": full resolution was not blurred");
+
+                // Level 0 of adaptive resolution is as unblurred as the coarser levels
+                processor.getResolutionScaler().setFixedLevel(0);
+                processor.setAdaptiveResolution(true);
+                assertArrayEquals(raw, edges(processor.processEdgeDetection(plane, null, null)), variant.name());
+            }
+        }
+    }
+
+    @Test
+    void morphologyRunsOnNarrowFrames() {
+        int[][] sizes = {{1, 8}, {2, 8}, {8, 1}, {8, 2}, {1, 1}};
+        for (int[] size : sizes) {
+            byte[] luma = new byte[size[0] * size[1]];
+            new Random(32).nextBytes(luma);
+            Plane plane = new Plane(ByteBuffer.wrap(luma), size[0], 1);
+            for (MorphologyOp op : MorphologyOp.values()) {
+                try (EdgeFrameProcessor processor = new EdgeFrameProcessor(size[0], size[1])) {
+                    processor.setMorphology(op, 1);
+                    // All border: the frame passes through as luma
+                    byte[] output = processor.processEdgeDetection(plane, null, null);
+                    assertArrayEquals(luma, Arrays.copyOf(output, luma.length), size[0] + "x" + size[1] + " " + op);
+                    processor.processPackedEdges(plane, new byte[processor.getPackedSize()]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void adaptiveResolutionCapsLevelByFrameSize() {
+        // {width, height, coarsest level the frame has}
+        int[][] sizes = {{2, 8, 1}, {3, 3, 1}, {1280, 2, 1}, {2, 720, 1}, {1, 1, 0}, {1, 9, 0}, {9, 1, 0},
+            {4, 4, 2}, {5, 7, 2}, {7, 4, 2}, {5, 3, 1}};
+        for (int[] size : sizes) {
+            byte[] luma = new byte[size[0] * size[1]];
+            new Random(33).nextBytes(luma);
+            Plane plane = new Plane(ByteBuffer.wrap(luma), size[0], 1);
+            for (EdgeDetector detector : EdgeDetector.values()) {
+                try (EdgeFrameProcessor processor = new EdgeFrameProcessor(size[0], size[1])) {
+                    String name = size[0] + "x" + size[1] + " " + detector;
+                    processor.setEdgeDetector(detector);
+                    processor.setAdaptiveResolution(true);
+                    ResolutionScaler scaler = processor.getResolutionScaler();
+                    assertEquals(size[2], scaler.getMaxLevel(), name);
+                    for (int level = 0; level <= YPyramid.MAX_LEVEL; level++) {
+                        scaler.setFixedLevel(level);
+                        assertEquals(Math.min(level, size[2]), scaler.getLevel(), name + " level " + level);
+                        processor.processEdgeDetection(plane, null, null);
+                        processor.processPackedEdges(plane, new byte[processor.getPackedSize()]);
+                    }
+
+                    // Adaptive: a budget nothing meets pushes to the coarsest level and no further
+                    scaler.setFixedLevel(-1);
+                    scaler.setBudgetNanos(1);
+                    for (int frame = 0; frame < 100; frame++) {
+                        processor.processEdgeDetection(plane, null, null);
+                        assertTrue(scaler.getLevel() <= size[2], name + " adaptive");
+                    }
+                    assertEquals(size[2], scaler.getLevel(), name + " adaptive");
+                }
+            }
+        }
+    }
+
+    private static byte[] edges(byte[] output) {
+        return Arrays.copyOf(output, WIDTH * HEIGHT);
+    }
+}
@@ -0,0 +1,119 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link EdgeMorphology} on byte and packed maps against a naive
+ * (2r + 1)^2 window over the interior pixels (border pixels are outside
+ * the map), for every op, across the 64-pixel word boundaries and with a
+ * radius over a word.
+ */
+class EdgeMorphologyTest {
+    private static final int[] WIDTHS = {1, 2, 3, 5, 63, 64, 65, 130};
+    private static final int[] HEIGHTS = {1, 2, 3, 4, 17, 40};
+    private static final int[] RADII = {1, 2, 3, 4, 5, 6, 7, 8, 70};
+    private static final MorphologyOp[] OPS = {
+        MorphologyOp.DILATE, MorphologyOp.ERODE, MorphologyOp.OPEN, MorphologyOp.CLOSE
+    };
+
+    @Test
+    void matchesNaiveWindowOnRandomMaps() {
+        Random random = new Random(23);
+        for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+                EdgeMorphology morphology = new EdgeMorphology(width, height);
+                for (double density : new double[] {0.05, 0.5, 0.9}) {
+                    boolean[] map = randomMap(random, width, height, density);
+                    for (MorphologyOp op : OPS) {
+                        for (int radius : RADII) {
+                            String name = width + "x" + height + " density " + density + " " + op + " r " + radius;
+                            boolean[] expected = naive(map, width, height, op, radius);
+
+                            byte[] edges = toBytes(map, width, height);
+                            morphology.apply(edges, op, radius);
+                            assertArrayEquals(toBytes(expected, width, height), edges, name + " byte");
+
+                            byte[] packed = new byte[EdgeBits.size(width, height)];
+                            EdgeBits.pack(toBytes(map, width, height), width, height, packed);
+                            morphology.applyPacked(packed, op, radius);
+                            byte[] unpacked = new byte[width * height];
+                            EdgeBits.unpack(packed, width, height, unpacked);
+                            assertArrayEquals(toBytes(expected, width, height), unpacked, name + " packed");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void noneAndZeroRadiusLeaveTheMap() {
+        Random random = new Random(24);
+        boolean[] map = randomMap(random, 67, 13, 0.3);
+        byte[] before = toBytes(map, 67, 13);
+        EdgeMorphology morphology = new EdgeMorphology(67, 13);
+        byte[] edges = before.clone();
+        morphology.apply(edges, MorphologyOp.NONE, 3);
+        morphology.apply(edges, MorphologyOp.DILATE, 0);
+        assertArrayEquals(before, edges);
+    }
+
+    /** Edge pixels at the given density, never on the border, as the kernels leave them. */
+    private static boolean[] randomMap(Random random, int width, int height, double density) {
+        boolean[] map = new boolean[width * height];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                map[y * width + x] = random.nextDouble() < density;
+            }
+        }
+        return map;
+    }
+
+    private static boolean[] naive(boolean[] map, int width, int height, MorphologyOp op, int radius) {
+        switch (op) {
+            case DILATE:
+                return window(map, width, height, radius, true);
+            case ERODE:
+                return window(map, width, height, radius, false);
+            case OPEN:
+                return window(window(map, width, height, radius, false), width, height, radius, true);
+            case CLOSE:
+                return window(window(map, width, height, radius, true), width, height, radius, false);
+            default:
+                return map.clone();
+        }
+    }
+
+    /**
+     * Any (dilate) or every (erode) interior pixel of the window around
+     * each interior pixel; border pixels stay off.
+     */
+    private static boolean[] window(boolean[] map, int width, int height, int radius, boolean any) {
+        boolean[] out = new boolean[map.length];
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                boolean result = !any;
+                for (int wy = Math.max(1, y - radius); wy <= Math.min(height - 2, y + radius); wy++) {
+                    for (int wx = Math.max(1, x - radius); wx <= Math.min(width - 2, x + radius); wx++) {
+                        if (map[wy * width + wx] == any) {
+                            result = any;
+                        }
+                    }
+                }
+                out[y * width + x] = result;
+            }
+        }
+        return out;
+    }
+
+    private static byte[] toBytes(boolean[] map, int width, int height) {
+        byte[] edges = new byte[width * height];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = map[i] ? 0 : (byte) 255;
+        }
+        return edges;
+    }
+}
@@ -0,0 +1,207 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link EdgeStreamCodec} round trips through its {@link
+ * EdgeStreamCodec.Decoder} for every message type, including widths that
+ * leave padding bits in each row, and recovery from lost messages.
+ */
+class EdgeStreamCodecTest {
+    private static final int[][] SIZES = {{1, 1}, {7, 3}, {8, 8}, {13, 5}, {64, 48}, {101, 37}};
+
+    @Test
+    void keyFramesRoundTrip() {
+        Random random = new Random(41);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            EdgeStreamCodec codec = new EdgeStreamCodec(width, height);
+            EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+            String name = width + "x" + height;
+
+            // Sparse edges compress to runs, noise does not
+            byte[] sparse = map(random, width, height, 0.05);
+            assertKeyType(codec.encode(sparse, 11, true), large(width, height), name);
+            assertDecodes(decoder, codec, sparse, width, height, name + " sparse");
+            assertEquals(11, decoder.getTimestampNs());
+
+            byte[] empty = map(random, width, height, 0);
+            assertKeyType(codec.encode(empty, 12, true), large(width, height), name);
+            assertDecodes(decoder, codec, empty, width, height, name + " empty");
+
+            if (large(width, height)) {
+                byte[] noise = map(random, width, height, 0.5);
+                assertEquals(EdgeStreamCodec.TYPE_KEY_RAW, codec.encode(noise, 13, true), name);
+                assertDecodes(decoder, codec, noise, width, height, name + " noise");
+            }
+        }
+    }
+
+    @Test
+    void deltasRoundTrip() {
+        Random random = new Random(42);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            EdgeStreamCodec codec = new EdgeStreamCodec(width, height);
+            codec.setKeyInterval(10);
+            EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+            byte[] edges = edges(random, width, height, 0.05);
+            int keys = 0;
+            for (int frame = 0; frame < 40; frame++) {
+                flip(random, edges, width, height, 3);
+                byte[] packed = pack(edges, width, height);
+                int type = codec.encode(packed, frame, false);
+                String name = width + "x" + height + " frame " + frame;
+                if (type != EdgeStreamCodec.TYPE_DELTA_RLE) {
+                    keys++;
+                }
+                if (large(width, height)) {
+                    // Small maps fall back to key frames when a delta is no
+                    // smaller than the raw map
+                    assertEquals(frame % 10 == 0, type != EdgeStreamCodec.TYPE_DELTA_RLE, name + ": key frame");
+                }
+                assertDecodes(decoder, codec, packed, width, height, name);
+                assertEquals(type, decoder.getType(), name);
+                assertEquals(frame + 1, decoder.getSequence(), name);
+            }
+            assertTrue(keys >= 4, width + "x" + height + ": " + keys + " key frames");
+        }
+    }
+
+    @Test
+    void droppedDeltasRecoverAtOnceAndDroppedKeysAtTheNextKey() {
+        Random random = new Random(43);
+        int width = 80;
+        int height = 60;
+        EdgeStreamCodec codec = new EdgeStreamCodec(width, height);
+        codec.setKeyInterval(8);
+        EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+        byte[] edges = edges(random, width, height, 0.05);
+        byte[] decoded = new byte[EdgeBits.size(width, height)];
+        int lost = 0;
+        for (int frame = 0; frame < 64; frame++) {
+            flip(random, edges, width, height, 5);
+            byte[] packed = pack(edges, width, height);
+            int type = codec.encode(packed, frame, false);
+            String name = "frame " + frame;
+            boolean key = frame % 8 == 0;
+            assertEquals(key, type != EdgeStreamCodec.TYPE_DELTA_RLE, name + ": key frame");
+            boolean keyLost = (frame / 8) % 3 == 1;
+            if (key ? keyLost : frame % 3 == 1) {
+                // Lost on the way: every third delta, and every third key frame
+                lost++;
+                continue;
+            }
+            byte[] before = Arrays.copyOf(decoded, decoded.length);
+            boolean ok = decoder.decode(message(codec), decoded);
+            if (keyLost) {
+                // Deltas against a key frame this decoder never saw
+                assertEquals(EdgeStreamCodec.TYPE_DELTA_RLE, type, name);
+                assertFalse(ok, name + ": decoded without its key frame");
+                assertArrayEquals(before, decoded, name + ": output touched");
+            } else {
+                assertTrue(ok, name);
+                assertArrayEquals(packed, decoded, name);
+            }
+        }
+        assertTrue(lost > 20, lost + " lost");
+    }
+
+    @Test
+    void rejectsMalformedMessages() {
+        int width = 33;
+        int height = 9;
+        EdgeStreamCodec codec = new EdgeStreamCodec(width, height);
+        byte[] packed = map(new Random(44), width, height, 0.1);
+        codec.encode(packed, 0, true);
+        byte[] message = Arrays.copyOf(codec.getMessage(), codec.getMessageLength());
+        byte[] out = new byte[EdgeBits.size(width, height)];
+
+        EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+        assertThrows(IllegalArgumentException.class,
+                () -> decoder.decode(ByteBuffer.wrap(message, 0, EdgeStreamCodec.HEADER_SIZE - 1), out));
+        assertThrows(IllegalArgumentException.class,
+                () -> decoder.decode(ByteBuffer.wrap(message, 0, message.length - 1), out));
+        byte[] badVersion = message.clone();
+        badVersion[1] = 9;
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(ByteBuffer.wrap(badVersion), out));
+        byte[] badType = message.clone();
+        badType[0] = 7;
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(ByteBuffer.wrap(badType), out));
+        assertTrue(decoder.decode(ByteBuffer.wrap(message), out));
+        assertArrayEquals(packed, out);
+    }
+
+    private static void assertDecodes(EdgeStreamCodec.Decoder decoder, EdgeStreamCodec codec, byte[] expected,
+                                      int width, int height, String name) {
+        byte[] decoded = new byte[EdgeBits.size(width, height)];
+        Arrays.fill(decoded, (byte) 0x3C);
+        assertTrue(decoder.decode(message(codec), decoded), name);
+        assertArrayEquals(expected, decoded, name);
+        assertEquals(width, decoder.getWidth(), name);
+        assertEquals(height, decoder.getHeight(), name);
+        assertEquals(codec.getSequence(), decoder.getSequence(), name);
+    }
+
+    /** Maps of a few bytes may go out raw whatever they hold. */
+    private static void assertKeyType(int type, boolean large, String name) {
+        if (large) {
+            assertEquals(EdgeStreamCodec.TYPE_KEY_RLE, type, name);
+        } else {
+            assertTrue(type == EdgeStreamCodec.TYPE_KEY_RLE || type == EdgeStreamCodec.TYPE_KEY_RAW, name);
+        }
+    }
+
+    /** Big enough that sparse maps and small deltas go out as runs. */
+    private static boolean large(int width, int height) {
+        return width * height >= 1000;
+    }
+
+    private static ByteBuffer message(EdgeStreamCodec codec) {
+        return ByteBuffer.wrap(codec.getMessage(), 0, codec.getMessageLength());
+    }
+
+    /** A packed map with about density of its inner pixels set. */
+    private static byte[] map(Random random, int width, int height, double density) {
+        return pack(edges(random, width, height, density), width, height);
+    }
+
+    /** Byte edge map as the kernels write it: 0 marks an edge. */
+    private static byte[] edges(Random random, int width, int height, double density) {
+        byte[] edges = new byte[width * height];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = random.nextDouble() < density ? 0 : (byte) 255;
+        }
+        return edges;
+    }
+
+    /** Toggles a few short horizontal runs, as a moving outline would. */
+    private static void flip(Random random, byte[] edges, int width, int height, int runs) {
+        for (int r = 0; r < runs; r++) {
+            int y = random.nextInt(height);
+            int x = random.nextInt(width);
+            int end = Math.min(width, x + 1 + random.nextInt(6));
+            for (; x < end; x++) {
+                int i = y * width + x;
+                edges[i] = edges[i] == 0 ? (byte) 255 : 0;
+            }
+        }
+    }
+
+    private static byte[] pack(byte[] edges, int width, int height) {
+        byte[] packed = new byte[EdgeBits.size(width, height)];
+        EdgeBits.pack(edges, width, height, packed);
+        return packed;
+    }
+}
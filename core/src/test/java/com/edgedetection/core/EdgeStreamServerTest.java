@@ -0,0 +1,214 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link EdgeStreamServer} over loopback on an ephemeral port: a plain
+ * socket does the WebSocket handshake, then every frame it receives must
+ * decode to the map that was published with that timestamp.
+ */
+class EdgeStreamServerTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int TIMEOUT_MS = 10_000;
+
+    @Test
+    void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", EdgeStreamServer.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void viewerDecodesEveryFrame() throws IOException {
+        byte[][] maps = maps(new Random(51), 120);
+        try (EdgeStreamServer server = server();
+             Socket socket = connect(server)) {
+            server.setKeyInterval(10);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+            byte[] decoded = new byte[EdgeBits.size(WIDTH, HEIGHT)];
+            int keys = 0;
+            for (int frame = 0; frame < maps.length; frame++) {
+                // One at a time, so none is superseded before it is sent
+                server.publish(maps[frame], frame);
+                assertTrue(decoder.decode(ByteBuffer.wrap(readFrame(in)), decoded), "frame " + frame);
+                assertEquals(frame, decoder.getTimestampNs());
+                assertEquals(frame + 1, decoder.getSequence());
+                assertArrayEquals(maps[frame], decoded, "frame " + frame);
+                if (decoder.getType() != EdgeStreamCodec.TYPE_DELTA_RLE) {
+                    keys++;
+                }
+            }
+            assertEquals(maps.length / 10, keys);
+            assertEquals(maps.length, server.getEncodedCount());
+            assertEquals(0, server.getDroppedCount());
+        }
+    }
+
+    @Test
+    void viewerDecodesWhateverReachesItUnderLoad() throws IOException {
+        byte[][] maps = maps(new Random(52), 400);
+        try (EdgeStreamServer server = server();
+             Socket socket = connect(server)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            // Published as fast as possible: the server may supersede maps
+            // and drop queued frames, but whatever it sends must decode
+            // to the map with its timestamp, in order
+            for (int frame = 0; frame < maps.length; frame++) {
+                server.publish(maps[frame], frame);
+            }
+            // A last frame once the burst has drained, to know where to stop
+            long last = maps.length;
+            long deadline = System.nanoTime() + TIMEOUT_MS * 1_000_000L;
+            while (server.getEncodedCount() + server.getSupersededCount() < server.getPublishedCount()) {
+                assertTrue(System.nanoTime() < deadline, "burst not drained");
+                Thread.yield();
+            }
+            server.publish(maps[0], last);
+
+            EdgeStreamCodec.Decoder decoder = new EdgeStreamCodec.Decoder();
+            byte[] decoded = new byte[EdgeBits.size(WIDTH, HEIGHT)];
+            long previous = -1;
+            int received = 0;
+            while (previous != last) {
+                if (!decoder.decode(ByteBuffer.wrap(readFrame(in)), decoded)) {
+                    continue;
+                }
+                long timestamp = decoder.getTimestampNs();
+                assertTrue(timestamp > previous, timestamp + " after " + previous);
+                assertArrayEquals(maps[(int) (timestamp % maps.length)], decoded, "frame " + timestamp);
+                previous = timestamp;
+                received++;
+            }
+            assertTrue(received >= 2, received + " frames received");
+        }
+    }
+
+    @Test
+    void plainHttpIsRejected() throws IOException {
+        try (EdgeStreamServer server = server();
+             Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), TIMEOUT_MS);
+            socket.setSoTimeout(TIMEOUT_MS);
+            socket.getOutputStream().write(ascii("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            String response = new String(readAll(socket.getInputStream()), StandardCharsets.ISO_8859_1);
+            assertTrue(response.startsWith("HTTP/1.1 426 "), response);
+        }
+    }
+
+    private static EdgeStreamServer server() throws IOException {
+        return new EdgeStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), WIDTH, HEIGHT,
+                EdgeStreamServer.DEFAULT_QUEUE_FRAMES);
+    }
+
+    /** Connects and completes the handshake; the server then counts the viewer. */
+    private static Socket connect(EdgeStreamServer server) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), TIMEOUT_MS);
+        socket.setSoTimeout(TIMEOUT_MS);
+        String key = "dGhlIHNhbXBsZSBub25jZQ==";
+        OutputStream out = socket.getOutputStream();
+        out.write(ascii("GET /edges HTTP/1.1\r\n" +
+                        "Host: localhost\r\n" +
+                        "Upgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\n" +
+                        "Sec-WebSocket-Key: " + key + "\r\n" +
+                        "Sec-WebSocket-Version: 13\r\n\r\n"));
+        out.flush();
+        String response = readResponse(socket.getInputStream());
+        assertTrue(response.startsWith("HTTP/1.1 101 "), response);
+        assertTrue(response.contains("Sec-WebSocket-Accept: " + EdgeStreamServer.acceptKey(key) + "\r\n"), response);
+        return socket;
+    }
+
+    /** Reads up to the blank line, and not a byte further. */
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        while (response.length() < 4 || !response.substring(response.length() - 4).equals("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("connection closed in handshake: " + response);
+            }
+            response.append((char) b);
+        }
+        return response.toString();
+    }
+
+    /** Payload of one unmasked, unfragmented binary frame. */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int first = in.readUnsignedByte();
+        assertEquals(0x82, first, "not a final binary frame");
+        int second = in.readUnsignedByte();
+        assertEquals(0, second & 0x80, "server frames are not masked");
+        long length = second & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Packed maps of a few drifting blocks' outlines, so consecutive maps
+     * differ a little and deltas stay small.
+     */
+    private static byte[][] maps(Random random, int count) {
+        int blocks = 5;
+        int[] x = new int[blocks];
+        int[] y = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            x[b] = random.nextInt(WIDTH - 20);
+            y[b] = random.nextInt(HEIGHT - 20);
+        }
+        byte[][] maps = new byte[count][];
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        for (int frame = 0; frame < count; frame++) {
+            Arrays.fill(edges, (byte) 255);
+            for (int b = 0; b < blocks; b++) {
+                x[b] = Math.max(1, Math.min(WIDTH - 21, x[b] + random.nextInt(3) - 1));
+                y[b] = Math.max(1, Math.min(HEIGHT - 21, y[b] + random.nextInt(3) - 1));
+                for (int i = 0; i < 20; i++) {
+                    edges[y[b] * WIDTH + x[b] + i] = 0;
+                    edges[(y[b] + 19) * WIDTH + x[b] + i] = 0;
+                    edges[(y[b] + i) * WIDTH + x[b]] = 0;
+                    edges[(y[b] + i) * WIDTH + x[b] + 19] = 0;
+                }
+            }
+            maps[frame] = new byte[EdgeBits.size(WIDTH, HEIGHT)];
+            EdgeBits.pack(edges, WIDTH, HEIGHT, maps[frame]);
+        }
+        return maps;
+    }
+}
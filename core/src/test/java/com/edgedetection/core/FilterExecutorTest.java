@@ -0,0 +1,235 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntUnaryOperator;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link FilterExecutor}, fused and unfused on 1 to 8 workers, against a
+ * naive whole-frame evaluation of each stage in turn. The graphs cover
+ * leading, trailing and chained point stages (which the graph folds into
+ * tables), chains of window stages whose halos add up, and frames
+ * narrower or shorter than a window.
+ */
+class FilterExecutorTest {
+    private static final int[] WORKERS = {1, 2, 3, 5, 8};
+    private static final int[] WIDTHS = {1, 2, 3, 4, 7, 33, 64};
+    private static final int[] HEIGHTS = {1, 2, 3, 5, 9, 17, 40};
+
+    @Test
+    void fusedAndUnfusedMatchNaiveEvaluation() {
+        List<Step[]> graphs = Arrays.asList(
+            new Step[] {},
+            new Step[] {sobel(SobelKernel.DEFAULT_THRESHOLD)},
+            new Step[] {box(1)},
+            // Leading points, folded into the source table
+            new Step[] {invert(), threshold(100), box(2)},
+            // Trailing point after the last window
+            new Step[] {box(1), threshold(120)},
+            // Points only
+            new Step[] {invert(), lookup(v -> v / 2 + 40)},
+            // Chained windows with points between them, halos adding up to 7
+            new Step[] {invert(), box(1), lookup(v -> 255 - v), threshold(128), dilate(2), invert(), erode(1),
+                lookup(v -> v ^ 0x5A), box(3)},
+            new Step[] {box(3), sobel(60), erode(2)}
+        );
+        Random random = new Random(22);
+        for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+                byte[] src = new byte[width * height];
+                random.nextBytes(src);
+                List<byte[]> expected = new ArrayList<>();
+                for (Step[] steps : graphs) {
+                    expected.add(naive(steps, src, width, height));
+                }
+                for (int workers : WORKERS) {
+                    try (FilterExecutor executor = new FilterExecutor(width, height, workers)) {
+                        for (int g = 0; g < graphs.size(); g++) {
+                            FilterGraph graph = graph(graphs.get(g));
+                            for (boolean fused : new boolean[] {true, false}) {
+                                executor.setFused(fused);
+                                String name = width + "x" + height + " " + graph + " workers " + workers
+                                        + (fused ? " fused" : " unfused");
+                                // Bytes past the frame must stay untouched
+                                byte[] dst = new byte[width * height + 3];
+                                Arrays.fill(dst, (byte) 0x77);
+                                executor.apply(graph, src, dst);
+                                assertArrayEquals(expected.get(g), Arrays.copyOf(dst, width * height), name);
+                                assertArrayEquals(new byte[] {0x77, 0x77, 0x77},
+                                        Arrays.copyOfRange(dst, width * height, dst.length), name + " overrun");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void stridedPlaneMatchesArray() {
+        Random random = new Random(23);
+        int width = 45;
+        int height = 31;
+        FilterGraph graph = graph(new Step[] {invert(), box(2), sobel(80), dilate(1)});
+        for (int pixelStride : new int[] {1, 2}) {
+            Plane plane = PlaneTest.randomPlane(random, width, height, width * pixelStride + 7, pixelStride, 5, true);
+            byte[] luma = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                plane.readRow(y, luma, y * width, width);
+            }
+            for (int workers : WORKERS) {
+                try (FilterExecutor executor = new FilterExecutor(width, height, workers)) {
+                    for (boolean fused : new boolean[] {true, false}) {
+                        executor.setFused(fused);
+                        byte[] expected = executor.apply(graph, luma, new byte[width * height]);
+                        assertArrayEquals(expected, executor.apply(graph, plane, new byte[width * height]),
+                                "pixel stride " + pixelStride + " workers " + workers + " fused " + fused);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void sobelStageMatchesSobelKernel() {
+        Random random = new Random(24);
+        FilterGraph graph = new FilterGraph(FilterStage.sobel(SobelKernel.DEFAULT_THRESHOLD));
+        for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+                byte[] src = new byte[width * height];
+                random.nextBytes(src);
+                byte[] expected = new byte[width * height];
+                SobelKernel.apply(src, expected, width, height, SobelKernel.DEFAULT_THRESHOLD, new EdgeStats());
+                for (int workers : WORKERS) {
+                    try (FilterExecutor executor = new FilterExecutor(width, height, workers)) {
+                        for (boolean fused : new boolean[] {true, false}) {
+                            executor.setFused(fused);
+                            assertArrayEquals(expected, executor.apply(graph, src, new byte[width * height]),
+                                    width + "x" + height + " workers " + workers + " fused " + fused);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** A stage and the naive whole-frame version it must match. */
+    private static final class Step {
+        final FilterStage stage;
+        final int radius;
+        final IntUnaryOperator point;
+        final Window window;
+
+        Step(FilterStage stage, IntUnaryOperator point, Window window) {
+            this.stage = stage;
+            this.radius = stage.getRadius();
+            this.point = point;
+            this.window = window;
+        }
+    }
+
+    /** Output pixel from the (2r + 1)^2 window, rows then columns, centre at [r][r]. */
+    private interface Window {
+        int apply(int[][] window, int radius);
+    }
+
+    private static Step invert() {
+        return new Step(FilterStage.invert(), v -> 255 - v, null);
+    }
+
+    private static Step threshold(int threshold) {
+        return new Step(FilterStage.threshold(threshold), v -> v > threshold ? 255 : 0, null);
+    }
+
+    private static Step lookup(IntUnaryOperator function) {
+        return new Step(FilterStage.lookup("lookup", function), function, null);
+    }
+
+    private static Step box(int radius) {
+        return new Step(FilterStage.boxBlur(radius), null, (window, r) -> {
+            int sum = 0;
+            for (int[] row : window) {
+                for (int v : row) {
+                    sum += v;
+                }
+            }
+            int area = (2 * r + 1) * (2 * r + 1);
+            return (sum + area / 2) / area;
+        });
+    }
+
+    private static Step dilate(int radius) {
+        return new Step(FilterStage.dilate(radius), null, (window, r) -> extremum(window, true));
+    }
+
+    private static Step erode(int radius) {
+        return new Step(FilterStage.erode(radius), null, (window, r) -> extremum(window, false));
+    }
+
+    private static Step sobel(int threshold) {
+        return new Step(FilterStage.sobel(threshold), null, (w, r) -> {
+            int gx = (w[0][2] + 2 * w[1][2] + w[2][2]) - (w[0][0] + 2 * w[1][0] + w[2][0]);
+            int gy = (w[2][0] + 2 * w[2][1] + w[2][2]) - (w[0][0] + 2 * w[0][1] + w[0][2]);
+            return (int) Math.sqrt(gx * gx + gy * gy) > threshold ? 0 : 255;
+        });
+    }
+
+    private static int extremum(int[][] window, boolean max) {
+        int result = max ? 0 : 255;
+        for (int[] row : window) {
+            for (int v : row) {
+                result = max ? Math.max(result, v) : Math.min(result, v);
+            }
+        }
+        return result;
+    }
+
+    private static FilterGraph graph(Step[] steps) {
+        List<FilterStage> stages = new ArrayList<>();
+        for (Step step : steps) {
+            stages.add(step.stage);
+        }
+        return new FilterGraph(stages);
+    }
+
+    /**
+     * Each stage over the whole frame; pixels closer than r to any border
+     * keep their input.
+     */
+    private static byte[] naive(Step[] steps, byte[] src, int width, int height) {
+        int[] frame = new int[src.length];
+        for (int i = 0; i < src.length; i++) {
+            frame[i] = src[i] & 0xFF;
+        }
+        for (Step step : steps) {
+            int[] next = frame.clone();
+            int r = step.radius;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (step.point != null) {
+                        next[y * width + x] = Math.max(0, Math.min(255, step.point.applyAsInt(frame[y * width + x])));
+                    } else if (y >= r && y < height - r && x >= r && x < width - r) {
+                        int[][] window = new int[2 * r + 1][2 * r + 1];
+                        for (int j = 0; j <= 2 * r; j++) {
+                            for (int i = 0; i <= 2 * r; i++) {
+                                window[j][i] = frame[(y - r + j) * width + x - r + i];
+                            }
+                        }
+                        next[y * width + x] = step.window.apply(window, r);
+                    }
+                }
+            }
+            frame = next;
+        }
+        byte[] out = new byte[frame.length];
+        for (int i = 0; i < frame.length; i++) {
+            out[i] = (byte) frame[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,181 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link FrameExchange} under a real producer and consumer thread. Every
+ * frame carries its sequence number in every byte (the full number in the
+ * timestamps and size), so a slot written while it is read shows up as a
+ * mixed frame, and a stale or reordered one as a sequence that does not
+ * increase.
+ */
+class FrameExchangeTest {
+
+    @Test
+    void singleThreadedHandOff() {
+        FrameExchange exchange = new FrameExchange(4);
+        assertNull(exchange.acquire());
+
+        stamp(exchange.beginWrite(), 1);
+        exchange.publish();
+        FrameExchange.Slot first = exchange.acquire();
+        assertNotNull(first);
+        assertFrame(first, 1);
+        assertNull(exchange.acquire(), "same frame handed out twice");
+
+        stamp(exchange.beginWrite(), 2);
+        exchange.publish();
+        stamp(exchange.beginWrite(), 3);
+        exchange.publish();
+        FrameExchange.Slot newest = exchange.acquire();
+        assertFrame(newest, 3);
+        assertEquals(3, exchange.getProducedCount());
+        assertEquals(2, exchange.getConsumedCount());
+        assertEquals(1, exchange.getDroppedCount());
+    }
+
+    @Test
+    void producerNeverWritesTheConsumersSlot() {
+        FrameExchange exchange = new FrameExchange(4);
+        for (int i = 0; i < 20; i++) {
+            stamp(exchange.beginWrite(), i);
+            exchange.publish();
+            FrameExchange.Slot held = exchange.acquire();
+            for (int j = 0; j < 3; j++) {
+                // Whatever the producer does, it must stay off the held slot
+                FrameExchange.Slot back = exchange.beginWrite();
+                assertTrue(back != held, "producer got the consumer's slot");
+                stamp(back, -1);
+                exchange.publish();
+            }
+            assertFrame(held, i);
+            exchange.acquire();
+        }
+    }
+
+    @Test
+    void smallFramesUnderContention() throws Exception {
+        stress(64, 400_000, false);
+    }
+
+    @Test
+    void largeFramesWithSlowConsumer() throws Exception {
+        // Long reads, so the producer laps the consumer many times per frame
+        stress(256 * 1024, 4_000, true);
+    }
+
+    private static void stress(int frameSize, int frames, boolean slowConsumer) throws Exception {
+        FrameExchange exchange = new FrameExchange(frameSize);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean producerDone = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] consumerResult = new long[2];
+
+        Thread producer = new Thread(() -> {
+            try {
+                start.await();
+                for (int seq = 0; seq < frames && failure.get() == null; seq++) {
+                    stamp(exchange.beginWrite(), seq);
+                    exchange.publish();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                producerDone.set(true);
+            }
+        }, "exchange-producer");
+
+        Thread consumer = new Thread(() -> {
+            try {
+                start.await();
+                long last = -1;
+                long acquired = 0;
+                while (failure.get() == null) {
+                    // Read the flag first: a frame published before it was set
+                    // is still picked up by this last pass
+                    boolean finished = producerDone.get();
+                    FrameExchange.Slot slot = exchange.acquire();
+                    if (slot != null) {
+                        acquired++;
+                        long seq = assertFrame(slot, -1);
+                        if (seq <= last) {
+                            throw new AssertionError("sequence went from " + last + " to " + seq);
+                        }
+                        if (slowConsumer) {
+                            // Re-read after the producer had time to publish more
+                            Thread.yield();
+                            assertFrame(slot, seq);
+                        }
+                        last = seq;
+                    } else if (finished) {
+                        break;
+                    }
+                }
+                consumerResult[0] = last;
+                consumerResult[1] = acquired;
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "exchange-consumer");
+
+        producer.start();
+        consumer.start();
+        start.countDown();
+        producer.join(60_000);
+        consumer.join(60_000);
+        assertTrue(!producer.isAlive() && !consumer.isAlive(), "threads did not finish");
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get().getMessage(), failure.get());
+        }
+
+        long produced = exchange.getProducedCount();
+        long consumed = exchange.getConsumedCount();
+        long dropped = exchange.getDroppedCount();
+        assertEquals(frames, produced, "produced");
+        assertEquals(frames - 1, consumerResult[0], "last frame seen");
+        assertEquals(consumerResult[1], consumed, "consumed count vs frames acquired");
+        assertEquals(produced, consumed + dropped, "produced != consumed + dropped");
+    }
+
+    private static void stamp(FrameExchange.Slot slot, long seq) {
+        byte[] data = slot.getData();
+        byte value = (byte) seq;
+        for (int i = 0; i < data.length; i++) {
+            data[i] = value;
+        }
+        slot.set((int) (seq & 0xFFFF), (int) (seq >>> 16), (seq & 1) != 0, (seq & 2) != 0);
+        slot.setTimestamps(seq, ~seq);
+    }
+
+    /**
+     * Checks the slot holds one whole frame (of expected, unless that is -1)
+     * and returns its sequence number.
+     */
+    private static long assertFrame(FrameExchange.Slot slot, long expected) {
+        long seq = slot.getSensorTimestampNs();
+        if (expected >= 0 && seq != expected) {
+            throw new AssertionError("expected frame " + expected + ", got " + seq);
+        }
+        if (slot.getPublishedNs() != ~seq || slot.getWidth() != (int) (seq & 0xFFFF)
+                || slot.getHeight() != (int) (seq >>> 16) || slot.isProcessed() != ((seq & 1) != 0)
+                || slot.isPacked() != ((seq & 2) != 0)) {
+            throw new AssertionError("torn metadata in frame " + seq);
+        }
+        byte[] data = slot.getData();
+        byte value = (byte) seq;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != value) {
+                throw new AssertionError("torn frame " + seq + ": byte " + i + " is " + data[i]);
+            }
+        }
+        return seq;
+    }
+}
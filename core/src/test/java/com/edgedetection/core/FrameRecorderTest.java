@@ -0,0 +1,206 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * {@link FrameRecorder} files read back through {@link FrameRecording}:
+ * the ring keeps the newest records in order once it wraps, torn or
+ * damaged records are skipped, files that are not recordings are
+ * rejected, and luma keeps its row padding up to maxStride.
+ */
+class FrameRecorderTest {
+    @TempDir
+    File dir;
+
+    @Test
+    void ringKeepsTheNewestRecordsInOrder() throws IOException {
+        Random random = new Random(18);
+        int width = 21;
+        int height = 6;
+        File file = new File(dir, "ring.rec");
+        List<byte[]> maps = new ArrayList<>();
+        // Enough staging buffers that nothing is dropped
+        try (FrameRecorder recorder = new FrameRecorder(file, width, height, width, 4, 16)) {
+            for (int i = 0; i < 10; i++) {
+                byte[] edges = new byte[width * height];
+                random.nextBytes(edges);
+                maps.add(edges);
+                if (i % 2 == 0) {
+                    assertTrue(recorder.recordEdges(edges, 1000L * i, i));
+                } else {
+                    byte[] packed = new byte[EdgeBits.size(width, height)];
+                    EdgeBits.pack(edges, width, height, packed);
+                    EdgeBits.unpack(packed, width, height, edges);
+                    assertTrue(recorder.recordPackedEdges(packed, 1000L * i, i));
+                }
+            }
+            recorder.close();
+            assertEquals(10, recorder.getWrittenCount());
+            assertEquals(0, recorder.getDroppedCount());
+        }
+
+        FrameRecording recording = FrameRecording.open(file);
+        assertEquals(width, recording.getWidth());
+        assertEquals(height, recording.getHeight());
+        assertEquals(4, recording.getSlotCount());
+        List<FrameRecording.Record> records = recording.getRecords();
+        assertEquals(4, records.size());
+        for (int r = 0; r < 4; r++) {
+            FrameRecording.Record record = records.get(r);
+            int i = 6 + r;
+            assertEquals(i + 1, record.getSequence());
+            assertEquals(1000L * i, record.getTimestampNs());
+            assertEquals(i, record.getMode());
+            assertEquals(0, record.getDroppedBefore());
+            assertEquals(i % 2 == 0 ? FrameRecorder.Format.EDGES : FrameRecorder.Format.PACKED_EDGES,
+                         record.getFormat());
+            assertArrayEquals(maps.get(i), record.getLuma(), "record " + i);
+        }
+        assertTrue(recording.getRawRecords().isEmpty());
+    }
+
+    @Test
+    void skipsTornAndDamagedRecords() throws IOException {
+        int width = 8;
+        int height = 4;
+        File file = new File(dir, "torn.rec");
+        try (FrameRecorder recorder = new FrameRecorder(file, width, height, width, 5)) {
+            for (int i = 0; i < 5; i++) {
+                byte[] edges = new byte[width * height];
+                Arrays.fill(edges, (byte) i);
+                recorder.recordEdges(edges, i, 0);
+                // One staging buffer in flight at a time, so none is dropped
+                waitForWrites(recorder, i + 1);
+            }
+        }
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            int slotSize = readInt(out, 24);
+            // Slot 1 torn mid-write (sequence still 0), slot 2 an unknown
+            // format, slot 3 a length past the slot
+            out.seek(FrameRecorder.FILE_HEADER_SIZE + slotSize);
+            out.writeLong(0);
+            out.seek(FrameRecorder.FILE_HEADER_SIZE + 2 * slotSize + 28);
+            out.writeInt(Integer.reverseBytes(FrameRecorder.Format.values().length));
+            out.seek(FrameRecorder.FILE_HEADER_SIZE + 3 * slotSize + 36);
+            out.writeInt(Integer.reverseBytes(slotSize));
+        }
+
+        List<FrameRecording.Record> records = FrameRecording.open(file).getRecords();
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).getSequence());
+        assertEquals(5, records.get(1).getSequence());
+        byte[] last = new byte[width * height];
+        Arrays.fill(last, (byte) 4);
+        assertArrayEquals(last, records.get(1).getLuma());
+    }
+
+    @Test
+    void rejectsFilesThatAreNotRecordings() throws IOException {
+        File file = new File(dir, "bad.rec");
+        try (FrameRecorder recorder = new FrameRecorder(file, 8, 4, 8, 3)) {
+            recorder.recordEdges(new byte[32], 1, 0);
+        }
+        FrameRecording.open(file);
+        long length = file.length();
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            // One slot short
+            out.setLength(length - 1);
+        }
+        assertThrows(IOException.class, () -> FrameRecording.open(file));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(length);
+            out.seek(8);
+            out.writeInt(Integer.reverseBytes(FrameRecorder.VERSION + 1));
+        }
+        assertThrows(IOException.class, () -> FrameRecording.open(file));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(0);
+            out.writeLong(0);
+        }
+        assertThrows(IOException.class, () -> FrameRecording.open(file));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(FrameRecorder.FILE_HEADER_SIZE - 1);
+        }
+        assertThrows(IOException.class, () -> FrameRecording.open(file));
+    }
+
+    @Test
+    void rawFramesKeepPaddedStrides() throws IOException {
+        Random random = new Random(19);
+        int width = 36;
+        int height = 10;
+        int maxStride = 48;
+        // {row stride, pixel stride, stride the record keeps}
+        int[][] layouts = {{36, 1, 36}, {45, 1, 45}, {48, 1, 48}, {60, 1, 36}, {80, 2, 36}};
+        for (FrameRecorder.Format format : new FrameRecorder.Format[] {
+                FrameRecorder.Format.NV21, FrameRecorder.Format.LUMA}) {
+            for (int[] layout : layouts) {
+                String name = format + " row stride " + layout[0] + " pixel stride " + layout[1];
+                Plane y = PlaneTest.randomPlane(random, width, height, layout[0], layout[1], 3, true);
+                Plane u = PlaneTest.randomPlane(random, width / 2, height / 2, width / 2 + 5, 1, 0, true);
+                Plane v = PlaneTest.randomPlane(random, width / 2, height / 2, width / 2 + 5, 1, 0, true);
+                File file = new File(dir, "raw.rec");
+                try (FrameRecorder recorder = new FrameRecorder(file, width, height, maxStride, 2)) {
+                    recorder.setRawFormat(format);
+                    assertTrue(recorder.recordFrame(y, u, v, 77, -1), name);
+                    // The plane is left where it was
+                    assertEquals(3, y.getBuffer().position(), name);
+                }
+
+                List<FrameRecording.Record> raw = FrameRecording.open(file).getRawRecords();
+                assertEquals(1, raw.size(), name);
+                FrameRecording.Record record = raw.get(0);
+                assertEquals(format, record.getFormat(), name);
+                assertEquals(layout[2], record.getStride(), name);
+                byte[] luma = new byte[width * height];
+                for (int row = 0; row < height; row++) {
+                    System.arraycopy(PlaneTest.naiveRow(y, row, width, 0), 0, luma, row * width, width);
+                }
+                assertArrayEquals(luma, record.getLuma(), name);
+
+                byte[] expected = PlaybackFrameSource.nv21FromLuma(luma, width, height);
+                if (format == FrameRecorder.Format.NV21) {
+                    int pos = width * height;
+                    for (int row = 0; row < height / 2; row++) {
+                        byte[] vRow = PlaneTest.naiveRow(v, row, width / 2, 0);
+                        byte[] uRow = PlaneTest.naiveRow(u, row, width / 2, 0);
+                        for (int x = 0; x < width / 2; x++) {
+                            expected[pos++] = vRow[x];
+                            expected[pos++] = uRow[x];
+                        }
+                    }
+                }
+                assertArrayEquals(expected, record.toNv21(), name);
+            }
+        }
+    }
+
+    private static void waitForWrites(FrameRecorder recorder, long count) {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (recorder.getWrittenCount() < count) {
+            assertTrue(System.nanoTime() < deadline, "writer stalled at " + recorder.getWrittenCount());
+            Thread.yield();
+        }
+    }
+
+    /** The file is little-endian; RandomAccessFile reads big-endian. */
+    private static int readInt(RandomAccessFile in, long position) throws IOException {
+        in.seek(position);
+        return Integer.reverseBytes(in.readInt());
+    }
+}
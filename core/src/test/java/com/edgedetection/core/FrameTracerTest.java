@@ -0,0 +1,358 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link FrameTracer}: the export is strict JSON in the trace-event
+ * format, holds the newest spans oldest first once the ring wraps, and
+ * never shows a slot that was overwritten while it was read.
+ */
+class FrameTracerTest {
+    private static final FrameSpan[] SPANS = FrameSpan.values();
+
+    @Test
+    void exportsStrictTraceEventJson() throws IOException {
+        FrameTracer tracer = new FrameTracer(64);
+        LatencyHistogram sensorToPhoton = new LatencyHistogram();
+        tracer.setSensorToPhotonHistogram(sensorToPhoton);
+        long frame = 1_234_567_891L;
+        long time = frame;
+        for (FrameSpan span : SPANS) {
+            tracer.record(span, frame, time, time + 1_005);
+            time += 2_050;
+        }
+        // A span that ends before it starts (clock skew) and times around zero
+        tracer.record(FrameSpan.DRAW, frame, time, time - 10);
+        tracer.record(FrameSpan.SWAP, -7, -5, 3);
+
+        Map<?, ?> trace = (Map<?, ?>) Json.parse(export(tracer));
+        assertEquals("ms", trace.get("displayTimeUnit"));
+        List<Map<?, ?>> spans = completeEvents(trace);
+        assertEquals(SPANS.length + 2, spans.size());
+        time = frame;
+        for (int i = 0; i < SPANS.length; i++) {
+            Map<?, ?> event = spans.get(i);
+            assertEquals(SPANS[i].name().toLowerCase(Locale.US), event.get("name"));
+            assertEquals((double) SPANS[i].track, event.get("tid"));
+            // Microseconds, exact to the nanosecond
+            assertEquals(time / 1000.0, (Double) event.get("ts"), 1e-6);
+            assertEquals(1.005, (Double) event.get("dur"), 1e-9);
+            assertEquals((double) frame, ((Map<?, ?>) event.get("args")).get("frame"));
+            time += 2_050;
+        }
+        assertEquals(0.0, spans.get(SPANS.length).get("dur"));
+        assertEquals(-0.005, (Double) spans.get(SPANS.length + 1).get("ts"), 1e-12);
+        assertEquals(0.008, (Double) spans.get(SPANS.length + 1).get("dur"), 1e-12);
+
+        // Metadata names every track
+        int named = 0;
+        for (Object item : (List<?>) trace.get("traceEvents")) {
+            Map<?, ?> event = (Map<?, ?>) item;
+            if ("thread_name".equals(event.get("name"))) {
+                named++;
+            }
+        }
+        assertEquals(4, named);
+        assertEquals(1, sensorToPhoton.getCount());
+        assertEquals(1_005, sensorToPhoton.getMax());
+    }
+
+    @Test
+    void keepsTheNewestSpansOldestFirst() throws IOException {
+        FrameTracer tracer = new FrameTracer(5);
+        assertEquals(8, tracer.getCapacity());
+        assertEquals(0, completeEvents((Map<?, ?>) Json.parse(export(tracer))).size());
+        for (int frame = 0; frame < 21; frame++) {
+            tracer.record(FrameSpan.PROCESS, frame, frame * 1000L, frame * 1000L + 500);
+        }
+        assertEquals(21, tracer.getRecordedCount());
+        List<Map<?, ?>> spans = completeEvents((Map<?, ?>) Json.parse(export(tracer)));
+        assertEquals(8, spans.size());
+        for (int i = 0; i < 8; i++) {
+            assertEquals((double) (13 + i), ((Map<?, ?>) spans.get(i).get("args")).get("frame"));
+        }
+
+        tracer.clear();
+        assertEquals(0, completeEvents((Map<?, ?>) Json.parse(export(tracer))).size());
+    }
+
+    @Test
+    void skipsSlotsLappedDuringExport() throws IOException {
+        FrameTracer tracer = new FrameTracer(8);
+        for (int frame = 0; frame < 8; frame++) {
+            tracer.record(FrameSpan.PROCESS, frame, frame * 1000L, frame * 1000L + 500);
+        }
+        // Once the first span is out, a full lap overwrites every slot still to come
+        StringWriter out = new StringWriter() {
+            private boolean lapped;
+
+            @Override
+            public void write(String text) {
+                super.write(text);
+                if (!lapped && text.contains("\"ph\":\"X\"")) {
+                    lapped = true;
+                    for (int frame = 100; frame < 108; frame++) {
+                        tracer.record(FrameSpan.DRAW, frame, frame * 1000L, frame * 1000L + 500);
+                    }
+                }
+            }
+        };
+        tracer.writeChromeTrace(out);
+        List<Map<?, ?>> spans = completeEvents((Map<?, ?>) Json.parse(out.toString()));
+        assertEquals(1, spans.size());
+        assertEquals(0.0, ((Map<?, ?>) spans.get(0).get("args")).get("frame"));
+    }
+
+    @Test
+    void skipsSlotsOverwrittenWhileExporting() throws Exception {
+        // A small ring that writers lap many times during each export
+        FrameTracer tracer = new FrameTracer(16);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 3; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (long k = writer; running.get(); k += 3) {
+                    // Every field follows from k, so a mix of two records shows
+                    tracer.record(SPANS[(int) (k % SPANS.length)], k, k * 1000, k * 1000 + k % 997);
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+        try {
+            int seen = 0;
+            for (int round = 0; round < 300; round++) {
+                for (Map<?, ?> event : completeEvents((Map<?, ?>) Json.parse(export(tracer)))) {
+                    long k = (long) (double) (Double) ((Map<?, ?>) event.get("args")).get("frame");
+                    String name = k + ": " + event;
+                    assertEquals(SPANS[(int) (k % SPANS.length)].name().toLowerCase(Locale.US), event.get("name"),
+                            name);
+                    assertEquals(k, (Double) event.get("ts"), 1e-3, name);
+                    assertEquals((k % 997) / 1000.0, (Double) event.get("dur"), 1e-9, name);
+                    seen++;
+                }
+            }
+            assertTrue(seen > 0, "nothing exported");
+        } finally {
+            running.set(false);
+            for (Thread thread : writers) {
+                thread.join();
+            }
+        }
+    }
+
+    private static String export(FrameTracer tracer) throws IOException {
+        StringWriter out = new StringWriter();
+        tracer.writeChromeTrace(out);
+        return out.toString();
+    }
+
+    private static List<Map<?, ?>> completeEvents(Map<?, ?> trace) {
+        List<Map<?, ?>> spans = new ArrayList<>();
+        for (Object item : (List<?>) trace.get("traceEvents")) {
+            Map<?, ?> event = (Map<?, ?>) item;
+            if ("X".equals(event.get("ph"))) {
+                spans.add(event);
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Strict RFC 8259 parser: objects as maps, arrays as lists, numbers as
+     * doubles; anything malformed fails the test.
+     */
+    static final class Json {
+        private final String text;
+        private int pos;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        static Object parse(String text) {
+            Json json = new Json(text);
+            Object value = json.value();
+            json.whitespace();
+            if (json.pos != text.length()) {
+                throw json.error("trailing text");
+            }
+            return value;
+        }
+
+        private Object value() {
+            whitespace();
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            char c = text.charAt(pos);
+            if (c == '{') {
+                return object();
+            } else if (c == '[') {
+                return array();
+            } else if (c == '"') {
+                return string();
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                return number();
+            }
+            for (String literal : new String[] {"true", "false", "null"}) {
+                if (text.startsWith(literal, pos)) {
+                    pos += literal.length();
+                    return literal.equals("null") ? null : Boolean.valueOf(literal);
+                }
+            }
+            throw error("unexpected '" + c + "'");
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            whitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                whitespace();
+                if (peek() != '"') {
+                    throw error("expected a key");
+                }
+                String key = string();
+                whitespace();
+                expect(':');
+                if (map.put(key, value()) != null) {
+                    throw error("duplicate key " + key);
+                }
+                whitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            whitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                whitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            StringBuilder out = new StringBuilder();
+            pos++;
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                } else if (c < 0x20) {
+                    throw error("control character in string");
+                } else if (c == '\\') {
+                    char e = text.charAt(pos++);
+                    int index = "\"\\/bfnrt".indexOf(e);
+                    if (e == 'u') {
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                    } else if (index >= 0) {
+                        out.append("\"\\/\b\f\n\r\t".charAt(index));
+                    } else {
+                        throw error("bad escape");
+                    }
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            if (peek() == '-') {
+                pos++;
+            }
+            if (peek() == '0') {
+                pos++;
+            } else if (peek() >= '1' && peek() <= '9') {
+                digits();
+            } else {
+                throw error("bad number");
+            }
+            if (peek() == '.') {
+                pos++;
+                if (!(peek() >= '0' && peek() <= '9')) {
+                    throw error("bad fraction");
+                }
+                digits();
+            }
+            if (peek() == 'e' || peek() == 'E') {
+                pos++;
+                if (peek() == '+' || peek() == '-') {
+                    pos++;
+                }
+                if (!(peek() >= '0' && peek() <= '9')) {
+                    throw error("bad exponent");
+                }
+                digits();
+            }
+            return Double.valueOf(text.substring(start, pos));
+        }
+
+        private void digits() {
+            while (peek() >= '0' && peek() <= '9') {
+                pos++;
+            }
+        }
+
+        private void whitespace() {
+            while (pos < text.length() && " \t\n\r".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private AssertionError error(String message) {
+            int from = Math.max(0, pos - 30);
+            return new AssertionError("invalid JSON at " + pos + ": " + message + " near '"
+                    + text.substring(from, Math.min(text.length(), pos + 30)) + "'");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link GaussianSmoother} against naive cascades of clipped boxes (row
+ * passes then column passes for running sums, 2-D boxes for the
+ * summed-area table), row streaming from arbitrary rows, and every Sobel
+ * path with pre-smoothing against Sobel on a separately blurred frame.
+ */
+class GaussianSmootherTest {
+    // One 3x3 box, three of them, mixed widths, and boxes wider than most frames below
+    private static final float[] SIGMAS = {1, 1.5f, 2.2f, 5, 20};
+    private static final int[] WIDTHS = {1, 2, 3, 4, 17, 64};
+    private static final int[] HEIGHTS = {1, 2, 3, 5, 31};
+
+    @Test
+    void boxRadiiApproximateSigma() {
+        for (float sigma = 0.8f; sigma <= GaussianSmoother.MAX_SIGMA; sigma += 0.7f) {
+            int[] radii = GaussianSmoother.boxRadii(sigma);
+            assertTrue(radii.length > 0 && radii.length <= GaussianSmoother.PASSES, "sigma " + sigma);
+            double variance = 0;
+            for (int radius : radii) {
+                int size = 2 * radius + 1;
+                variance += (size * size - 1) / 12.0;
+            }
+            assertEquals(sigma, Math.sqrt(variance), 0.2 * sigma, "sigma " + sigma);
+        }
+    }
+
+    @Test
+    void runningSumsMatchNaiveCascade() {
+        Random random = new Random(41);
+        for (float sigma : SIGMAS) {
+            GaussianSmoother smoother = new GaussianSmoother(sigma);
+            int[] radii = GaussianSmoother.boxRadii(sigma);
+            for (int width : WIDTHS) {
+                for (int height : HEIGHTS) {
+                    String name = "sigma " + sigma + " " + width + "x" + height;
+                    byte[] src = new byte[width * height];
+                    random.nextBytes(src);
+                    byte[] expected = separable(src, width, height, radii);
+                    byte[] dst = new byte[width * height];
+                    smoother.smooth(src, dst, width, height);
+                    assertArrayEquals(expected, dst, name);
+
+                    Plane plane = plane(src, width, height);
+                    Arrays.fill(dst, (byte) 0);
+                    smoother.smooth(plane, dst, width, height);
+                    assertArrayEquals(expected, dst, name + " plane");
+                }
+            }
+        }
+    }
+
+    @Test
+    void summedAreaMatchesNaiveCascade() {
+        Random random = new Random(42);
+        for (float sigma : SIGMAS) {
+            GaussianSmoother smoother = new GaussianSmoother(sigma);
+            smoother.setSummedArea(true);
+            int[] radii = GaussianSmoother.boxRadii(sigma);
+            for (int width : WIDTHS) {
+                for (int height : HEIGHTS) {
+                    String name = "sigma " + sigma + " " + width + "x" + height;
+                    byte[] src = new byte[width * height];
+                    random.nextBytes(src);
+                    byte[] expected = boxes2d(src, width, height, radii);
+                    byte[] dst = new byte[width * height];
+                    smoother.smooth(src, dst, width, height);
+                    assertArrayEquals(expected, dst, name);
+                    smoother.smooth(plane(src, width, height), dst, width, height);
+                    assertArrayEquals(expected, dst, name + " plane");
+                }
+            }
+        }
+    }
+
+    @Test
+    void readRowRestartsAnywhere() {
+        Random random = new Random(43);
+        int width = 23;
+        int height = 37;
+        for (float sigma : SIGMAS) {
+            GaussianSmoother smoother = new GaussianSmoother(sigma);
+            byte[] src = new byte[width * height];
+            random.nextBytes(src);
+            byte[] expected = separable(src, width, height, GaussianSmoother.boxRadii(sigma));
+            int[] row = new int[width];
+            smoother.begin(src, null, width);
+            // Random jumps, repeats and short in-order runs after them
+            for (int i = 0; i < 300; i++) {
+                int y = random.nextInt(4) == 0 ? Math.min(height - 1, i % height) : random.nextInt(height);
+                smoother.readRow(y, height, row);
+                for (int x = 0; x < width; x++) {
+                    assertEquals(expected[y * width + x] & 0xFF, row[x], "sigma " + sigma + " row " + y + " x " + x);
+                }
+            }
+            smoother.end();
+        }
+    }
+
+    @Test
+    void everySobelPathMatchesSobelOnBlurredFrame() {
+        Random random = new Random(44);
+        SobelVariant[] variants = {SobelVariant.REFERENCE, SobelVariant.FAST};
+        for (float sigma : new float[] {1, 1.5f, 4}) {
+            int[] radii = GaussianSmoother.boxRadii(sigma);
+            for (int width : new int[] {1, 3, 17, 64}) {
+                for (int height : new int[] {1, 2, 5, 31}) {
+                    byte[] luma = new byte[width * height];
+                    random.nextBytes(luma);
+                    Plane plane = plane(luma, width, height);
+                    byte[] expected = new byte[width * height];
+                    SobelKernel.apply(separable(luma, width, height, radii), expected, width, height, 60,
+                            new EdgeStats());
+                    byte[] expectedPacked = new byte[EdgeBits.size(width, height)];
+                    EdgeBits.pack(expected, width, height, expectedPacked);
+                    for (SobelVariant variant : variants) {
+                        for (int workers : new int[] {1, 2, 3}) {
+                            String name = "sigma " + sigma + " " + width + "x" + height + " " + variant
+                                    + " workers " + workers;
+                            try (EdgeFrameProcessor processor = new EdgeFrameProcessor(width, height)) {
+                                processor.setSobelVariant(variant);
+                                processor.setWorkerCount(workers);
+                                processor.setThreshold(60);
+                                processor.setPreSmoothing(sigma);
+                                byte[] output = processor.processEdgeDetection(plane, null, null);
+                                assertArrayEquals(expected, Arrays.copyOf(output, width * height), name);
+                                byte[] packed = new byte[processor.getPackedSize()];
+                                processor.processPackedEdges(plane, packed);
+                                assertArrayEquals(expectedPacked, packed, name + " packed");
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Rows padded to an odd stride, so the plane path reads through readRow. */
+    private static Plane plane(byte[] src, int width, int height) {
+        int stride = width + 3;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(stride * height);
+        for (int y = 0; y < height; y++) {
+            buffer.position(y * stride);
+            buffer.put(src, y * width, width);
+        }
+        buffer.position(0);
+        return new Plane(buffer, stride, 1);
+    }
+
+    /** Every row pass, then every column pass, each a clipped box rounded to nearest. */
+    private static byte[] separable(byte[] src, int width, int height, int[] radii) {
+        int[] frame = ints(src);
+        for (int radius : radii) {
+            frame = box(frame, width, height, radius, 0);
+        }
+        for (int radius : radii) {
+            frame = box(frame, width, height, 0, radius);
+        }
+        return bytes(frame);
+    }
+
+    /** One clipped 2-D box per pass, rounded to nearest. */
+    private static byte[] boxes2d(byte[] src, int width, int height, int[] radii) {
+        int[] frame = ints(src);
+        for (int radius : radii) {
+            frame = box(frame, width, height, radius, radius);
+        }
+        return bytes(frame);
+    }
+
+    /** Mean over the window's pixels inside the frame, rounded half up. */
+    private static int[] box(int[] frame, int width, int height, int radiusX, int radiusY) {
+        int[] out = new int[frame.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int j = Math.max(0, y - radiusY); j <= Math.min(height - 1, y + radiusY); j++) {
+                    for (int i = Math.max(0, x - radiusX); i <= Math.min(width - 1, x + radiusX); i++) {
+                        sum += frame[j * width + i];
+                        count++;
+                    }
+                }
+                out[y * width + x] = (sum + count / 2) / count;
+            }
+        }
+        return out;
+    }
+
+    private static int[] ints(byte[] src) {
+        int[] frame = new int[src.length];
+        for (int i = 0; i < src.length; i++) {
+            frame[i] = src[i] & 0xFF;
+        }
+        return frame;
+    }
+
+    private static byte[] bytes(int[] frame) {
+        byte[] out = new byte[frame.length];
+        for (int i = 0; i < frame.length; i++) {
+            out[i] = (byte) frame[i];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,84 @@
+package com.edgedetection.core;
+
+import java.util.Random;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengles.GLES20;
+
+/**
+ * {@link GlslSources#SOBEL_PASS} compiled and drawn in a headless GLES 2
+ * context the way the app's pass chain draws it (unflipped full-screen
+ * quad into an RGBA8 framebuffer), on a LUMINANCE upload of synthetic
+ * frames, against {@link FastSobelKernel} within one level. Skipped where
+ * {@link GlesContext} finds no EGL.
+ */
+class GlSobelShaderTest {
+    private static final float[] QUAD = {-1, -1, 1, -1, -1, 1, 1, 1};
+    private static final float[] QUAD_TEX_COORDS = {0, 0, 1, 0, 0, 1, 1, 1};
+    private static final int[][] SIZES = {{1, 1}, {3, 2}, {17, 9}, {64, 48}, {101, 37}, {640, 480}};
+
+    private static GlesContext gl;
+    private static int program;
+
+    @BeforeAll
+    static void createContext() {
+        gl = GlesContext.open();
+        program = gl.program(GlslSources.VERTEX, GlslSources.passHeader(false) + GlslSources.SOBEL_PASS);
+    }
+
+    @AfterAll
+    static void destroyContext() {
+        if (gl != null) {
+            gl.close();
+        }
+    }
+
+    @Test
+    void matchesFastSobelOnSyntheticFrames() {
+        Random random = new Random(71);
+        FastSobelKernel fast = new FastSobelKernel();
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] luma = new byte[width * height];
+            random.nextBytes(luma);
+            for (int threshold : new int[] {0, 60, SobelKernel.DEFAULT_THRESHOLD, 400, 1443}) {
+                byte[] expected = new byte[width * height];
+                fast.apply(luma, expected, width, height, threshold, new EdgeStats());
+                SobelShaderEmulationTest.assertMatchesKernel(expected, render(luma, width, height, threshold),
+                        width, height, 1, width + "x" + height + " threshold " + threshold);
+            }
+        }
+    }
+
+    @Test
+    void matchesFastSobelOnCameraLikeFrames() {
+        FastSobelKernel fast = new FastSobelKernel();
+        int width = 320;
+        int height = 240;
+        for (byte[] luma : SyntheticFrames.generate(SyntheticFrames.Pattern.MOVING_BLOCKS, width, height, 4)) {
+            byte[] expected = new byte[width * height];
+            fast.apply(luma, expected, width, height, SobelKernel.DEFAULT_THRESHOLD, new EdgeStats());
+            SobelShaderEmulationTest.assertMatchesKernel(expected,
+                    render(luma, width, height, SobelKernel.DEFAULT_THRESHOLD), width, height, 1, "synthetic");
+        }
+    }
+
+    private static byte[] render(byte[] luma, int width, int height, int threshold) {
+        int texture = gl.texture(GLES20.GL_LUMINANCE, width, height, luma);
+        gl.bindTarget(width, height);
+        GLES20.glUseProgram(program);
+        gl.attribute(program, "vPosition", QUAD, 0, 2);
+        gl.attribute(program, "vTexCoord", QUAD_TEX_COORDS, 0, 2);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "sTexture"), 0);
+        GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uTexelSize"), 1.0f / width, 1.0f / height);
+        GLES20.glUniform2f(GLES20.glGetUniformLocation(program, "uSize"), width, height);
+        GLES20.glUniform1f(GLES20.glGetUniformLocation(program, "uSquaredThreshold"),
+                FastSobelKernel.squaredThreshold(threshold));
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        return gl.readRgba(width, height);
+    }
+}
@@ -0,0 +1,75 @@
+package com.edgedetection.core;
+
+import java.io.IOException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.opengles.GLES20;
+
+/**
+ * The stereo draw on a GPU: {@link GlslSources#GREY_DISPLAY} over the
+ * default {@link DistortionMesh} into both eye viewports, as StereoMesh
+ * draws a processed frame, against {@link StereoGoldenTest}'s golden.
+ * Pixels whose texel flips with the rasteriser's rounding (on cell and
+ * triangle edges) may differ, up to 1% of them. Skipped where
+ * {@link GlesContext} finds no EGL.
+ */
+class GlStereoMeshTest {
+    private static final int WIDTH = StereoGoldenTest.VIEWPORT_WIDTH;
+    private static final int HEIGHT = StereoGoldenTest.VIEWPORT_HEIGHT;
+
+    private static GlesContext gl;
+    private static int program;
+
+    @BeforeAll
+    static void createContext() {
+        gl = GlesContext.open();
+        program = gl.program(GlslSources.VERTEX, GlslSources.GREY_DISPLAY);
+    }
+
+    @AfterAll
+    static void destroyContext() {
+        if (gl != null) {
+            gl.close();
+        }
+    }
+
+    @Test
+    void matchesGolden() throws IOException {
+        byte[] image = render();
+        StereoGoldenTest.assertMatchesGolden(image, WIDTH, HEIGHT, WIDTH * HEIGHT / 100, "gl");
+        StereoGoldenTest.assertEyesIdentical(image, WIDTH, HEIGHT, "gl");
+    }
+
+    /** Grey image, top row first, like {@link StereoGoldenTest#rasterize}. */
+    private static byte[] render() {
+        DistortionMesh mesh = StereoGoldenTest.defaultMesh();
+        int texture = gl.texture(GLES20.GL_LUMINANCE, StereoGoldenTest.TEXTURE_WIDTH,
+                StereoGoldenTest.TEXTURE_HEIGHT, StereoGoldenTest.checkerboard());
+        gl.bindTarget(WIDTH, HEIGHT);
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glUseProgram(program);
+        float[] vertices = mesh.getVertices();
+        gl.attribute(program, "vPosition", vertices, 0, DistortionMesh.FLOATS_PER_VERTEX);
+        gl.attribute(program, "vTexCoord", vertices, 2, DistortionMesh.FLOATS_PER_VERTEX);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "sTexture"), 0);
+        int eyeWidth = WIDTH / 2;
+        GLES20.glViewport(0, 0, eyeWidth, HEIGHT);
+        gl.drawTriangles(mesh.getIndices());
+        GLES20.glViewport(WIDTH - eyeWidth, 0, eyeWidth, HEIGHT);
+        gl.drawTriangles(mesh.getIndices());
+        byte[] rgba = gl.readRgba(WIDTH, HEIGHT);
+        byte[] image = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            // Window row 0 is the bottom one
+            int row = (HEIGHT - 1 - y) * WIDTH;
+            for (int x = 0; x < WIDTH; x++) {
+                image[y * WIDTH + x] = rgba[4 * (row + x)];
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,220 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Assumptions;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.egl.EGL;
+import org.lwjgl.egl.EGL10;
+import org.lwjgl.egl.EGL12;
+import org.lwjgl.egl.EGL13;
+import org.lwjgl.egl.EGL14;
+import org.lwjgl.egl.EGLCapabilities;
+import org.lwjgl.opengles.GLES;
+import org.lwjgl.opengles.GLES20;
+
+/**
+ * Headless GLES 2 context for the shader tests, through EGL on the default
+ * display (on Linux, Mesa's llvmpipe with EGL_PLATFORM=surfaceless, which
+ * the test task sets). Everything renders into framebuffer objects, so the
+ * surface is only a 1x1 pbuffer, or none where EGL allows that.
+ *
+ * {@link #open()} skips the calling test when no EGL or GLES 2 library can
+ * be loaded or initialised, and fails it instead when the gl.required
+ * system property is set (the test task sets it on CI, so the shader tests
+ * cannot go missing there unnoticed). Call from the test thread only.
+ */
+final class GlesContext implements AutoCloseable {
+    private final long display;
+    private final long surface;
+    private final long context;
+    private final List<Buffer> clientArrays = new ArrayList<>();
+
+    private GlesContext(long display, long surface, long context) {
+        this.display = display;
+        this.surface = surface;
+        this.context = context;
+    }
+
+    /**
+     * A current GLES 2 context, or an aborted (skipped) test if there is
+     * none on this machine and GL is not required.
+     */
+    static GlesContext open() {
+        long display = EGL10.EGL_NO_DISPLAY;
+        try {
+            display = EGL10.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+            int[] major = new int[1];
+            int[] minor = new int[1];
+            if (display == EGL10.EGL_NO_DISPLAY || !EGL10.eglInitialize(display, major, minor)) {
+                throw new IllegalStateException("eglInitialize failed");
+            }
+            EGLCapabilities capabilities = EGL.createDisplayCapabilities(display, major[0], minor[0]);
+            if (!EGL12.eglBindAPI(EGL12.EGL_OPENGL_ES_API)) {
+                throw new IllegalStateException("no OpenGL ES API");
+            }
+            int[] attributes = {
+                EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                EGL12.EGL_RENDERABLE_TYPE, EGL13.EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_RED_SIZE, 8,
+                EGL10.EGL_GREEN_SIZE, 8,
+                EGL10.EGL_BLUE_SIZE, 8,
+                EGL10.EGL_ALPHA_SIZE, 8,
+                EGL10.EGL_NONE
+            };
+            PointerBuffer configs = BufferUtils.createPointerBuffer(1);
+            int[] count = new int[1];
+            if (!EGL10.eglChooseConfig(display, attributes, configs, count) || count[0] == 0) {
+                // Surfaceless platforms may offer no pbuffer configs at all
+                attributes[1] = 0;
+                if (!EGL10.eglChooseConfig(display, attributes, configs, count) || count[0] == 0) {
+                    throw new IllegalStateException("no RGBA8 GLES 2 config");
+                }
+            }
+            long config = configs.get(0);
+            long surface = EGL10.eglCreatePbufferSurface(display, config,
+                    new int[] {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+            if (surface == EGL10.EGL_NO_SURFACE && !capabilities.EGL_KHR_surfaceless_context) {
+                throw new IllegalStateException("no pbuffer and no surfaceless contexts");
+            }
+            long context = EGL10.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
+                    new int[] {EGL13.EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE});
+            if (context == EGL10.EGL_NO_CONTEXT || !EGL10.eglMakeCurrent(display, surface, surface, context)) {
+                throw new IllegalStateException("cannot make a GLES 2 context current");
+            }
+            GLES.createCapabilities();
+            return new GlesContext(display, surface, context);
+        } catch (Throwable e) {
+            // UnsatisfiedLinkError and friends when there is no libEGL
+            if (display != EGL10.EGL_NO_DISPLAY) {
+                try {
+                    EGL10.eglTerminate(display);
+                } catch (Throwable ignored) {
+                    // Already failing
+                }
+            }
+            if (Boolean.getBoolean("gl.required")) {
+                return fail("No headless GLES 2 context, and gl.required is set", e);
+            }
+            return Assumptions.abort("No headless GLES 2 context: " + e);
+        }
+    }
+
+    /** Compiles and links a program; fails the test with the info log. */
+    int program(String vertexSource, String fragmentSource) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, shader(GLES20.GL_VERTEX_SHADER, vertexSource));
+        GLES20.glAttachShader(program, shader(GLES20.GL_FRAGMENT_SHADER, fragmentSource));
+        GLES20.glLinkProgram(program);
+        assertEquals(GLES20.GL_TRUE, GLES20.glGetProgrami(program, GLES20.GL_LINK_STATUS),
+                () -> "link: " + GLES20.glGetProgramInfoLog(program));
+        return program;
+    }
+
+    private static int shader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        assertEquals(GLES20.GL_TRUE, GLES20.glGetShaderi(shader, GLES20.GL_COMPILE_STATUS),
+                () -> "compile: " + GLES20.glGetShaderInfoLog(shader));
+        return shader;
+    }
+
+    /**
+     * A NEAREST, clamped texture of tightly packed rows in format
+     * (GL_LUMINANCE or GL_RGBA), row 0 at texture coordinate t = 0.
+     */
+    int texture(int format, int width, int height, byte[] pixels) {
+        ByteBuffer data = BufferUtils.createByteBuffer(pixels.length);
+        data.put(pixels).flip();
+        int texture = GLES20.glGenTextures();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format,
+                GLES20.GL_UNSIGNED_BYTE, data);
+        return texture;
+    }
+
+    /**
+     * Binds a new width x height RGBA8 framebuffer object and sets the
+     * viewport to all of it.
+     */
+    void bindTarget(int width, int height) {
+        int texture = GLES20.glGenTextures();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        int framebuffer = GLES20.glGenFramebuffers();
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                texture, 0);
+        assertEquals(GLES20.GL_FRAMEBUFFER_COMPLETE, GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER),
+                "framebuffer status");
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    /**
+     * Points a vec2 attribute of program at floats (client-side, as the
+     * app's quad does), pairs from offset with the given stride in floats.
+     */
+    void attribute(int program, String name, float[] values, int offset, int stride) {
+        FloatBuffer data = BufferUtils.createFloatBuffer(values.length);
+        data.put(values).position(offset);
+        // The GL reads it at the draw call; a collected buffer is freed
+        clientArrays.add(data);
+        int location = GLES20.glGetAttribLocation(program, name);
+        GLES20.glVertexAttribPointer(location, 2, GLES20.GL_FLOAT, false, stride * 4, data);
+        GLES20.glEnableVertexAttribArray(location);
+    }
+
+    /**
+     * Draws indexed GL_TRIANGLES with the attributes set so far (the GL
+     * copies the indices during the call).
+     */
+    void drawTriangles(short[] indices) {
+        ShortBuffer data = BufferUtils.createShortBuffer(indices.length);
+        data.put(indices).flip();
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, data);
+    }
+
+    /**
+     * The bound framebuffer as RGBA rows, row 0 at the bottom (window
+     * y = 0); fails the test on any GL error so far. Ends the draws that
+     * {@link #attribute} set up.
+     */
+    byte[] readRgba(int width, int height) {
+        ByteBuffer data = BufferUtils.createByteBuffer(width * height * 4);
+        GLES20.glPixelStorei(GLES20.GL_PACK_ALIGNMENT, 1);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+        assertEquals(GLES20.GL_NO_ERROR, GLES20.glGetError(), "GL error");
+        byte[] pixels = new byte[data.remaining()];
+        data.get(pixels);
+        clientArrays.clear();
+        return pixels;
+    }
+
+    @Override
+    public void close() {
+        EGL10.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+        EGL10.eglDestroyContext(display, context);
+        if (surface != EGL10.EGL_NO_SURFACE) {
+            EGL10.eglDestroySurface(display, surface);
+        }
+        EGL10.eglTerminate(display);
+        GLES.setCapabilities(null);
+    }
+}
@@ -0,0 +1,109 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link IncrementalSobel} as {@link EdgeFrameProcessor} drives it: a
+ * threshold change refreshes the whole frame, so an auto threshold must
+ * not change between the refreshes that are due anyway.
+ */
+class IncrementalSobelTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+
+    @Test
+    void autoThresholdIsHeldBetweenFullRefreshes() {
+        for (ThresholdMode mode : new ThresholdMode[] {ThresholdMode.OTSU, ThresholdMode.PERCENTILE}) {
+            Random random = new Random(21);
+            byte[] scene = scene(random);
+            try (EdgeFrameProcessor processor = new EdgeFrameProcessor(WIDTH, HEIGHT)) {
+                processor.setThresholdMode(mode);
+                processor.setIncremental(true);
+                IncrementalSobel incremental = processor.getIncrementalSobel();
+
+                int frames = 3 * IncrementalSobel.DEFAULT_FULL_REFRESH_INTERVAL;
+                int refreshes = 0;
+                int held = -1;
+                for (int frame = 0; frame < frames; frame++) {
+                    // Sensor noise: the histogram (and so the auto threshold)
+                    // moves, no tile changes enough to be recomputed
+                    processor.processEdgeDetection(plane(noisy(random, scene)), null, null);
+                    int threshold = processor.getStats().getThreshold();
+                    if (incremental.getRecomputedTiles() == incremental.getTileCount()) {
+                        refreshes++;
+                        held = threshold;
+                    } else {
+                        assertEquals(0, incremental.getRecomputedTiles(), mode + " frame " + frame);
+                        assertEquals(held, threshold, mode + " threshold moved at frame " + frame);
+                    }
+                    assertEquals(held, incremental.getThreshold(), mode + " frame " + frame);
+                }
+                assertEquals(frames / IncrementalSobel.DEFAULT_FULL_REFRESH_INTERVAL, refreshes,
+                        mode + " full refreshes");
+            }
+        }
+    }
+
+    @Test
+    void fixedThresholdChangeRefreshesAtOnce() {
+        byte[] scene = scene(new Random(22));
+        try (EdgeFrameProcessor processor = new EdgeFrameProcessor(WIDTH, HEIGHT)) {
+            processor.setIncremental(true);
+            IncrementalSobel incremental = processor.getIncrementalSobel();
+            byte[] output = processor.getOutputData();
+
+            processor.processEdgeDetection(plane(scene), null, null);
+            assertEquals(incremental.getTileCount(), incremental.getRecomputedTiles());
+            processor.processEdgeDetection(plane(scene), null, null);
+            assertEquals(0, incremental.getRecomputedTiles());
+
+            processor.setThreshold(40);
+            processor.processEdgeDetection(plane(scene), null, null);
+            assertEquals(incremental.getTileCount(), incremental.getRecomputedTiles());
+            assertEquals(40, incremental.getThreshold());
+            byte[] expected = new byte[WIDTH * HEIGHT];
+            SobelKernel.apply(scene, expected, WIDTH, HEIGHT, 40, new EdgeStats());
+            byte[] actual = new byte[WIDTH * HEIGHT];
+            System.arraycopy(output, 0, actual, 0, actual.length);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    /** Smooth ramps with a few hard-edged blocks, so there are edges to find. */
+    private static byte[] scene(Random random) {
+        byte[] scene = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                scene[y * WIDTH + x] = (byte) (40 + x + y);
+            }
+        }
+        for (int block = 0; block < 6; block++) {
+            int x0 = random.nextInt(WIDTH - 16);
+            int y0 = random.nextInt(HEIGHT - 16);
+            int value = 60 + random.nextInt(160);
+            for (int y = y0; y < y0 + 16; y++) {
+                for (int x = x0; x < x0 + 16; x++) {
+                    scene[y * WIDTH + x] = (byte) value;
+                }
+            }
+        }
+        return scene;
+    }
+
+    private static byte[] noisy(Random random, byte[] scene) {
+        byte[] frame = new byte[scene.length];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) ((scene[i] & 0xFF) + random.nextInt(3) - 1);
+        }
+        return frame;
+    }
+
+    private static Plane plane(byte[] luma) {
+        return new Plane(ByteBuffer.wrap(luma), WIDTH, 1);
+    }
+}
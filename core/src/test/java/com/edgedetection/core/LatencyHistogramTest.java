@@ -0,0 +1,120 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link LatencyHistogram}: buckets tile the value range without gaps and
+ * within 1/16 of their values, percentiles against a sorted list, and no
+ * counts lost with several writers at once.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsTileTheRange() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            long lower = bucket == 0 ? 0 : LatencyHistogram.upperBound(bucket - 1) + 1;
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(upper >= lower, "bucket " + bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower), "lower bound of " + bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(upper), "upper bound of " + bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower + (upper - lower) / 2), "middle of " + bucket);
+            // Exact below 16 ns, then no wider than 1/16 of its values
+            assertTrue(upper - lower <= lower / 16, "bucket " + bucket + " is " + lower + ".." + upper);
+        }
+        // Beyond the last bucket everything is clamped into it
+        int last = LatencyHistogram.BUCKET_COUNT - 1;
+        assertEquals(last, LatencyHistogram.bucketOf(LatencyHistogram.upperBound(last) + 1));
+        assertEquals(last, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    void percentilesMatchSortedValues() {
+        Random random = new Random(15);
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        long[] values = new long[20_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform from 1 ns to about 1 s
+            values[i] = (long) Math.exp(random.nextDouble() * 20.7);
+            histogram.record(values[i]);
+        }
+        // Negative durations (clock steps) count as 0
+        histogram.record(-5);
+        long[] sorted = Arrays.copyOf(values, values.length + 1);
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, histogram.getCount());
+        assertEquals(sorted[sorted.length - 1], histogram.getMax());
+        for (double percentile : new double[] {0, 1, 10, 50, 90, 99, 99.9, 100}) {
+            long rank = Math.max(1, (long) Math.ceil(sorted.length * percentile / 100.0));
+            long exact = sorted[(int) rank - 1];
+            long reported = histogram.getPercentile(percentile);
+            // Upper bound of the value's bucket: never below it, at most 1/16 above
+            assertTrue(reported >= exact && reported <= exact + exact / 16, "p" + percentile + ": " + reported
+                    + " for " + exact);
+        }
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    void concurrentWritersLoseNothing() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int writers = 4;
+        int perWriter = 200_000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perWriter; i++) {
+                    // Every writer hits the same few buckets, the worst case for contention
+                    histogram.record(1000 + (i % 4) + writer * (i == perWriter - 1 ? 1_000_000 : 0));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        // Readers while writing see a consistent, if torn, view
+        while (threads.get(0).isAlive()) {
+            long p50 = histogram.getPercentile(50);
+            assertTrue(p50 == 0 || p50 >= 1000 && p50 <= 1000 + 1000 / 16, "p50 " + p50);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long total = (long) writers * perWriter;
+        assertEquals(total, histogram.getCount());
+        assertEquals(1000 + 3 + (writers - 1) * 1_000_000L, histogram.getMax());
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+        long sum = 0;
+        for (int w = 0; w < writers; w++) {
+            for (int i = 0; i < perWriter; i++) {
+                sum += 1000 + (i % 4) + w * (i == perWriter - 1 ? 1_000_000 : 0);
+            }
+        }
+        assertEquals(sum / total, histogram.getMean());
+        // Every count landed in a bucket: the three outliers are exactly the
+        // last three ranks, so one lost count would move the boundary
+        assertTrue(histogram.getPercentile(100.0 * (total - 2.5) / total) >= 1_000_000);
+        assertTrue(histogram.getPercentile(100.0 * (total - 3.5) / total) <= 1000 + 1000 / 16);
+    }
+}
@@ -0,0 +1,115 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link Nv21Packer} against a naive per-pixel packer for planar chroma and
+ * both semi-planar interleavings (V first as in NV21, U first as in NV12),
+ * where U and V are views of one buffer a byte apart, as cameras hand them
+ * out. Rows are padded except the last, which stops at its last pixel.
+ */
+class Nv21PackerTest {
+    private static final int[] SIZES = {1, 2, 3, 4, 5, 17, 64, 101};
+    private static final int[] PADDING = {0, 1, 6, 32};
+
+    private enum Layout { PLANAR, V_FIRST, U_FIRST }
+
+    @Test
+    void packsEveryLayout() {
+        Random random = new Random(7);
+        Nv21Packer packer = new Nv21Packer();
+        for (Layout layout : Layout.values()) {
+            for (int width : SIZES) {
+                for (int height : SIZES) {
+                    for (int padding : PADDING) {
+                        for (boolean direct : new boolean[] {false, true}) {
+                            Plane[] uv = chromaPlanes(random, layout, width / 2, height / 2, padding, direct);
+                            String name = layout + " " + width + "x" + height + " padding " + padding +
+                                          (direct ? " direct" : " heap");
+                            assertPacked(packer, uv[0], uv[1], width, height, name);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void reusesBuffersAcrossSizes() {
+        Random random = new Random(8);
+        Nv21Packer packer = new Nv21Packer();
+        int[][] sizes = {{64, 48}, {6, 4}, {101, 9}, {1, 1}, {640, 480}, {3, 3}};
+        for (int[] size : sizes) {
+            for (Layout layout : Layout.values()) {
+                Plane[] uv = chromaPlanes(random, layout, size[0] / 2, size[1] / 2, 10, true);
+                assertPacked(packer, uv[0], uv[1], size[0], size[1], layout + " " + size[0] + "x" + size[1]);
+            }
+        }
+    }
+
+    private static void assertPacked(Nv21Packer packer, Plane u, Plane v, int width, int height, String name) {
+        int offset = width * height;
+        int length = offset + 2 * (width / 2) * (height / 2);
+        byte[] expected = new byte[length + 3];
+        byte[] actual = new byte[length + 3];
+        // Guard bytes around the chroma must survive
+        Arrays.fill(expected, (byte) 0x5A);
+        Arrays.fill(actual, (byte) 0x5A);
+        naivePack(u, v, width, height, expected, offset);
+        packer.pack(u, v, width, height, actual, offset);
+        assertArrayEquals(expected, actual, name);
+    }
+
+    private static void naivePack(Plane u, Plane v, int width, int height, byte[] out, int offset) {
+        int pos = offset;
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                out[pos++] = pixel(v, x, y);
+                out[pos++] = pixel(u, x, y);
+            }
+        }
+    }
+
+    private static byte pixel(Plane plane, int x, int y) {
+        ByteBuffer buffer = plane.getBuffer();
+        return buffer.get(buffer.position() + y * plane.getRowStride() + x * plane.getPixelStride());
+    }
+
+    /**
+     * {u, v} for a chromaWidth x chromaHeight chroma image.
+     */
+    private static Plane[] chromaPlanes(Random random, Layout layout, int chromaWidth, int chromaHeight,
+                                        int padding, boolean direct) {
+        // Degenerate frames still get (tiny) planes, as a camera would hand out
+        int width = Math.max(1, chromaWidth);
+        int height = Math.max(1, chromaHeight);
+        if (layout == Layout.PLANAR) {
+            int rowStride = width + padding;
+            return new Plane[] {
+                PlaneTest.randomPlane(random, width, height, rowStride, 1, 0, direct),
+                PlaneTest.randomPlane(random, width, height, rowStride, 1, 0, direct)
+            };
+        }
+        int rowStride = 2 * width + padding;
+        // Each plane ends at its own last sample: the second one a byte later
+        int planeLength = (height - 1) * rowStride + 2 * (width - 1) + 1;
+        byte[] bytes = new byte[planeLength + 1];
+        random.nextBytes(bytes);
+        ByteBuffer backing = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+        backing.put(bytes);
+        Plane first = new Plane(slice(backing, 0, planeLength), rowStride, 2);
+        Plane second = new Plane(slice(backing, 1, planeLength), rowStride, 2);
+        return layout == Layout.V_FIRST ? new Plane[] {second, first} : new Plane[] {first, second};
+    }
+
+    private static ByteBuffer slice(ByteBuffer backing, int offset, int length) {
+        ByteBuffer view = backing.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice();
+    }
+}
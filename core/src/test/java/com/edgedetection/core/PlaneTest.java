@@ -0,0 +1,140 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link Plane} reads against a naive per-pixel read, on synthetic planes
+ * laid out the way cameras deliver them: padded rows, interleaved pixels
+ * and a last row that stops right after its last pixel.
+ */
+class PlaneTest {
+    private static final int[] WIDTHS = {1, 2, 3, 7, 64, 101};
+    private static final int[] HEIGHTS = {1, 2, 3, 9};
+    private static final int[] PADDING = {0, 1, 13};
+
+    @Test
+    void readRowHonoursStrides() {
+        Random random = new Random(1);
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+            for (int width : WIDTHS) {
+                for (int height : HEIGHTS) {
+                    for (int padding : PADDING) {
+                        for (boolean direct : new boolean[] {false, true}) {
+                            int rowStride = (width - 1) * pixelStride + 1 + padding;
+                            Plane plane = randomPlane(random, width, height, rowStride, pixelStride, 0, direct);
+                            String layout = layout(width, height, rowStride, pixelStride, direct);
+                            for (int y = 0; y < height; y++) {
+                                byte[] row = new byte[width + 2];
+                                plane.readRow(y, row, 1, width);
+                                assertArrayEquals(naiveRow(plane, y, width, 1), row, layout + " row " + y);
+                            }
+                            assertEquals(0, plane.getBuffer().position(), layout + " position moved");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void readRowsPacksTightly() {
+        Random random = new Random(2);
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+            for (int width : WIDTHS) {
+                for (int height : HEIGHTS) {
+                    int rowStride = width * pixelStride + 5;
+                    Plane plane = randomPlane(random, width, height, rowStride, pixelStride, 0, true);
+                    byte[] expected = new byte[width * height];
+                    for (int y = 0; y < height; y++) {
+                        byte[] row = naiveRow(plane, y, width, 0);
+                        System.arraycopy(row, 0, expected, y * width, width);
+                    }
+                    byte[] actual = new byte[width * height];
+                    plane.readRows(actual, width, height);
+                    assertArrayEquals(expected, actual, layout(width, height, rowStride, pixelStride, true));
+                }
+            }
+        }
+    }
+
+    @Test
+    void readSpanCopiesRawBytes() {
+        Random random = new Random(3);
+        for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+                int rowStride = 2 * width + 3;
+                Plane plane = randomPlane(random, width, height, rowStride, 2, 0, false);
+                int span = 2 * width - 1;
+                for (int y = 0; y < height; y++) {
+                    byte[] actual = new byte[span];
+                    plane.readSpan(y, actual, 0, span);
+                    byte[] expected = new byte[span];
+                    for (int i = 0; i < span; i++) {
+                        expected[i] = plane.getBuffer().get(y * rowStride + i);
+                    }
+                    assertArrayEquals(expected, actual, layout(width, height, rowStride, 2, false) + " row " + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    void readsAreRelativeToBufferPosition() {
+        Random random = new Random(4);
+        Plane plane = randomPlane(random, 17, 5, 40, 2, 11, true);
+        assertEquals(11, plane.getBuffer().position());
+        byte[] row = new byte[17];
+        plane.readRow(4, row, 0, 17);
+        assertArrayEquals(naiveRow(plane, 4, 17, 0), row);
+        assertEquals(11, plane.getBuffer().position());
+    }
+
+    @Test
+    void viewReadsTheSamePixels() {
+        Random random = new Random(5);
+        Plane source = randomPlane(random, 33, 4, 80, 2, 3, true);
+        Plane view = new Plane().viewOf(source);
+        for (int y = 0; y < 4; y++) {
+            byte[] row = new byte[33];
+            view.readRow(y, row, 0, 33);
+            assertArrayEquals(naiveRow(source, y, 33, 0), row);
+        }
+    }
+
+    /**
+     * A plane whose buffer starts at position and ends right after the last
+     * pixel of its last row (no padding there), filled with random bytes.
+     */
+    static Plane randomPlane(Random random, int width, int height, int rowStride, int pixelStride,
+                             int position, boolean direct) {
+        int length = position + (height - 1) * rowStride + (width - 1) * pixelStride + 1;
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        buffer.put(bytes).position(position);
+        return new Plane(buffer, rowStride, pixelStride);
+    }
+
+    /**
+     * Pixels of row y with absolute gets, one at a time, at dstOffset of a
+     * row two bytes longer than width (so stray writes show up).
+     */
+    static byte[] naiveRow(Plane plane, int y, int width, int dstOffset) {
+        ByteBuffer buffer = plane.getBuffer();
+        byte[] row = new byte[dstOffset == 0 ? width : width + 2];
+        for (int x = 0; x < width; x++) {
+            row[dstOffset + x] = buffer.get(buffer.position() + y * plane.getRowStride() + x * plane.getPixelStride());
+        }
+        return row;
+    }
+
+    private static String layout(int width, int height, int rowStride, int pixelStride, boolean direct) {
+        return width + "x" + height + " rowStride " + rowStride + " pixelStride " + pixelStride +
+               (direct ? " direct" : " heap");
+    }
+}
@@ -0,0 +1,137 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link ProcessingStage}: every frame is released exactly once, and never
+ * while the stage's lock is held (a release such as Image.close must not
+ * hold up the worker).
+ */
+class ProcessingStageTest {
+
+    @Test
+    void droppedFramesAreReleasedOutsideTheLock() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger releasedUnderLock = new AtomicInteger();
+        Map<Integer, Integer> released = new ConcurrentHashMap<>();
+        Object[] lock = new Object[1];
+        ProcessingStage<Integer> stage = new ProcessingStage<>("test-stage", new ProcessingStage.FrameHandler<Integer>() {
+            @Override
+            public void process(Integer frame, long timestampNs) {
+                if (frame == 0) {
+                    busy.countDown();
+                    await(finish);
+                }
+            }
+
+            @Override
+            public void release(Integer frame) {
+                if (Thread.holdsLock(lock[0])) {
+                    releasedUnderLock.incrementAndGet();
+                }
+                released.merge(frame, 1, Integer::sum);
+            }
+        }, 4, System::nanoTime);
+        lock[0] = stageLock(stage);
+
+        stage.setPolicy(BackpressurePolicy.BOUNDED_QUEUE);
+        stage.submit(0, 0);
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+        // Three waiting frames, then LATEST_WINS drops two and replaces one
+        for (int frame = 1; frame <= 3; frame++) {
+            assertTrue(stage.submit(frame, frame));
+        }
+        stage.setPolicy(BackpressurePolicy.LATEST_WINS);
+        assertTrue(stage.submit(4, 4));
+        assertEquals(3, stage.getStats(BackpressurePolicy.LATEST_WINS).getDroppedOnSubmit());
+        assertEquals(Integer.valueOf(1), released.get(1));
+        assertEquals(Integer.valueOf(1), released.get(2));
+        assertEquals(Integer.valueOf(1), released.get(3));
+
+        // Frames still waiting at close are released on the way out
+        stage.setPolicy(BackpressurePolicy.BOUNDED_QUEUE);
+        stage.submit(5, 5);
+        finish.countDown();
+        stage.close();
+        assertFalse(stage.submit(6, 6), "closed stage accepted a frame");
+        for (int frame = 0; frame <= 6; frame++) {
+            assertEquals(Integer.valueOf(1), released.get(frame), "releases of frame " + frame);
+        }
+        assertEquals(0, releasedUnderLock.get(), "frames released with the lock held");
+    }
+
+    @Test
+    void everyFrameIsReleasedOnceUnderEveryPolicy() throws Exception {
+        Map<Integer, Integer> released = new ConcurrentHashMap<>();
+        AtomicInteger processed = new AtomicInteger();
+        ProcessingStage<Integer> stage = new ProcessingStage<>("test-stage", new ProcessingStage.FrameHandler<Integer>() {
+            @Override
+            public void process(Integer frame, long timestampNs) {
+                processed.incrementAndGet();
+                if (frame % 7 == 0) {
+                    throw new IllegalStateException("frame " + frame);
+                }
+                if (frame % 3 == 0) {
+                    Thread.yield();
+                }
+            }
+
+            @Override
+            public void release(Integer frame) {
+                released.merge(frame, 1, Integer::sum);
+            }
+        }, 3, System::nanoTime);
+        stage.setDeadlineMillis(0);
+
+        int frames = 30_000;
+        BackpressurePolicy[] policies = BackpressurePolicy.values();
+        for (int frame = 0; frame < frames; frame++) {
+            if (frame % 500 == 0) {
+                stage.setPolicy(policies[(frame / 500) % policies.length]);
+            }
+            stage.submit(frame, System.nanoTime());
+        }
+        stage.close();
+
+        assertEquals(frames, released.size(), "frames never released");
+        for (Map.Entry<Integer, Integer> entry : released.entrySet()) {
+            assertEquals(Integer.valueOf(1), entry.getValue(), "releases of frame " + entry.getKey());
+        }
+        long submitted = 0;
+        long accounted = 0;
+        for (BackpressurePolicy policy : policies) {
+            StageStats stats = stage.getStats(policy);
+            submitted += stats.getSubmitted();
+            accounted += stats.getProcessed() + stats.getDroppedOnSubmit() + stats.getDroppedLate()
+                    + stats.getFailed();
+        }
+        assertEquals(frames, submitted);
+        // Frames still queued at close are released without being counted
+        assertTrue(accounted <= submitted && accounted >= submitted - 3, accounted + " of " + submitted);
+    }
+
+    private static Object stageLock(ProcessingStage<?> stage) throws ReflectiveOperationException {
+        Field field = ProcessingStage.class.getDeclaredField("lock");
+        field.setAccessible(true);
+        return field.get(stage);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
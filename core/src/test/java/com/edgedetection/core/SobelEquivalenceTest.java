@@ -0,0 +1,203 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Every Sobel path against {@link SobelKernel}: {@link FastSobelKernel} on
+ * arrays and strided planes, {@link StripedSobel} with both variants on 1,
+ * 2, 3 and 5 workers, and the packed {@link EdgeBits} output. Pixels and
+ * stats must match exactly; the magnitude sum only exists in the
+ * reference kernel, and histograms are compared between kernels that bin
+ * the same rows.
+ */
+class SobelEquivalenceTest {
+    private static final int[] WORKERS = {1, 2, 3, 5};
+    // Includes 1..3 and heights that no worker count above divides evenly
+    private static final int[] WIDTHS = {1, 2, 3, 4, 9, 17, 64, 67};
+    private static final int[] HEIGHTS = {1, 2, 3, 4, 7, 11, 29, 61};
+    private static final int[] THRESHOLDS = {0, 100, SobelKernel.DEFAULT_THRESHOLD, GradientHistogram.MAX_MAGNITUDE};
+
+    private static final List<StripedSobel> striped = new ArrayList<>();
+
+    @BeforeAll
+    static void startPools() {
+        for (int workers : WORKERS) {
+            striped.add(new StripedSobel(workers));
+        }
+    }
+
+    @AfterAll
+    static void stopPools() {
+        for (StripedSobel sobel : striped) {
+            sobel.close();
+        }
+    }
+
+    @Test
+    void allPathsMatchReferenceOnRandomFrames() {
+        Random random = new Random(11);
+        FastSobelKernel fast = new FastSobelKernel();
+        for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+                for (int contrast : new int[] {256, 48}) {
+                    byte[] src = randomFrame(random, width, height, contrast);
+                    for (int threshold : THRESHOLDS) {
+                        assertAllPathsMatch(fast, src, width, height, threshold,
+                                width + "x" + height + " contrast " + contrast + " threshold " + threshold);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyThresholdMatchesAtTheSquaredBoundary() {
+        // Sweeps every integer threshold, so each (t + 1)^2 boundary the
+        // fast kernel compares against is crossed by some magnitude
+        Random random = new Random(12);
+        FastSobelKernel fast = new FastSobelKernel();
+        int width = 23;
+        int height = 19;
+        byte[] src = randomFrame(random, width, height, 256);
+        for (int threshold = 0; threshold <= GradientHistogram.MAX_MAGNITUDE; threshold++) {
+            assertAllPathsMatch(fast, src, width, height, threshold, "threshold " + threshold);
+        }
+    }
+
+    @Test
+    void histogramsDoNotDependOnStriping() {
+        Random random = new Random(13);
+        FastSobelKernel fast = new FastSobelKernel();
+        int width = 45;
+        int height = 37;
+        byte[] src = randomFrame(random, width, height, 256);
+        byte[] dst = new byte[width * height];
+
+        EdgeStats reference = statsWithHistogram();
+        SobelKernel.apply(src, dst, width, height, SobelKernel.DEFAULT_THRESHOLD, reference);
+        EdgeStats fastStats = statsWithHistogram();
+        fast.apply(src, dst, width, height, SobelKernel.DEFAULT_THRESHOLD, fastStats);
+        assertEquals((height - 2) * (width - 2), reference.histogram.getTotal());
+        for (StripedSobel sobel : striped) {
+            String name = sobel.getWorkerCount() + " workers";
+            EdgeStats stats = statsWithHistogram();
+            sobel.apply(SobelVariant.REFERENCE, src, dst, width, height, SobelKernel.DEFAULT_THRESHOLD, stats);
+            assertHistogramsEqual(reference.histogram, stats.histogram, "REFERENCE " + name);
+            stats = statsWithHistogram();
+            sobel.apply(SobelVariant.FAST, src, dst, width, height, SobelKernel.DEFAULT_THRESHOLD, stats);
+            assertHistogramsEqual(fastStats.histogram, stats.histogram, "FAST " + name);
+        }
+    }
+
+    private static void assertAllPathsMatch(FastSobelKernel fast, byte[] src, int width, int height,
+                                            int threshold, String frame) {
+        byte[] expected = new byte[width * height];
+        EdgeStats reference = new EdgeStats();
+        SobelKernel.apply(src, expected, width, height, threshold, reference);
+        byte[] expectedPacked = new byte[EdgeBits.size(width, height)];
+        EdgeBits.pack(expected, width, height, expectedPacked);
+        Plane plane = paddedPlane(src, width, height, 5);
+
+        byte[] dst = new byte[width * height];
+        EdgeStats stats = new EdgeStats();
+        fast.apply(src, dst, width, height, threshold, stats);
+        assertSame(expected, reference, dst, stats, false, "FAST " + frame);
+
+        fill(dst);
+        fast.apply(plane, dst, width, height, threshold, stats);
+        assertSame(expected, reference, dst, stats, false, "FAST plane " + frame);
+
+        byte[] packed = new byte[expectedPacked.length];
+        fast.applyPacked(src, packed, width, height, threshold, stats);
+        assertSame(expectedPacked, reference, packed, stats, false, "FAST packed " + frame);
+
+        fill(packed);
+        fast.applyPacked(plane, packed, width, height, threshold, stats);
+        assertSame(expectedPacked, reference, packed, stats, false, "FAST packed plane " + frame);
+
+        for (StripedSobel sobel : striped) {
+            String name = sobel.getWorkerCount() + " workers " + frame;
+            fill(dst);
+            sobel.apply(SobelVariant.REFERENCE, src, dst, width, height, threshold, stats);
+            assertSame(expected, reference, dst, stats, true, "striped REFERENCE " + name);
+
+            fill(dst);
+            sobel.apply(SobelVariant.FAST, src, dst, width, height, threshold, stats);
+            assertSame(expected, reference, dst, stats, false, "striped FAST " + name);
+
+            fill(dst);
+            sobel.apply(plane, dst, width, height, threshold, stats);
+            assertSame(expected, reference, dst, stats, false, "striped plane " + name);
+
+            fill(packed);
+            sobel.applyPacked(plane, packed, width, height, threshold, stats);
+            assertSame(expectedPacked, reference, packed, stats, false, "striped packed " + name);
+        }
+    }
+
+    private static void assertSame(byte[] expected, EdgeStats reference, byte[] actual, EdgeStats stats,
+                                   boolean withSum, String name) {
+        assertArrayEquals(expected, actual, name + ": pixels");
+        assertEquals(reference.getThreshold(), stats.getThreshold(), name + ": threshold");
+        assertEquals(reference.getEdgeCount(), stats.getEdgeCount(), name + ": edge count");
+        assertEquals(reference.getTotalPixels(), stats.getTotalPixels(), name + ": total pixels");
+        assertEquals(reference.getMaxMagnitude(), stats.getMaxMagnitude(), name + ": max magnitude");
+        assertEquals(reference.getMinMagnitude(), stats.getMinMagnitude(), name + ": min magnitude");
+        if (withSum) {
+            assertEquals(reference.getSumMagnitude(), stats.getSumMagnitude(), name + ": magnitude sum");
+            assertEquals(reference.getAvgMagnitude(), stats.getAvgMagnitude(), name + ": average");
+        }
+    }
+
+    private static void assertHistogramsEqual(GradientHistogram expected, GradientHistogram actual, String name) {
+        assertEquals(expected.getTotal(), actual.getTotal(), name + ": histogram total");
+        for (int bin = 0; bin < GradientHistogram.BIN_COUNT; bin++) {
+            assertEquals(expected.getCount(bin), actual.getCount(bin), name + ": bin " + bin);
+        }
+    }
+
+    private static EdgeStats statsWithHistogram() {
+        EdgeStats stats = new EdgeStats();
+        stats.histogram = new GradientHistogram();
+        return stats;
+    }
+
+    /**
+     * Values spread over contrast levels around mid grey: 256 for full
+     * range noise, small values for gradients near the usual thresholds.
+     */
+    private static byte[] randomFrame(Random random, int width, int height, int contrast) {
+        byte[] frame = new byte[width * height];
+        int base = 128 - contrast / 2;
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (base + random.nextInt(contrast));
+        }
+        return frame;
+    }
+
+    private static Plane paddedPlane(byte[] src, int width, int height, int padding) {
+        int rowStride = width + padding;
+        ByteBuffer buffer = ByteBuffer.allocateDirect((height - 1) * rowStride + width);
+        for (int y = 0; y < height; y++) {
+            buffer.position(y * rowStride);
+            buffer.put(src, y * width, width);
+        }
+        buffer.position(0);
+        return new Plane(buffer, rowStride, 1);
+    }
+
+    /** Stale output from the previous path must not pass for this one. */
+    private static void fill(byte[] dst) {
+        Arrays.fill(dst, (byte) 0x77);
+    }
+}
@@ -0,0 +1,215 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link GlslSources#SOBEL_PASS} emulated on the host, in float as the GPU
+ * evaluates it (texel addressing, BT.601 luma rounding, border test,
+ * squared threshold step), against {@link FastSobelKernel}. Runs where
+ * {@link GlSobelShaderTest} has no GL to run the shader itself.
+ *
+ * Textures and framebuffers are RGBA rows with row 0 at t = 0 and at
+ * window y = 0, as the app's passes draw the unflipped quad.
+ */
+class SobelShaderEmulationTest {
+    private static final int[] SIZES = {1, 2, 3, 4, 17, 64, 101};
+    private static final float[] BT601 = {0.299f, 0.587f, 0.114f};
+
+    @Test
+    void emulatesTheShaderSource() {
+        // The steps emulate() mirrors; a change to any of them must be
+        // carried over there
+        String[] steps = {
+            "texture2D(sTexture, outTexCoord + offset * uTexelSize).rgb",
+            "floor(dot(rgb, vec3(0.299, 0.587, 0.114)) * 255.0 + 0.5)",
+            "if (p.x < 1.0 || p.y < 1.0 || p.x > uSize.x - 1.0 || p.y > uSize.y - 1.0)",
+            "gl_FragColor = vec4(vec3(c / 255.0), 1.0)",
+            "float gx = (tr + 2.0 * r + br) - (tl + 2.0 * l + bl)",
+            "float gy = (bl + 2.0 * b + br) - (tl + 2.0 * t + tr)",
+            "step(uSquaredThreshold, gx * gx + gy * gy)",
+            "gl_FragColor = vec4(vec3(1.0 - edge), 1.0)"
+        };
+        for (String step : steps) {
+            assertTrue(GlslSources.SOBEL_PASS.contains(step), step);
+        }
+    }
+
+    @Test
+    void greyLevelsRoundToThemselves() {
+        for (int level = 0; level < 256; level++) {
+            float v = level / 255.0f;
+            float dot = v * BT601[0] + v * BT601[1] + v * BT601[2];
+            // Far from the rounding boundary, whatever order the GPU adds in
+            assertTrue(Math.abs(dot * 255.0f - level) < 0.01f, "level " + level);
+            assertEquals(level, (int) Math.floor(dot * 255.0f + 0.5f), "level " + level);
+        }
+    }
+
+    @Test
+    void texelOffsetsHitTheNeighbouringTexels() {
+        for (int size : new int[] {1, 3, 640, 1080, 1920, 4095}) {
+            float texel = 1.0f / size;
+            for (int x = 0; x < size; x++) {
+                float centre = (x + 0.5f) / size;
+                for (int dx = -1; dx <= 1; dx++) {
+                    int expected = Math.max(0, Math.min(size - 1, x + dx));
+                    assertEquals(expected, texelIndex(centre + dx * texel, size), size + " at " + x + dx);
+                }
+            }
+        }
+    }
+
+    @Test
+    void greyInputMatchesFastSobel() {
+        Random random = new Random(61);
+        FastSobelKernel fast = new FastSobelKernel();
+        for (int width : SIZES) {
+            for (int height : SIZES) {
+                byte[] luma = new byte[width * height];
+                random.nextBytes(luma);
+                byte[] rgba = greyRgba(luma);
+                for (int threshold : new int[] {0, 60, SobelKernel.DEFAULT_THRESHOLD, 400, 1443}) {
+                    byte[] expected = new byte[width * height];
+                    fast.apply(luma, expected, width, height, threshold, new EdgeStats());
+                    String name = width + "x" + height + " threshold " + threshold;
+                    assertMatchesKernel(expected, emulate(rgba, width, height, threshold), width, height, 0, name);
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyThresholdMatchesAtTheSquaredBoundary() {
+        Random random = new Random(62);
+        FastSobelKernel fast = new FastSobelKernel();
+        int width = 23;
+        int height = 19;
+        byte[] luma = new byte[width * height];
+        random.nextBytes(luma);
+        byte[] rgba = greyRgba(luma);
+        byte[] expected = new byte[width * height];
+        for (int threshold = 0; threshold <= GradientHistogram.MAX_MAGNITUDE; threshold++) {
+            fast.apply(luma, expected, width, height, threshold, new EdgeStats());
+            assertMatchesKernel(expected, emulate(rgba, width, height, threshold), width, height, 0,
+                    "threshold " + threshold);
+        }
+    }
+
+    @Test
+    void colourInputStaysWithinOneOfIntegerLuma() {
+        Random random = new Random(63);
+        int width = 67;
+        int height = 41;
+        byte[] rgba = new byte[width * height * 4];
+        random.nextBytes(rgba);
+        byte[] shaderLuma = new byte[width * height];
+        for (int i = 0; i < shaderLuma.length; i++) {
+            int r = rgba[4 * i] & 0xFF;
+            int g = rgba[4 * i + 1] & 0xFF;
+            int b = rgba[4 * i + 2] & 0xFF;
+            int expected = (299 * r + 587 * g + 114 * b + 500) / 1000;
+            int actual = luma(rgba, 4 * i);
+            assertTrue(Math.abs(expected - actual) <= 1, "pixel " + i + ": " + expected + " vs " + actual);
+            shaderLuma[i] = (byte) actual;
+        }
+        // The edges are then exactly the CPU kernel's on the shader's luma
+        byte[] expected = new byte[width * height];
+        new FastSobelKernel().apply(shaderLuma, expected, width, height, SobelKernel.DEFAULT_THRESHOLD,
+                new EdgeStats());
+        assertMatchesKernel(expected, emulate(rgba, width, height, SobelKernel.DEFAULT_THRESHOLD), width, height, 0,
+                "colour");
+    }
+
+    /**
+     * Checks the red channel of rgba (width x height) against the CPU
+     * kernel's output, pixel for pixel within tolerance, and green and
+     * blue against red.
+     */
+    static void assertMatchesKernel(byte[] expected, byte[] rgba, int width, int height, int tolerance, String name) {
+        assertEquals(width * height * 4, rgba.length, name + ": size");
+        for (int i = 0; i < expected.length; i++) {
+            int want = expected[i] & 0xFF;
+            int red = rgba[4 * i] & 0xFF;
+            boolean grey = rgba[4 * i + 1] == rgba[4 * i] && rgba[4 * i + 2] == rgba[4 * i];
+            if (Math.abs(want - red) > tolerance || !grey) {
+                throw new AssertionError(name + ": pixel (" + (i % width) + ", " + (i / width) + ") is " + red
+                        + ", expected " + want);
+            }
+        }
+    }
+
+    private static byte[] greyRgba(byte[] luma) {
+        byte[] rgba = new byte[luma.length * 4];
+        for (int i = 0; i < luma.length; i++) {
+            rgba[4 * i] = luma[i];
+            rgba[4 * i + 1] = luma[i];
+            rgba[4 * i + 2] = luma[i];
+            rgba[4 * i + 3] = (byte) 255;
+        }
+        return rgba;
+    }
+
+    /** The shader over a full-screen quad, one fragment per pixel. */
+    private static byte[] emulate(byte[] texture, int width, int height, int threshold) {
+        float squaredThreshold = FastSobelKernel.squaredThreshold(threshold);
+        float texelX = 1.0f / width;
+        float texelY = 1.0f / height;
+        byte[] out = new byte[width * height * 4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float fragX = x + 0.5f;
+                float fragY = y + 0.5f;
+                float s = fragX / width;
+                float t = fragY / height;
+                float value;
+                float c = sample(texture, width, height, s, t);
+                if (fragX < 1.0f || fragY < 1.0f || fragX > width - 1.0f || fragY > height - 1.0f) {
+                    value = c / 255.0f;
+                } else {
+                    float tl = sample(texture, width, height, s - texelX, t - texelY);
+                    float tm = sample(texture, width, height, s, t - texelY);
+                    float tr = sample(texture, width, height, s + texelX, t - texelY);
+                    float l = sample(texture, width, height, s - texelX, t);
+                    float r = sample(texture, width, height, s + texelX, t);
+                    float bl = sample(texture, width, height, s - texelX, t + texelY);
+                    float bm = sample(texture, width, height, s, t + texelY);
+                    float br = sample(texture, width, height, s + texelX, t + texelY);
+                    float gx = (tr + 2.0f * r + br) - (tl + 2.0f * l + bl);
+                    float gy = (bl + 2.0f * bm + br) - (tl + 2.0f * tm + tr);
+                    float edge = gx * gx + gy * gy >= squaredThreshold ? 1.0f : 0.0f;
+                    value = 1.0f - edge;
+                }
+                // Conversion to the UNORM8 framebuffer rounds to nearest
+                byte channel = (byte) Math.round(value * 255.0f);
+                int o = 4 * (y * width + x);
+                out[o] = channel;
+                out[o + 1] = channel;
+                out[o + 2] = channel;
+                out[o + 3] = (byte) 255;
+            }
+        }
+        return out;
+    }
+
+    /** luma() of the shader at texture coordinate (s, t), NEAREST and clamped. */
+    private static float sample(byte[] texture, int width, int height, float s, float t) {
+        int x = texelIndex(s, width);
+        int y = texelIndex(t, height);
+        return luma(texture, 4 * (y * width + x));
+    }
+
+    private static int luma(byte[] rgba, int offset) {
+        float r = (rgba[offset] & 0xFF) / 255.0f;
+        float g = (rgba[offset + 1] & 0xFF) / 255.0f;
+        float b = (rgba[offset + 2] & 0xFF) / 255.0f;
+        return (int) Math.floor((r * BT601[0] + g * BT601[1] + b * BT601[2]) * 255.0f + 0.5f);
+    }
+
+    private static int texelIndex(float coordinate, int size) {
+        return Math.max(0, Math.min(size - 1, (int) Math.floor(coordinate * size)));
+    }
+}
@@ -0,0 +1,182 @@
+package com.edgedetection.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Side-by-side stereo output against a checked-in golden image: a
+ * checkerboard frame drawn through the default {@link DistortionMesh} into
+ * both eyes of a viewport the way the app's StereoMesh draws it, here by a
+ * CPU rasteriser ({@link GlStereoMeshTest} draws it with GLES).
+ *
+ * The golden is src/test/resources/golden/stereo-checkerboard.png;
+ * regenerate it after an intended change to the mesh with
+ * {@code ./gradlew :core:test -Pgolden.update} and review the new image.
+ */
+class StereoGoldenTest {
+    static final String GOLDEN = "stereo-checkerboard.png";
+    // Odd, so a column stays unlit between the eyes
+    static final int VIEWPORT_WIDTH = 321;
+    static final int VIEWPORT_HEIGHT = 180;
+    static final int TEXTURE_WIDTH = 64;
+    static final int TEXTURE_HEIGHT = 36;
+
+    @Test
+    void cpuRasterMatchesGolden() throws IOException {
+        byte[] image = rasterize(defaultMesh(), checkerboard(), TEXTURE_WIDTH, TEXTURE_HEIGHT,
+                VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+        assertMatchesGolden(image, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, 0, "cpu");
+    }
+
+    @Test
+    void eyesAreIdentical() {
+        byte[] image = rasterize(defaultMesh(), checkerboard(), TEXTURE_WIDTH, TEXTURE_HEIGHT,
+                VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+        assertEyesIdentical(image, VIEWPORT_WIDTH, VIEWPORT_HEIGHT, "cpu");
+    }
+
+    static DistortionMesh defaultMesh() {
+        DistortionMesh mesh = new DistortionMesh(DistortionMesh.DEFAULT_K1, DistortionMesh.DEFAULT_K2);
+        mesh.build(VIEWPORT_WIDTH / 2, VIEWPORT_HEIGHT);
+        return mesh;
+    }
+
+    /**
+     * 16 x 9 cells of 4 texels; the light cells darken downwards and the
+     * dark ones lighten to the right, so a flip or a transpose shows.
+     */
+    static byte[] checkerboard() {
+        byte[] texture = new byte[TEXTURE_WIDTH * TEXTURE_HEIGHT];
+        for (int y = 0; y < TEXTURE_HEIGHT; y++) {
+            for (int x = 0; x < TEXTURE_WIDTH; x++) {
+                int cellX = x / 4;
+                int cellY = y / 4;
+                texture[y * TEXTURE_WIDTH + x] = (byte) (((cellX + cellY) & 1) == 0 ? 220 - 4 * cellY : 30 + 4 * cellX);
+            }
+        }
+        return texture;
+    }
+
+    /**
+     * Grey image (top row first) of a grey texture (row 0 at v = 0) drawn
+     * through mesh into the left and right eye viewports, as StereoMesh
+     * sets them, on black: each pixel centre covered by a triangle samples
+     * the texture NEAREST at its interpolated (u, v).
+     */
+    static byte[] rasterize(DistortionMesh mesh, byte[] texture, int textureWidth, int textureHeight,
+                            int viewportWidth, int viewportHeight) {
+        int eyeWidth = viewportWidth / 2;
+        float[] v = mesh.getVertices();
+        short[] indices = mesh.getIndices();
+        byte[] image = new byte[viewportWidth * viewportHeight];
+        for (int left : new int[] {0, viewportWidth - eyeWidth}) {
+            for (int t = 0; t < indices.length; t += 3) {
+                int[] corner = {(indices[t] & 0xFFFF) * 4, (indices[t + 1] & 0xFFFF) * 4, (indices[t + 2] & 0xFFFF) * 4};
+                double[] x = new double[3];
+                double[] y = new double[3];
+                for (int k = 0; k < 3; k++) {
+                    x[k] = (v[corner[k]] + 1) / 2 * eyeWidth;
+                    y[k] = (1 - v[corner[k] + 1]) / 2 * viewportHeight;
+                }
+                double area = (x[1] - x[0]) * (y[2] - y[0]) - (x[2] - x[0]) * (y[1] - y[0]);
+                int fromX = Math.max(0, (int) Math.floor(Math.min(x[0], Math.min(x[1], x[2]))));
+                int toX = Math.min(eyeWidth - 1, (int) Math.ceil(Math.max(x[0], Math.max(x[1], x[2]))));
+                int fromY = Math.max(0, (int) Math.floor(Math.min(y[0], Math.min(y[1], y[2]))));
+                int toY = Math.min(viewportHeight - 1, (int) Math.ceil(Math.max(y[0], Math.max(y[1], y[2]))));
+                for (int py = fromY; py <= toY; py++) {
+                    for (int px = fromX; px <= toX; px++) {
+                        double cx = px + 0.5;
+                        double cy = py + 0.5;
+                        double b1 = ((cx - x[0]) * (y[2] - y[0]) - (x[2] - x[0]) * (cy - y[0])) / area;
+                        double b2 = ((x[1] - x[0]) * (cy - y[0]) - (cx - x[0]) * (y[1] - y[0])) / area;
+                        double b0 = 1 - b1 - b2;
+                        if (b0 < 0 || b1 < 0 || b2 < 0) {
+                            continue;
+                        }
+                        double u = b0 * v[corner[0] + 2] + b1 * v[corner[1] + 2] + b2 * v[corner[2] + 2];
+                        double tv = b0 * v[corner[0] + 3] + b1 * v[corner[1] + 3] + b2 * v[corner[2] + 3];
+                        int tx = Math.max(0, Math.min(textureWidth - 1, (int) Math.floor(u * textureWidth)));
+                        int ty = Math.max(0, Math.min(textureHeight - 1, (int) Math.floor(tv * textureHeight)));
+                        image[py * viewportWidth + left + px] = texture[ty * textureWidth + tx];
+                    }
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Compares a grey image with the golden: at most maxMismatches pixels
+     * may differ by more than one level. On failure the image is written
+     * to build/golden for a look; with -Pgolden.update it replaces the
+     * golden instead.
+     */
+    static void assertMatchesGolden(byte[] image, int width, int height, int maxMismatches, String name)
+            throws IOException {
+        if (Boolean.getBoolean("golden.update")) {
+            File file = new File("src/test/resources/golden", GOLDEN);
+            file.getParentFile().mkdirs();
+            ImageIO.write(toImage(image, width, height), "png", file);
+            return;
+        }
+        BufferedImage golden;
+        try (InputStream in = StereoGoldenTest.class.getResourceAsStream("/golden/" + GOLDEN)) {
+            assertNotNull(in, GOLDEN + " missing");
+            golden = ImageIO.read(in);
+        }
+        assertEquals(width, golden.getWidth(), name + ": golden width");
+        assertEquals(height, golden.getHeight(), name + ": golden height");
+        int mismatches = 0;
+        String first = null;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int want = golden.getRaster().getSample(x, y, 0);
+                int actual = image[y * width + x] & 0xFF;
+                if (Math.abs(want - actual) > 1) {
+                    if (first == null) {
+                        first = "(" + x + ", " + y + ") is " + actual + ", expected " + want;
+                    }
+                    mismatches++;
+                }
+            }
+        }
+        if (mismatches > maxMismatches) {
+            File file = new File("build/golden", name + "-" + GOLDEN);
+            file.getParentFile().mkdirs();
+            ImageIO.write(toImage(image, width, height), "png", file);
+            throw new AssertionError(name + ": " + mismatches + " pixels off the golden (at most " + maxMismatches
+                    + "), first " + first + "; image in " + file.getAbsolutePath());
+        }
+    }
+
+    /** The right eye is the left one, and the odd middle column is unlit. */
+    static void assertEyesIdentical(byte[] image, int width, int height, String name) {
+        int eyeWidth = width / 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < eyeWidth; x++) {
+                int left = image[y * width + x] & 0xFF;
+                int right = image[y * width + width - eyeWidth + x] & 0xFF;
+                if (left != right) {
+                    throw new AssertionError(name + ": eyes differ at (" + x + ", " + y + "): " + left + " vs " + right);
+                }
+            }
+            for (int x = eyeWidth; x < width - eyeWidth; x++) {
+                assertEquals(0, image[y * width + x], name + ": gap column at row " + y);
+            }
+        }
+    }
+
+    private static BufferedImage toImage(byte[] grey, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        System.arraycopy(grey, 0, ((DataBufferByte) image.getRaster().getDataBuffer()).getData(), 0, grey.length);
+        return image;
+    }
+}
@@ -1,83 +1,107 @@
+// Page side of the viewer. Decoding, edge detection and drawing run in
+// render-worker.js, which owns the canvas through OffscreenCanvas and
+// spreads the Sobel pass over a pool of workers; this thread only handles
+// the controls and shows the stats the worker measures.
 class FrameProcessor {
     constructor(canvasId) {
         this.canvas = document.getElementById(canvasId);
-        this.ctx = this.canvas.getContext('2d');
-        this.frameCount = 0;
-        this.lastTime = Date.now();
-        this.fps = 0;
         this.processingMode = 'edge';
+        this.running = false;
+        this.live = false;
+        this.worker = null;
+
+        if (!this.canvas.transferControlToOffscreen || typeof Worker === 'undefined') {
+            document.getElementById('mode').textContent = 'OffscreenCanvas unsupported';
+            return;
+        }
+        const offscreen = this.canvas.transferControlToOffscreen();
+        // Leave a core for the page and the render worker
+        const workers = Math.max(1, Math.min(8, (navigator.hardwareConcurrency || 2) - 1));
+        this.worker = new Worker('render-worker.js');
+        this.worker.onmessage = (event) => this.onWorkerMessage(event.data);
+        this.worker.postMessage({ type: 'init', canvas: offscreen, workers }, [offscreen]);
     }
 
-    updateFPS() {
-        this.frameCount++;
-        const now = Date.now();
-        if (now - this.lastTime >= 1000) {
-            this.fps = this.frameCount;
-            this.frameCount = 0;
-            this.lastTime = now;
-            this.updateStats();
+    post(message, transfer) {
+        if (this.worker) {
+            this.worker.postMessage(message, transfer || []);
         }
     }
 
-    displayFrame(imageData) {
-        this.ctx.putImageData(imageData, 0, 0);
-        this.updateFPS();
+    displayFrameFromFile(file) {
+        createImageBitmap(file)
+            .then((bitmap) => this.post({ type: 'image', bitmap }, [bitmap]))
+            .catch(() => {
+                document.getElementById('mode').textContent = 'Unreadable image';
+            });
+    }
+
+    loadSample() {
+        this.post({ type: 'sample' });
     }
 
-    displayFrameFromUrl(url) {
-        const img = new Image();
-        img.onload = () => {
-            this.ctx.drawImage(img, 0, 0, this.canvas.width, this.canvas.height);
-            this.updateFPS();
-        };
-        img.src = url;
+    toggleProcessingMode() {
+        this.processingMode = this.processingMode === 'edge' ? 'raw' : 'edge';
+        this.post({ type: 'mode', mode: this.processingMode });
+        this.showMode();
     }
 
-    applyEdgeDetection(imageData) {
-        const data = imageData.data;
-        const result = new ImageData(imageData.width, imageData.height);
-        const resultData = result.data;
-
-        for (let i = 0; i < data.length; i += 4) {
-            const gray = Math.round(0.299 * data[i] + 0.587 * data[i + 1] + 0.114 * data[i + 2]);
-            resultData[i] = gray;
-            resultData[i + 1] = gray;
-            resultData[i + 2] = gray;
-            resultData[i + 3] = 255;
+    setThreshold(threshold) {
+        if (Number.isInteger(threshold) && threshold >= 0) {
+            this.post({ type: 'threshold', threshold });
         }
+    }
 
-        return result;
+    toggleRunning() {
+        this.running = !this.running;
+        this.post({ type: 'run', running: this.running });
+        document.getElementById('runButton').textContent = this.running ? 'Stop' : 'Run';
     }
 
-    applyGrayscale(imageData) {
-        const data = imageData.data;
-        const result = new ImageData(imageData.width, imageData.height);
-        const resultData = result.data;
-
-        for (let i = 0; i < data.length; i += 4) {
-            const gray = Math.round(0.299 * data[i] + 0.587 * data[i + 1] + 0.114 * data[i + 2]);
-            resultData[i] = gray;
-            resultData[i + 1] = gray;
-            resultData[i + 2] = gray;
-            resultData[i + 3] = 255;
+    toggleLive(url) {
+        if (this.live) {
+            this.post({ type: 'disconnect' });
+        } else {
+            this.setRunning(false);
+            this.post({ type: 'connect', url });
         }
+    }
 
-        return result;
+    setRunning(running) {
+        if (this.running !== running) {
+            this.toggleRunning();
+        }
     }
 
-    toggleProcessingMode() {
-        this.processingMode = this.processingMode === 'edge' ? 'raw' : 'edge';
-        document.getElementById('mode').textContent = this.processingMode === 'edge' ? 'Edge Detection' : 'Raw Feed';
+    onWorkerMessage(message) {
+        if (message.type === 'stats') {
+            this.updateStats(message);
+        } else if (message.type === 'status') {
+            this.live = message.live;
+            document.getElementById('connectButton').textContent = this.live ? 'Disconnect' : 'Connect';
+            document.getElementById('mode').textContent = message.text;
+        }
+    }
+
+    showMode() {
+        if (!this.live) {
+            document.getElementById('mode').textContent =
+                this.processingMode === 'edge' ? 'Edge Detection' : 'Raw Feed';
+        }
     }
 
-    updateStats() {
-        document.getElementById('fps').textContent = this.fps;
-        document.getElementById('processingTime').textContent = (1000 / this.fps).toFixed(2) + 'ms';
+    updateStats(stats) {
+        // fps is only measured while frames keep coming (Run or a live stream)
+        document.getElementById('fps').textContent = stats.fps > 0 ? stats.fps.toFixed(1) : '-';
+        document.getElementById('processingTime').textContent = stats.processingMs.toFixed(2) + 'ms';
+        document.getElementById('resolution').textContent = stats.width + 'x' + stats.height;
+        document.getElementById('edges').textContent =
+            stats.edgePercent === null ? '-' : stats.edgePercent.toFixed(2) + '%';
     }
 
     clearFrame() {
-        this.ctx.fillStyle = '#000000';
-        this.ctx.fillRect(0, 0, this.canvas.width, this.canvas.height);
+        this.setRunning(false);
+        this.post({ type: 'clear' });
     }
 }
 
@@ -87,40 +111,30 @@ let frameProcessor;
 // Initialize on page load
 document.addEventListener('DOMContentLoaded', () => {
     frameProcessor = new FrameProcessor('frameCanvas');
+    document.getElementById('streamUrl').value = 'ws://' + (location.hostname || 'localhost') + ':8765/';
 });
 
 // UI Functions
 function loadSampleFrame() {
-    // Generate a sample processed frame (edge detection simulation)
-    const canvas = document.getElementById('frameCanvas');
-    const ctx = canvas.getContext('2d');
-    
-    // Create a gradient for demonstration
-    const gradient = ctx.createLinearGradient(0, 0, canvas.width, canvas.height);
-    gradient.addColorStop(0, '#000000');
-    gradient.addColorStop(0.5, '#808080');
-    gradient.addColorStop(1, '#ffffff');
-    
-    ctx.fillStyle = gradient;
-    ctx.fillRect(0, 0, canvas.width, canvas.height);
-    
-    // Draw some simulated edge lines
-    ctx.strokeStyle = '#00ff00';
-    ctx.lineWidth = 2;
-    for (let i = 0; i < canvas.width; i += 50) {
-        ctx.beginPath();
-        ctx.moveTo(i, 0);
-        ctx.lineTo(i + 30, canvas.height);
-        ctx.stroke();
-    }
-    
-    frameProcessor.updateFPS();
+    frameProcessor.loadSample();
 }
 
 function toggleMode() {
     frameProcessor.toggleProcessingMode();
 }
 
+function toggleRun() {
+    frameProcessor.toggleRunning();
+}
+
+function setThreshold(event) {
+    frameProcessor.setThreshold(parseInt(event.target.value, 10));
+}
+
+function toggleLive() {
+    frameProcessor.toggleLive(document.getElementById('streamUrl').value);
+}
+
 function clearFrame() {
     frameProcessor.clearFrame();
 }
@@ -128,10 +142,6 @@ function clearFrame() {
 function handleImageUpload(event) {
     const file = event.target.files[0];
     if (file) {
-        const reader = new FileReader();
-        reader.onload = (e) => {
-            frameProcessor.displayFrameFromUrl(e.target.result);
-        };
-        reader.readAsDataURL(file);
+        frameProcessor.displayFrameFromFile(file);
     }
 }
@@ -0,0 +1,477 @@
+'use strict';
+
+// Owns the viewer canvas (an OffscreenCanvas transferred from the page) and
+// a pool of sobel-worker.js workers, so the page's thread only runs the UI.
+//
+// Frame sources: an uploaded image, a generated 1080p sample (moving
+// blocks, like core SyntheticFrames) and the app's live edge stream
+// (core EdgeStreamServer). Images are converted to luma once; each frame
+// is split into one stripe per worker, and stripe buffers travel to the
+// workers and back as transferables, so they are allocated once per frame
+// size. Only one frame is in flight; a change arriving meanwhile is picked
+// up when it completes.
+
+const EDGE = 0xFF000000;
+const BACKGROUND = 0xFFFFFFFF;
+const GRAY = new Uint32Array(256);
+for (let i = 0; i < 256; i++) {
+    GRAY[i] = (0xFF000000 | (i << 16) | (i << 8) | i) >>> 0;
+}
+
+// Same default as the app's SobelKernel.DEFAULT_THRESHOLD
+const DEFAULT_THRESHOLD = 750;
+const SAMPLE_WIDTH = 1920;
+const SAMPLE_HEIGHT = 1080;
+const BLOCK_SIZE = 64;
+const STEP = 4;
+const NOISE_AMPLITUDE = 8;
+
+// EdgeStreamCodec message types
+const STREAM_HEADER_SIZE = 24;
+const STREAM_VERSION = 1;
+const TYPE_KEY_RLE = 1;
+const TYPE_KEY_RAW = 2;
+const TYPE_DELTA_RLE = 3;
+
+let ctx = null;
+const pool = [];
+let mode = 'edge';
+let threshold = DEFAULT_THRESHOLD;
+let running = false;
+
+// Current source; a new one waits in nextSource until no frame is in flight
+let width = 0;
+let height = 0;
+let luma = new Uint8Array(0);
+let bitmap = null;
+let sample = false;
+let sampleOffset = 0;
+let sampleNoise = null;
+let nextSource = null;
+let decodeCanvas = null;
+let decodeContext = null;
+
+// Output, reallocated only when the frame size changes
+let output = null;
+let outputPixels = null;
+
+// Frame in flight
+let pending = 0;
+let dirty = false;
+let frameStart = 0;
+let frameEdges = 0;
+const stripes = [];
+
+// Stats over the last second
+let statStart = 0;
+let statFrames = 0;
+let statTime = 0;
+let statEdges = 0;
+let statPixels = 0;
+let statBytes = 0;
+
+// Live stream
+let socket = null;
+const stream = {
+    keySequence: -1,
+    width: 0,
+    height: 0,
+    packed: new Uint8Array(0),
+    reference: new Uint8Array(0),
+    received: 0,
+    undecodable: 0
+};
+
+const schedule = self.requestAnimationFrame
+    ? (callback) => self.requestAnimationFrame(callback)
+    : (callback) => setTimeout(callback, 16);
+
+self.onmessage = (event) => {
+    const message = event.data;
+    switch (message.type) {
+        case 'init':
+            ctx = message.canvas.getContext('2d');
+            for (let i = 0; i < message.workers; i++) {
+                const slot = { worker: new Worker('sobel-worker.js'), src: null, dst: null };
+                slot.worker.onmessage = (reply) => onStripeDone(slot, reply.data);
+                pool.push(slot);
+            }
+            break;
+        case 'image':
+            disconnect();
+            setSource({ bitmap: message.bitmap });
+            break;
+        case 'sample':
+            disconnect();
+            setSource({ sample: true });
+            break;
+        case 'mode':
+            mode = message.mode;
+            requestFrame();
+            break;
+        case 'threshold':
+            threshold = message.threshold;
+            requestFrame();
+            break;
+        case 'run':
+            running = message.running;
+            resetStats();
+            requestFrame();
+            break;
+        case 'connect':
+            connect(message.url);
+            break;
+        case 'disconnect':
+            disconnect();
+            break;
+        case 'clear':
+            running = false;
+            disconnect();
+            setSource({ clear: true });
+            break;
+    }
+};
+
+function setSource(source) {
+    if (nextSource && nextSource.bitmap) {
+        nextSource.bitmap.close();
+    }
+    nextSource = source;
+    requestFrame();
+}
+
+function requestFrame() {
+    if (!ctx || socket) {
+        return;
+    }
+    if (pending > 0) {
+        dirty = true;
+        return;
+    }
+    render();
+}
+
+function applySource(source) {
+    if (bitmap) {
+        bitmap.close();
+        bitmap = null;
+    }
+    sample = false;
+    if (source.clear) {
+        width = 0;
+        height = 0;
+        return;
+    }
+    if (source.sample) {
+        sample = true;
+        sampleOffset = 0;
+        resizeFrame(SAMPLE_WIDTH, SAMPLE_HEIGHT);
+        generateSample();
+        return;
+    }
+
+    bitmap = source.bitmap;
+    resizeFrame(bitmap.width, bitmap.height);
+    // Luma once per image: BT.601, as the headless runner converts stills
+    if (!decodeCanvas || decodeCanvas.width !== width || decodeCanvas.height !== height) {
+        decodeCanvas = new OffscreenCanvas(width, height);
+        decodeContext = decodeCanvas.getContext('2d', { willReadFrequently: true });
+    }
+    decodeContext.drawImage(bitmap, 0, 0);
+    const rgba = decodeContext.getImageData(0, 0, width, height).data;
+    for (let i = 0, p = 0; i < luma.length; i++, p += 4) {
+        luma[i] = ((299 * rgba[p] + 587 * rgba[p + 1] + 114 * rgba[p + 2] + 500) / 1000) | 0;
+    }
+}
+
+function resizeFrame(newWidth, newHeight) {
+    if (newWidth === width && newHeight === height && output) {
+        return;
+    }
+    width = newWidth;
+    height = newHeight;
+    luma = new Uint8Array(width * height);
+    output = new ImageData(width, height);
+    outputPixels = new Uint32Array(output.data.buffer);
+    ctx.canvas.width = width;
+    ctx.canvas.height = height;
+}
+
+function render() {
+    if (nextSource) {
+        applySource(nextSource);
+        nextSource = null;
+    } else if (sample && running) {
+        // The "camera" moving on; not part of the processing time
+        sampleOffset += STEP;
+        generateSample();
+    }
+    if (width === 0) {
+        ctx.fillStyle = '#000000';
+        ctx.fillRect(0, 0, ctx.canvas.width, ctx.canvas.height);
+        return;
+    }
+
+    frameStart = performance.now();
+    if (mode === 'raw') {
+        if (bitmap) {
+            ctx.drawImage(bitmap, 0, 0);
+        } else {
+            for (let i = 0; i < luma.length; i++) {
+                outputPixels[i] = GRAY[luma[i]];
+            }
+            ctx.putImageData(output, 0, 0);
+        }
+        finishFrame(0);
+        return;
+    }
+
+    // One stripe per worker, each with a halo row above and below
+    const count = Math.min(pool.length, height);
+    const rowsPerStripe = Math.ceil(height / count);
+    stripes.length = 0;
+    frameEdges = 0;
+    for (let i = 0; i < count; i++) {
+        const rowStart = i * rowsPerStripe;
+        const rowEnd = Math.min(height, rowStart + rowsPerStripe);
+        if (rowStart >= rowEnd) {
+            break;
+        }
+        const srcRow = Math.max(0, rowStart - 1);
+        const srcEnd = Math.min(height, rowEnd + 1);
+        const slot = pool[i];
+        const srcBytes = (rowsPerStripe + 2) * width;
+        const dstBytes = rowsPerStripe * width * 4;
+        if (!slot.src || slot.src.byteLength < srcBytes) {
+            slot.src = new ArrayBuffer(srcBytes);
+        }
+        if (!slot.dst || slot.dst.byteLength < dstBytes) {
+            slot.dst = new ArrayBuffer(dstBytes);
+        }
+        new Uint8Array(slot.src).set(luma.subarray(srcRow * width, srcEnd * width));
+        stripes.push({ rowStart, rowEnd });
+        slot.worker.postMessage({
+            stripe: i, width, height, rowStart, rowEnd, srcRow, threshold,
+            src: slot.src, dst: slot.dst
+        }, [slot.src, slot.dst]);
+        slot.src = null;
+        slot.dst = null;
+        pending++;
+    }
+}
+
+function onStripeDone(slot, result) {
+    slot.src = result.src;
+    slot.dst = result.dst;
+    const stripe = stripes[result.stripe];
+    const pixels = (stripe.rowEnd - stripe.rowStart) * width;
+    outputPixels.set(new Uint32Array(result.dst, 0, pixels), stripe.rowStart * width);
+    frameEdges += result.edges;
+    if (--pending === 0) {
+        ctx.putImageData(output, 0, 0);
+        finishFrame(frameEdges);
+    }
+}
+
+function finishFrame(edges) {
+    recordFrame(performance.now() - frameStart, edges, 0);
+    if (dirty || running) {
+        dirty = false;
+        schedule(requestFrame);
+    }
+}
+
+function resetStats() {
+    statStart = performance.now();
+    statFrames = 0;
+    statTime = 0;
+    statEdges = 0;
+    statPixels = 0;
+    statBytes = 0;
+}
+
+function recordFrame(elapsed, edges, bytes) {
+    const now = performance.now();
+    statFrames++;
+    statTime += elapsed;
+    statEdges += edges;
+    statPixels += Math.max(0, width - 2) * Math.max(0, height - 2);
+    statBytes += bytes;
+    // Single frames (no run, no stream) are reported at once
+    if (now - statStart >= 1000 || !(running || socket)) {
+        const seconds = Math.max(now - statStart, 1) / 1000;
+        self.postMessage({
+            type: 'stats',
+            fps: running || socket ? statFrames / seconds : 0,
+            processingMs: statTime / statFrames,
+            width,
+            height,
+            edgePercent: mode === 'raw' && !socket ? null : 100 * statEdges / Math.max(1, statPixels),
+            kbPerFrame: socket ? statBytes / 1024 / statFrames : null,
+            workers: pool.length
+        });
+        resetStats();
+    }
+}
+
+/**
+ * Next frame of the sample: a gradient with a block grid moving STEP px
+ * per frame plus fixed sensor-like noise, as core SyntheticFrames.
+ */
+function generateSample() {
+    if (!sampleNoise || sampleNoise.length !== luma.length) {
+        sampleNoise = new Int8Array(luma.length);
+        let seed = 42;
+        for (let i = 0; i < sampleNoise.length; i++) {
+            seed = (Math.imul(seed, 1103515245) + 12345) >>> 0;
+            sampleNoise[i] = ((seed >>> 16) % (2 * NOISE_AMPLITUDE + 1)) - NOISE_AMPLITUDE;
+        }
+    }
+    const span = width + height;
+    for (let y = 0, i = 0; y < height; y++) {
+        const blockY = (y / BLOCK_SIZE) | 0;
+        for (let x = 0; x < width; x++, i++) {
+            let value = (((x + y) * 255) / span) | 0;
+            if (((((x + sampleOffset) / BLOCK_SIZE) | 0) + blockY) % 2 === 0) {
+                value = 255 - value;
+            }
+            value += sampleNoise[i];
+            luma[i] = value < 0 ? 0 : value > 255 ? 255 : value;
+        }
+    }
+}
+
+function connect(url) {
+    disconnect();
+    running = false;
+    stream.keySequence = -1;
+    stream.received = 0;
+    stream.undecodable = 0;
+    resetStats();
+    socket = new WebSocket(url);
+    socket.binaryType = 'arraybuffer';
+    socket.onopen = () => self.postMessage({ type: 'status', live: true, text: 'Live stream' });
+    socket.onclose = () => {
+        socket = null;
+        self.postMessage({ type: 'status', live: false, text: 'Disconnected' });
+    };
+    socket.onerror = () => self.postMessage({ type: 'status', live: false, text: 'Stream error' });
+    socket.onmessage = (event) => showStreamFrame(event.data);
+}
+
+function disconnect() {
+    if (socket) {
+        socket.onclose = null;
+        socket.close();
+        socket = null;
+        self.postMessage({ type: 'status', live: false, text: mode === 'edge' ? 'Edge Detection' : 'Raw Feed' });
+    }
+}
+
+/**
+ * Decodes one EdgeStreamCodec message and draws it. Deltas refer to the
+ * last key frame; one whose key frame was missed is skipped.
+ */
+function showStreamFrame(buffer) {
+    const start = performance.now();
+    const view = new DataView(buffer);
+    if (buffer.byteLength < STREAM_HEADER_SIZE || view.getUint8(1) !== STREAM_VERSION) {
+        stream.undecodable++;
+        return;
+    }
+    const type = view.getUint8(0);
+    const keySequence = view.getUint32(8, true);
+    const frameWidth = view.getUint16(12, true);
+    const frameHeight = view.getUint16(14, true);
+    const rowBytes = (frameWidth + 7) >> 3;
+    const size = rowBytes * frameHeight;
+    const payload = new Uint8Array(buffer, STREAM_HEADER_SIZE);
+    stream.received++;
+
+    if (type === TYPE_DELTA_RLE) {
+        if (keySequence !== stream.keySequence || frameWidth !== stream.width || frameHeight !== stream.height) {
+            stream.undecodable++;
+            return;
+        }
+        stream.packed.set(stream.reference.subarray(0, size));
+        flipRuns(payload, frameWidth, frameHeight, stream.packed);
+    } else if (type === TYPE_KEY_RLE || type === TYPE_KEY_RAW) {
+        if (stream.packed.length < size) {
+            stream.packed = new Uint8Array(size);
+            stream.reference = new Uint8Array(size);
+        }
+        if (type === TYPE_KEY_RAW) {
+            stream.packed.set(payload.subarray(0, size));
+        } else {
+            stream.packed.fill(0, 0, size);
+            flipRuns(payload, frameWidth, frameHeight, stream.packed);
+        }
+        stream.reference.set(stream.packed.subarray(0, size));
+        stream.keySequence = keySequence;
+        stream.width = frameWidth;
+        stream.height = frameHeight;
+    } else {
+        stream.undecodable++;
+        return;
+    }
+
+    resizeFrame(frameWidth, frameHeight);
+    // 1 bit per pixel, MSB first, rows padded to whole bytes (core EdgeBits)
+    const packed = stream.packed;
+    let edges = 0;
+    for (let y = 0, o = 0; y < frameHeight; y++) {
+        const row = y * rowBytes;
+        for (let x = 0; x < frameWidth; x++, o++) {
+            const bits = packed[row + (x >> 3)];
+            if (bits !== 0 && (bits & (0x80 >> (x & 7))) !== 0) {
+                outputPixels[o] = EDGE;
+                edges++;
+            } else {
+                outputPixels[o] = BACKGROUND;
+            }
+        }
+    }
+    ctx.putImageData(output, 0, 0);
+    recordFrame(performance.now() - start, edges, buffer.byteLength);
+}
+
+/**
+ * Applies alternating varint run lengths: every second run (edges, or
+ * changed pixels for a delta) is flipped in packed.
+ */
+function flipRuns(payload, frameWidth, frameHeight, packed) {
+    const rowBytes = (frameWidth + 7) >> 3;
+    const total = frameWidth * frameHeight;
+    let pixel = 0;
+    let flip = false;
+    let i = 0;
+    while (i < payload.length) {
+        let run = 0;
+        let shift = 0;
+        let b;
+        do {
+            b = payload[i++];
+            run += (b & 0x7F) * Math.pow(2, shift);
+            shift += 7;
+        } while ((b & 0x80) !== 0 && i < payload.length);
+        if (pixel + run > total) {
+            return;
+        }
+        if (flip) {
+            let y = (pixel / frameWidth) | 0;
+            let x = pixel - y * frameWidth;
+            for (let remaining = run; remaining > 0;) {
+                const count = Math.min(remaining, frameWidth - x);
+                const rowOffset = y * rowBytes;
+                for (let end = x + count; x < end; x++) {
+                    packed[rowOffset + (x >> 3)] ^= 0x80 >> (x & 7);
+                }
+                remaining -= count;
+                x = 0;
+                y++;
+            }
+        }
+        pixel += run;
+        flip = !flip;
+    }
+}
@@ -0,0 +1,83 @@
+'use strict';
+
+// Sobel/threshold on one horizontal stripe of a luma frame, same output as
+// the Android FrameProcessor (core FastSobelKernel): a pixel is an edge
+// when floor(sqrt(gx^2 + gy^2)) > threshold, i.e. gx^2 + gy^2 >= (t + 1)^2.
+// Edges are black, everything else white; border pixels keep their luma.
+//
+// The render worker sends the stripe's rows plus one halo row above and
+// below in `src`, and an RGBA buffer for the stripe in `dst`; both are
+// transferred and sent back, so neither side allocates per frame.
+
+const EDGE = 0xFF000000;        // opaque black (RGBA bytes, little-endian)
+const BACKGROUND = 0xFFFFFFFF;  // opaque white
+const GRAY = new Uint32Array(256);
+for (let i = 0; i < 256; i++) {
+    GRAY[i] = (0xFF000000 | (i << 16) | (i << 8) | i) >>> 0;
+}
+
+// Vertical [1 2 1] smoothing and [-1 0 1] difference of the current row
+let smooth = new Int32Array(0);
+let diff = new Int32Array(0);
+
+self.onmessage = (event) => {
+    const job = event.data;
+    const start = performance.now();
+    const edges = sobelRows(new Uint8Array(job.src), new Uint32Array(job.dst), job.width, job.height,
+                            job.rowStart, job.rowEnd, job.srcRow, job.threshold);
+    self.postMessage({
+        stripe: job.stripe,
+        src: job.src,
+        dst: job.dst,
+        edges,
+        elapsed: performance.now() - start
+    }, [job.src, job.dst]);
+};
+
+/**
+ * Rows [rowStart, rowEnd) of a width x height frame; src holds luma from
+ * row srcRow on, dst the stripe's output pixels. Returns the edge count.
+ */
+function sobelRows(src, dst, width, height, rowStart, rowEnd, srcRow, threshold) {
+    const limit = threshold + 1;
+    const squaredThreshold = limit * limit;
+    if (smooth.length < width) {
+        smooth = new Int32Array(width);
+        diff = new Int32Array(width);
+    }
+    let edges = 0;
+    for (let y = rowStart; y < rowEnd; y++) {
+        const out = (y - rowStart) * width;
+        const center = (y - srcRow) * width;
+        if (y === 0 || y === height - 1 || width < 3) {
+            for (let x = 0; x < width; x++) {
+                dst[out + x] = GRAY[src[center + x]];
+            }
+            continue;
+        }
+
+        const above = center - width;
+        const below = center + width;
+        for (let x = 0; x < width; x++) {
+            const a = src[above + x];
+            const b = src[below + x];
+            smooth[x] = a + 2 * src[center + x] + b;
+            diff[x] = b - a;
+        }
+
+        // gx = [-1 0 1] * smooth, gy = [1 2 1] * diff
+        dst[out] = GRAY[src[center]];
+        dst[out + width - 1] = GRAY[src[center + width - 1]];
+        for (let x = 1; x < width - 1; x++) {
+            const gx = smooth[x + 1] - smooth[x - 1];
+            const gy = diff[x - 1] + 2 * diff[x] + diff[x + 1];
+            if (gx * gx + gy * gy >= squaredThreshold) {
+                dst[out + x] = EDGE;
+                edges++;
+            } else {
+                dst[out + x] = BACKGROUND;
+            }
+        }
+    }
+    return edges;
+}